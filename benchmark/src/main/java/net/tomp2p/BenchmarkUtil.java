@@ -12,6 +12,8 @@ import net.tomp2p.utils.InteropRandom;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
 
 public class BenchmarkUtil {
 
@@ -152,6 +154,43 @@ public class BenchmarkUtil {
 		}
 	}
 
+	/**
+	 * Returns the number of bytes allocated on the heap by all live threads so far, including
+	 * the Netty event loops. Garbage collection does not decrease this value.
+	 * 
+	 * @return The allocated bytes or -1 if this is not supported by the JVM
+	 */
+	@SuppressWarnings("restriction")
+	public static long allocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+		long allocated = 0;
+		for (long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+			if (bytes > 0) {
+				allocated += bytes;
+			}
+		}
+		return allocated;
+	}
+
+	/**
+	 * Returns the number of open file descriptors of this process, which
+	 * includes the sockets.
+	 * 
+	 * @return The number of open file descriptors or -1 if this is not supported by the OS
+	 */
+	@SuppressWarnings("restriction")
+	public static long openFileDescriptors() {
+		OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+		if (!(osBean instanceof com.sun.management.UnixOperatingSystemMXBean)) {
+			return -1;
+		}
+		return ((com.sun.management.UnixOperatingSystemMXBean) osBean).getOpenFileDescriptorCount();
+	}
+
 	/**
 	 * Returns the amount of memory on the heap that is currently being used by the JVM.
 	 * 
@@ -101,6 +101,95 @@ public class Inbox {
 						break;
 				}
 				break;
+			case "routing":
+				switch (args.getType()) {
+					case "cpu":
+						results = new RoutingProfiler().profileCpu(args);
+						break;
+					case "memory":
+						results = new RoutingProfiler().profileMemory(args);
+						break;
+				}
+				break;
+			case "routing-slow":
+			case "routing-slow-adaptive":
+				boolean isAdaptive = args.getBmArg().equals("routing-slow-adaptive");
+				switch (args.getType()) {
+					case "cpu":
+						results = new RoutingProfiler(true, isAdaptive).profileCpu(args);
+						break;
+					case "memory":
+						results = new RoutingProfiler(true, isAdaptive).profileMemory(args);
+						break;
+				}
+				break;
+			case "peermap-churn":
+				switch (args.getType()) {
+					case "cpu":
+						results = new PeerMapProfiler().profileCpu(args);
+						break;
+					case "memory":
+						results = new PeerMapProfiler().profileMemory(args);
+						break;
+				}
+				break;
+			case "rpc-ping-udp":
+			case "rpc-ping-tcp":
+			case "rpc-storage":
+				boolean isStorage = args.getBmArg().equals("rpc-storage");
+				boolean isForceUdp = args.getBmArg().equals("rpc-ping-udp");
+				switch (args.getType()) {
+					case "cpu":
+						results = new RpcRoundtripProfiler(isStorage, isForceUdp).profileCpu(args);
+						break;
+					case "memory":
+						results = new RpcRoundtripProfiler(isStorage, isForceUdp).profileMemory(args);
+						break;
+					case "allocation":
+						results = new RpcRoundtripProfiler(isStorage, isForceUdp).profileAllocation(args);
+						break;
+				}
+				break;
+			case "storage-layer-1":
+			case "storage-layer-2":
+			case "storage-layer-4":
+			case "storage-layer-8":
+			case "storage-layer-16":
+			case "storage-layer-32":
+				int nrThreads = Integer.parseInt(args.getBmArg().substring("storage-layer-".length()));
+				switch (args.getType()) {
+					case "cpu":
+						results = new StorageLayerProfiler(nrThreads).profileCpu(args);
+						break;
+					case "memory":
+						results = new StorageLayerProfiler(nrThreads).profileMemory(args);
+						break;
+				}
+				break;
+			case "storage-disk":
+			case "storage-disk-group":
+				boolean isGroupCommit = args.getBmArg().equals("storage-disk-group");
+				switch (args.getType()) {
+					case "cpu":
+						results = new StorageDiskProfiler(isGroupCommit).profileCpu(args);
+						break;
+					case "memory":
+						results = new StorageDiskProfiler(isGroupCommit).profileMemory(args);
+						break;
+				}
+				break;
+			case "storage-memory-10m":
+			case "storage-offheap-10m":
+				boolean isOffHeap = args.getBmArg().equals("storage-offheap-10m");
+				switch (args.getType()) {
+					case "cpu":
+						results = new StorageOffHeapProfiler(isOffHeap).profileCpu(args);
+						break;
+					case "memory":
+						results = new StorageOffHeapProfiler(isOffHeap).profileMemory(args);
+						break;
+				}
+				break;
 			default:
 				throw new IllegalArgumentException("No valid benchmark argument.");
 		}
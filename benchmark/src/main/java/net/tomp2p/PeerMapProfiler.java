@@ -0,0 +1,60 @@
+package net.tomp2p;
+
+import java.util.Random;
+
+import net.tomp2p.connection.PeerException;
+import net.tomp2p.connection.PeerException.AbortCause;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapConfiguration;
+
+/**
+ * Replays churn of 100k peers on a {@link PeerMap}: peers are found, fail and are looked up with closePeers, as it
+ * happens during routing. Each repetition executes the same sequence, so the repetition time shows the churn update
+ * and lookup cost, and the memory profile shows the allocations of closePeers.
+ */
+public class PeerMapProfiler extends Profiler {
+
+	private static final int NR_PEERS = 100000;
+	private static final int NR_LOOKUPS = 100000;
+	private static final int CLOSE_PEERS = 20;
+
+	private PeerMap peerMap;
+	private PeerAddress[] peers;
+	private Number160[] lookups;
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		Random rnd = new Random(42);
+		Number160 self = new Number160(rnd);
+		peerMap = new PeerMap(new PeerMapConfiguration(self).offlineTimeout(1).shutdownTimeout(1)
+				.exceptionTimeout(1).offlineCount(1));
+		peers = new PeerAddress[NR_PEERS];
+		for (int i = 0; i < NR_PEERS; i++) {
+			peers[i] = PeerAddress.create(new Number160(rnd));
+		}
+		lookups = new Number160[NR_LOOKUPS];
+		for (int i = 0; i < NR_LOOKUPS; i++) {
+			lookups[i] = new Number160(rnd);
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		// nothing to do
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final PeerException failed = new PeerException(AbortCause.PROBABLY_OFFLINE, "churn");
+		for (int i = 0; i < NR_PEERS; i++) {
+			peerMap.peerFound(peers[i], null, null, null);
+			// every 4th peer leaves again
+			if (i % 4 == 3) {
+				peerMap.peerFailed(peers[i - 2], failed);
+			}
+			peerMap.closePeers(lookups[i % NR_LOOKUPS], CLOSE_PEERS);
+		}
+	}
+}
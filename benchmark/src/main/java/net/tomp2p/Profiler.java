@@ -123,6 +123,58 @@ public abstract class Profiler {
 		}
 	}
 	
+	public double[] profileAllocation(Arguments args) throws Exception {
+		
+		try {
+			System.out.println("Setting up...");
+			setup(args);
+			
+			long[] warmups = new long[args.getNrWarmups()];
+	        long[] repetitions = new long[args.getNrRepetitions()];
+
+	        BenchmarkUtil.reclaimResources();
+	        System.out.printf("Started allocation profiling with %s warmups, %s repetitions...\n", warmups.length, repetitions.length);
+	        long start;
+
+	        // warmups
+	        for (int i = 0; i < warmups.length; i++)
+	        {
+	        	System.out.printf("Warmup %s...\n", i);
+	            start = BenchmarkUtil.allocatedBytes();
+	            execute();
+	            warmups[i] = BenchmarkUtil.allocatedBytes() - start;
+	        }
+	        
+	        // repetitions
+	        for (int i = 0; i < repetitions.length; i++)
+	        {
+	        	System.out.printf("Repetitions %s...\n", i);
+	            start = BenchmarkUtil.allocatedBytes();
+	            execute();
+	            repetitions[i] = BenchmarkUtil.allocatedBytes() - start;
+	        }
+
+	        System.out.println("Stopped allocation profiling.");
+
+	        // combine warmup and benchmark results
+	        long[] results = new long[warmups.length + repetitions.length];
+	        double[] resultsD = new double[results.length];
+	        System.arraycopy(warmups, 0, results, 0, warmups.length);
+	        System.arraycopy(repetitions, 0, results, warmups.length, repetitions.length);
+	        
+	        // convert results from bytes to kilobytes
+	        for (int i = 0; i < results.length; i++)
+	        {
+	        	resultsD[i] = (double) (results[i] / (double) 1000);
+	        }
+	        return resultsD;
+		} finally {
+			System.out.println("Shutting down...");
+			shutdown();
+			System.out.println("Shut down.");
+		}
+	}
+	
 	protected abstract void setup(Arguments args) throws Exception;
 	
 	protected abstract void shutdown() throws Exception;
@@ -0,0 +1,158 @@
+package net.tomp2p;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.Responder;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.DispatchHandler;
+import net.tomp2p.rpc.NeighborRPC;
+import net.tomp2p.rpc.RPC;
+
+/**
+ * Executes lookups with {@link net.tomp2p.p2p.DistributedRouting} in a local
+ * network with perfect routing tables. Besides the time, the lookups per
+ * second, the number of open file descriptors (which includes the UDP sockets)
+ * and the number of reused UDP channels are printed. With slow peers, every
+ * 25th peer delays its replies, and the median and the 99th percentile of
+ * the lookup times are printed, which shows the effect of the adaptive
+ * routing on the tail latency. The lookups start from a few peers only, so
+ * each of them has enough round-trip times to detect slow requests.
+ */
+public class RoutingProfiler extends Profiler {
+
+	private static final int NETWORK_SIZE = 100;
+	private static final int NR_LOOKUPS = 100;
+	private static final int PARALLEL = 3;
+	private static final int MAX_PARALLEL = 6;
+	private static final int SLOW_EVERY = 25;
+	private static final int SLOW_MILLIS = 200;
+	private static final int NR_CLIENTS = 4;
+
+	private final boolean isSlowPeers;
+	private final boolean isAdaptive;
+
+	private final Random rnd = new Random(42);
+	private long maxFileDescriptors = 0;
+	private long nrLookups = 0;
+	private long lookupNanos = 0;
+	private int reusedUDP = 0;
+	private long[] lookupMillis = new long[0];
+
+	public RoutingProfiler() {
+		this(false, false);
+	}
+
+	public RoutingProfiler(boolean isSlowPeers, boolean isAdaptive) {
+		this.isSlowPeers = isSlowPeers;
+		this.isAdaptive = isAdaptive;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		Network = BenchmarkUtil.createNodes(NETWORK_SIZE, Rnd, 9099, false, true);
+		for (int i = 0; i < Network.length; i++) {
+			for (int j = 0; j < Network.length; j++) {
+				Network[i].peerBean().peerMap().peerFound(Network[j].peerAddress(), null, null, null);
+			}
+		}
+		if (isSlowPeers) {
+			for (int i = 1; i < Network.length; i += SLOW_EVERY) {
+				slowDown(Network[i]);
+			}
+		}
+		System.out.printf("Open file descriptors after setup: %s.\n", BenchmarkUtil.openFileDescriptors());
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (lookupNanos > 0) {
+			System.out.printf("Lookups per second: %.1f, max. open file descriptors: %s, reused UDP channels: %s.\n",
+					nrLookups / (lookupNanos / 1000000000d), maxFileDescriptors, reusedUDP);
+		}
+		if (lookupMillis.length > 0) {
+			Arrays.sort(lookupMillis);
+			System.out.printf("Lookup time median: %s ms, 99th percentile: %s ms, max: %s ms.\n",
+					lookupMillis[lookupMillis.length / 2],
+					lookupMillis[(int) Math.ceil(lookupMillis.length * 0.99) - 1],
+					lookupMillis[lookupMillis.length - 1]);
+			long hedgedRequests = 0;
+			for (int i = 0; i < NR_CLIENTS; i++) {
+				hedgedRequests += Network[i].distributedRouting().hedgedRequests();
+			}
+			System.out.printf("Hedged requests: %s.\n", hedgedRequests);
+		}
+		if (Network != null && Network[0] != null) {
+			Network[0].shutdown().awaitUninterruptibly();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final long start = System.nanoTime();
+		final int offset = lookupMillis.length;
+		lookupMillis = Arrays.copyOf(lookupMillis, offset + NR_LOOKUPS);
+		for (int i = 0; i < NR_LOOKUPS; i++) {
+			FutureChannelCreator fcc = Network[i % NR_CLIENTS].connectionBean().reservation()
+					.create(isAdaptive ? MAX_PARALLEL : PARALLEL, 0);
+			fcc.awaitUninterruptibly();
+			ChannelCreator cc = fcc.channelCreator();
+			try {
+				RoutingBuilder routingBuilder = new RoutingBuilder();
+				routingBuilder.locationKey(new Number160(rnd));
+				routingBuilder.maxDirectHits(Integer.MAX_VALUE);
+				routingBuilder.setMaxNoNewInfo(2);
+				routingBuilder.maxFailures(3);
+				routingBuilder.maxSuccess(20);
+				routingBuilder.parallel(PARALLEL);
+				if (isAdaptive) {
+					routingBuilder.maxParallel(MAX_PARALLEL);
+				}
+				final long lookupStart = System.nanoTime();
+				FutureRouting fr = Network[i % NR_CLIENTS].distributedRouting().route(routingBuilder,
+						Type.REQUEST_1, cc);
+				fr.awaitUninterruptibly();
+				lookupMillis[offset + i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lookupStart);
+				maxFileDescriptors = Math.max(maxFileDescriptors, BenchmarkUtil.openFileDescriptors());
+				reusedUDP += cc.reusedUDP();
+			} finally {
+				cc.shutdown().awaitListenersUninterruptibly();
+			}
+		}
+		lookupNanos += System.nanoTime() - start;
+		nrLookups += NR_LOOKUPS;
+	}
+
+	/**
+	 * Replaces the neighbor handler of the peer with one that replies after
+	 * {@link #SLOW_MILLIS}.
+	 */
+	private static void slowDown(final Peer peer) {
+		final NeighborRPC neighborRPC = peer.neighborRPC();
+		new DispatchHandler(peer.peerBean(), peer.connectionBean()) {
+			@Override
+			public void handleResponse(final Message message, final PeerConnection peerConnection,
+					final boolean sign, final Responder responder) throws Exception {
+				peer.connectionBean().timer().schedule(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							neighborRPC.handleResponse(message, peerConnection, sign, responder);
+						} catch (Exception e) {
+							responder.failed(Type.EXCEPTION, e.toString());
+						}
+					}
+				}, SLOW_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}.register(RPC.Commands.NEIGHBOR.getNr());
+	}
+}
@@ -0,0 +1,101 @@
+package net.tomp2p;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.dht.GetBuilder;
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.dht.PutBuilder;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+/**
+ * Executes PingRPC or StorageRPC (put and get) round-trips between two local
+ * peers. Use it with the type "allocation" to see how many bytes are allocated
+ * for encoding, sending and decoding the messages, as well as with "cpu".
+ */
+public class RpcRoundtripProfiler extends Profiler {
+
+	private static final int NR_ROUNDTRIPS = 1000;
+	private static final int NR_VALUES = 4;
+
+	private final boolean isStorage;
+	private final boolean isForceUdp;
+	private PeerDHT sender;
+	private PeerDHT receiver;
+	private ChannelCreator cc;
+	private DefaultConnectionConfiguration configuration;
+	private NavigableMap<Number640, Data> dataMap;
+
+	/**
+	 * @param isStorage
+	 *            True to profile StorageRPC, false to profile PingRPC
+	 * @param isForceUdp
+	 *            True to ping over UDP, StorageRPC always uses TCP
+	 */
+	public RpcRoundtripProfiler(boolean isStorage, boolean isForceUdp) {
+		this.isStorage = isStorage;
+		this.isForceUdp = isForceUdp && !isStorage;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		sender = new PeerBuilderDHT(new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(9099)
+				.start()).start();
+		receiver = new PeerBuilderDHT(new PeerBuilder(new Number160(Rnd.nextInt(Integer.MAX_VALUE))).ports(9100)
+				.start()).start();
+		FutureChannelCreator fcc = sender.peer().connectionBean().reservation()
+				.create(isForceUdp ? 1 : 0, isForceUdp ? 0 : 1);
+		fcc.awaitUninterruptibly();
+		cc = fcc.channelCreator();
+		configuration = new DefaultConnectionConfiguration();
+
+		dataMap = new TreeMap<Number640, Data>();
+		for (int i = 0; i < NR_VALUES; i++) {
+			// one small and one large value, the large one is not copied when encoded
+			byte[] me = new byte[i % 2 == 0 ? 100 : 10000];
+			dataMap.put(new Number640(new Number160(i + 1), Number160.ZERO, new Number160(i + 1), Number160.ZERO),
+					new Data(me));
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (cc != null) {
+			cc.shutdown().awaitListenersUninterruptibly();
+		}
+		if (sender != null) {
+			sender.shutdown().awaitUninterruptibly();
+		}
+		if (receiver != null) {
+			receiver.shutdown().awaitUninterruptibly();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		for (int i = 0; i < NR_ROUNDTRIPS; i++) {
+			if (isStorage) {
+				PutBuilder putBuilder = sender.put(Number160.ONE).dataMap(dataMap);
+				FutureResponse fr = sender.storeRPC().put(receiver.peerAddress(), putBuilder, cc);
+				fr.awaitUninterruptibly();
+				fr.release();
+				GetBuilder getBuilder = sender.get(Number160.ONE).domainKey(Number160.ZERO);
+				fr = sender.storeRPC().get(receiver.peerAddress(), getBuilder, cc);
+				fr.awaitUninterruptibly();
+				fr.release();
+			} else if (isForceUdp) {
+				sender.peer().pingRPC().pingUDP(receiver.peerAddress(), cc, configuration).awaitUninterruptibly();
+			} else {
+				sender.peer().pingRPC().pingTCP(receiver.peerAddress(), cc, configuration).awaitUninterruptibly();
+			}
+		}
+	}
+}
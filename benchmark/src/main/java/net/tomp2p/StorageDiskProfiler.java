@@ -0,0 +1,112 @@
+package net.tomp2p;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.dht.StorageLayer;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+import net.tomp2p.storage.StorageDisk;
+
+/**
+ * Measures the put throughput of the {@link StorageLayer} backed by a
+ * {@link StorageDisk} with concurrent threads. Compare the per-write commit
+ * ("storage-disk") with the group commit ("storage-disk-group"), which commits
+ * every {@link #COMMIT_EVERY_WRITES} writes or every
+ * {@link #COMMIT_INTERVAL_MILLIS} ms.
+ */
+public class StorageDiskProfiler extends Profiler {
+
+	private static final int NR_THREADS = 8;
+	private static final int NR_OPERATIONS = 4000;
+	private static final int NR_LOCATION_KEYS = 1024;
+	private static final int COMMIT_EVERY_WRITES = 256;
+	private static final int COMMIT_INTERVAL_MILLIS = 50;
+
+	private final boolean isGroupCommit;
+	private ExecutorService executor;
+	private File dir;
+	private StorageDisk storageDisk;
+	private StorageLayer storageLayer;
+	private Number640[] keys;
+	private Data data;
+
+	/**
+	 * @param isGroupCommit
+	 *            True to commit in groups, false to commit every write
+	 */
+	public StorageDiskProfiler(boolean isGroupCommit) {
+		this.isGroupCommit = isGroupCommit;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		executor = Executors.newFixedThreadPool(NR_THREADS);
+		dir = Files.createTempDirectory("tomp2p-bench").toFile();
+		Number160 peerId = new Number160(Rnd.nextInt(Integer.MAX_VALUE));
+		if (isGroupCommit) {
+			storageDisk = new StorageDisk(peerId, dir, new DSASignatureFactory(), COMMIT_EVERY_WRITES,
+					COMMIT_INTERVAL_MILLIS);
+		} else {
+			storageDisk = new StorageDisk(peerId, dir, new DSASignatureFactory());
+		}
+		storageLayer = new StorageLayer(storageDisk);
+		storageLayer.protection(StorageLayer.ProtectionEnable.NONE, StorageLayer.ProtectionMode.NO_MASTER,
+				StorageLayer.ProtectionEnable.NONE, StorageLayer.ProtectionMode.NO_MASTER);
+		Random rnd = new Random(42);
+		keys = new Number640[NR_LOCATION_KEYS];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new Number640(new Number160(rnd), Number160.ZERO, new Number160(rnd), Number160.ZERO);
+		}
+		data = new Data(new byte[128]);
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		if (storageLayer != null) {
+			storageLayer.close();
+			System.out.printf("StorageDisk: %s commits.\n", storageDisk.commits());
+		}
+		if (dir != null) {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final int opsPerThread = NR_OPERATIONS / NR_THREADS;
+		final CountDownLatch latch = new CountDownLatch(NR_THREADS);
+		for (int t = 0; t < NR_THREADS; t++) {
+			final int seed = t;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Random rnd = new Random(seed);
+						for (int i = 0; i < opsPerThread; i++) {
+							storageLayer.put(keys[rnd.nextInt(keys.length)], data.duplicate(), null, false, false,
+									false);
+						}
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+		}
+		latch.await();
+	}
+}
@@ -0,0 +1,93 @@
+package net.tomp2p;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.dht.StorageLayer;
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+/**
+ * Measures put/get throughput of the {@link StorageLayer} with a given number
+ * of threads. Each repetition executes a fixed number of operations, so the
+ * repetition time can be compared across thread counts (1 to 32).
+ */
+public class StorageLayerProfiler extends Profiler {
+
+	private static final int NR_OPERATIONS = 200000;
+	private static final int NR_LOCATION_KEYS = 1024;
+
+	private final int nrThreads;
+	private ExecutorService executor;
+	private StorageLayer storageLayer;
+	private Number640[] keys;
+	private Data data;
+
+	public StorageLayerProfiler(int nrThreads) {
+		this.nrThreads = nrThreads;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		executor = Executors.newFixedThreadPool(nrThreads);
+		storageLayer = new StorageLayer(new StorageMemory());
+		storageLayer.protection(StorageLayer.ProtectionEnable.NONE, StorageLayer.ProtectionMode.NO_MASTER,
+				StorageLayer.ProtectionEnable.NONE, StorageLayer.ProtectionMode.NO_MASTER);
+		Random rnd = new Random(42);
+		keys = new Number640[NR_LOCATION_KEYS];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new Number640(new Number160(rnd), Number160.ZERO, new Number160(rnd), Number160.ZERO);
+		}
+		data = new Data(new byte[128]);
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		if (storageLayer != null) {
+			storageLayer.close();
+			System.out.printf("RangeLock: %s locks, %s contended, %s ms waited.\n",
+					storageLayer.rangeLock().lockCount(), storageLayer.rangeLock().contendedCount(),
+					storageLayer.rangeLock().waitTime(TimeUnit.MILLISECONDS));
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		final int opsPerThread = NR_OPERATIONS / nrThreads;
+		final CountDownLatch latch = new CountDownLatch(nrThreads);
+		for (int t = 0; t < nrThreads; t++) {
+			final int seed = t;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Random rnd = new Random(seed);
+						for (int i = 0; i < opsPerThread; i++) {
+							Number640 key = keys[rnd.nextInt(keys.length)];
+							if (i % 2 == 0) {
+								storageLayer.put(key, data.duplicate(), null, false, false, false);
+							} else {
+								Data result = storageLayer.get(key);
+								if (result != null) {
+									result.release();
+								}
+							}
+						}
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+		}
+		latch.await();
+	}
+}
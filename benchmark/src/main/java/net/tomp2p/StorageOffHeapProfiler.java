@@ -0,0 +1,118 @@
+package net.tomp2p;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.dht.Storage;
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.dht.StorageOffHeap;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+/**
+ * Compares the heap size and the GC pauses of {@link StorageMemory} and
+ * {@link StorageOffHeap} with {@link #NR_ENTRIES} entries. The setup fills the
+ * storage, each repetition executes random gets and puts. The heap after the
+ * fill and the count and time of each garbage collector are printed, as e.g.
+ * G1 also reports the time of its concurrent cycles, which are no pauses. Run
+ * with e.g. -Xmx6g for the heap and -Xmx1g -XX:MaxDirectMemorySize=4g for the
+ * off-heap storage.
+ */
+public class StorageOffHeapProfiler extends Profiler {
+
+	private static final int NR_ENTRIES = 10 * 1000 * 1000;
+	private static final int NR_OPERATIONS = 200000;
+	private static final int VALUE_SIZE = 100;
+
+	private final boolean isOffHeap;
+	private Storage storage;
+	private Number160[] locationKeys;
+	private Map<String, long[]> gcStart;
+
+	/**
+	 * @param isOffHeap
+	 *            True to profile {@link StorageOffHeap}, false for
+	 *            {@link StorageMemory}
+	 */
+	public StorageOffHeapProfiler(boolean isOffHeap) {
+		this.isOffHeap = isOffHeap;
+	}
+
+	@Override
+	protected void setup(Arguments args) throws Exception {
+		storage = isOffHeap ? new StorageOffHeap(new DSASignatureFactory()) : new StorageMemory();
+		Random rnd = new Random(42);
+		locationKeys = new Number160[NR_ENTRIES / 100];
+		for (int i = 0; i < locationKeys.length; i++) {
+			locationKeys[i] = new Number160(rnd);
+		}
+		Map<String, long[]> gcFill = gcSnapshot();
+		long start = System.nanoTime();
+		for (int i = 0; i < NR_ENTRIES; i++) {
+			storage.put(randomKey(rnd), new Data(new byte[VALUE_SIZE]));
+		}
+		System.out.printf("Filled %s entries in %s ms.\n", NR_ENTRIES, (System.nanoTime() - start) / 1000000);
+		printGc("the fill", gcFill);
+		BenchmarkUtil.reclaimResources();
+		Runtime rt = Runtime.getRuntime();
+		System.out.printf("Heap after fill: %s MB.\n", (rt.totalMemory() - rt.freeMemory()) / 1000000);
+		if (isOffHeap) {
+			System.out.printf("Off-heap: %s MB.\n", ((StorageOffHeap) storage).offHeapBytes() / 1000000);
+		}
+	}
+
+	@Override
+	protected void shutdown() throws Exception {
+		if (storage != null) {
+			if (gcStart != null) {
+				printGc("warmups and repetitions", gcStart);
+			}
+			storage.close();
+		}
+	}
+
+	@Override
+	protected void execute() throws Exception {
+		// the explicit collections of the profiler after the setup are not counted
+		if (gcStart == null) {
+			gcStart = gcSnapshot();
+		}
+		Random rnd = new Random(Rnd.nextInt(Integer.MAX_VALUE));
+		for (int i = 0; i < NR_OPERATIONS; i++) {
+			Number640 key = randomKey(rnd);
+			if (i % 2 == 0) {
+				storage.put(key, new Data(new byte[VALUE_SIZE]));
+			} else {
+				storage.get(key);
+			}
+		}
+	}
+
+	private Number640 randomKey(Random rnd) {
+		return new Number640(locationKeys[rnd.nextInt(locationKeys.length)], Number160.ZERO, new Number160(rnd),
+				Number160.ZERO);
+	}
+
+	private static Map<String, long[]> gcSnapshot() {
+		Map<String, long[]> snapshot = new LinkedHashMap<String, long[]>();
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			snapshot.put(bean.getName(), new long[] { bean.getCollectionCount(), bean.getCollectionTime() });
+		}
+		return snapshot;
+	}
+
+	private static void printGc(String phase, Map<String, long[]> start) {
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			long[] before = start.get(bean.getName());
+			if (before != null) {
+				System.out.printf("GC during %s, %s: %s collections, %s ms.\n", phase, bean.getName(),
+						bean.getCollectionCount() - before[0], bean.getCollectionTime() - before[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package net.tomp2p.jmh;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the microbenchmarks of this package and writes the results as JSON, so that runs can be compared to catch
+ * regressions. Usage: BenchmarkRunner [regexp] [result file]. The default runs all benchmarks and writes to
+ * jmh-result.json. For more options, use org.openjdk.jmh.Main, e.g. with "-rf csv".
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+		String result = args.length > 1 ? args[1] : "jmh-result.json";
+		Options options = new OptionsBuilder()
+				.include(include)
+				.resultFormat(ResultFormatType.JSON)
+				.result(result)
+				.build();
+		new Runner(options).run();
+		System.out.printf("Results written to %s.\n", result);
+	}
+}
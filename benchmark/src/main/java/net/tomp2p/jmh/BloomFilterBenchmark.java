@@ -0,0 +1,102 @@
+package net.tomp2p.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.SimpleBloomFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for {@link SimpleBloomFilter#add(Object)} and {@link SimpleBloomFilter#contains(Object)} with a
+ * filter sized for {@link #expectedElements} keys and a false positive probability of 1%, and for the construction of a
+ * filter over 1M keys with {@link SimpleBloomFilter#addAll(java.util.Collection)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomFilterBenchmark {
+
+	private static final int NR_KEYS = 1024;
+
+	@Param({ "1000", "100000" })
+	public int expectedElements;
+
+	private SimpleBloomFilter<Number160> bloomFilter;
+	private Number160[] keys;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		bloomFilter = new SimpleBloomFilter<Number160>(0.01, expectedElements);
+		keys = new Number160[NR_KEYS];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new Number160(rnd);
+			// half of the keys are in the filter
+			if (i % 2 == 0) {
+				bloomFilter.add(keys[i]);
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean add() {
+		return bloomFilter.add(nextKey());
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return bloomFilter.contains(nextKey());
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public SimpleBloomFilter<Number160> construct(Keys1M keys1M) {
+		SimpleBloomFilter<Number160> filter = new SimpleBloomFilter<Number160>(0.01, keys1M.keys.size());
+		filter.addAll(keys1M.keys);
+		return filter;
+	}
+
+	/**
+	 * The keys for {@link BloomFilterBenchmark#construct(Keys1M)}, shared so they are created once per fork.
+	 */
+	@State(Scope.Benchmark)
+	public static class Keys1M {
+
+		private static final int NR_KEYS_CONSTRUCT = 1000 * 1000;
+
+		private List<Number160> keys;
+
+		@Setup
+		public void setup() {
+			Random rnd = new Random(42);
+			keys = new ArrayList<Number160>(NR_KEYS_CONSTRUCT);
+			for (int i = 0; i < NR_KEYS_CONSTRUCT; i++) {
+				keys.add(new Number160(rnd));
+			}
+		}
+	}
+
+	private Number160 nextKey() {
+		next = (next + 1) & (NR_KEYS - 1);
+		return keys[next];
+	}
+}
@@ -0,0 +1,149 @@
+package net.tomp2p.jmh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.dht.FutureBulk;
+import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.p2p.RequestP2PConfiguration;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wall time to get {@link #keys} location keys from peers in the same JVM,
+ * with one get per key or with one getAll. The counters report the storage
+ * messages, without the routing, so messages / keys is the number of messages
+ * per key: one get sends at least one message per key, one getAll sends about
+ * one message per responsible peer. JMH reports such counters only in the
+ * average time and throughput modes, not for single shots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class BulkGetBenchmark {
+
+	@Param({ "10000" })
+	public int keys;
+
+	@Param({ "100" })
+	public int peers;
+
+	private PeerDHT[] nodes;
+	private List<Number160> locationKeys;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long messages;
+		public long keys;
+
+		@Setup(Level.Iteration)
+		public void clean() {
+			messages = 0;
+			keys = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		Random rnd = new Random(42);
+		nodes = new PeerDHT[peers];
+		Peer master = new PeerBuilder(new Number160(rnd)).ports(4001).start();
+		for (int i = 0; i < peers; i++) {
+			Peer peer = i == 0 ? master : new PeerBuilder(new Number160(rnd)).masterPeer(master).start();
+			nodes[i] = new PeerBuilderDHT(peer).start();
+		}
+		for (int i = 0; i < peers; i++) {
+			for (int j = 0; j < peers; j++) {
+				nodes[i].peerBean().peerMap().peerFound(nodes[j].peerAddress(), null, null, null);
+			}
+		}
+		locationKeys = new ArrayList<Number160>(keys);
+		Map<Number640, Data> dataMap = new HashMap<Number640, Data>();
+		for (int i = 0; i < keys; i++) {
+			Number160 locationKey = new Number160(rnd);
+			locationKeys.add(locationKey);
+			dataMap.put(new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO), new Data(i));
+		}
+		FutureBulk<Byte> futurePut = nodes[1].putAll(dataMap).start();
+		futurePut.awaitUninterruptibly();
+		if (!futurePut.isSuccess()) {
+			throw new IllegalStateException(futurePut.failedReason());
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		nodes[0].shutdown().awaitUninterruptibly();
+	}
+
+	@Benchmark
+	public int getAll(Counters counters) {
+		FutureBulk<Data> futureBulk = nodes[peers / 2].getAll(locationKeys).start();
+		futureBulk.awaitUninterruptibly();
+		if (!futureBulk.isSuccess()) {
+			throw new IllegalStateException(futureBulk.failedReason());
+		}
+		counters.messages += futureBulk.messages();
+		counters.keys += keys;
+		return futureBulk.dataMap().size();
+	}
+
+	@Benchmark
+	public int get(Counters counters) {
+		// the same parallelism as getAll, 20 routings at the same time
+		List<FutureGet> futures = new ArrayList<FutureGet>(20);
+		int found = 0;
+		for (Number160 locationKey : locationKeys) {
+			futures.add(nodes[peers / 2].get(locationKey)
+					.requestP2PConfiguration(new RequestP2PConfiguration(1, 5, 0)).start());
+			if (futures.size() == 20) {
+				found += await(futures, counters);
+			}
+		}
+		found += await(futures, counters);
+		counters.keys += keys;
+		return found;
+	}
+
+	private static int await(List<FutureGet> futures, Counters counters) {
+		int found = 0;
+		for (FutureGet futureGet : futures) {
+			futureGet.awaitUninterruptibly();
+			if (!futureGet.isSuccess()) {
+				throw new IllegalStateException(futureGet.failedReason());
+			}
+			counters.messages += futureGet.requests().size();
+			found += futureGet.dataMap().size();
+		}
+		futures.clear();
+		return found;
+	}
+}
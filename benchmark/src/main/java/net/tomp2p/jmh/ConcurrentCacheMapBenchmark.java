@@ -0,0 +1,94 @@
+package net.tomp2p.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for put and get of a {@link ConcurrentCacheMap} that is shared by 4 threads, as the caches of the
+ * peer bean are. The map holds at most {@link #MAX_ENTRIES} entries and twice as many keys are used, so puts evict. The
+ * readMostly group measures the contention of 7 readers and 1 writer, as for the offline maps of the peer map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ConcurrentCacheMapBenchmark {
+
+	private static final int MAX_ENTRIES = 1024;
+	private static final int NR_KEYS = 2 * MAX_ENTRIES;
+
+	private ConcurrentCacheMap<Number160, Number160> cacheMap;
+	private Number160[] keys;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		@Setup
+		public void setup() {
+			next = new Random().nextInt(NR_KEYS);
+		}
+
+		private int next() {
+			next = (next + 1) & (NR_KEYS - 1);
+			return next;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		cacheMap = new ConcurrentCacheMap<Number160, Number160>(60, MAX_ENTRIES);
+		keys = new Number160[NR_KEYS];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new Number160(rnd);
+			cacheMap.put(keys[i], keys[i]);
+		}
+	}
+
+	@Benchmark
+	public Number160 put(Cursor cursor) {
+		Number160 key = keys[cursor.next()];
+		return cacheMap.put(key, key);
+	}
+
+	@Benchmark
+	public Number160 get(Cursor cursor) {
+		return cacheMap.get(keys[cursor.next()]);
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(7)
+	public Number160 readMostlyGet(Cursor cursor) {
+		return cacheMap.get(keys[cursor.next()]);
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(1)
+	public Number160 readMostlyPut(Cursor cursor) {
+		Number160 key = keys[cursor.next()];
+		return cacheMap.put(key, key);
+	}
+}
@@ -0,0 +1,88 @@
+package net.tomp2p.jmh;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for the SHA-1 hashing in {@link Utils}. {@link #getInstance()} is the old path with a new
+ * {@link MessageDigest} per call, {@link #threadLocal()} uses the digest of the thread, {@link #direct()} hashes a
+ * direct buffer without a copy, and {@link #dataHash()} is {@link Data#hash()} of a value with several components.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+	@Param({ "64", "1024", "65536" })
+	public int size;
+
+	private byte[] value;
+	private ByteBuf direct;
+	private ByteBuf composite;
+
+	@Setup
+	public void setup() {
+		value = new byte[size];
+		new Random(42).nextBytes(value);
+		direct = Unpooled.directBuffer(size).writeBytes(value);
+		// four components, as a value that was received in several packets
+		final int quarter = size / 4;
+		composite = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(value, 0, quarter),
+		        Unpooled.wrappedBuffer(value, quarter, quarter), Unpooled.wrappedBuffer(value, 2 * quarter, quarter),
+		        Unpooled.wrappedBuffer(value, 3 * quarter, size - 3 * quarter));
+	}
+
+	@TearDown
+	public void tearDown() {
+		direct.release();
+	}
+
+	@Benchmark
+	public Number160 getInstance() throws NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		md.update(ByteBuffer.wrap(value));
+		return new Number160(md.digest());
+	}
+
+	@Benchmark
+	public Number160 threadLocal() {
+		return Utils.makeSHAHash(value);
+	}
+
+	@Benchmark
+	public Number160 direct() {
+		return Utils.makeSHAHash(direct);
+	}
+
+	@Benchmark
+	public Number160 dataHash() {
+		// a new Data, the hash is cached
+		return new Data(composite.duplicate()).hash();
+	}
+}
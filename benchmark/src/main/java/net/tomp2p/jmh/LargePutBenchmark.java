@@ -0,0 +1,75 @@
+package net.tomp2p.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.dht.FuturePut;
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.p2p.RequestP2PConfiguration;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of puts with large values between two peers over loopback, which
+ * is mostly the cost of receiving the value with TCP. Multiply the result by
+ * {@link #valueSize} for the bytes per second. The location key is the ID of
+ * the receiver, so only the receiver stores the value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class LargePutBenchmark {
+
+	@Param({ "1048576", "10485760", "104857600" })
+	public int valueSize;
+
+	private PeerDHT sender;
+	private PeerDHT receiver;
+	private Data data;
+
+	@Setup
+	public void setup() throws Exception {
+		Random rnd = new Random(42);
+		receiver = new PeerBuilderDHT(new PeerBuilder(new Number160(rnd)).ports(4001).start()).start();
+		sender = new PeerBuilderDHT(new PeerBuilder(new Number160(rnd)).ports(4002).start()).start();
+		sender.peer().bootstrap().peerAddress(receiver.peerAddress()).start().awaitUninterruptibly();
+		byte[] me = new byte[valueSize];
+		rnd.nextBytes(me);
+		data = new Data(me);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		sender.shutdown().awaitUninterruptibly();
+		receiver.shutdown().awaitUninterruptibly();
+	}
+
+	@Benchmark
+	public FuturePut put() {
+		FuturePut futurePut = sender.put(receiver.peerID()).data(data)
+				.requestP2PConfiguration(new RequestP2PConfiguration(1, 0, 0)).start();
+		futurePut.awaitUninterruptibly();
+		if (!futurePut.isSuccess()) {
+			throw new IllegalStateException(futurePut.failedReason());
+		}
+		return futurePut;
+	}
+}
@@ -0,0 +1,138 @@
+package net.tomp2p.jmh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.FutureTask;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.p2p.RequestP2PConfiguration;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+import net.tomp2p.task.PeerBuilderTask;
+import net.tomp2p.task.PeerTask;
+import net.tomp2p.task.Worker;
+import net.tomp2p.utils.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of a map-reduce job over peers in the same JVM. One peer submits
+ * {@link #tasks} map tasks of different cost to the DHT, the peers close to
+ * the location key of a task run it, and the submitter reduces the results.
+ * With stealing, idle peers take queued tasks from busy ones, which shortens
+ * the time until the slowest task is done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MapReduceBenchmark {
+
+	@Param({ "8", "32" })
+	public int peers;
+
+	@Param({ "64" })
+	public int tasks;
+
+	@Param({ "true", "false" })
+	public boolean steal;
+
+	private PeerTask[] nodes;
+	private Number160[] locationKeys;
+	private Map<Number160, Data> input;
+
+	@Setup
+	public void setup() throws Exception {
+		Random rnd = new Random(42);
+		nodes = new PeerTask[peers];
+		Peer master = new PeerBuilder(new Number160(rnd)).ports(4001).start();
+		for (int i = 0; i < peers; i++) {
+			Peer peer = i == 0 ? master : new PeerBuilder(new Number160(rnd)).masterPeer(master).start();
+			nodes[i] = new PeerBuilderTask(peer).threads(1).stealIntervalMillis(steal ? 50 : -1).start();
+		}
+		for (int i = 0; i < peers; i++) {
+			for (int j = 0; j < peers; j++) {
+				nodes[i].peer().peerBean().peerMap().peerFound(nodes[j].peerAddress(), null, null, null);
+			}
+		}
+		// a few location keys only, so that some peers get more tasks than others
+		locationKeys = new Number160[Math.max(1, peers / 4)];
+		for (int i = 0; i < locationKeys.length; i++) {
+			locationKeys[i] = new Number160(rnd);
+		}
+		input = new HashMap<Number160, Data>();
+		input.put(Number160.ZERO, new Data(new byte[1024]));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		nodes[0].peer().shutdown().awaitUninterruptibly();
+	}
+
+	@Benchmark
+	public long mapReduce() throws Exception {
+		List<FutureTask> futures = new ArrayList<FutureTask>(tasks);
+		for (int i = 0; i < tasks; i++) {
+			futures.add(nodes[0].submit(locationKeys[i % locationKeys.length], new MapWorker(1 + (i % 4)))
+					.dataMap(input).requestP2PConfiguration(new RequestP2PConfiguration(1, 0, 0)).start());
+		}
+		// reduce
+		long sum = 0;
+		for (FutureTask futureTask : futures) {
+			futureTask.awaitUninterruptibly();
+			if (!futureTask.isSuccess()) {
+				throw new IllegalStateException(futureTask.failedReason());
+			}
+			for (Map<Number160, Data> result : futureTask.rawDataMap().values()) {
+				sum += (Long) result.get(Number160.ONE).object();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Hashes the input a number of rounds, the cost of the task is set by the
+	 * rounds.
+	 */
+	private static class MapWorker implements Worker {
+		private static final long serialVersionUID = 4920312645211096563L;
+
+		private final int rounds;
+
+		private MapWorker(int rounds) {
+			this.rounds = rounds;
+		}
+
+		@Override
+		public Map<Number160, Data> execute(Peer peer, Number160 taskId, Map<Number160, Data> inputData)
+				throws Exception {
+			byte[] buffer = inputData.get(Number160.ZERO).toBytes();
+			long sum = 0;
+			for (int i = 0; i < rounds * 1000; i++) {
+				sum += Utils.makeSHAHash(buffer).longValue();
+				buffer[i % buffer.length]++;
+			}
+			Map<Number160, Data> retVal = new HashMap<Number160, Data>();
+			retVal.put(Number160.ONE, new Data(sum));
+			return retVal;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package net.tomp2p.jmh;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.net.InetSocketAddress;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.message.DataMap;
+import net.tomp2p.message.Decoder;
+import net.tomp2p.message.Encoder;
+import net.tomp2p.message.Message;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for {@link Encoder#write} and the header and payload decoding of {@link Decoder}. The message carries
+ * a key, an int and a data map with {@link #entries} values of {@link #valueSize} bytes. As the encoder consumes the
+ * content references of a message, encode creates the message on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	@Param({ "10" })
+	public int entries;
+
+	@Param({ "100", "10000" })
+	public int valueSize;
+
+	private final SignatureFactory signatureFactory = new DSASignatureFactory();
+	private PeerAddress sender;
+	private PeerAddress recipient;
+	private InetSocketAddress senderSocket;
+	private InetSocketAddress recipientSocket;
+	private NavigableMap<Number640, Data> dataMap;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws Exception {
+		Random rnd = new Random(42);
+		sender = PeerAddress.create(new Number160(rnd), "127.0.0.1", 8001, 8002, 8003);
+		recipient = PeerAddress.create(new Number160(rnd), "127.0.0.1", 8004, 8005, 8006);
+		senderSocket = sender.ipv4Socket().createTCPSocket();
+		recipientSocket = recipient.ipv4Socket().createTCPSocket();
+		dataMap = new TreeMap<Number640, Data>();
+		for (int i = 0; i < entries; i++) {
+			byte[] me = new byte[valueSize];
+			rnd.nextBytes(me);
+			dataMap.put(new Number640(rnd), new Data(me));
+		}
+		CompositeByteBuf buf = encode();
+		encoded = new byte[buf.readableBytes()];
+		buf.readBytes(encoded);
+		buf.release();
+	}
+
+	@Benchmark
+	public CompositeByteBuf encode() throws Exception {
+		CompositeByteBuf buf = Unpooled.compositeBuffer();
+		new Encoder(signatureFactory).write(buf, createMessage(), null);
+		buf.release();
+		return buf;
+	}
+
+	@Benchmark
+	public Message decode() throws Exception {
+		ByteBuf buf = Unpooled.wrappedBuffer(encoded);
+		Decoder decoder = new Decoder(signatureFactory);
+		decoder.decodeHeader(buf, recipientSocket, senderSocket);
+		decoder.decodePayload(buf);
+		return decoder.message();
+	}
+
+	private Message createMessage() {
+		Message message = new Message();
+		message.sender(sender);
+		message.recipient(recipient);
+		message.type(Message.Type.REQUEST_1);
+		message.command((byte) 0);
+		message.key(Number160.ONE);
+		message.intValue(42);
+		message.setDataMap(new DataMap(dataMap));
+		return message;
+	}
+}
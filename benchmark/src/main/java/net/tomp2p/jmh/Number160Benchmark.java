@@ -0,0 +1,106 @@
+package net.tomp2p.jmh;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for the key classes. The *Allocating variants use the xor() based path that creates an intermediate
+ * Number160, the other variants use the allocation free methods. Run with "-prof gc" to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Number160Benchmark {
+
+	private Number160 location;
+	private Number160 key1;
+	private Number160 key2;
+	private Number640 key640;
+	private ByteBuf buf;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		location = new Number160(rnd);
+		key1 = new Number160(rnd);
+		key2 = new Number160(rnd);
+		key640 = new Number640(rnd);
+		buf = Unpooled.directBuffer(Number640.BYTE_ARRAY_SIZE);
+	}
+
+	@Benchmark
+	public int compareTo() {
+		return key1.compareTo(key2);
+	}
+
+	@Benchmark
+	public int hashCode640() {
+		return key640.hashCode();
+	}
+
+	@Benchmark
+	public int compareXor() {
+		return location.compareXor(key1, key2);
+	}
+
+	@Benchmark
+	public int compareXorAllocating() {
+		return location.xor(key1).compareTo(location.xor(key2));
+	}
+
+	@Benchmark
+	public int xorBitLength() {
+		return location.xorBitLength(key1);
+	}
+
+	@Benchmark
+	public int xorBitLengthAllocating() {
+		return location.xor(key1).bitLength();
+	}
+
+	@Benchmark
+	public Number640 encodeDecode640() {
+		buf.clear();
+		key640.encode(buf);
+		return Number640.decode(buf);
+	}
+
+	@Benchmark
+	public Number640 encodeDecode640ByteArray() {
+		buf.clear();
+		buf.writeBytes(key640.locationKey().toByteArray());
+		buf.writeBytes(key640.domainKey().toByteArray());
+		buf.writeBytes(key640.contentKey().toByteArray());
+		buf.writeBytes(key640.versionKey().toByteArray());
+		byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
+		buf.readBytes(me);
+		Number160 locationKey = new Number160(me);
+		buf.readBytes(me);
+		Number160 domainKey = new Number160(me);
+		buf.readBytes(me);
+		Number160 contentKey = new Number160(me);
+		buf.readBytes(me);
+		Number160 versionKey = new Number160(me);
+		return new Number640(locationKey, domainKey, contentKey, versionKey);
+	}
+}
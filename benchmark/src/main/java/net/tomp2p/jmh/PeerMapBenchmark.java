@@ -0,0 +1,67 @@
+package net.tomp2p.jmh;
+
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapConfiguration;
+import net.tomp2p.peers.PeerStatistic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmark for {@link PeerMap#closePeers(Number160, int)} on a map filled with {@link #peers} random peers, as it
+ * is called for every routing step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerMapBenchmark {
+
+	private static final int NR_LOOKUPS = 1024;
+
+	@Param({ "1000", "100000" })
+	public int peers;
+
+	@Param({ "20" })
+	public int atLeast;
+
+	private PeerMap peerMap;
+	private Number160[] lookups;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		peerMap = new PeerMap(new PeerMapConfiguration(new Number160(rnd)).peerNoVerification());
+		for (int i = 0; i < peers; i++) {
+			peerMap.peerFound(PeerAddress.create(new Number160(rnd)), null, null, null);
+		}
+		lookups = new Number160[NR_LOOKUPS];
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] = new Number160(rnd);
+		}
+	}
+
+	@Benchmark
+	public NavigableSet<PeerStatistic> closePeers() {
+		next = (next + 1) & (NR_LOOKUPS - 1);
+		return peerMap.closePeers(lookups[next], atLeast);
+	}
+}
@@ -0,0 +1,91 @@
+package net.tomp2p.jmh;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.synchronization.Checksum;
+import net.tomp2p.synchronization.DefaultStrongHash;
+import net.tomp2p.synchronization.Instruction;
+import net.tomp2p.synchronization.RSync;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for {@link RSync#checksums(byte[], int)} and {@link RSync#instructions(byte[], List, int)}. The new
+ * value differs from the old value in one byte every {@link #changeEvery} bytes, so most blocks match. The direct
+ * variants read the new value from a direct {@link ByteBuf}, as for large values that are not copied to the heap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RSyncBenchmark {
+
+	@Param({ "65536", "1048576", "16777216" })
+	public int size;
+
+	@Param({ "700" })
+	public int blockSize;
+
+	@Param({ "8192" })
+	public int changeEvery;
+
+	private byte[] oldValue;
+	private byte[] newValue;
+	private ByteBuf newValueDirect;
+	private List<Checksum> checksums;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		oldValue = new byte[size];
+		rnd.nextBytes(oldValue);
+		newValue = oldValue.clone();
+		for (int i = 0; i < newValue.length; i += changeEvery) {
+			newValue[i]++;
+		}
+		checksums = RSync.checksums(oldValue, blockSize);
+		newValueDirect = Unpooled.directBuffer(size).writeBytes(newValue);
+	}
+
+	@TearDown
+	public void tearDown() {
+		newValueDirect.release();
+	}
+
+	@Benchmark
+	public List<Checksum> checksums() {
+		return RSync.checksums(oldValue, blockSize);
+	}
+
+	@Benchmark
+	public List<Instruction> instructions() {
+		return RSync.instructions(newValue, checksums, blockSize);
+	}
+
+	@Benchmark
+	public List<Checksum> checksumsDirect() {
+		return RSync.checksums(newValueDirect, blockSize, DefaultStrongHash.MD5);
+	}
+
+	@Benchmark
+	public List<Instruction> instructionsDirect() {
+		return RSync.instructions(newValueDirect, checksums, blockSize, DefaultStrongHash.MD5);
+	}
+}
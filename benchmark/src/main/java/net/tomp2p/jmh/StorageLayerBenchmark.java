@@ -0,0 +1,91 @@
+package net.tomp2p.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.dht.StorageLayer;
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.rpc.DigestInfo;
+import net.tomp2p.storage.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Microbenchmarks for put, get and digest of a {@link StorageLayer} backed by a {@link StorageMemory} with
+ * {@link #entries} entries in {@link #LOCATIONS} locations. The digest covers all entries of one location.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageLayerBenchmark {
+
+	private static final int LOCATIONS = 64;
+
+	@Param({ "10000" })
+	public int entries;
+
+	private StorageLayer storageLayer;
+	private Number640[] keys;
+	private Data data;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		storageLayer = new StorageLayer(new StorageMemory());
+		storageLayer.protection(StorageLayer.ProtectionEnable.NONE, StorageLayer.ProtectionMode.NO_MASTER,
+				StorageLayer.ProtectionEnable.NONE, StorageLayer.ProtectionMode.NO_MASTER);
+		Random rnd = new Random(42);
+		Number160[] locations = new Number160[LOCATIONS];
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = new Number160(rnd);
+		}
+		data = new Data(new byte[128]);
+		keys = new Number640[entries];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new Number640(locations[i % LOCATIONS], Number160.ZERO, new Number160(rnd), Number160.ZERO);
+			storageLayer.put(keys[i], data.duplicate(), null, false, false, false);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		storageLayer.close();
+	}
+
+	@Benchmark
+	public Enum<?> put() {
+		return storageLayer.put(nextKey(), data.duplicate(), null, false, false, false);
+	}
+
+	@Benchmark
+	public Data get() {
+		return storageLayer.get(nextKey());
+	}
+
+	@Benchmark
+	public DigestInfo digest() {
+		Number640 key = nextKey();
+		return storageLayer.digest(key.minContentKey(), key.maxContentKey(), -1, true);
+	}
+
+	private Number640 nextKey() {
+		next = next + 1 == keys.length ? 0 : next + 1;
+		return keys[next];
+	}
+}
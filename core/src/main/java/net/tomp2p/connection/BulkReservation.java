@@ -60,6 +60,7 @@ public class BulkReservation {
 	private final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue);
 	private final EventLoopGroup workerGroup;
 	private final PeerBean peerBean;
+	private final ConnectionPool connectionPool;
 
 	// we should be fair, otherwise we see connection timeouts due to unfairness
 	// if busy
@@ -93,6 +94,9 @@ public class BulkReservation {
 		this.semaphoreTCP = new Semaphore(maxPermitsTCP);
 		this.channelClientConfiguration = channelClientConfiguration;
 		this.peerBean = peerBean;
+		this.connectionPool = new ConnectionPool(channelClientConfiguration.maxPooledTCP(),
+				channelClientConfiguration.maxPooledTCPPerPeer(), channelClientConfiguration.pooledTCPIdleMillis(),
+				workerGroup);
 	}
         
         public int availablePermitsUDP() {
@@ -103,6 +107,14 @@ public class BulkReservation {
             return semaphoreTCP.availablePermits();
         }
 
+	/**
+	 * @return The pool of idle TCP channels that is shared among the channel
+	 *         creators of this reservation
+	 */
+	public ConnectionPool connectionPool() {
+		return connectionPool;
+	}
+
 	/**
 	 * @return The pending number of requests that are scheduled but not
 	 *         executed yet.
@@ -139,9 +151,9 @@ public class BulkReservation {
 		}
 		if (routingConfiguration != null) {
 			if (!builder.isForceTCP()) {
-				nrConnectionsUDP = Math.max(nrConnectionsUDP, routingConfiguration.parallel());
+				nrConnectionsUDP = Math.max(nrConnectionsUDP, routingConfiguration.maxParallel());
 			} else {
-				nrConnectionsTCP = Math.max(nrConnectionsTCP, routingConfiguration.parallel());
+				nrConnectionsTCP = Math.max(nrConnectionsTCP, routingConfiguration.maxParallel());
 			}
 		}
 
@@ -223,6 +235,7 @@ public class BulkReservation {
 		} finally {
 			write.unlock();
 		}
+		connectionPool.shutdown();
 
 		// Fast shutdown for those that are in the queue is not required.
         // Let the executor finish since the shutdown-flag is set and the
@@ -363,7 +376,7 @@ public class BulkReservation {
                                         semaphoreTCP.availablePermits());
 
 				channelCreator = new ChannelCreator(workerGroup, futureChannelCreationShutdown, permitsUDP, permitsTCP,
-				        channelClientConfiguration, fromAddress);
+				        channelClientConfiguration, fromAddress, connectionPool);
 				addToSet(channelCreator);
 			} catch (UnknownHostException u) {
 				//never happens as we use wildcard address
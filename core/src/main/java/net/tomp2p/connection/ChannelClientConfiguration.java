@@ -18,6 +18,7 @@ package net.tomp2p.connection;
 
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import net.tomp2p.message.SignatureVerifier;
 
 import java.net.InetAddress;
 
@@ -33,6 +34,7 @@ public class ChannelClientConfiguration {
     private int maxPermitsTCP;
 
     private SignatureFactory signatureFactory;
+    private SignatureVerifier signatureVerifier = null;
     private Bindings bindings;
     
     private InetAddress fromAddress = null;
@@ -40,6 +42,10 @@ public class ChannelClientConfiguration {
     private boolean enablePool = false;
     private boolean enableHeap = false;
 
+    private int maxPooledTCP = 64;
+    private int maxPooledTCPPerPeer = 2;
+    private int pooledTCPIdleMillis = ConnectionBean.DEFAULT_TCP_IDLE_MILLIS / 2;
+
 
     /**
      * @return The maximum number of short-lived UDP connections
@@ -92,6 +98,25 @@ public class ChannelClientConfiguration {
         return this;
     }
 
+    /**
+     * @return The verifier for signed messages, or null if the signatures are
+     *         verified on the event loop while decoding
+     */
+    public SignatureVerifier signatureVerifier() {
+        return signatureVerifier;
+    }
+
+    /**
+     * @param signatureVerifier
+     *            The verifier to check the signatures of received messages on
+     *            its own threads, or null to verify while decoding
+     * @return This class
+     */
+    public ChannelClientConfiguration signatureVerifier(final SignatureVerifier signatureVerifier) {
+        this.signatureVerifier = signatureVerifier;
+        return this;
+    }
+
     /**
      * @return The bindings
      */
@@ -118,6 +143,45 @@ public class ChannelClientConfiguration {
 	    return this;
     }
 	
+    /**
+     * @return The max. number of idle TCP channels that are kept open for
+     *         reuse. If 0, TCP channels are closed after the response
+     */
+    public int maxPooledTCP() {
+        return maxPooledTCP;
+    }
+
+    public ChannelClientConfiguration maxPooledTCP(final int maxPooledTCP) {
+        this.maxPooledTCP = maxPooledTCP;
+        return this;
+    }
+
+    /**
+     * @return The max. number of idle TCP channels to the same peer
+     */
+    public int maxPooledTCPPerPeer() {
+        return maxPooledTCPPerPeer;
+    }
+
+    public ChannelClientConfiguration maxPooledTCPPerPeer(final int maxPooledTCPPerPeer) {
+        this.maxPooledTCPPerPeer = maxPooledTCPPerPeer;
+        return this;
+    }
+
+    /**
+     * @return The time in milliseconds after which an idle TCP channel is
+     *         closed. This needs to be shorter than the idle time of the
+     *         other peer
+     */
+    public int pooledTCPIdleMillis() {
+        return pooledTCPIdleMillis;
+    }
+
+    public ChannelClientConfiguration pooledTCPIdleMillis(final int pooledTCPIdleMillis) {
+        this.pooledTCPIdleMillis = pooledTCPIdleMillis;
+        return this;
+    }
+
 	public ChannelClientConfiguration byteBufPool() {
 		byteBufPool(true);
 		return this;
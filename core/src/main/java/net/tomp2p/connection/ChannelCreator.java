@@ -24,11 +24,13 @@ import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.sctp.SctpChannelOption;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Message;
+import net.tomp2p.message.TomP2PCumulationTCP;
 import net.tomp2p.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,7 +38,10 @@ import org.slf4j.LoggerFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -47,6 +52,17 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * and should never be called directly. With this class one can create TCP or
  * UDP channels up to a certain extent. Thus it must be know beforehand how much
  * connections will be created.
+ * <p>
+ * UDP channels that received their response are not closed, but returned with
+ * {@link #releaseUDP(Channel)} and reused for the next UDP request. Thus, a
+ * routing process that sends many requests with a few permits only binds as
+ * many sockets as it has permits. The permit of a reused channel is released
+ * when the channel is returned, not when the channel is closed.
+ * <p>
+ * Likewise, TCP channels that received their response are returned with
+ * {@link #releaseTCP(Channel)} to the {@link ConnectionPool} of the
+ * reservation, and {@link #createTCP(SocketAddress, int, Map)} takes an idle
+ * channel to the same peer from this pool before it connects.
  * 
  * @author Thomas Bocek
  */
@@ -81,6 +97,19 @@ public class ChannelCreator {
 	private boolean shutdownUDP = false;
 	private boolean shutdownTCP = false;
 
+	// the close listener of the request currently using a channel
+	private static final AttributeKey<ChannelCloseListener> CLOSE_LISTENER_KEY = AttributeKey.valueOf("close-listener");
+	// the address a TCP channel was connected to, used as the key in the connection pool
+	private static final AttributeKey<SocketAddress> REMOTE_KEY = AttributeKey.valueOf("remote-address");
+	// the handlers that are specific to a request and removed when a channel is returned, the next request adds
+	// its own, including a new decoder
+	private static final String[] REQUEST_HANDLERS = { "timeout", "decoder", "verifier", "dispatcher", "handler" };
+	// bound UDP channels that are not used by a request, guarded by idleUDP
+	private final Deque<Channel> idleUDP = new ArrayDeque<Channel>();
+	private int reusedUDP = 0;
+
+	private final ConnectionPool connectionPool;
+
 	/**
 	 * Package private constructor, since this is created by
 	 * {@link Reservation} and should never be called directly.
@@ -97,10 +126,16 @@ public class ChannelCreator {
 	 *            The number of max. parallel TCP connections.
 	 * @param channelClientConfiguration
 	 *            The configuration that contains the pipeline filter
+	 * @param sendFromAddress
+	 *            The address to bind the channels to
+	 * @param connectionPool
+	 *            The pool of idle TCP channels, null if TCP channels should
+	 *            not be reused
 	 */
 	ChannelCreator(final EventLoopGroup workerGroup, final FutureDone<Void> futureChannelCreationDone,
 			int maxPermitsUDP, int maxPermitsTCP,
-			final ChannelClientConfiguration channelClientConfiguration, InetAddress sendFromAddress) {
+			final ChannelClientConfiguration channelClientConfiguration, InetAddress sendFromAddress,
+			final ConnectionPool connectionPool) {
 		this.workerGroup = workerGroup;
 		this.futureChannelCreationDone = futureChannelCreationDone;
 		this.maxPermitsUDP = maxPermitsUDP;
@@ -109,6 +144,7 @@ public class ChannelCreator {
 		this.semaphoreTCP = new Semaphore(maxPermitsTCP);
 		this.channelClientConfiguration = channelClientConfiguration;
 		this.sendFromAddress = sendFromAddress;
+		this.connectionPool = connectionPool;
 	}
         
         static class ChannelCloseListener implements GenericFutureListener<ChannelFuture> {
@@ -222,6 +258,20 @@ public class ChannelCreator {
 				LOG.error(errorMsg);
 				throw new RuntimeException(errorMsg);
 			}
+			final ChannelCloseListener cl = new ChannelCloseListener(semaphoreUPD);
+			if (!fireandforget) {
+				final Channel channel = pollIdleUDP();
+				if (channel != null) {
+					addHandlers(channel.pipeline(), channelHandlers);
+					channel.attr(CLOSE_LISTENER_KEY).set(cl);
+					if (!channel.isOpen()) {
+						// closed in the meantime, the close listener may have missed it
+						notifyCloseListener(channel);
+					}
+					LOG.debug("Reuse UDP channel {}", channel);
+					return new Pair<ChannelCloseListener, ChannelFuture>(cl, channel.newSucceededFuture());
+				}
+			}
 			final Bootstrap b = new Bootstrap();
 			b.group(workerGroup);
 			b.channel(NioDatagramChannel.class);
@@ -243,18 +293,149 @@ public class ChannelCreator {
 			} else {
 				channelFuture = b.bind(new InetSocketAddress(sendFromAddress, 0));
 			}
-                        ChannelCloseListener cl = new ChannelCloseListener(semaphoreUPD);
-                        channelFuture.channel().closeFuture().addListener(cl);
-			recipients.add(channelFuture.channel());
+			final Channel channel = channelFuture.channel();
+			channel.attr(CLOSE_LISTENER_KEY).set(cl);
+			channel.closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+				@Override
+				public void operationComplete(final ChannelFuture future) throws Exception {
+					notifyCloseListener(channel);
+				}
+			});
+			recipients.add(channel);
 			return new Pair<ChannelCloseListener, ChannelFuture>(cl, channelFuture);
 		} finally {
 			readUDP.unlock();
 		}
 	}
 
+	/**
+	 * Returns a UDP channel after the response has been received. If the
+	 * channel can be reused, the request specific handlers are removed and the
+	 * channel is kept open for the next UDP request, otherwise the channel is
+	 * closed. In both cases, the permit is released and the close listener of
+	 * the request is notified.
+	 * 
+	 * @param channel
+	 *            The UDP channel created by this channel creator
+	 */
+	public void releaseUDP(final Channel channel) {
+		final ChannelCloseListener cl;
+		readUDP.lock();
+		try {
+			final boolean reusable = !shutdownUDP && channel.isOpen() && channel.localAddress() != null
+					&& channel.remoteAddress() == null;
+			if (!reusable) {
+				channel.close();
+				return;
+			}
+			removeRequestHandlers(channel);
+			// take the listener before the channel is available for the next request
+			cl = channel.attr(CLOSE_LISTENER_KEY).getAndSet(null);
+			synchronized (idleUDP) {
+				idleUDP.add(channel);
+			}
+			LOG.debug("Release UDP channel {} for reuse", channel);
+		} finally {
+			readUDP.unlock();
+		}
+		// notify after the channel is available for the next request
+		notifyCloseListener(cl, channel);
+	}
+
+	private Channel pollIdleUDP() {
+		synchronized (idleUDP) {
+			Channel channel;
+			while ((channel = idleUDP.poll()) != null) {
+				if (channel.isOpen()) {
+					reusedUDP++;
+					return channel;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a TCP channel after the response has been received. If the
+	 * channel is still connected and the decoder has nothing left over, the
+	 * request specific handlers are removed and the channel is offered to the
+	 * connection pool, otherwise or if the pool is full, the channel is closed.
+	 * In both cases, the permit is released and the close listener of the
+	 * request is notified. This is done on the event loop of the channel
+	 * after the current read, as the decoder may still be in its read loop.
+	 * Only channels that are not kept alive may be returned, as the remote
+	 * peer may still send on the others.
+	 * 
+	 * @param channel
+	 *            The TCP channel created by this channel creator
+	 */
+	public void releaseTCP(final Channel channel) {
+		try {
+			channel.eventLoop().execute(new Runnable() {
+				@Override
+				public void run() {
+					doReleaseTCP(channel);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the event loop is shut down
+			channel.close();
+		}
+	}
+
+	private void doReleaseTCP(final Channel channel) {
+		ChannelCloseListener cl = null;
+		boolean pooled = false;
+		readTCP.lock();
+		try {
+			final SocketAddress remote = channel.attr(REMOTE_KEY).get();
+			final TomP2PCumulationTCP decoder = channel.pipeline().get(TomP2PCumulationTCP.class);
+			if (!shutdownTCP && connectionPool != null && remote != null && channel.isActive()
+					&& (decoder == null || decoder.isIdle())) {
+				removeRequestHandlers(channel);
+				// the channel does not belong to this channel creator anymore
+				recipients.remove(channel);
+				cl = channel.attr(CLOSE_LISTENER_KEY).getAndSet(null);
+				pooled = connectionPool.offer(remote, channel);
+			}
+		} finally {
+			readTCP.unlock();
+		}
+		// not under the lock, the close listener may complete a future whose
+		// listener shuts down this channel creator
+		if (!pooled) {
+			channel.close();
+		}
+		notifyCloseListener(cl, channel);
+	}
+
+	private static void removeRequestHandlers(final Channel channel) {
+		final ChannelPipeline pipeline = channel.pipeline();
+		for (String name : REQUEST_HANDLERS) {
+			if (pipeline.get(name) != null) {
+				pipeline.remove(name);
+			}
+		}
+	}
+
+	private static void notifyCloseListener(final Channel channel) {
+		notifyCloseListener(channel.attr(CLOSE_LISTENER_KEY).getAndSet(null), channel);
+	}
+
+	private static void notifyCloseListener(final ChannelCloseListener cl, final Channel channel) {
+		if (cl != null) {
+			try {
+				cl.operationComplete(channel.closeFuture());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
 	/**
 	 * Creates a channel to the given address. This will setup the TCP
-	 * connection
+	 * connection, unless there is an idle channel to this address in the
+	 * connection pool
 	 * 
 	 * @param socketAddress
 	 *            The address to send future messages
@@ -278,6 +459,19 @@ public class ChannelCreator {
 				LOG.error(errorMsg);
 				throw new RuntimeException(errorMsg);
 			}
+			final ChannelCloseListener cl = new ChannelCloseListener(semaphoreTCP);
+			final Channel pooled = connectionPool == null ? null : connectionPool.poll(socketAddress);
+			if (pooled != null) {
+				addHandlers(pooled.pipeline(), channelHandlers);
+				pooled.attr(CLOSE_LISTENER_KEY).set(cl);
+				recipients.add(pooled);
+				if (!pooled.isOpen()) {
+					// closed in the meantime, the close listener may have missed it
+					notifyCloseListener(pooled);
+				}
+				LOG.debug("Reuse TCP channel {}", pooled);
+				return new Pair<ChannelCloseListener, ChannelFuture>(cl, pooled.newSucceededFuture());
+			}
 			Bootstrap b = new Bootstrap();
 			b.group(workerGroup);
 			b.channel(NioSocketChannel.class);
@@ -291,10 +485,17 @@ public class ChannelCreator {
 			addHandlers(b, channelHandlers);
 			
 			ChannelFuture channelFuture = b.connect(socketAddress, new InetSocketAddress(sendFromAddress, 0));
-                        ChannelCloseListener cl = new ChannelCloseListener(semaphoreTCP);
-                        channelFuture.channel().closeFuture().addListener(cl);
-                        LOG.error("Create SCTP, use from address: {} future is {}", sendFromAddress, channelFuture);
-			recipients.add(channelFuture.channel());
+			final Channel channel = channelFuture.channel();
+			channel.attr(REMOTE_KEY).set(socketAddress);
+			channel.attr(CLOSE_LISTENER_KEY).set(cl);
+			channel.closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+				@Override
+				public void operationComplete(final ChannelFuture future) throws Exception {
+					notifyCloseListener(channel);
+				}
+			});
+			LOG.debug("Create TCP, use from address: {} future is {}", sendFromAddress, channelFuture);
+			recipients.add(channel);
 			return new Pair<ChannelCloseListener, ChannelFuture>(cl, channelFuture);
 		} finally {
 			readTCP.unlock();
@@ -322,6 +523,29 @@ public class ChannelCreator {
 		});
 	}
 
+	/**
+	 * Adds the handlers that are missing in the pipeline of a reused channel,
+	 * keeping the order of the handlers.
+	 * 
+	 * @param pipeline
+	 *            The pipeline of the reused channel
+	 * @param channelHandlers
+	 *            The handlers to be added.
+	 */
+	private static void addHandlers(final ChannelPipeline pipeline, final Map<String, ChannelHandler> channelHandlers) {
+		String previous = null;
+		for (Map.Entry<String, ChannelHandler> entry : channelHandlers.entrySet()) {
+			if (pipeline.get(entry.getKey()) == null) {
+				if (previous == null) {
+					pipeline.addFirst(entry.getKey(), entry.getValue());
+				} else {
+					pipeline.addAfter(previous, entry.getKey(), entry.getValue());
+				}
+			}
+			previous = entry.getKey();
+		}
+	}
+
 	public boolean isShutdown() {
 		return shutdownTCP || shutdownUDP;
 	}
@@ -377,6 +601,16 @@ public class ChannelCreator {
 		return semaphoreTCP.availablePermits();
 	}
 
+	/**
+	 * @return The number of UDP requests that reused an existing channel
+	 *         instead of binding a new one
+	 */
+	public int reusedUDP() {
+		synchronized (idleUDP) {
+			return reusedUDP;
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder("sem-udp:");
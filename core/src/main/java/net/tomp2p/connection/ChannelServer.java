@@ -107,7 +107,8 @@ public final class ChannelServer implements DiscoverNetworkListener{
 		
 		this.tcpDropConnectionInboundHandler = new DropConnectionInboundHandler(channelServerConfiguration.maxTCPIncomingConnections());
 		this.udpDropConnectionInboundHandler = new DropConnectionInboundHandler(channelServerConfiguration.maxUDPIncomingConnections());
-		this.udpDecoderHandler = new TomP2PSinglePacketUDP(channelServerConfiguration.signatureFactory());
+		this.udpDecoderHandler = new TomP2PSinglePacketUDP(channelServerConfiguration.signatureFactory(),
+				channelServerConfiguration.signatureVerifier() != null);
 		
 		discoverNetworks.addDiscoverNetworkListener(this);
 		if(timer!=null) {
@@ -358,11 +359,15 @@ public final class ChannelServer implements DiscoverNetworkListener{
                         handlers.put("timeout", new IdleStateHandler(channelServerConfiguration.idleTCPMillis(), 0, 0));
                         
                         handlers.put("decoder", new TomP2PCumulationTCP(
-			        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator()));
+			        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator(),
+			        channelServerConfiguration.signatureVerifier() != null));
 		} else {
 			handlers.put("dropconnection", udpDropConnectionInboundHandler);
 			handlers.put("decoder", udpDecoderHandler);
 		}
+		if (channelServerConfiguration.signatureVerifier() != null) {
+			handlers.put("verifier", channelServerConfiguration.signatureVerifier());
+		}
 		handlers.put("encoder", new TomP2POutbound(
 		        channelServerConfiguration.signatureFactory(), channelServerConfiguration.byteBufAllocator()));
                 
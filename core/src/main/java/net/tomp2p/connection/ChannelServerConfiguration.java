@@ -18,6 +18,7 @@ package net.tomp2p.connection;
 
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import net.tomp2p.message.SignatureVerifier;
 
 
 /**
@@ -41,6 +42,7 @@ public class ChannelServerConfiguration implements ConnectionConfiguration {
     private Bindings bindings = null;
 
     private SignatureFactory signatureFactory = null;
+    private SignatureVerifier signatureVerifier = null;
 
     private boolean forceTCP;
     private boolean forceUDP;
@@ -179,6 +181,25 @@ public class ChannelServerConfiguration implements ConnectionConfiguration {
         return this;
     }
 
+    /**
+     * @return The verifier for signed messages, or null if the signatures are
+     *         verified on the event loop while decoding
+     */
+    public SignatureVerifier signatureVerifier() {
+        return signatureVerifier;
+    }
+
+    /**
+     * @param signatureVerifier
+     *            The verifier to check the signatures of received messages on
+     *            its own threads, or null to verify while decoding
+     * @return This class
+     */
+    public ChannelServerConfiguration signatureVerifier(final SignatureVerifier signatureVerifier) {
+        this.signatureVerifier = signatureVerifier;
+        return this;
+    }
+
     @Override
     public int connectionTimeoutTCPMillis() {
         return connectionTimeoutTCPMillis;
@@ -19,11 +19,11 @@ package net.tomp2p.connection;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.timeout.IdleStateHandler;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
+import net.tomp2p.message.SignatureVerifier;
 import net.tomp2p.message.TomP2PCumulationTCP;
 import net.tomp2p.message.TomP2POutbound;
 import net.tomp2p.message.TomP2PSinglePacketUDP;
@@ -55,6 +55,7 @@ public class Connect {
 	private final ChannelClientConfiguration channelClientConfiguration;
 	private final Dispatcher dispatcher;
 	private final SendBehavior sendBehavior;
+	private final TimeoutWheel timeoutWheel;
 	private final Random random;
 	@Getter
 	private final CountConnectionOutboundHandler counterUDP = new CountConnectionOutboundHandler();
@@ -75,13 +76,15 @@ public class Connect {
 	 *            The configuration used to get the signature factory
 	 * @param dispatcher
 	 * @param sendBehavior
-	 * @param peerBean
+	 * @param timeoutWheel
+	 *            The wheel for the idle timeouts of the channels
 	 */
 	public Connect(final Number160 peerId, final ChannelClientConfiguration channelClientConfiguration,
-			Dispatcher dispatcher, SendBehavior sendBehavior) {
+			Dispatcher dispatcher, SendBehavior sendBehavior, TimeoutWheel timeoutWheel) {
 		this.channelClientConfiguration = channelClientConfiguration;
 		this.dispatcher = dispatcher;
 		this.sendBehavior = sendBehavior;
+		this.timeoutWheel = timeoutWheel;
 		this.random = new Random(peerId.hashCode());
 	}
 
@@ -99,7 +102,7 @@ public class Connect {
 			LOG.debug("go for peer connection / TCP");
 			return SendBehavior.SendMethod.EXISTING_CONNECTION;
 		} else {
-			IdleStateHandler timeoutHandler = new IdleStateHandler(peerConnection.idleMillis() / 1000, 0, 0);
+			IdleTimeoutHandler timeoutHandler = new IdleTimeoutHandler(timeoutWheel, peerConnection.idleMillis());
 			LOG.debug("Direct TCP connection to : {}, {}", peerConnection.remotePeer(), peerConnection.isKeepAlive());
 			switch (sendBehavior.tcpSendBehavior(dispatcher, sender, peerConnection.remotePeer(), isReflected)) {
 			case DIRECT:
@@ -236,7 +239,7 @@ public class Connect {
 	 */
 
 	private Pair<ChannelCreator.ChannelCloseListener, ChannelFuture> createChannelTCP(InetSocketAddress recipient,
-			ChannelCreator channelCreator, ChannelHandler handler, IdleStateHandler timeoutHandler,
+			ChannelCreator channelCreator, ChannelHandler handler, IdleTimeoutHandler timeoutHandler,
 			int connectTimeoutMillis, boolean isKeepAlive) {
 
 		final Map<String, ChannelHandler> handlers = new LinkedHashMap<String, ChannelHandler>();
@@ -245,8 +248,12 @@ public class Connect {
 			handlers.put("timeout", timeoutHandler);
 		}
 
+		final SignatureVerifier signatureVerifier = channelClientConfiguration.signatureVerifier();
 		handlers.put("decoder", new TomP2PCumulationTCP(channelClientConfiguration.signatureFactory(),
-				channelClientConfiguration.byteBufAllocator()));
+				channelClientConfiguration.byteBufAllocator(), signatureVerifier != null));
+		if (signatureVerifier != null) {
+			handlers.put("verifier", signatureVerifier);
+		}
 		handlers.put("encoder", new TomP2POutbound(channelClientConfiguration.signatureFactory(),
 				channelClientConfiguration.byteBufAllocator()));
 
@@ -295,7 +302,7 @@ public class Connect {
 		switch (sendBehavior.udpSendBehavior(dispatcher, sender, peerConnection.remotePeer(), isReflected)) {
 		case DIRECT:
 
-			final IdleStateHandler timeoutHandler = new IdleStateHandler(peerConnection.idleMillis() / 1000, 0, 0);
+			final IdleTimeoutHandler timeoutHandler = new IdleTimeoutHandler(timeoutWheel, peerConnection.idleMillis());
 
 			Pair<ChannelCreator.ChannelCloseListener, ChannelFuture> pair = createChannelUDP(
 					peerConnection.remotePeer().createUDPSocket(sender), channelCreator, handler, timeoutHandler,
@@ -445,7 +452,7 @@ public class Connect {
 	 */
 
 	private Pair<ChannelCreator.ChannelCloseListener, ChannelFuture> createChannelUDP(InetSocketAddress recipient,
-			ChannelCreator channelCreator, ChannelHandler handler, IdleStateHandler timeoutHandler,
+			ChannelCreator channelCreator, ChannelHandler handler, IdleTimeoutHandler timeoutHandler,
 			boolean isFireAndForget) {
 
 		final Map<String, ChannelHandler> handlers = new LinkedHashMap<String, ChannelHandler>();
@@ -453,7 +460,12 @@ public class Connect {
 			handlers.put("timeout", timeoutHandler);
 		}
 
-		handlers.put("decoder", new TomP2PSinglePacketUDP(channelClientConfiguration.signatureFactory()));
+		final SignatureVerifier signatureVerifier = channelClientConfiguration.signatureVerifier();
+		handlers.put("decoder", new TomP2PSinglePacketUDP(channelClientConfiguration.signatureFactory(),
+				signatureVerifier != null));
+		if (signatureVerifier != null) {
+			handlers.put("verifier", signatureVerifier);
+		}
 		handlers.put("encoder", new TomP2POutbound(channelClientConfiguration.signatureFactory(),
 				channelClientConfiguration.byteBufAllocator()));
 		handlers.put("initiater-counter", counterUDP);
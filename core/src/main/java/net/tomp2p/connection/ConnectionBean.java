@@ -49,6 +49,7 @@ public class ConnectionBean {
     private final BulkReservation reservation;
     private final ChannelClientConfiguration resourceConfiguration;
     private final ScheduledExecutorService timer;
+    private final TimeoutWheel timeoutWheel;
     
     /**
 	 * The connection bean with unmodifiable objects. Once it is set, it cannot be changed. If it is required
@@ -68,10 +69,13 @@ public class ConnectionBean {
      *            The configuration that is responsible for the resource numbers
      * @param timer
      *            The timer for the discovery process
+     * @param timeoutWheel
+     *            The wheel for the timeouts of requests and idle channels
      */
     public ConnectionBean(final int p2pId, final Dispatcher dispatcher, final Connect connect, final Sender sender,
             final ChannelServer channelServer, final BulkReservation reservation,
-            final ChannelClientConfiguration resourceConfiguration, final ScheduledExecutorService timer) {
+            final ChannelClientConfiguration resourceConfiguration, final ScheduledExecutorService timer,
+            final TimeoutWheel timeoutWheel) {
         this.p2pId = p2pId;
         this.dispatcher = dispatcher;
         this.connect = connect;
@@ -80,6 +84,7 @@ public class ConnectionBean {
         this.reservation = reservation;
         this.resourceConfiguration = resourceConfiguration;
         this.timer = timer;
+        this.timeoutWheel = timeoutWheel;
     }
 
     /**
@@ -134,4 +139,11 @@ public class ConnectionBean {
     public ScheduledExecutorService timer() {
         return timer;
     }
+
+    /**
+     * @return The wheel for the timeouts of requests and idle channels
+     */
+    public TimeoutWheel timeoutWheel() {
+        return timeoutWheel;
+    }
 }
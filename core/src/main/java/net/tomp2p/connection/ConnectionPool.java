@@ -0,0 +1,316 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of idle TCP channels, keyed by the TCP socket of the remote
+ * peer. A TCP request that got its response returns its channel with
+ * {@link ChannelCreator#releaseTCP(Channel)} and the next request to the same
+ * peer takes it with {@link #poll(SocketAddress)} instead of connecting again. The pool keeps at most maxPerPeer channels per peer and
+ * maxTotal channels in total, if full, the least recently returned channel is
+ * closed. Channels that are idle for longer than idleMillis are closed as
+ * well, which must be shorter than the idle timeout of the remote peer.
+ * <p>
+ * The pool is created by {@link BulkReservation} and shared among all its
+ * {@link ChannelCreator}s. Pooled channels do not hold a permit.
+ *
+ * @author Thomas Bocek
+ */
+public class ConnectionPool {
+	private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+	// set if the channel has a listener that removes it from this pool when closed
+	private static final AttributeKey<ConnectionPool> POOL_KEY = AttributeKey.valueOf("connection-pool");
+
+	private final int maxTotal;
+	private final int maxPerPeer;
+	private final int idleMillis;
+
+	// idle channels per peer, the most recently returned is last
+	private final Map<SocketAddress, Deque<PooledChannel>> idle = new HashMap<SocketAddress, Deque<PooledChannel>>();
+	// all idle channels, the least recently returned is first
+	private final LinkedHashMap<Channel, PooledChannel> lru = new LinkedHashMap<Channel, PooledChannel>();
+	private final ScheduledFuture<?> evictFuture;
+
+	private final GenericFutureListener<ChannelFuture> removeListener = new GenericFutureListener<ChannelFuture>() {
+		@Override
+		public void operationComplete(final ChannelFuture future) throws Exception {
+			remove(future.channel());
+		}
+	};
+
+	private boolean shutdown = false;
+	private long hits = 0;
+	private long misses = 0;
+	private long evicted = 0;
+
+	private static class PooledChannel {
+		private final Channel channel;
+		private final SocketAddress remote;
+		private final long since;
+
+		private PooledChannel(final Channel channel, final SocketAddress remote, final long since) {
+			this.channel = channel;
+			this.remote = remote;
+			this.since = since;
+		}
+	}
+
+	/**
+	 * Creates a connection pool and schedules the eviction of idle channels.
+	 *
+	 * @param maxTotal
+	 *            The max. number of idle channels in this pool. If 0, no
+	 *            channels are pooled
+	 * @param maxPerPeer
+	 *            The max. number of idle channels to the same peer
+	 * @param idleMillis
+	 *            The time in milliseconds after which an idle channel is
+	 *            closed
+	 * @param timer
+	 *            The timer that runs the eviction of idle channels
+	 */
+	public ConnectionPool(final int maxTotal, final int maxPerPeer, final int idleMillis,
+			final ScheduledExecutorService timer) {
+		if (idleMillis <= 0) {
+			throw new IllegalArgumentException("The idle time needs to be larger than 0.");
+		}
+		this.maxTotal = maxTotal;
+		this.maxPerPeer = maxPerPeer;
+		this.idleMillis = idleMillis;
+		if (maxTotal > 0) {
+			final int period = Math.max(idleMillis / 2, 1);
+			this.evictFuture = timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdle();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			this.evictFuture = null;
+		}
+	}
+
+	/**
+	 * Takes an idle channel to the given peer from the pool.
+	 *
+	 * @param remote
+	 *            The TCP socket of the remote peer
+	 * @return An open channel that is not used by any request, or null if
+	 *         there is no such channel in the pool
+	 */
+	public Channel poll(final SocketAddress remote) {
+		final List<Channel> toClose = new ArrayList<Channel>(0);
+		try {
+			synchronized (this) {
+				final Deque<PooledChannel> channels = idle.get(remote);
+				final long now = System.currentTimeMillis();
+				while (channels != null && !channels.isEmpty()) {
+					final PooledChannel pooledChannel = channels.pollLast();
+					lru.remove(pooledChannel.channel);
+					if (channels.isEmpty()) {
+						idle.remove(remote);
+					}
+					if (pooledChannel.channel.isActive() && now - pooledChannel.since < idleMillis) {
+						hits++;
+						return pooledChannel.channel;
+					}
+					toClose.add(pooledChannel.channel);
+				}
+				misses++;
+				return null;
+			}
+		} finally {
+			close(toClose);
+		}
+	}
+
+	/**
+	 * Returns a channel to the pool. If the pool is full, the least recently
+	 * returned channel to the same peer or, if the peer has less channels, to
+	 * any peer is closed.
+	 *
+	 * @param remote
+	 *            The TCP socket of the remote peer
+	 * @param channel
+	 *            The channel that is not used by any request anymore
+	 * @return True if the channel was added, false if the caller needs to
+	 *         close it
+	 */
+	public boolean offer(final SocketAddress remote, final Channel channel) {
+		if (!channel.isActive()) {
+			return false;
+		}
+		final List<Channel> toClose = new ArrayList<Channel>(1);
+		try {
+			synchronized (this) {
+				if (shutdown || maxTotal <= 0 || maxPerPeer <= 0) {
+					return false;
+				}
+				Deque<PooledChannel> channels = idle.get(remote);
+				if (channels != null && channels.size() >= maxPerPeer) {
+					final PooledChannel oldest = channels.peekFirst();
+					lru.remove(oldest.channel);
+					removeFromPeer(oldest);
+					toClose.add(oldest.channel);
+				} else if (lru.size() >= maxTotal) {
+					toClose.add(removeEldest());
+				}
+				// the evictions may have removed the channels of this peer
+				channels = idle.get(remote);
+				if (channels == null) {
+					channels = new ArrayDeque<PooledChannel>(maxPerPeer);
+					idle.put(remote, channels);
+				}
+				final PooledChannel pooledChannel = new PooledChannel(channel, remote, System.currentTimeMillis());
+				channels.addLast(pooledChannel);
+				lru.put(channel, pooledChannel);
+				evicted += toClose.size();
+			}
+			if (channel.attr(POOL_KEY).setIfAbsent(this) == null) {
+				channel.closeFuture().addListener(removeListener);
+			}
+			LOG.debug("Pooled TCP channel {} to {}", channel, remote);
+			return true;
+		} finally {
+			close(toClose);
+		}
+	}
+
+	/**
+	 * Closes the channels that are idle for too long. This is called
+	 * periodically, but can also be called directly.
+	 */
+	public void evictIdle() {
+		final List<Channel> toClose = new ArrayList<Channel>(0);
+		synchronized (this) {
+			final long now = System.currentTimeMillis();
+			final Iterator<PooledChannel> iterator = lru.values().iterator();
+			while (iterator.hasNext()) {
+				final PooledChannel pooledChannel = iterator.next();
+				if (now - pooledChannel.since < idleMillis) {
+					// the following channels were returned later
+					break;
+				}
+				iterator.remove();
+				removeFromPeer(pooledChannel);
+				toClose.add(pooledChannel.channel);
+			}
+			evicted += toClose.size();
+		}
+		close(toClose);
+	}
+
+	/**
+	 * Closes all idle channels. Channels that are returned afterwards are not
+	 * pooled anymore.
+	 */
+	public void shutdown() {
+		final List<Channel> toClose;
+		synchronized (this) {
+			shutdown = true;
+			if (evictFuture != null) {
+				evictFuture.cancel(false);
+			}
+			toClose = new ArrayList<Channel>(lru.keySet());
+			lru.clear();
+			idle.clear();
+		}
+		close(toClose);
+	}
+
+	/**
+	 * @return The number of idle channels in this pool
+	 */
+	public synchronized int size() {
+		return lru.size();
+	}
+
+	/**
+	 * @return The number of polls that returned a channel
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of polls that did not find a channel
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of channels that were closed because the pool was
+	 *         full or the channels were idle for too long
+	 */
+	public synchronized long evicted() {
+		return evicted;
+	}
+
+	private synchronized void remove(final Channel channel) {
+		final PooledChannel pooledChannel = lru.remove(channel);
+		if (pooledChannel != null) {
+			removeFromPeer(pooledChannel);
+		}
+	}
+
+	private Channel removeEldest() {
+		final Iterator<PooledChannel> iterator = lru.values().iterator();
+		final PooledChannel eldest = iterator.next();
+		iterator.remove();
+		removeFromPeer(eldest);
+		return eldest.channel;
+	}
+
+	private void removeFromPeer(final PooledChannel pooledChannel) {
+		final Deque<PooledChannel> channels = idle.get(pooledChannel.remote);
+		if (channels != null) {
+			channels.remove(pooledChannel);
+			if (channels.isEmpty()) {
+				idle.remove(pooledChannel.remote);
+			}
+		}
+	}
+
+	private static void close(final List<Channel> channels) {
+		for (Channel channel : channels) {
+			LOG.debug("Close pooled TCP channel {}", channel);
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.DispatchHandler;
+
+/**
+ * An immutable snapshot of the registered handlers of the {@link Dispatcher}.
+ * Each pair of peer ID and on behalf of ID gets a slot in an open addressing
+ * hash table, and each slot has an array of handlers indexed by the command
+ * byte. A lookup neither locks nor allocates. A registration creates a new
+ * snapshot that shares the handler arrays of the other slots, so it is linear
+ * in the number of slots and not in the number of handlers.
+ *
+ * @author Thomas Bocek
+ */
+final class DispatchTable {
+
+	static final int COMMANDS = 256;
+
+	static final DispatchTable EMPTY = new DispatchTable(new Number160[8], new Number160[8],
+			new DispatchHandler[8][], 0);
+
+	private final Number160[] peerIds;
+	private final Number160[] onBehalfOfs;
+	private final DispatchHandler[][] handlers;
+	private final int size;
+
+	private DispatchTable(final Number160[] peerIds, final Number160[] onBehalfOfs,
+			final DispatchHandler[][] handlers, final int size) {
+		this.peerIds = peerIds;
+		this.onBehalfOfs = onBehalfOfs;
+		this.handlers = handlers;
+		this.size = size;
+	}
+
+	/**
+	 * @param peerId
+	 *            The ID of the peer
+	 * @param onBehalfOf
+	 *            The ID of the peer the handlers were registered on behalf of
+	 * @return The slot, or -1 if there are no handlers for these IDs
+	 */
+	int slot(final Number160 peerId, final Number160 onBehalfOf) {
+		final int mask = peerIds.length - 1;
+		for (int i = hash(peerId, onBehalfOf) & mask; peerIds[i] != null; i = (i + 1) & mask) {
+			if (peerIds[i].equals(peerId) && onBehalfOfs[i].equals(onBehalfOf)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param peerId
+	 *            The ID of the peer
+	 * @param onBehalfOf
+	 *            The ID of the peer the handlers were registered on behalf of
+	 * @param command
+	 *            The command of the message
+	 * @return The handler, or null if not registered
+	 */
+	DispatchHandler handler(final Number160 peerId, final Number160 onBehalfOf, final int command) {
+		final int slot = slot(peerId, onBehalfOf);
+		return slot < 0 ? null : handlers[slot][command & 0xff];
+	}
+
+	/**
+	 * @return The number of slots, including empty ones
+	 */
+	int capacity() {
+		return peerIds.length;
+	}
+
+	/**
+	 * @param slot
+	 *            The slot
+	 * @return The peer ID of the slot, or null if empty
+	 */
+	Number160 peerId(final int slot) {
+		return peerIds[slot];
+	}
+
+	/**
+	 * @param slot
+	 *            The slot
+	 * @return The on behalf of ID of the slot, or null if empty
+	 */
+	Number160 onBehalfOf(final int slot) {
+		return onBehalfOfs[slot];
+	}
+
+	/**
+	 * @param slot
+	 *            The slot
+	 * @return The handlers indexed by command, must not be modified
+	 */
+	DispatchHandler[] handlers(final int slot) {
+		return handlers[slot];
+	}
+
+	/**
+	 * @return A new snapshot with the handler registered for the commands
+	 */
+	DispatchTable register(final Number160 peerId, final Number160 onBehalfOf, final DispatchHandler handler,
+			final int... commands) {
+		for (final int command : commands) {
+			if (command < Byte.MIN_VALUE || command > Byte.MAX_VALUE) {
+				throw new IllegalArgumentException("A command is a byte, but got " + command + ".");
+			}
+		}
+		int slot = slot(peerId, onBehalfOf);
+		final DispatchTable table;
+		if (slot >= 0) {
+			table = new DispatchTable(peerIds.clone(), onBehalfOfs.clone(), handlers.clone(), size);
+			table.handlers[slot] = table.handlers[slot].clone();
+		} else {
+			// keep the load factor at most 0.5
+			final int capacity = (size + 1) * 2 > peerIds.length ? peerIds.length * 2 : peerIds.length;
+			table = copy(capacity, null, null, size + 1);
+			slot = table.insert(peerId, onBehalfOf, new DispatchHandler[COMMANDS]);
+		}
+		for (final int command : commands) {
+			table.handlers[slot][command & 0xff] = handler;
+		}
+		return table;
+	}
+
+	/**
+	 * @param peerId
+	 *            The ID of the peer
+	 * @param onBehalfOf
+	 *            The ID of the peer the handlers were registered on behalf of,
+	 *            or null to remove the handlers of the peer for all IDs
+	 * @return A new snapshot without the handlers
+	 */
+	DispatchTable remove(final Number160 peerId, final Number160 onBehalfOf) {
+		int removed = 0;
+		for (int i = 0; i < peerIds.length; i++) {
+			if (peerIds[i] != null && matches(i, peerId, onBehalfOf)) {
+				removed++;
+			}
+		}
+		if (removed == 0) {
+			return this;
+		}
+		return copy(peerIds.length, peerId, onBehalfOf, size - removed);
+	}
+
+	private boolean matches(final int slot, final Number160 peerId, final Number160 onBehalfOf) {
+		return peerIds[slot].equals(peerId) && (onBehalfOf == null || onBehalfOfs[slot].equals(onBehalfOf));
+	}
+
+	private DispatchTable copy(final int capacity, final Number160 removePeerId, final Number160 removeOnBehalfOf,
+			final int newSize) {
+		final DispatchTable table = new DispatchTable(new Number160[capacity], new Number160[capacity],
+				new DispatchHandler[capacity][], newSize);
+		for (int i = 0; i < peerIds.length; i++) {
+			if (peerIds[i] != null && (removePeerId == null || !matches(i, removePeerId, removeOnBehalfOf))) {
+				table.insert(peerIds[i], onBehalfOfs[i], handlers[i]);
+			}
+		}
+		return table;
+	}
+
+	// only used while building a new snapshot
+	private int insert(final Number160 peerId, final Number160 onBehalfOf, final DispatchHandler[] slotHandlers) {
+		final int mask = peerIds.length - 1;
+		int i = hash(peerId, onBehalfOf) & mask;
+		while (peerIds[i] != null) {
+			i = (i + 1) & mask;
+		}
+		peerIds[i] = peerId;
+		onBehalfOfs[i] = onBehalfOf;
+		handlers[i] = slotHandlers;
+		return i;
+	}
+
+	private static int hash(final Number160 peerId, final Number160 onBehalfOf) {
+		final int hash = 31 * peerId.hashCode() + onBehalfOf.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -23,8 +23,10 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.Timeout;
 import io.netty.util.concurrent.GenericFutureListener;
 import net.tomp2p.connection.PeerException.AbortCause;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Message;
@@ -41,10 +43,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Used to deliver incoming REQUEST messages to their specific handlers. Handlers can be registered using the
@@ -64,11 +63,9 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
     private final int p2pID;
     private final PeerBean peerBeanMaster;
 
-    //use locks instead copy on write as testcases became really slow
-    final private ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
-    final private Lock readLock = reentrantReadWriteLock.readLock();
-    final private Lock writeLock = reentrantReadWriteLock.writeLock();
-    final private SortedMap<Number320, Map<Integer, DispatchHandler>> ioHandlers = new TreeMap<Number320, Map<Integer, DispatchHandler>>();
+    // copy on write, a registration copies only the slots and not the handlers of other peers
+    final private Object registrationLock = new Object();
+    private volatile DispatchTable dispatchTable = DispatchTable.EMPTY;
     
 	/**
 	 * Map that stores requests that are not answered yet. Normally, the {@link RequestHandler} handles
@@ -115,20 +112,9 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      *            will receive these messages!
      */
     public void registerIoHandler(final Number160 peerId, final Number160 onBehalfOf, final DispatchHandler ioHandler, final int... names) {
-    	writeLock.lock();
-    	try {
-    		Map<Integer, DispatchHandler> types = ioHandlers.get(new Number320(peerId, onBehalfOf));
-    		if (types == null) {
-    			types = new HashMap<Integer, DispatchHandler>();
-    			ioHandlers.put(new Number320(peerId, onBehalfOf), types);
-    		}
-    		for (Integer name : names) {
-    			types.put(name, ioHandler);
-    		}
-    	} finally {
-    		writeLock.unlock();
+    	synchronized (registrationLock) {
+    		dispatchTable = dispatchTable.register(peerId, onBehalfOf, ioHandler, names);
     	}
-        
     }
 
     /**
@@ -140,22 +126,14 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      * 			  The ioHandler can be registered for the own use in behalf of another peer (e.g. in case of relay node).
      */
     public void removeIoHandler(final Number160 peerId, final Number160 onBehalfOf) {
-        writeLock.lock();
-    	try {
-    		ioHandlers.remove(new Number320(peerId, onBehalfOf));
-    	}  finally {
-    		writeLock.unlock();
+    	synchronized (registrationLock) {
+    		dispatchTable = dispatchTable.remove(peerId, onBehalfOf);
     	}
     }
     
     public void removeIoHandler(final Number160 peerId) {
-    	writeLock.lock();
-    	try {
-    		Number320 min = new Number320(peerId, Number160.ZERO); 
-    		Number320 max = new Number320(peerId, Number160.MAX_VALUE);
-    		ioHandlers.subMap(min, max).clear();
-    	}  finally {
-    		writeLock.unlock();
+    	synchronized (registrationLock) {
+    		dispatchTable = dispatchTable.remove(peerId, null);
     	}
     }
 
@@ -241,13 +219,11 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
     private void printWarnMessage(Message message) {
     	final Collection<Integer> knownCommands = new HashSet<Integer>();
     	
-    	readLock.lock();
-    	try {
-    		for(final Map.Entry<Number320, Map<Integer, DispatchHandler>> entry:ioHandlers.entrySet()) {
-    			knownCommands.addAll(entry.getValue().keySet());
+    	final DispatchTable table = dispatchTable;
+    	for (int i = 0; i < table.capacity(); i++) {
+    		if (table.peerId(i) != null) {
+    			knownCommands.addAll(commands(table.handlers(i)).keySet());
     		}
-    	} finally {
-    		readLock.unlock();
     	}
     	
     	if(!knownCommands.contains(Integer.valueOf(message.command()))) {
@@ -394,22 +370,13 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      * @return The handler for the provided parameters or null, if none has been found.
      */
     public DispatchHandler searchHandler(final Number160 recipientID, final Number160 onBehalfOf, final int cmd) {
-		final Integer command = Integer.valueOf(cmd);
-		readLock.lock();
-		try {
-			final Map<Integer, DispatchHandler> types = search(recipientID, onBehalfOf);
-			if (types != null && types.containsKey(command)) {
-				return types.get(command);
-			} else {
-				// not registered
-				LOG.debug(
-						"Handler not found for type {} we are looking for the server with ID {} on behalf of {}",
-						command, recipientID, onBehalfOf);
-				return null;
-			}
-		} finally {
-			readLock.unlock();
+		final DispatchHandler handler = dispatchTable.handler(recipientID, onBehalfOf, cmd);
+		if (handler == null && LOG.isDebugEnabled()) {
+			// not registered
+			LOG.debug("Handler not found for type {} we are looking for the server with ID {} on behalf of {}",
+					cmd, recipientID, onBehalfOf);
 		}
+		return handler;
     }
     
     /**
@@ -418,77 +385,75 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
      * @return
      */
     public Map<Number320, DispatchHandler> searchHandler(final Integer command) {
-		readLock.lock();
-		try {
-			Map<Number320, DispatchHandler> result = new HashMap<Number320, DispatchHandler>();
-			for (Map.Entry<Number320, Map<Integer, DispatchHandler>> entry : ioHandlers.entrySet()) {
-				for (Map.Entry<Integer, DispatchHandler> entry2 : entry.getValue().entrySet()) {
-					DispatchHandler handler = entry.getValue().get(command);
-					if (handler != null && entry2.getKey().equals(command)) {
-						result.put(entry.getKey(), handler);
-					}
+		final DispatchTable table = dispatchTable;
+		final Map<Number320, DispatchHandler> result = new HashMap<Number320, DispatchHandler>();
+		for (int i = 0; i < table.capacity(); i++) {
+			if (table.peerId(i) != null) {
+				final DispatchHandler handler = table.handlers(i)[command.intValue() & 0xff];
+				if (handler != null) {
+					result.put(new Number320(table.peerId(i), table.onBehalfOf(i)), handler);
 				}
 			}
-			return result;
-		} finally {
-			readLock.unlock();
 		}
+		return result;
     }
     
 	@SuppressWarnings("unchecked")
 	public <T> T searchHandler(Class<T> clazz, Number160 peerID, Number160 peerId2) {
-		readLock.lock();
-		try {
-			final Map<Integer, DispatchHandler> ioHandlers = search(peerID, peerId2);
-			if(ioHandlers == null) {
-				return null;
-			}
-			for (DispatchHandler handler : ioHandlers.values()) {
-				if (clazz.isInstance(handler)) {
-					return (T) handler;
-				}
-			}
+		final DispatchTable table = dispatchTable;
+		final int slot = table.slot(peerID, peerId2);
+		if (slot < 0) {
 			return null;
-		} finally {
-			readLock.unlock();
 		}
+		for (DispatchHandler handler : table.handlers(slot)) {
+			if (clazz.isInstance(handler)) {
+				return (T) handler;
+			}
+		}
+		return null;
 	}
 	
 	public Map<Integer, DispatchHandler> searchHandler(Number160 peerId, Number160 onBehalfOf) {
-		readLock.lock();
-		try {
-			return new HashMap<Integer, DispatchHandler>(ioHandlers.get(new Number320(peerId, onBehalfOf)));
-		} finally {
-			readLock.unlock();
+		final DispatchTable table = dispatchTable;
+		final int slot = table.slot(peerId, onBehalfOf);
+		if (slot < 0) {
+			return new HashMap<Integer, DispatchHandler>();
 		}
+		return commands(table.handlers(slot));
 	}
 
     /**
      * 
-     * @param peerId
-     * 			  The id of the peer the get the dispatcher map
-     * @param onBehalfOf
-     * 			  The ioHandler can be registered for the own use of in behalf of another peer (e.g. in case of relay node).
-     * @return the map containing all dispatchers for each {@link Commands} type
+     * @param handlers
+     * 			  The handlers of a slot in the dispatch table, indexed by the command as an unsigned byte
+     * @return the map containing the registered dispatchers for each {@link Commands} type, keyed by the command
      */
-	private Map<Integer, DispatchHandler> search(Number160 peerId, Number160 onBehalfOf) {
-		return ioHandlers.get(new Number320(peerId, onBehalfOf));
+	private static Map<Integer, DispatchHandler> commands(final DispatchHandler[] handlers) {
+		final Map<Integer, DispatchHandler> result = new HashMap<Integer, DispatchHandler>();
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i] != null) {
+				// the command as registered, a signed byte
+				result.put((int) (byte) i, handlers[i]);
+			}
+		}
+		return result;
 	}
 	
 	/**
-	 * Add a new pending request. If slow peers answer, this map will be checked for an entry
+	 * Add a new pending request. If slow peers answer, this map will be checked for an entry. The entry is removed
+	 * once the future is done, or failed after the timeout.
 	 * 
 	 * @param messageId the message id
 	 * @param futureResponse the future to respond as soon as a (satisfying) response from the slow peer
 	 *            arrived.
-	 * @param scheduler 
-	 * @param timeout the timeout in seconds
+	 * @param timeoutMillis the timeout in milliseconds
+	 * @param timeoutWheel the wheel to schedule the timeout
 	 */
-	public void addPendingRequest(final int messageId, final FutureResponse futureResponse, final int timeoutMillis, final ScheduledExecutorService scheduler) {
+	public void addPendingRequest(final int messageId, final FutureResponse futureResponse, final int timeoutMillis, final TimeoutWheel timeoutWheel) {
 		pendingRequests.put(messageId, futureResponse);
 		
 		// schedule the timeout of pending request
-                scheduler.schedule(new Runnable() {
+		final Timeout timeout = timeoutWheel.schedule(new Runnable() {
 			@Override
 			public void run() {
 				FutureResponse response = pendingRequests.remove(messageId);
@@ -498,6 +463,13 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
 				}
 			}
 		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+			@Override
+			public void operationComplete(final FutureResponse future) throws Exception {
+				timeout.cancel();
+				pendingRequests.remove(messageId, futureResponse);
+			}
+		});
 	}
 
 	/**
@@ -508,11 +480,6 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
 	}
 
 	public boolean responsibleFor(Number160 peerId) {
-		readLock.lock();
-    	try {
-    		return ioHandlers.containsKey(new Number320(peerId, peerId));
-    	} finally {
-    		readLock.unlock();
-    	}
+		return dispatchTable.slot(peerId, peerId) >= 0;
 	}
 }
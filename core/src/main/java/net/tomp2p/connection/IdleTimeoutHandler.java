@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires {@link IdleStateEvent#FIRST_READER_IDLE_STATE_EVENT} and
+ * {@link IdleStateEvent#READER_IDLE_STATE_EVENT} if nothing was read for the
+ * idle time, as {@link IdleStateHandler} does for the reader. The timeout is
+ * scheduled in the shared {@link TimeoutWheel} instead of the event loop of
+ * the channel, so a request in flight costs an O(1) insert and cancel. The
+ * event is fired in the event loop of the channel.
+ *
+ * @author Thomas Bocek
+ */
+public class IdleTimeoutHandler extends ChannelDuplexHandler {
+
+	private final TimeoutWheel timeoutWheel;
+	private final long idleNanos;
+
+	// accessed in the event loop only
+	private long lastReadNanos;
+	private boolean firstEvent = true;
+	private boolean initialized = false;
+	private boolean destroyed = false;
+	private Timeout timeout;
+
+	/**
+	 * @param timeoutWheel
+	 *            The wheel to schedule the timeout
+	 * @param idleMillis
+	 *            The time without a read until the event is fired, 0 or less
+	 *            disables the timeout
+	 */
+	public IdleTimeoutHandler(final TimeoutWheel timeoutWheel, final int idleMillis) {
+		this.timeoutWheel = timeoutWheel;
+		this.idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleMillis));
+	}
+
+	@Override
+	public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().isActive() && ctx.channel().isRegistered()) {
+			initialize(ctx);
+		}
+	}
+
+	@Override
+	public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+		destroy();
+	}
+
+	@Override
+	public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+		initialize(ctx);
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+		destroy();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+		lastReadNanos = System.nanoTime();
+		firstEvent = true;
+		ctx.fireChannelRead(msg);
+	}
+
+	private void initialize(final ChannelHandlerContext ctx) {
+		if (initialized || destroyed || idleNanos == 0) {
+			return;
+		}
+		initialized = true;
+		lastReadNanos = System.nanoTime();
+		schedule(ctx, idleNanos);
+	}
+
+	private void destroy() {
+		destroyed = true;
+		if (timeout != null) {
+			timeout.cancel();
+			timeout = null;
+		}
+	}
+
+	private void schedule(final ChannelHandlerContext ctx, final long delayNanos) {
+		timeout = timeoutWheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ctx.executor().execute(new Runnable() {
+					@Override
+					public void run() {
+						expired(ctx);
+					}
+				});
+			}
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private void expired(final ChannelHandlerContext ctx) {
+		if (destroyed || !ctx.channel().isOpen()) {
+			return;
+		}
+		final long nextDelay = idleNanos - (System.nanoTime() - lastReadNanos);
+		if (nextDelay > 0) {
+			// read in the meantime, wait for the rest of the idle time
+			schedule(ctx, nextDelay);
+			return;
+		}
+		schedule(ctx, idleNanos);
+		final IdleStateEvent event = firstEvent ? IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT
+				: IdleStateEvent.READER_IDLE_STATE_EVENT;
+		firstEvent = false;
+		ctx.fireUserEventTriggered(event);
+	}
+}
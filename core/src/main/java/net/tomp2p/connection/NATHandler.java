@@ -9,7 +9,6 @@ import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Message;
 
 import java.util.List;
-import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * This interface makes sure that a hole punch procedure can be started from the {@link Sender} class.
@@ -30,5 +29,5 @@ public interface NATHandler {
 	public FutureDone<Message> handleHolePunch(final int idleUDPSeconds, final FutureResponse futureResponse, final Message originalMessage);
         public List<FutureResponse> handleRcon(final Dispatcher dispatcher, final Message message, 
             final FutureResponse futureResponse, PeerConnection peerConnection, int idleUDPMillis,
-            ScheduledExecutorService executorService);
+            TimeoutWheel timeoutWheel);
 }
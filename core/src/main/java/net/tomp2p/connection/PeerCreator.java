@@ -99,10 +99,11 @@ public class PeerCreator {
 		
 		//connection bean
 		Sender sender = new Sender(peerBean.peerStatusListeners(), dispatcher);
-                Connect connect = new Connect(peerId, channelClientConfiguration, dispatcher, sendBehavior);
+		TimeoutWheel timeoutWheel = new TimeoutWheel();
+		Connect connect = new Connect(peerId, channelClientConfiguration, dispatcher, sendBehavior, timeoutWheel);
 		BulkReservation reservation = new BulkReservation(workerGroup, channelClientConfiguration, peerBean);
 		connectionBean = new ConnectionBean(p2pId, dispatcher, connect, sender, channelServer, reservation,
-		        channelClientConfiguration, timer);
+		        channelClientConfiguration, timer, timeoutWheel);
 		this.master = true;
 	}
 
@@ -151,6 +152,7 @@ public class PeerCreator {
 		for(Runnable runner: connectionBean.timer().shutdownNow()) {
 			runner.run();
 		}
+		connectionBean.timeoutWheel().stop();
 		
 		LOG.debug("Shutting down client...");
 		connectionBean.reservation().shutdown().addListener(new BaseFutureAdapter<FutureDone<Void>>() {
@@ -17,6 +17,7 @@ package net.tomp2p.connection;
 
  import io.netty.channel.ChannelHandlerContext;
  import io.netty.channel.SimpleChannelInboundHandler;
+ import io.netty.channel.socket.DatagramChannel;
  import io.netty.handler.timeout.IdleState;
  import io.netty.handler.timeout.IdleStateEvent;
  import net.tomp2p.futures.FutureResponse;
@@ -68,6 +69,8 @@ public class RequestHandler extends SimpleChannelInboundHandler<Message> {
     private final boolean isKeepAlive;
     
     private volatile PeerConnection peerConnection;
+    // true if the TCP channel was created for this request only and can be pooled afterwards
+    private volatile boolean isPoolable = false;
     /**
 	 * Creates a request handler that can send TCP and UDP messages.
      * 
@@ -235,11 +238,17 @@ public class RequestHandler extends SimpleChannelInboundHandler<Message> {
         } else {
             peerConnection = PeerConnection.newPermanentPeerConnectionTCP(channelCreator, recipient, idleTCPMillis, heartBeatSeconds);
         }
-        return sendTCP(peerConnection);
+        // nobody else holds this peer connection, the channel can be reused by the next request, unless the
+        // remote peer keeps it open to send on it
+        return sendTCP(peerConnection, !isKeepAlive);
     }
 
     public FutureResponse sendTCP(final PeerConnection peerConnection) {
-        
+        return sendTCP(peerConnection, false);
+    }
+
+    private FutureResponse sendTCP(final PeerConnection peerConnection, final boolean isPoolable) {
+        this.isPoolable = isPoolable;
         final SendBehavior.SendMethod sendMethod = connectionBean.connect().connectTCP(
                 this, connectionTimeoutTCPMillis, sender, peerConnection, isReflected);
         this.peerConnection = peerConnection;
@@ -261,7 +270,7 @@ public class RequestHandler extends SimpleChannelInboundHandler<Message> {
                 }
                 //TODO: finish dispatcher
                 List<FutureResponse> futures = peerBean.natHandler().handleRcon(connectionBean.dispatcher(), message, 
-                        futureResponse, peerConnection, idleUDPMillis, connectionBean.timer());
+                        futureResponse, peerConnection, idleUDPMillis, connectionBean.timeoutWheel());
                 for(FutureResponse future:futures) {
                     //if all futures fail, natHandler will handle this
                     sendUDP(peerConnection.channelCreator(), future.request().recipient(), 
@@ -327,6 +336,16 @@ public class RequestHandler extends SimpleChannelInboundHandler<Message> {
         peerConnection.closeListener().failAfterSemaphoreRelease(futureResponse, cause);
     }
     
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        // the remote peer closed the connection before it responded, e.g., because it was shut down
+        if (!futureResponse.isCompleted()) {
+            exceptionCaught(ctx, new PeerException(PeerException.AbortCause.PROBABLY_OFFLINE,
+                    "channel closed before the response arrived"));
+        }
+        ctx.fireChannelInactive();
+    }
+
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof IdleStateEvent) {
@@ -378,6 +397,12 @@ public class RequestHandler extends SimpleChannelInboundHandler<Message> {
             return;
         }
         
+        if (!sendMessageID.equals(recvMessageID) && ctx.channel() instanceof DatagramChannel) {
+            // UDP channels are reused, this is a late answer to a previous request
+            LOG.debug("Ignore response {}, we expect a response to {}.", responseMessage, this.message);
+            responseMessage.release();
+            return;
+        }
         if (!sendMessageID.equals(recvMessageID)) {
 			String msg = "Response message [" + responseMessage
                     + "] sent to the node is not the same as we expect. We sent [" + this.message + "]";
@@ -434,7 +459,15 @@ public class RequestHandler extends SimpleChannelInboundHandler<Message> {
                                 futureResponse.responseNow();
                             }
                         });*/
-            ctx.close();
+            if (ctx.channel() instanceof DatagramChannel && peerConnection.channelCreator() != null) {
+                // keep the UDP channel open for the next request
+                peerConnection.channelCreator().releaseUDP(ctx.channel());
+            } else if (isPoolable && peerConnection.channelCreator() != null) {
+                // keep the TCP channel open for the next request to this peer
+                peerConnection.channelCreator().releaseTCP(ctx.channel());
+            } else {
+                ctx.close();
+            }
             peerConnection.closeListener().successAfterSemaphoreRelease(futureResponse, responseMessage);
             //futureResponse.response(responseMessage);
         } else {
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timeouts of requests and idle channels, shared by all peers of a
+ * {@link ConnectionBean}. A timeout is put into a {@link HashedWheelTimer}, so
+ * scheduling and cancelling is O(1), regardless of the number of requests in
+ * flight. The wheel ticks every {@link #TICK_MILLIS}, which is the precision
+ * of the timeouts. The tasks run on the thread of the wheel, thus they must
+ * be short, or hand over the work, e.g., to the event loop of a channel.
+ *
+ * @author Thomas Bocek
+ */
+public class TimeoutWheel {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TimeoutWheel.class);
+
+	public static final int TICK_MILLIS = 10;
+	public static final int TICKS_PER_WHEEL = 1024;
+
+	private final HashedWheelTimer timer;
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a wheel, the thread of the wheel is started with the first
+	 * timeout.
+	 */
+	public TimeoutWheel() {
+		this.timer = new HashedWheelTimer(new DefaultThreadFactory(ConnectionBean.THREAD_NAME + "timeout - "),
+				TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * Schedules a task. After {@link #stop()}, the task is not scheduled and
+	 * the returned timeout is already cancelled, as a peer may still set up a
+	 * channel while the wheel shuts down.
+	 *
+	 * @param task
+	 *            The task to run after the delay, unless cancelled
+	 * @param delay
+	 *            The delay
+	 * @param unit
+	 *            The unit of the delay
+	 * @return The timeout to cancel the task
+	 */
+	public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+		final CountedTimeout countedTimeout = new CountedTimeout(task);
+		pending.incrementAndGet();
+		scheduled.incrementAndGet();
+		if (stopped) {
+			countedTimeout.cancel();
+			return countedTimeout;
+		}
+		try {
+			countedTimeout.delegate = timer.newTimeout(countedTimeout, delay, unit);
+		} catch (IllegalStateException e) {
+			// stopped concurrently
+			LOG.debug("Timeout not scheduled, the wheel is stopped.");
+			countedTimeout.cancel();
+		}
+		return countedTimeout;
+	}
+
+	/**
+	 * Stops the wheel. The tasks that did not run yet are cancelled, they do
+	 * not run anymore.
+	 */
+	public void stop() {
+		stopped = true;
+		final Set<Timeout> timeouts = timer.stop();
+		for (final Timeout timeout : timeouts) {
+			// all tasks of the timer are ours
+			((CountedTimeout) timeout.task()).cancel();
+		}
+	}
+
+	/**
+	 * @return The number of timeouts that are scheduled and neither expired
+	 *         nor cancelled
+	 */
+	public int pending() {
+		return pending.get();
+	}
+
+	/**
+	 * @return The number of timeouts scheduled so far
+	 */
+	public long scheduled() {
+		return scheduled.get();
+	}
+
+	/**
+	 * @return The number of timeouts that expired so far, i.e., the task ran
+	 */
+	public long expired() {
+		return expired.get();
+	}
+
+	/**
+	 * @return The number of timeouts cancelled so far
+	 */
+	public long cancelled() {
+		return cancelled.get();
+	}
+
+	/**
+	 * Counts the expired and cancelled timeouts. Since a timeout either
+	 * expires or is cancelled, each is counted once.
+	 */
+	private final class CountedTimeout implements Timeout, TimerTask {
+		private final Runnable task;
+		private final AtomicInteger state = new AtomicInteger();
+		private volatile Timeout delegate;
+
+		private CountedTimeout(final Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run(final Timeout timeout) throws Exception {
+			if (state.compareAndSet(0, 1)) {
+				pending.decrementAndGet();
+				expired.incrementAndGet();
+				task.run();
+			}
+		}
+
+		@Override
+		public Timer timer() {
+			return timer;
+		}
+
+		@Override
+		public TimerTask task() {
+			return this;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state.get() == 1;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == 2;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (state.compareAndSet(0, 2)) {
+				pending.decrementAndGet();
+				cancelled.incrementAndGet();
+				// the delegate is set right after scheduling, a cancelled
+				// timeout that still fires is ignored by the state
+				final Timeout timeout = delegate;
+				if (timeout != null) {
+					timeout.cancel();
+				}
+				return true;
+			}
+			return false;
+		}
+	}
+}
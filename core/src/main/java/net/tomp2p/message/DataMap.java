@@ -1,10 +1,17 @@
 package net.tomp2p.message;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.connection.SignatureFactory;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number640;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
 
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
@@ -16,6 +23,8 @@ public class DataMap {
     private final Number160 domainKey;
     private final Number160 versionKey;
     private final boolean convertMeta;
+    // the entries as they are written by the encoder, or null
+    private final ByteBuf encoded;
     
     public DataMap(final NavigableMap<Number640, Data> dataMap) {
     	this(dataMap, false);
@@ -28,6 +37,7 @@ public class DataMap {
         this.domainKey = null;
         this.versionKey = null;
         this.convertMeta = convertMeta;
+        this.encoded = null;
     }
     
     public DataMap(final Number160 locationKey, final Number160 domainKey, final Number160 versionKey,
@@ -43,6 +53,67 @@ public class DataMap {
         this.domainKey = domainKey;
         this.versionKey = versionKey;
         this.convertMeta = convertMeta;
+        this.encoded = null;
+    }
+
+    private DataMap(final NavigableMap<Number640, Data> dataMap, final ByteBuf encoded) {
+        this.dataMap = dataMap;
+        this.dataMapConvert = null;
+        this.locationKey = null;
+        this.domainKey = null;
+        this.versionKey = null;
+        this.convertMeta = false;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Encodes the entries once for a request, so that the same map can be sent
+     * to several peers without encoding and signing the data for each message.
+     * The encoder adds a retained slice of the encoded entries to each message.
+     * The data is not signed with the private key of the message, thus signed
+     * data needs its own private key or a signature. Call {@link #release()}
+     * once all messages have been sent.
+     * 
+     * @param dataMap
+     *            The entries to encode
+     * @param signatureFactory
+     *            The signature factory to sign the data with
+     * @return The data map with the encoded entries
+     */
+    public static DataMap encode(final NavigableMap<Number640, Data> dataMap,
+            final SignatureFactory signatureFactory) throws InvalidKeyException, SignatureException, IOException {
+        final CompositeByteBuf buf = Unpooled.compositeBuffer();
+        try {
+            for (final Map.Entry<Number640, Data> entry : dataMap.entrySet()) {
+                entry.getKey().encode(buf);
+                final Data data = entry.getValue();
+                data.encodeHeader(buf, signatureFactory);
+                data.encodeBuffer(buf);
+                data.encodeDone(buf, signatureFactory);
+            }
+        } catch (InvalidKeyException | SignatureException | IOException | RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return new DataMap(dataMap, buf);
+    }
+
+    /**
+     * @return The entries as written by the encoder, or null if the entries
+     *         are encoded for each message
+     */
+    public ByteBuf encoded() {
+        return encoded;
+    }
+
+    /**
+     * Releases the encoded entries, if any. Messages that are still being sent
+     * hold their own reference.
+     */
+    public void release() {
+        if (encoded != null) {
+            encoded.release();
+        }
     }
     
     public boolean isConvertMeta() {
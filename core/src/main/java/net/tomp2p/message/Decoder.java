@@ -34,7 +34,15 @@ public class Decoder {
 
 	private static final Logger LOG = LoggerFactory.getLogger(Decoder.class);
 
-	private final Queue<Content> contentTypes = new LinkedList<Message.Content>();
+	/**
+	 * The largest buffer content a message may announce. A larger or a
+	 * negative size is rejected before anything is allocated.
+	 */
+	public static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final Queue<Content> contentTypes = new ArrayDeque<Message.Content>(Message.CONTENT_TYPE_LENGTH);
 
 	// private Message2 result = null;
 
@@ -72,9 +80,23 @@ public class Decoder {
 	private Content lastContent = null;
 
 	private final SignatureFactory signatureFactory;
+	private final boolean deferVerification;
 
 	public Decoder(SignatureFactory signatureFactory) {
+		this(signatureFactory, false);
+	}
+
+	/**
+	 * @param signatureFactory
+	 *            The factory to decode public keys and signatures
+	 * @param deferVerification
+	 *            True if the signature is only updated while decoding and the
+	 *            final verification is left to the {@link SignatureVerifier}
+	 *            that follows this decoder in the pipeline
+	 */
+	public Decoder(SignatureFactory signatureFactory, boolean deferVerification) {
 		this.signatureFactory = signatureFactory;
+		this.deferVerification = deferVerification;
 	}
 
 	public boolean decode(ChannelHandlerContext ctx, final ByteBuf buf, InetSocketAddress recipient,
@@ -144,7 +166,10 @@ public class Decoder {
 			}
 		}
 
-		if (donePayload) {
+		if (donePayload && deferVerification) {
+			// the hashing is done, the expensive part is done off the event loop
+			message.pendingSignature(signature);
+		} else if (donePayload) {
 			byte[] signatureReceived = message.receivedSignature().encode();
 			LOG.debug("Verifying received signature: {}", Arrays.toString(signatureReceived));
 			if (signature.verify(signatureReceived)) {
@@ -220,9 +245,7 @@ public class Decoder {
 				if (buf.readableBytes() < Number160.BYTE_ARRAY_SIZE) {
 					return false;
 				}
-				byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
-				buf.readBytes(me);
-				message.key(new Number160(me));
+				message.key(Number160.decode(buf));
 				lastContent = contentTypes.poll();
 				break;
 			case BLOOM_FILTER:
@@ -291,16 +314,7 @@ public class Decoder {
 							+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE) {
 						return false;
 					}
-					byte[] me2 = new byte[Number160.BYTE_ARRAY_SIZE];
-					buf.readBytes(me2);
-					Number160 locationKey = new Number160(me2);
-					buf.readBytes(me2);
-					Number160 domainKey = new Number160(me2);
-					buf.readBytes(me2);
-					Number160 contentKey = new Number160(me2);
-					buf.readBytes(me2);
-					Number160 versionKey = new Number160(me2);
-					keyCollection.add(new Number640(locationKey, domainKey, contentKey, versionKey));
+					keyCollection.add(Number640.decode(buf));
 				}
 				message.keyCollection(keyCollection);
 				lastContent = contentTypes.poll();
@@ -333,16 +347,7 @@ public class Decoder {
 								+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE) {
 							return false;
 						}
-						byte[] me3 = new byte[Number160.BYTE_ARRAY_SIZE];
-						buf.readBytes(me3);
-						Number160 locationKey = new Number160(me3);
-						buf.readBytes(me3);
-						Number160 domainKey = new Number160(me3);
-						buf.readBytes(me3);
-						Number160 contentKey = new Number160(me3);
-						buf.readBytes(me3);
-						Number160 versionKey = new Number160(me3);
-						key = new Number640(locationKey, domainKey, contentKey, versionKey);
+						key = Number640.decode(buf);
 					}
 					LOG.debug("Key decoded in message {}, remaining {}", message, buf.readableBytes());
 					data = Data.decodeHeader(buf, signatureFactory);
@@ -394,25 +399,16 @@ public class Decoder {
 					if (buf.readableBytes() < meta + Utils.BYTE_BYTE_SIZE + (size * Number160.BYTE_ARRAY_SIZE )) {
 						return false;
 					}
-					byte[] me3 = new byte[Number160.BYTE_ARRAY_SIZE];
-					buf.readBytes(me3);
-					Number160 locationKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 domainKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 contentKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 versionKey = new Number160(me3);
+					Number640 key640 = Number640.decode(buf);
 
 					int numBasedOn = buf.readByte();
 					Set<Number160> value = new HashSet<Number160>(numBasedOn);
 					for (int j = 0; j < numBasedOn; j++) {
-						buf.readBytes(me3);
-						Number160 basedOnKey = new Number160(me3);
+						Number160 basedOnKey = Number160.decode(buf);
 						value.add(basedOnKey);
 					}
 
-					keyMap640Keys.put(new Number640(locationKey, domainKey, contentKey, versionKey), value);
+					keyMap640Keys.put(key640, value);
 				}
 
 				message.keyMap640Keys(keyMap640Keys);
@@ -436,17 +432,9 @@ public class Decoder {
 							+ Number160.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE + 1) {
 						return false;
 					}
-					byte[] me3 = new byte[Number160.BYTE_ARRAY_SIZE];
-					buf.readBytes(me3);
-					Number160 locationKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 domainKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 contentKey = new Number160(me3);
-					buf.readBytes(me3);
-					Number160 versionKey = new Number160(me3);
+					Number640 key640 = Number640.decode(buf);
 					byte value = buf.readByte();
-					keyMapByte.put(new Number640(locationKey, domainKey, contentKey, versionKey), value);
+					keyMapByte.put(key640, value);
 				}
 
 				message.keyMapByte(keyMapByte);
@@ -460,17 +448,28 @@ public class Decoder {
 				}
 				if (bufferSize == -1) {
 					bufferSize = buf.readInt();
+					if (bufferSize < 0 || bufferSize > MAX_BUFFER_SIZE) {
+						final int invalidSize = bufferSize;
+						bufferSize = -1;
+						throw new IllegalArgumentException("Buffer size " + invalidSize
+								+ " is negative or larger than " + MAX_BUFFER_SIZE + ".");
+					}
 				}
-				if(buf.readableBytes() < bufferSize) {
-					LOG.debug("Still looking for data. Indicating that its not finished yet. Readable = {}, Size = {}.", buf.readableBytes(), bufferSize);
+				if (buffer == null) {
+					// the size comes from the wire, so the buffer grows as the
+					// bytes arrive instead of being allocated up front
+					buffer = Unpooled.buffer(Math.min(bufferSize, INITIAL_BUFFER_SIZE), bufferSize);
+				}
+				// consume what we have, so the received buffers do not pile up
+				// in the cumulation
+				final int bufferRead = Math.min(bufferSize - bufferTransferred, buf.readableBytes());
+				buffer.writeBytes(buf, bufferRead);
+				bufferTransferred += bufferRead;
+				if (bufferTransferred < bufferSize) {
+					LOG.debug("Still looking for data. Indicating that its not finished yet. Transferred = {}, Size = {}.", bufferTransferred, bufferSize);
 					return false;
 				}
-                                
-                                if (buffer == null) {
-					buffer = Unpooled.buffer();
-				}
-                                buffer.writeBytes(buf, bufferSize);
-				
+
 				message.buffer(new Buffer(buffer, bufferSize));
 				lastContent = contentTypes.poll();
 				bufferSize = -1;
@@ -534,7 +533,8 @@ public class Decoder {
 				break;
 			case PUBLIC_KEY: // fall-through
 			case PUBLIC_KEY_SIGNATURE:
-				receivedPublicKey = signatureFactory.decodePublicKey(buf);
+				receivedPublicKey = PublicKeyCache.SHARED.decodePublicKey(message.sender().peerId(), buf,
+						signatureFactory);
 				if(content == Content.PUBLIC_KEY_SIGNATURE) {
 					if (receivedPublicKey == PeerBuilder.EMPTY_PUBLIC_KEY) {
 						throw new InvalidKeyException("The public key cannot be empty.");
@@ -566,8 +566,18 @@ public class Decoder {
 
 	public Message prepareFinish() {
 		final Message ret = message;
-		message = new Message();
 		ret.setDone();
+		reset();
+		return ret;
+	}
+
+	/**
+	 * Resets the state of this decoder, so that it can be reused for the next
+	 * message. The current message is discarded, call {@link #release()} first
+	 * if it was not completely decoded.
+	 */
+	public void reset() {
+		message = new Message();
 		contentTypes.clear();
 		headerDone = false;
 		neighborSize = -1;
@@ -582,14 +592,26 @@ public class Decoder {
 		bufferSize = -1;
 		bufferTransferred = 0;
 		buffer = null;
+		keyMapByteSize = -1;
+		keyMapByte = null;
+		trackerDataSize = -1;
+		trackerData = null;
+		currentTrackerData = null;
 		signature = null;
-		return ret;
 	}
 
 	public Message message() {
 		return message;
 	}
 
+	/**
+	 * @return True if the header of a message is decoded, but not the rest of
+	 *         the message
+	 */
+	public boolean isDecoding() {
+		return headerDone;
+	}
+
 	public Content lastContent() {
 		return lastContent;
 	}
@@ -11,6 +11,7 @@ import net.tomp2p.peers.PeerSocketAddress.PeerSocket6Address;
 import net.tomp2p.rpc.RPC.Commands;
 import net.tomp2p.rpc.SimpleBloomFilter;
 import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,11 +75,11 @@ public class Encoder {
                 message.contentReferences().poll();
                 break;
             case INTEGER:
-                buf.writeInt(message.intAt(next.index()));
+                buf.writeInt(message.intValueAt(next.index()));
                 message.contentReferences().poll();
                 break;
             case LONG:
-                buf.writeLong(message.longAt(next.index()));
+                buf.writeLong(message.longValueAt(next.index()));
                 message.contentReferences().poll();
                 break;
             case SET_NEIGHBORS:
@@ -118,10 +119,7 @@ public class Encoder {
                     }
                 } else {
                     for (final Number640 key : keys.keys()) {
-                    	key.locationKey().encode(buf);
-                    	key.domainKey().encode(buf);
-                    	key.contentKey().encode(buf);
-                    	key.versionKey().encode(buf);
+                    	key.encode(buf);
                     }
                 }
                 message.contentReferences().poll();
@@ -130,7 +128,10 @@ public class Encoder {
                 final DataMap dataMap = message.dataMap(next.index());
                 // length
                 buf.writeInt(dataMap.size());
-                if (dataMap.isConvert()) {
+                if (dataMap.encoded() != null) {
+                    // encoded once for several messages
+                    Utils.addComponent(buf, dataMap.encoded());
+                } else if (dataMap.isConvert()) {
                     for (final Entry<Number160, Data> entry : dataMap.dataMapConvert().entrySet()) {
                     	dataMap.locationKey().encode(buf);
                     	dataMap.domainKey().encode(buf);
@@ -140,10 +141,7 @@ public class Encoder {
                     }
                 } else {
                     for (final Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
-                    	entry.getKey().locationKey().encode(buf);
-                    	entry.getKey().domainKey().encode(buf);
-                    	entry.getKey().contentKey().encode(buf);
-                    	entry.getKey().versionKey().encode(buf);
+                    	entry.getKey().encode(buf);
                         encodeData(buf, entry.getValue(), dataMap.isConvertMeta(), !message.isRequest(), message.command() == Commands.REPLICA_PUT.getNr());
                     }
                 }
@@ -154,10 +152,7 @@ public class Encoder {
                 // length
                 buf.writeInt(keyMap640Keys.size());
                 for (final Entry<Number640, Collection<Number160>> entry : keyMap640Keys.keysMap().entrySet()) {
-                	entry.getKey().locationKey().encode(buf);
-                	entry.getKey().domainKey().encode(buf);
-                	entry.getKey().contentKey().encode(buf);
-                	entry.getKey().versionKey().encode(buf);
+                	entry.getKey().encode(buf);
                     // write number of based-on keys
                     buf.writeByte(entry.getValue().size());
                     // write based-on keys
@@ -172,10 +167,7 @@ public class Encoder {
                 // length
                 buf.writeInt(keysMap.size());
                 for (final Entry<Number640, Byte> entry : keysMap.keysMap().entrySet()) {
-                	entry.getKey().locationKey().encode(buf);
-                	entry.getKey().domainKey().encode(buf);
-                	entry.getKey().contentKey().encode(buf);
-                	entry.getKey().versionKey().encode(buf);
+                	entry.getKey().encode(buf);
                     buf.writeByte(entry.getValue());
                 }
                 message.contentReferences().poll();
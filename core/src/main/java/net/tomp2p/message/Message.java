@@ -26,11 +26,13 @@ import net.tomp2p.rpc.RPC;
 import net.tomp2p.rpc.RPC.Commands;
 import net.tomp2p.rpc.SimpleBloomFilter;
 import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
 
 import java.net.InetSocketAddress;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.Signature;
 import java.util.*;
 
 /**
@@ -163,7 +165,7 @@ public class Message {
     // Payload:
     // we can send 8 types
     private Content[] contentTypes = new Content[CONTENT_TYPE_LENGTH];
-    private final transient Queue<MessageContentIndex> contentReferences = new LinkedList<MessageContentIndex>();
+    private final transient Queue<MessageContentIndex> contentReferences = new ArrayDeque<MessageContentIndex>(CONTENT_TYPE_LENGTH);
 
     // ********* Here comes the payload objects ************
     // The content lists:
@@ -172,8 +174,11 @@ public class Message {
     private List<SimpleBloomFilter<Number160>> bloomFilterList = null;
     private List<DataMap> dataMapList = null;
     // private PublicKey publicKey = null; // there can only be one
-    private List<Integer> integerList = null;
-    private List<Long> longList = null;
+    // primitive values are stored unboxed, the arrays grow on demand
+    private int[] integerValues = null;
+    private int integerSize = 0;
+    private long[] longValues = null;
+    private int longSize = 0;
     private List<KeyCollection> keyCollectionList = null;
     private List<KeyMap640Keys> keyMap640KeysList = null;
     private List<KeyMapByte> keyMapByteList = null;
@@ -194,6 +199,7 @@ public class Message {
     private transient boolean sign = false;
     private transient boolean content = false;
     private transient boolean verified = false;
+    private transient Signature pendingSignature;
     private transient boolean sendSelf = false;
     private transient PeerAddress recipientRelay;
     private transient PeerAddress recipientReflected;
@@ -374,7 +380,7 @@ public class Message {
                     throw new IllegalStateException("The public key needs to be the first to be set.");
                 }
                 contentTypes[i] = contentType;
-                contentReferences.add(new MessageContentIndex(reference, contentType));
+                contentReferences.add(MessageContentIndex.valueOf(reference, contentType));
                 return this;
             } else if (contentTypes[i] == contentType) {
                 reference++;
@@ -421,7 +427,7 @@ public class Message {
 				index = refs.get(contentType);
 			}
 			
-			contentReferences.add(new MessageContentIndex(index, contentType));
+			contentReferences.add(MessageContentIndex.valueOf(index, contentType));
 			refs.put(contentType, index + 1);
 		}
 	}
@@ -668,50 +674,96 @@ public class Message {
         if (!presetContentTypes) {
             contentType(Content.INTEGER);
         }
-        if (integerList == null) {
-            integerList = new ArrayList<Integer>(1);
+        if (integerValues == null) {
+            integerValues = new int[1];
+        } else if (integerSize == integerValues.length) {
+            integerValues = Arrays.copyOf(integerValues, integerSize * 2);
         }
-        this.integerList.add(integer);
+        integerValues[integerSize++] = integer;
         return this;
     }
 
+    /**
+     * @return A copy of the integer values of this message
+     */
     public List<Integer> intList() {
-        if (integerList == null) {
+        if (integerSize == 0) {
             return Collections.emptyList();
         }
-        return integerList;
+        final List<Integer> retVal = new ArrayList<Integer>(integerSize);
+        for (int i = 0; i < integerSize; i++) {
+            retVal.add(integerValues[i]);
+        }
+        return retVal;
     }
 
     public Integer intAt(final int index) {
-        if (integerList == null || index > integerList.size() - 1) {
+        if (index > integerSize - 1) {
             return null;
         }
-        return integerList.get(index);
+        return integerValues[index];
+    }
+
+    /**
+     * Same as {@link #intAt(int)}, but without boxing the value.
+     * 
+     * @param index
+     *            The index of the integer value
+     * @return The integer value at the index
+     */
+    public int intValueAt(final int index) {
+        if (index > integerSize - 1) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + integerSize);
+        }
+        return integerValues[index];
     }
 
     public Message longValue(long long0) {
         if (!presetContentTypes) {
             contentType(Content.LONG);
         }
-        if (longList == null) {
-            longList = new ArrayList<Long>(1);
+        if (longValues == null) {
+            longValues = new long[1];
+        } else if (longSize == longValues.length) {
+            longValues = Arrays.copyOf(longValues, longSize * 2);
         }
-        this.longList.add(long0);
+        longValues[longSize++] = long0;
         return this;
     }
 
+    /**
+     * @return A copy of the long values of this message
+     */
     public List<Long> longList() {
-        if (longList == null) {
+        if (longSize == 0) {
             return Collections.emptyList();
         }
-        return longList;
+        final List<Long> retVal = new ArrayList<Long>(longSize);
+        for (int i = 0; i < longSize; i++) {
+            retVal.add(longValues[i]);
+        }
+        return retVal;
     }
 
     public Long longAt(int index) {
-        if (longList == null || index > longList.size() - 1) {
+        if (index > longSize - 1) {
             return null;
         }
-        return longList.get(index);
+        return longValues[index];
+    }
+
+    /**
+     * Same as {@link #longAt(int)}, but without boxing the value.
+     * 
+     * @param index
+     *            The index of the long value
+     * @return The long value at the index
+     */
+    public long longValueAt(final int index) {
+        if (index > longSize - 1) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + longSize);
+        }
+        return longValues[index];
     }
 
     public Message neighborsSet(final NeighborSet neighborSet) {
@@ -1114,6 +1166,25 @@ public class Message {
     	return this;
 	}
 
+    /**
+     * @param pendingSignature
+     *            The signature that was updated with the message, but not yet
+     *            verified against the received signature
+     * @return This class
+     */
+    public Message pendingSignature(final Signature pendingSignature) {
+        this.pendingSignature = pendingSignature;
+        return this;
+    }
+
+    /**
+     * @return The signature to verify, or null if the message is not signed or
+     *         was already verified while decoding
+     */
+    public Signature pendingSignature() {
+        return pendingSignature;
+    }
+
     /**
      * @param done
      *            True if message decoding or encoding is done
@@ -1183,8 +1254,10 @@ public class Message {
         } else {
     		message.dataMapList = filter(dataFilter);
         }
-        message.integerList = this.integerList;
-        message.longList = this.longList;
+        message.integerValues = this.integerValues;
+        message.integerSize = this.integerSize;
+        message.longValues = this.longValues;
+        message.longSize = this.longSize;
         message.keyCollectionList = this.keyCollectionList;
         message.keyMap640KeysList = this.keyMap640KeysList;
         message.keyMapByteList = this.keyMapByteList;
@@ -1207,6 +1280,7 @@ public class Message {
         message.sign = this.sign;
         message.content = this.content;
         message.verified = this.verified;
+        message.pendingSignature = this.pendingSignature;
         message.sendSelf = this.sendSelf;
         message.recipientRelay = this.recipientRelay;
         message.recipientReflected = this.recipientReflected;
@@ -1260,13 +1334,8 @@ public class Message {
 			}
 		}
 		
-		if(integerList != null) {
-			current += integerList.size() * 4;
-		}
-		
-		if(longList != null) {
-			current += longList.size() * 8;
-		}
+		current += integerSize * Utils.INTEGER_BYTE_SIZE;
+		current += longSize * Utils.LONG_BYTE_SIZE;
 		
 		if(keyCollectionList != null) {
 			for (KeyCollection coll : keyCollectionList) {
@@ -10,12 +10,39 @@ import net.tomp2p.message.Message.Content;
  *
  */
 public class MessageContentIndex {
+    // the instances are immutable, so we keep one per content and index
+    private static final MessageContentIndex[][] CACHE = new MessageContentIndex[Content.values().length][Message.CONTENT_TYPE_LENGTH];
+    static {
+        for (Content content : Content.values()) {
+            for (int i = 0; i < Message.CONTENT_TYPE_LENGTH; i++) {
+                CACHE[content.ordinal()][i] = new MessageContentIndex(i, content);
+            }
+        }
+    }
+
     private final int index;
     private final Content content;
     public MessageContentIndex(int index, Content content) {
         this.index = index;
         this.content = content;
     }
+
+    /**
+     * Returns a shared instance for the given index and content, so that setting the content types of a
+     * {@code Message} does not allocate.
+     * 
+     * @param index
+     *            The index of the associated content
+     * @param content
+     *            The content of the associated index
+     * @return The shared instance, or a new instance if the index is out of range
+     */
+    public static MessageContentIndex valueOf(final int index, final Content content) {
+        if (index >= 0 && index < Message.CONTENT_TYPE_LENGTH) {
+            return CACHE[content.ordinal()][index];
+        }
+        return new MessageContentIndex(index, content);
+    }
     
     /**
      * The index of the associated content.
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.message;
+
+import io.netty.buffer.ByteBuf;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+import java.security.PublicKey;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the last decoded public key of a sender. A peer sends the same key
+ * with every signed message, and decoding it with a {@link java.security.KeyFactory}
+ * is much more expensive than comparing the encoded bytes. The cached key is
+ * only used if the received bytes are the same, thus a sender that changes
+ * its key, or a peer that claims a foreign peer ID, gets its own key decoded.
+ *
+ * @author Thomas Bocek
+ */
+public class PublicKeyCache {
+
+	public static final int TIME_TO_LIVE_SECONDS = 300;
+	public static final int MAX_ENTRIES = 4096;
+
+	/**
+	 * The cache used by the {@link Decoder}. The entries are checked against
+	 * the received bytes, so all peers in a JVM can share it.
+	 */
+	public static final PublicKeyCache SHARED = new PublicKeyCache(TIME_TO_LIVE_SECONDS, MAX_ENTRIES);
+
+	private final ConcurrentCacheMap<Number160, CachedKey> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param timeToLiveSeconds
+	 *            The time a key is cached after its last use
+	 * @param maxEntries
+	 *            The maximum number of senders to cache
+	 */
+	public PublicKeyCache(final int timeToLiveSeconds, final int maxEntries) {
+		this.cache = new ConcurrentCacheMap<Number160, CachedKey>(timeToLiveSeconds, maxEntries);
+	}
+
+	/**
+	 * Decodes a public key with its length header, as
+	 * {@link SignatureFactory#decodePublicKey(ByteBuf)} does.
+	 *
+	 * @param sender
+	 *            The peer ID of the sender of the message
+	 * @param buf
+	 *            The buffer with the public key at its reader index
+	 * @param signatureFactory
+	 *            The factory to decode the key on a miss
+	 * @return The public key, or null if the buffer does not contain the
+	 *         complete key yet
+	 */
+	public PublicKey decodePublicKey(final Number160 sender, final ByteBuf buf,
+			final SignatureFactory signatureFactory) {
+		if (buf.readableBytes() < 2) {
+			return null;
+		}
+		final int len = buf.getUnsignedShort(buf.readerIndex());
+		if (len <= 0 || buf.readableBytes() - 2 < len) {
+			// nothing to cache for an empty or incomplete key
+			return signatureFactory.decodePublicKey(buf);
+		}
+		final CachedKey cachedKey = cache.get(sender);
+		if (cachedKey != null && cachedKey.factory == signatureFactory.getClass()
+				&& cachedKey.matches(buf, buf.readerIndex() + 2, len)) {
+			buf.skipBytes(2 + len);
+			hits.incrementAndGet();
+			return cachedKey.publicKey;
+		}
+		misses.incrementAndGet();
+		final byte[] encoded = new byte[len];
+		buf.getBytes(buf.readerIndex() + 2, encoded);
+		final PublicKey publicKey = signatureFactory.decodePublicKey(buf);
+		if (publicKey != null && publicKey != PeerBuilder.EMPTY_PUBLIC_KEY) {
+			cache.put(sender, new CachedKey(encoded, publicKey, signatureFactory.getClass()));
+		}
+		return publicKey;
+	}
+
+	/**
+	 * @return The number of keys found in the cache
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of keys that had to be decoded
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Removes all cached keys.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	private static final class CachedKey {
+		private final byte[] encoded;
+		private final PublicKey publicKey;
+		private final Class<?> factory;
+
+		private CachedKey(final byte[] encoded, final PublicKey publicKey, final Class<?> factory) {
+			this.encoded = encoded;
+			this.publicKey = publicKey;
+			this.factory = factory;
+		}
+
+		private boolean matches(final ByteBuf buf, final int index, final int len) {
+			if (encoded.length != len) {
+				return false;
+			}
+			for (int i = 0; i < len; i++) {
+				if (encoded[i] != buf.getByte(index + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.message;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.tomp2p.connection.ConnectionBean;
+import net.tomp2p.storage.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies the signatures of messages on a pool of threads instead of the
+ * event loop, so a flood of signed messages does not stall the I/O of the
+ * other channels of the loop. The {@link Decoder} only updates the signature
+ * with the received bytes, which is cheap, and leaves the verification to this
+ * handler, which has to follow the decoder in the pipeline. The messages of a
+ * sender are passed on in the order they were received, a message that is not
+ * signed waits for the signed messages of the same sender before it. Thus, on
+ * the UDP server channel, a sender does not wait for the others.
+ * <p>
+ * If {@link #MAX_PENDING} messages of a channel are queued, the channel stops
+ * reading until half of them are passed on. The threads created by this
+ * verifier queue at most {@link #MAX_QUEUED_PER_THREAD} verifications each,
+ * further ones are verified on the event loop. When the channel is closed or
+ * this handler is removed, the queued messages are released and not passed
+ * on.
+ *
+ * @author Thomas Bocek
+ */
+@Sharable
+public class SignatureVerifier extends ChannelInboundHandlerAdapter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SignatureVerifier.class);
+	public static final int MAX_PENDING = 64;
+	public static final int MAX_QUEUED_PER_THREAD = 256;
+
+	// the queued messages of a channel, only accessed in the event loop of the
+	// channel
+	private static final AttributeKey<ChannelState> STATE_KEY = AttributeKey
+			.valueOf("signature-verifier-pending");
+
+	private final ExecutorService executor;
+	private final boolean shutdownExecutor;
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong verified = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong verifyNanos = new AtomicLong();
+	private final AtomicLong maxVerifyNanos = new AtomicLong();
+
+	/**
+	 * Creates a verifier with a daemon thread per available core.
+	 */
+	public SignatureVerifier() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads
+	 *            The number of daemon threads to verify signatures
+	 */
+	public SignatureVerifier(final int threads) {
+		this(new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+				threads * MAX_QUEUED_PER_THREAD), new DefaultThreadFactory(ConnectionBean.THREAD_NAME + "verify - ",
+				true)), true);
+	}
+
+	/**
+	 * @param executor
+	 *            The executor to verify signatures, it is not shut down by
+	 *            {@link #shutdown()}
+	 */
+	public SignatureVerifier(final ExecutorService executor) {
+		this(executor, false);
+	}
+
+	private SignatureVerifier(final ExecutorService executor, final boolean shutdownExecutor) {
+		this.executor = executor;
+		this.shutdownExecutor = shutdownExecutor;
+	}
+
+	@Override
+	public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+		final Attribute<ChannelState> attributeState = ctx.channel().attr(STATE_KEY);
+		ChannelState state = attributeState.get();
+		final Signature signature = msg instanceof Message ? ((Message) msg).pendingSignature() : null;
+		final Object sender = msg instanceof Message ? ((Message) msg).senderSocket() : null;
+		Queue<PendingMessage> queue = state == null ? null : state.queues.get(sender);
+		if (signature == null && queue == null) {
+			ctx.fireChannelRead(msg);
+			return;
+		}
+		if (state == null) {
+			state = new ChannelState();
+			attributeState.set(state);
+		}
+		if (queue == null) {
+			queue = new ArrayDeque<PendingMessage>();
+			state.queues.put(sender, queue);
+		}
+		final PendingMessage pendingMessage = new PendingMessage(msg);
+		queue.add(pendingMessage);
+		if (++state.size >= MAX_PENDING && !state.paused) {
+			LOG.debug("{} messages wait for verification, stop reading {}.", state.size, ctx.channel());
+			state.paused = true;
+			ctx.channel().config().setAutoRead(false);
+		}
+		if (signature == null) {
+			// waits for the signed messages before it
+			pendingMessage.done = true;
+			return;
+		}
+		final Message message = (Message) msg;
+		message.pendingSignature(null);
+		pending.incrementAndGet();
+		final ChannelState channelState = state;
+		final Queue<PendingMessage> senderQueue = queue;
+		final Runnable verification = new Runnable() {
+			@Override
+			public void run() {
+				final boolean valid = verify(message, signature);
+				ctx.executor().execute(new Runnable() {
+					@Override
+					public void run() {
+						if (valid) {
+							message.setVerified();
+						}
+						pendingMessage.done = true;
+						deliver(ctx, channelState, sender, senderQueue);
+					}
+				});
+			}
+		};
+		try {
+			executor.execute(verification);
+		} catch (RejectedExecutionException e) {
+			// shut down or too many verifications queued, verify here as the decoder would have done
+			LOG.debug("Verification rejected, verifying on the event loop.", e);
+			verification.run();
+		}
+	}
+
+	@Override
+	public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+		discard(ctx);
+		ctx.fireChannelInactive();
+	}
+
+	@Override
+	public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+		discard(ctx);
+	}
+
+	private static void deliver(final ChannelHandlerContext ctx, final ChannelState state, final Object sender,
+			final Queue<PendingMessage> queue) {
+		if (state.discarded) {
+			// the channel is closed, the message is already released
+			return;
+		}
+		while (!queue.isEmpty() && queue.peek().done) {
+			state.size--;
+			ctx.fireChannelRead(queue.poll().msg);
+		}
+		if (queue.isEmpty()) {
+			state.queues.remove(sender);
+		}
+		if (state.paused && state.size <= MAX_PENDING / 2) {
+			LOG.debug("Verification caught up, read {} again.", ctx.channel());
+			state.paused = false;
+			ctx.channel().config().setAutoRead(true);
+		}
+	}
+
+	private static void discard(final ChannelHandlerContext ctx) {
+		final ChannelState state = ctx.channel().attr(STATE_KEY).getAndSet(null);
+		if (state == null) {
+			return;
+		}
+		state.discarded = true;
+		for (Queue<PendingMessage> queue : state.queues.values()) {
+			for (PendingMessage pendingMessage : queue) {
+				release(pendingMessage.msg);
+			}
+		}
+		state.queues.clear();
+		if (state.paused) {
+			// the handler may be removed from a channel that stays open
+			ctx.channel().config().setAutoRead(true);
+		}
+	}
+
+	private static void release(final Object msg) {
+		if (!(msg instanceof Message)) {
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+		// Message.release() does not release the buffers, as the data may
+		// still be used after the message was handled, this message is not
+		// passed on
+		final Message message = (Message) msg;
+		for (DataMap dataMap : message.dataMapList()) {
+			for (Data data : dataMap.dataMap().values()) {
+				data.release();
+			}
+		}
+		for (Buffer buffer : message.bufferList()) {
+			buffer.buffer().release();
+		}
+		for (TrackerData trackerData : message.trackerDataList()) {
+			for (Data data : trackerData.peerAddresses().values()) {
+				data.release();
+			}
+		}
+	}
+
+	private boolean verify(final Message message, final Signature signature) {
+		final long start = System.nanoTime();
+		boolean valid;
+		try {
+			valid = signature.verify(message.receivedSignature().encode());
+		} catch (SignatureException e) {
+			LOG.warn("Could not verify the signature.", e);
+			valid = false;
+		}
+		final long nanos = System.nanoTime() - start;
+		verifyNanos.addAndGet(nanos);
+		long max = maxVerifyNanos.get();
+		while (nanos > max && !maxVerifyNanos.compareAndSet(max, nanos)) {
+			max = maxVerifyNanos.get();
+		}
+		pending.decrementAndGet();
+		if (valid) {
+			verified.incrementAndGet();
+			LOG.debug("Signature check OK.");
+		} else {
+			failed.incrementAndGet();
+			LOG.warn("Signature check NOT OK. Message: {}.", message);
+		}
+		return valid;
+	}
+
+	/**
+	 * Shuts down the threads created by this verifier. Messages received
+	 * afterwards are verified on the event loop.
+	 */
+	public void shutdown() {
+		if (shutdownExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return The number of signatures waiting for or in verification
+	 */
+	public int pending() {
+		return pending.get();
+	}
+
+	/**
+	 * @return The number of valid signatures so far
+	 */
+	public long verified() {
+		return verified.get();
+	}
+
+	/**
+	 * @return The number of invalid signatures so far
+	 */
+	public long failed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return The mean time to verify a signature in nanoseconds, without the
+	 *         time waiting for a thread
+	 */
+	public long meanVerifyNanos() {
+		final long count = verified.get() + failed.get();
+		return count == 0 ? 0 : verifyNanos.get() / count;
+	}
+
+	/**
+	 * @return The longest time to verify a signature in nanoseconds
+	 */
+	public long maxVerifyNanos() {
+		return maxVerifyNanos.get();
+	}
+
+	private static final class ChannelState {
+		// the messages of each sender in the order received
+		private final Map<Object, Queue<PendingMessage>> queues = new HashMap<Object, Queue<PendingMessage>>();
+		private int size = 0;
+		// true if this verifier stopped reading the channel
+		private boolean paused = false;
+		private boolean discarded = false;
+	}
+
+	private static final class PendingMessage {
+		private final Object msg;
+		// only accessed in the event loop of the channel
+		private boolean done = false;
+
+		private PendingMessage(final Object msg) {
+			this.msg = msg;
+		}
+	}
+}
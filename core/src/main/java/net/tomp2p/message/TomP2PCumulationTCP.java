@@ -17,6 +17,11 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(TomP2PCumulationTCP.class);
 
+	// the received buffers are added without copying. The decoder consumes
+	// large values as they arrive, thus only the bytes of an incomplete header
+	// or key pile up, and these are merged once there are more buffers
+	static final int MAX_COMPONENTS = 16;
+
 	private final Decoder decoder;
 	private final ByteBufAllocator byteBufAllocator;
 	private CompositeByteBuf cumulation = null;
@@ -24,7 +29,16 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 	private int lastId = 0;
 
 	public TomP2PCumulationTCP(final SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator) {
-		decoder = new Decoder(signatureFactory);
+		this(signatureFactory, byteBufAllocator, false);
+	}
+
+	/**
+	 * @param deferVerification
+	 *            True if a {@link SignatureVerifier} follows in the pipeline
+	 */
+	public TomP2PCumulationTCP(final SignatureFactory signatureFactory, ByteBufAllocator byteBufAllocator,
+			final boolean deferVerification) {
+		decoder = new Decoder(signatureFactory, deferVerification);
 		this.byteBufAllocator = byteBufAllocator;
 	}
 
@@ -49,20 +63,17 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 
 		try {
 			if (cumulation == null) {
-				cumulation = byteBufAllocator.compositeBuffer();
-			} else {
-				//cumulation.addComponent(buf);
-                                
+				cumulation = byteBufAllocator.compositeBuffer(MAX_COMPONENTS);
 			}
-                        cumulation.writeBytes(buf);
+			// the cumulation buffer now maintains the buffer buf
+			cumulation.addComponent(true, buf.retain());
 			decoding(ctx, sender);
 		} catch (Throwable t) {
 			LOG.error("Error in TCP decoding", t);
             throw new Exception(t);
 		} finally {
-			//the cumulation buffer now maintains the buffer buf, so we can release it here
 			buf.release();
-			if (!cumulation.isReadable()) {
+			if (cumulation != null && !cumulation.isReadable()) {
                 cumulation.release();
                 cumulation = null;
             } // no need to discard bytes as this was done in the decoder already
@@ -100,6 +111,14 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 		}
 	}
 
+	/**
+	 * @return True if no bytes are buffered and no message is partially
+	 *         decoded, thus the channel can be reused for the next request
+	 */
+	public boolean isIdle() {
+		return cumulation == null && !decoder.isDecoding();
+	}
+
 	@Override
 	public void channelInactive(final ChannelHandlerContext ctx)
 			throws Exception {
@@ -21,6 +21,8 @@ import java.net.InetSocketAddress;
 public class TomP2POutbound extends ChannelOutboundHandlerAdapter {
 
     private static final Logger LOG = LoggerFactory.getLogger(TomP2POutbound.class);
+    // large data values are added as components, don't consolidate them too early
+    private static final int MAX_COMPONENTS = 1024;
     private final Encoder encoder;
     private final ByteBufAllocator byteBufAllocator;
 
@@ -40,7 +42,7 @@ public class TomP2POutbound extends ChannelOutboundHandlerAdapter {
 
         try {
             boolean done = false;
-            buf = byteBufAllocator.compositeBuffer();
+            buf = byteBufAllocator.compositeBuffer(MAX_COMPONENTS);
             //buf = AlternativeCompositeByteBuf.compBuffer(byteBufAllocator, buf);
 
             //null, means create signature, as we did not have created one already
@@ -5,6 +5,8 @@ import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import net.tomp2p.connection.SignatureFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,11 +17,23 @@ import java.net.InetSocketAddress;
 public class TomP2PSinglePacketUDP extends ChannelInboundHandlerAdapter {
 
     private static final Logger LOG = LoggerFactory.getLogger(TomP2PSinglePacketUDP.class);
+    // the decoder is reused for every packet of a channel, the channel is always handled by the same thread
+    private static final AttributeKey<Decoder> DECODER_KEY = AttributeKey.valueOf("udp-decoder");
 
     private final SignatureFactory signatureFactory;
+    private final boolean deferVerification;
     
     public TomP2PSinglePacketUDP(final SignatureFactory signatureFactory) {
+        this(signatureFactory, false);
+    }
+
+    /**
+     * @param deferVerification
+     *            True if a {@link SignatureVerifier} follows in the pipeline
+     */
+    public TomP2PSinglePacketUDP(final SignatureFactory signatureFactory, final boolean deferVerification) {
         this.signatureFactory = signatureFactory;
+        this.deferVerification = deferVerification;
     }
 
     @Override
@@ -36,16 +50,26 @@ public class TomP2PSinglePacketUDP extends ChannelInboundHandlerAdapter {
         final InetSocketAddress sender = d.sender();
         final InetSocketAddress recipient = d.recipient();
 
+        final Attribute<Decoder> attributeDecoder = ctx.channel().attr(DECODER_KEY);
+        Decoder decoder = attributeDecoder.get();
+        if (decoder == null) {
+            decoder = new Decoder(signatureFactory, deferVerification);
+            attributeDecoder.set(decoder);
+        }
+
         try {
-            Decoder decoder = new Decoder(signatureFactory);
             boolean finished = decoder.decode(ctx, buf, recipient, sender);
             if (finished) {
                 ctx.fireChannelRead(decoder.prepareFinish());
             } else {
                 LOG.warn("Did not get the complete packet!");
+                decoder.release();
+                decoder.reset();
             }
         } catch (Throwable t) {
         	LOG.error("Error in UDP decoding.", t);
+        	decoder.release();
+        	decoder.reset();
             throw new Exception(t);
         } finally {
             buf.release();
@@ -15,8 +15,10 @@
  */
 package net.tomp2p.p2p;
 
+import io.netty.util.Timeout;
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.PeerBean;
+import net.tomp2p.connection.TimeoutWheel;
 import net.tomp2p.futures.*;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
@@ -29,6 +31,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles routing of nodes to other nodes.
@@ -45,8 +49,17 @@ public class DistributedRouting {
 
     private final PeerBean peerBean;
 
+    // a request is never considered slow before this time
+    public static final int MIN_HEDGE_MILLIS = 2 * TimeoutWheel.TICK_MILLIS;
+
     private final Random rnd;
 
+    private final TimeoutWheel timeoutWheel;
+
+    private final RoutingLatency routingLatency = new RoutingLatency();
+
+    private final AtomicLong hedgedRequests = new AtomicLong();
+
     /**
      * The routing process involves multiple RPCs, mostly UDP based.
      * 
@@ -56,8 +69,23 @@ public class DistributedRouting {
      *            The neighbor RPC that will be issues
      */
     public DistributedRouting(final PeerBean peerBean, final NeighborRPC neighbors) {
+        this(peerBean, neighbors, null);
+    }
+
+    /**
+     * The routing process involves multiple RPCs, mostly UDP based.
+     * 
+     * @param peerBean
+     *            The peer bean
+     * @param neighbors
+     *            The neighbor RPC that will be issues
+     * @param timeoutWheel
+     *            The wheel to detect slow requests of the adaptive routing, or null to only react on replies
+     */
+    public DistributedRouting(final PeerBean peerBean, final NeighborRPC neighbors, final TimeoutWheel timeoutWheel) {
         this.neighbors = neighbors;
         this.peerBean = peerBean;
+        this.timeoutWheel = timeoutWheel;
         // stable random number. No need to be truly random
         rnd = new Random(peerBean.serverPeerAddress().peerId().hashCode());
     }
@@ -151,6 +179,10 @@ public class DistributedRouting {
         if (randomSearch) {
             statisticComparator = peerMap().createStatisticComparator(peerMap().self());
             addressComparator = PeerMap.createXORAddressComparator(peerMap().self());
+        } else if (routingBuilder.isAdaptive() && peerMap().isDefaultStatisticComparator()) {
+            // among peers in the same bucket, ask the fast ones first, unless another order was configured
+            statisticComparator = new RTTPeerStatisticComparator().getComparator(routingBuilder.locationKey());
+            addressComparator = PeerMap.createXORAddressComparator(routingBuilder.locationKey());
         } else {
             statisticComparator = peerMap().createStatisticComparator(routingBuilder.locationKey());
             addressComparator = PeerMap.createXORAddressComparator(routingBuilder.locationKey());
@@ -228,7 +260,11 @@ public class DistributedRouting {
             boolean isRoutingOnlyToSelf = (peerAddresses.size() == 1 && peerAddresses.iterator().next()
                     .peerAddress().equals(peerBean.serverPeerAddress()));
             routingBuilder.routingOnlyToSelf(isRoutingOnlyToSelf);
-            routingRec(routingBuilder, routingMechanism, type, cc);
+            if (routingBuilder.isAdaptive()) {
+                routingAdaptive(routingBuilder, routingMechanism, type, cc);
+            } else {
+                routingRec(routingBuilder, routingMechanism, type, cc);
+            }
         }
         return futureRouting;
     }
@@ -334,6 +370,176 @@ public class DistributedRouting {
         });
     }
 
+    /**
+     * Sends requests until the target number of parallel requests of the routing mechanism is reached. Unlike
+     * {@link #routingRec(RoutingBuilder, RoutingMechanism, Type, ChannelCreator)}, each request is evaluated on its
+     * own, so a request can be added while others are in flight. This happens if a request fails, or takes longer
+     * than the 95th percentile of the recent requests. Replies faster than that lower the number of parallel
+     * requests again. Once the stop conditions are met, the routing does not wait for the slow requests that were
+     * replaced. This method is called concurrently, thus the state is accessed while synchronized on the routing
+     * mechanism.
+     *
+     * @param routingBuilder
+     * @param routingMechanism
+     * @param type
+     * @param channelCreator
+     */
+    private void routingAdaptive(final RoutingBuilder routingBuilder, final RoutingMechanism routingMechanism,
+            final Type type, final ChannelCreator channelCreator) {
+        final List<Pair<Integer, FutureResponse>> started = new ArrayList<Pair<Integer, FutureResponse>>(
+                routingMechanism.parallel());
+        synchronized (routingMechanism) {
+            if (routingMechanism.isFinished()) {
+                return;
+            }
+            final boolean randomSearch = routingBuilder.locationKey() == null;
+            int inFlight = routingMechanism.inFlight();
+            for (int i = 0; i < routingMechanism.parallel() && inFlight < routingMechanism.targetParallel()
+                    && !routingMechanism.isStopCreatingNewFutures(); i++) {
+                if (routingMechanism.futureResponse(i) != null) {
+                    continue;
+                }
+                final PeerAddress next;
+                if (randomSearch) {
+                    next = routingMechanism.pollRandomInQueueToAsk(rnd);
+                } else {
+                    next = routingMechanism.pollFirstInQueueToAsk();
+                }
+                if (next == null) {
+                    break;
+                }
+                routingMechanism.addToAlreadyAsked(next);
+                final Number160 locationKey2 = randomSearch ? next.peerId().xor(Number160.MAX_VALUE)
+                        : routingBuilder.locationKey();
+                routingBuilder.locationKey(locationKey2);
+                final FutureResponse futureResponse = neighbors.closeNeighbors(next, routingBuilder.searchValues(),
+                        type, channelCreator, routingBuilder);
+                routingMechanism.futureResponse(i, futureResponse);
+                routingMechanism.startMillis(i, System.currentTimeMillis());
+                started.add(new Pair<Integer, FutureResponse>(i, futureResponse));
+                inFlight++;
+                LOG.debug("get close neighbors: {} on {}, {} in flight", next, i, inFlight);
+            }
+            // hedged requests are not waited for once the routing has enough results
+            if (inFlight == 0 || (routingMechanism.isStopCreatingNewFutures()
+                    && routingMechanism.unhedgedInFlight() == 0)) {
+                LOG.debug("No activity, closing.");
+                routingMechanism.finish();
+                routingMechanism.neighbors(routingBuilder);
+                routingMechanism.cancel();
+                return;
+            }
+        }
+        // a future may already be done, so add the listeners outside of the lock
+        final long percentile95 = routingLatency.percentile95();
+        for (final Pair<Integer, FutureResponse> pair : started) {
+            final int index = pair.element0();
+            final FutureResponse futureResponse = pair.element1();
+            final Timeout timeout;
+            if (timeoutWheel != null && percentile95 >= 0) {
+                timeout = timeoutWheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        hedge(routingBuilder, routingMechanism, type, channelCreator, index, futureResponse);
+                    }
+                }, Math.max(MIN_HEDGE_MILLIS, percentile95), TimeUnit.MILLISECONDS);
+            } else {
+                timeout = null;
+            }
+            futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                @Override
+                public void operationComplete(final FutureResponse future) throws Exception {
+                    if (timeout != null) {
+                        timeout.cancel();
+                    }
+                    evaluateAdaptive(routingBuilder, routingMechanism, type, channelCreator, index, future);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a request to the next peer, as the request at the index takes longer than most requests.
+     */
+    private void hedge(final RoutingBuilder routingBuilder, final RoutingMechanism routingMechanism,
+            final Type type, final ChannelCreator channelCreator, final int index, final FutureResponse future) {
+        synchronized (routingMechanism) {
+            if (routingMechanism.isFinished() || routingMechanism.futureResponse(index) != future
+                    || future.isCompleted()) {
+                return;
+            }
+            routingMechanism.raiseParallel();
+            routingMechanism.hedged(index);
+            hedgedRequests.incrementAndGet();
+            LOG.debug("Slow request on {}, {} requests in parallel.", index, routingMechanism.targetParallel());
+        }
+        routingAdaptive(routingBuilder, routingMechanism, type, channelCreator);
+    }
+
+    private void evaluateAdaptive(final RoutingBuilder routingBuilder, final RoutingMechanism routingMechanism,
+            final Type type, final ChannelCreator channelCreator, final int index, final FutureResponse future) {
+        synchronized (routingMechanism) {
+            if (routingMechanism.isFinished() || routingMechanism.futureResponse(index) != future) {
+                return;
+            }
+            routingMechanism.futureResponse(index, null);
+            final boolean finished;
+            if (future.isSuccess()) {
+                final long rttMillis = System.currentTimeMillis() - routingMechanism.startMillis(index);
+                routingLatency.record(rttMillis);
+                final long percentile95 = routingLatency.percentile95();
+                if (percentile95 >= 0 && rttMillis <= percentile95) {
+                    routingMechanism.lowerParallel();
+                }
+                Message lastResponse = future.responseMessage();
+                PeerAddress remotePeer = lastResponse.sender();
+                routingMechanism.addPotentialHits(remotePeer);
+                Collection<PeerAddress> newNeighbors = lastResponse.neighborsSet(0).neighbors();
+                Collection<PeerStatistic> newNeighborStatistics = peerMap().getPeerStatistics(newNeighbors);
+
+                Integer resultSize = lastResponse.intAt(0);
+                Number160 keyDigest = lastResponse.key(0);
+                Number160 contentDigest = lastResponse.key(1);
+                DigestInfo digestBean = new DigestInfo(keyDigest, contentDigest, resultSize == null ? 0
+                        : resultSize);
+                LOG.debug("Peer ({}) {} reported {} in {} ms.", (digestBean.size() > 0 ? "direct" : "none"),
+                        remotePeer, newNeighbors, rttMillis);
+                finished = routingMechanism.evaluateSuccess(remotePeer, digestBean, newNeighborStatistics,
+                        routingMechanism.unhedgedInFlight() == 0, routingBuilder.locationKey());
+            } else {
+                LOG.debug("Routing error {}.", future.failedReason());
+                finished = routingMechanism.evaluateFailed();
+                routingMechanism.stopCreatingNewFutures(finished);
+                // the peer may just be busy, do not wait for the others to replace it
+                routingMechanism.raiseParallel();
+            }
+            if (finished) {
+                LOG.debug("Routing finished. Direct hits: {}. Potential hits: {}.",
+                        routingMechanism.directHits(), routingMechanism.potentialHits());
+                routingMechanism.finish();
+                routingMechanism.neighbors(routingBuilder);
+                routingMechanism.cancel();
+                return;
+            }
+        }
+        routingAdaptive(routingBuilder, routingMechanism, type, channelCreator);
+    }
+
+    /**
+     * @return The round-trip times of the recent routing requests
+     */
+    public RoutingLatency routingLatency() {
+        return routingLatency;
+    }
+
+    /**
+     * @return The number of requests of the adaptive routing that took longer than the 95th percentile, so another
+     *         request was sent
+     */
+    public long hedgedRequests() {
+        return hedgedRequests.get();
+    }
+
     public PeerMap peerMap() {
         return peerBean.peerMap();
     }
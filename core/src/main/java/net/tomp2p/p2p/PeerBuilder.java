@@ -272,7 +272,8 @@ public class PeerBuilder {
 		}
 		
 		if (isEnableRouting() && isEnableNeighborRPC()) {
-			DistributedRouting routing = new DistributedRouting(peerBean, peer.neighborRPC());
+			DistributedRouting routing = new DistributedRouting(peerBean, peer.neighborRPC(),
+					connectionBean.timeoutWheel());
 			peer.distributedRouting(routing);
 		}
 
@@ -26,6 +26,8 @@ public class RoutingConfiguration {
 
     final private int parallel;
 
+    final private int maxParallel;
+
     final private boolean forceTCP;
 
     public RoutingConfiguration(int maxNoNewInfoDiff, int maxFailures, int parallel) {
@@ -60,14 +62,45 @@ public class RoutingConfiguration {
      */
     public RoutingConfiguration(final int maxDirectHits, final int maxNoNewInfoDiff, final int maxFailures,
             final int maxSuccess, final int parallel, final boolean forceTCP) {
+        this(maxDirectHits, maxNoNewInfoDiff, maxFailures, maxSuccess, parallel, parallel, forceTCP);
+    }
+
+    /**
+     * Sets the routing configuration and its stop conditions with adaptive parallelism.
+     * 
+     * @param maxDirectHits
+     *            Number of direct hits (d)
+     * @param maxNoNewInfoDiff
+     *            Number of no new information (n)
+     * @param maxFailures
+     *            Number of failures (f)
+     * @param maxSuccess
+     *            Number of success (s)
+     * @param parallel
+     *            Number of parallel requests (p): The routing starts with p requests in parallel and never goes below.
+     * @param maxParallel
+     *            Max. number of parallel requests (m): If m is larger than p, the routing is adaptive. If a request
+     *            takes longer than most requests did so far, or fails, the routing sends another request to the next
+     *            closest peer, up to m requests in parallel. Fast replies lower the number back to p. Among peers in
+     *            the same bucket, those with a lower round-trip time are asked first.
+     * @param forceTCP
+     *            Flag to indicate that routing should be done with TCP instead of UDP
+     */
+    public RoutingConfiguration(final int maxDirectHits, final int maxNoNewInfoDiff, final int maxFailures,
+            final int maxSuccess, final int parallel, final int maxParallel, final boolean forceTCP) {
         if (maxDirectHits < 0 || maxNoNewInfoDiff < 0 || maxFailures < 0 || parallel < 0) {
             throw new IllegalArgumentException("Some arguments need to be larger than or equals to zero.");
         }
+        if (maxParallel < parallel) {
+            throw new IllegalArgumentException("The max. number of parallel requests must be at least " + parallel
+                    + ".");
+        }
         this.maxDirectHits = maxDirectHits;
         this.maxNoNewInfoDiff = maxNoNewInfoDiff;
         this.maxFailures = maxFailures;
         this.maxSuccess = maxSuccess;
         this.parallel = parallel;
+        this.maxParallel = maxParallel;
         this.forceTCP = forceTCP;
     }
 
@@ -120,6 +153,22 @@ public class RoutingConfiguration {
         return parallel;
     }
 
+    /**
+     * Max. number of parallel requests (m):
+     * The adaptive routing contacts up to m peers in parallel. This is the number of connections to reserve.
+     * @return
+     */
+    public int maxParallel() {
+        return maxParallel;
+    }
+
+    /**
+     * @return True if the number of parallel requests adapts to the round-trip times
+     */
+    public boolean isAdaptive() {
+        return maxParallel > parallel;
+    }
+
     /**
      * Flag to indicate that routing should be done with TCP instead of UDP.
      * @return
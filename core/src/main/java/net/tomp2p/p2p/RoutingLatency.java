@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import java.util.Arrays;
+
+/**
+ * The round-trip times of the last routing requests of a peer. The adaptive
+ * routing uses the 95th percentile to find requests that take longer than
+ * most, and sends another request instead of waiting for them.
+ *
+ * @author Thomas Bocek
+ */
+public class RoutingLatency {
+
+	public static final int SAMPLES = 128;
+	public static final int MIN_SAMPLES = 16;
+	// recalculate the percentile after this many new samples
+	private static final int UPDATE_INTERVAL = 8;
+
+	private final long[] samples = new long[SAMPLES];
+	private final long[] sorted = new long[SAMPLES];
+	private int size = 0;
+	private int next = 0;
+	private int sinceUpdate = 0;
+	private long percentile95 = -1;
+
+	/**
+	 * @param rttMillis
+	 *            The round-trip time of a successful request
+	 */
+	public synchronized void record(final long rttMillis) {
+		samples[next] = rttMillis;
+		next = (next + 1) % SAMPLES;
+		if (size < SAMPLES) {
+			size++;
+		}
+		sinceUpdate++;
+	}
+
+	/**
+	 * @return The 95th percentile of the round-trip times in milliseconds, or
+	 *         -1 if there are less than {@link #MIN_SAMPLES} samples
+	 */
+	public synchronized long percentile95() {
+		if (size < MIN_SAMPLES) {
+			return -1;
+		}
+		if (percentile95 < 0 || sinceUpdate >= UPDATE_INTERVAL) {
+			System.arraycopy(samples, 0, sorted, 0, size);
+			Arrays.sort(sorted, 0, size);
+			percentile95 = sorted[(int) Math.ceil(size * 0.95) - 1];
+			sinceUpdate = 0;
+		}
+		return percentile95;
+	}
+
+	/**
+	 * @return The number of samples, at most {@link #SAMPLES}
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
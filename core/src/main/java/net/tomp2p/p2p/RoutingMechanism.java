@@ -49,6 +49,13 @@ public class RoutingMechanism {
     private int maxSuccess;
     private boolean stopCreatingNewFutures;
 
+    // used by the adaptive routing only, accessed while synchronized on this
+    private int minParallel;
+    private int targetParallel;
+    private long[] startMillis;
+    private boolean[] hedged;
+    private boolean finished;
+
     /**
      * Creates the routing mechanism. Make sure to set the max* fields.
      * 
@@ -75,6 +82,116 @@ public class RoutingMechanism {
         return futureResponses.length();
     }
 
+    /**
+     * @param minParallel
+     *            The number of parallel requests to start with, the adaptive routing never goes below
+     * @return This class
+     */
+    public RoutingMechanism minParallel(final int minParallel) {
+        this.minParallel = minParallel;
+        this.targetParallel = minParallel;
+        return this;
+    }
+
+    /**
+     * @return The number of parallel requests the adaptive routing currently aims for
+     */
+    public int targetParallel() {
+        return targetParallel;
+    }
+
+    /**
+     * Allows one more request in parallel, e.g., to not wait for a slow peer. The number is limited by
+     * {@link #parallel()}.
+     */
+    public void raiseParallel() {
+        targetParallel = Math.min(parallel(), targetParallel + 1);
+    }
+
+    /**
+     * Allows one request less in parallel, but not less than the number we started with.
+     */
+    public void lowerParallel() {
+        targetParallel = Math.max(minParallel, targetParallel - 1);
+    }
+
+    /**
+     * @return The number of requests in flight
+     */
+    public int inFlight() {
+        int inFlight = 0;
+        for (int i = 0; i < futureResponses.length(); i++) {
+            if (futureResponses.get(i) != null) {
+                inFlight++;
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * @return The number of requests in flight that were not hedged. The adaptive routing does not wait for hedged
+     *         requests once it stops creating new requests.
+     */
+    public int unhedgedInFlight() {
+        int inFlight = 0;
+        for (int i = 0; i < futureResponses.length(); i++) {
+            if (futureResponses.get(i) != null && (hedged == null || !hedged[i])) {
+                inFlight++;
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * @param i
+     *            The number of the future response
+     * @param startMillis
+     *            The time the request was sent
+     */
+    public void startMillis(final int i, final long startMillis) {
+        if (this.startMillis == null) {
+            this.startMillis = new long[futureResponses.length()];
+            this.hedged = new boolean[futureResponses.length()];
+        }
+        this.startMillis[i] = startMillis;
+        this.hedged[i] = false;
+    }
+
+    /**
+     * Marks the request as slow, another request was sent instead.
+     * 
+     * @param i
+     *            The number of the future response
+     */
+    public void hedged(final int i) {
+        if (hedged != null) {
+            hedged[i] = true;
+        }
+    }
+
+    /**
+     * @param i
+     *            The number of the future response
+     * @return The time the request was sent
+     */
+    public long startMillis(final int i) {
+        return startMillis == null ? 0 : startMillis[i];
+    }
+
+    /**
+     * Marks the adaptive routing as finished, late replies are ignored.
+     */
+    public void finish() {
+        finished = true;
+    }
+
+    /**
+     * @return True if the adaptive routing is finished
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
     /**
      * @return True if we should stop creating more futures, false otherwise
      */
@@ -1,8 +1,10 @@
 package net.tomp2p.p2p;
 
+import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.DataMap;
 import net.tomp2p.message.Message;
 import net.tomp2p.p2p.builder.BroadcastBuilder;
 import net.tomp2p.peers.Number160;
@@ -133,12 +135,7 @@ public class StructuredBroadcastHandler implements BroadcastHandler {
 			final boolean isUDP) {
 		final List<PeerAddress> list = peer.peerBean().peerMap()
 				.fromEachBag(FROM_EACH_BAG, Number160.BITS);
-		for (final PeerAddress peerAddress : list) {
-			final int bucketNr = PeerMap.classMember(peerAddress.peerId(),
-					peer.peerID());
-			doSend(messageKey, dataMap, hopCounter, isUDP, peerAddress,
-					bucketNr);
-		}
+		send(messageKey, dataMap, hopCounter, isUDP, list);
 	}
 
 	/**
@@ -159,43 +156,109 @@ public class StructuredBroadcastHandler implements BroadcastHandler {
 			boolean isUDP, final int bucketNr) {
 		final List<PeerAddress> list = peer.peerBean().peerMap()
 				.fromEachBag(FROM_EACH_BAG, bucketNr);
-		for (final PeerAddress peerAddress : list) {
-			final int bucketNr2 = PeerMap.classMember(peerAddress.peerId(),
-					peer.peerID());
-			doSend(messageKey, dataMap, hopCounter, isUDP, peerAddress,
-					bucketNr2);
-		}
+		send(messageKey, dataMap, hopCounter, isUDP, list);
 	}
 
-	private void doSend(final Number160 messageKey,
+	/**
+	 * Sends the message to all peers of this hop. The data map is encoded once
+	 * and the same buffer is added to every message, and the channels are
+	 * reserved at once instead of one reservation per peer. If there are more
+	 * peers than permits, the peers are split into several reservations.
+	 * 
+	 * @param messageKey
+	 *            The key of the message
+	 * @param dataMap
+	 *            The data map to send around
+	 * @param hopCounter
+	 *            The number of hops
+	 * @param isUDP
+	 *            Flag if message can be sent with UDP
+	 * @param list
+	 *            The peers to send the message to
+	 */
+	private void send(final Number160 messageKey,
 			final NavigableMap<Number640, Data> dataMap, final int hopCounter,
-			final boolean isUDP, final PeerAddress peerAddress,
-			final int bucketNr) {
+			final boolean isUDP, final List<PeerAddress> list) {
+		if (list.isEmpty()) {
+			return;
+		}
+		final DataMap encodedDataMap = encode(dataMap);
+		final AtomicInteger pending = new AtomicInteger(list.size());
+		final ChannelClientConfiguration config = peer.connectionBean()
+				.resourceConfiguration();
+		// a TCP permit also takes UDP permits, see BulkReservation
+		final int maxPermits = Math.max(1, isUDP ? config.maxPermitsUDP()
+				: Math.min(config.maxPermitsTCP(), config.maxPermitsUDP() / 3));
+		for (int from = 0; from < list.size(); from += maxPermits) {
+			final List<PeerAddress> batch = list.subList(from,
+					Math.min(list.size(), from + maxPermits));
+			doSend(messageKey, encodedDataMap, hopCounter, isUDP, batch,
+					pending);
+		}
+	}
+
+	private DataMap encode(final NavigableMap<Number640, Data> dataMap) {
+		if (dataMap == null) {
+			return null;
+		}
+		try {
+			return DataMap.encode(dataMap, peer.connectionBean()
+					.resourceConfiguration().signatureFactory());
+		} catch (Exception e) {
+			LOG.warn("could not encode the data map once, encode it per message", e);
+			return new DataMap(dataMap);
+		}
+	}
+
+	private void doSend(final Number160 messageKey, final DataMap dataMap,
+			final int hopCounter, final boolean isUDP,
+			final List<PeerAddress> batch, final AtomicInteger pending) {
 
 		FutureChannelCreator frr = peer.connectionBean().reservation()
-				.create(isUDP ? 1 : 0, isUDP ? 0 : 1);
+				.create(isUDP ? batch.size() : 0, isUDP ? 0 : batch.size());
 		frr.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
 			@Override
 			public void operationComplete(final FutureChannelCreator future)
 					throws Exception {
 				if (future.isSuccess()) {
-					BroadcastBuilder broadcastBuilder = new BroadcastBuilder(
+					final BroadcastBuilder broadcastBuilder = new BroadcastBuilder(
 							peer, messageKey);
-					broadcastBuilder.dataMap(dataMap);
 					broadcastBuilder.hopCounter(hopCounter + 1);
 					broadcastBuilder.udp(isUDP);
-					FutureResponse futureResponse = peer.broadcastRPC()
-							.send(peerAddress, broadcastBuilder,
-									future.channelCreator(), broadcastBuilder,
-									bucketNr);
-					LOG.debug("send to {}", peerAddress);
-					messageCounter.incrementAndGet();
+					final FutureResponse[] futureResponses = new FutureResponse[batch.size()];
+					for (int i = 0; i < futureResponses.length; i++) {
+						final PeerAddress peerAddress = batch.get(i);
+						final int bucketNr = PeerMap.classMember(
+								peerAddress.peerId(), peer.peerID());
+						futureResponses[i] = peer.broadcastRPC().send(
+								peerAddress, broadcastBuilder,
+								future.channelCreator(), broadcastBuilder,
+								bucketNr, dataMap);
+						LOG.debug("send to {}", peerAddress);
+						messageCounter.incrementAndGet();
+						futureResponses[i].addListener(new BaseFutureAdapter<FutureResponse>() {
+							@Override
+							public void operationComplete(final FutureResponse future)
+									throws Exception {
+								done(dataMap, pending, 1);
+							}
+						});
+					}
 					Utils.addReleaseListener(future.channelCreator(),
-							futureResponse);
+							futureResponses);
 				} else {
 					Utils.addReleaseListener(future.channelCreator());
+					done(dataMap, pending, batch.size());
 				}
 			}
 		});
 	}
+
+	private static void done(final DataMap dataMap,
+			final AtomicInteger pending, final int count) {
+		if (pending.addAndGet(-count) == 0 && dataMap != null) {
+			// every message holds its own slice of the encoded data map
+			dataMap.release();
+		}
+	}
 }
@@ -197,7 +197,7 @@ public class BootstrapBuilder {
     private FutureBootstrap bootstrap() {
         final FutureWrappedBootstrap<FutureDone<Pair<FutureRouting,FutureRouting>>> result = new FutureWrappedBootstrap<FutureDone<Pair<FutureRouting,FutureRouting>>>();
         result.bootstrapTo(bootstrapTo);
-        int conn = routingConfiguration.parallel();
+        int conn = routingConfiguration.maxParallel();
         FutureChannelCreator fcc = peer.connectionBean().reservation().create(conn, 0);
         Utils.addReleaseListener(fcc, result);
         fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
@@ -219,6 +219,7 @@ public class BootstrapBuilder {
     static RoutingBuilder createBuilder(RoutingConfiguration routingConfiguration, boolean forceRoutingOnlyToSelf) {
         RoutingBuilder routingBuilder = new RoutingBuilder();
         routingBuilder.parallel(routingConfiguration.parallel());
+        routingBuilder.maxParallel(routingConfiguration.maxParallel());
         routingBuilder.setMaxNoNewInfo(routingConfiguration.maxNoNewInfoDiff());
         routingBuilder.maxDirectHits(Integer.MAX_VALUE);
         routingBuilder.maxFailures(routingConfiguration.maxFailures());
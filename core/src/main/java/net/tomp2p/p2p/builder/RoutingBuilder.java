@@ -34,6 +34,7 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
     private int maxFailures;
     private int maxSuccess;
     private int parallel;
+    private int maxParallel;
     private boolean isBootstrap;
     private boolean isForceRoutingOnlyToSelf;
     private boolean isRoutingToOthers;
@@ -91,6 +92,28 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
         this.parallel = parallel;
     }
 
+    /**
+     * @return The max. number of parallel requests, at least {@link #parallel()}
+     */
+    public int maxParallel() {
+        return Math.max(parallel, maxParallel);
+    }
+
+    /**
+     * @param maxParallel
+     *            The max. number of parallel requests of the adaptive routing
+     */
+    public void maxParallel(int maxParallel) {
+        this.maxParallel = maxParallel;
+    }
+
+    /**
+     * @return True if the number of parallel requests adapts to the round-trip times
+     */
+    public boolean isAdaptive() {
+        return maxParallel() > parallel;
+    }
+
     public boolean isBootstrap() {
         return isBootstrap;
     }
@@ -186,13 +209,14 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
     }
 
     public RoutingMechanism createRoutingMechanism(FutureRouting futureRouting) {
-        final FutureResponse[] futureResponses = new FutureResponse[parallel()];
+        final FutureResponse[] futureResponses = new FutureResponse[maxParallel()];
         RoutingMechanism routingMechanism = new RoutingMechanism(
                 new AtomicReferenceArray<FutureResponse>(futureResponses), futureRouting, peerMapFilters);
         routingMechanism.maxDirectHits(maxDirectHits());
         routingMechanism.maxFailures(maxFailures());
         routingMechanism.maxNoNewInfo(maxNoNewInfo());
         routingMechanism.maxSuccess(maxSuccess());
+        routingMechanism.minParallel(parallel());
         return routingMechanism;
     }
 
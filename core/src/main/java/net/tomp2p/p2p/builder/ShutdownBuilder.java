@@ -72,7 +72,7 @@ public class ShutdownBuilder extends DefaultConnectionConfiguration implements S
             routingConfiguration = new RoutingConfiguration(8, 10, 2);
         }
         
-        int conn = routingConfiguration.parallel();
+        int conn = routingConfiguration.maxParallel();
         FutureChannelCreator fcc = peer.connectionBean().reservation().create(conn, 0);
         final FutureDone<Void> futureShutdown = new FutureDone<Void> ();
         Utils.addReleaseListener(fcc, futureShutdown);
@@ -19,11 +19,16 @@ import io.netty.buffer.ByteBuf;
 import net.tomp2p.utils.Pair;
 import net.tomp2p.utils.Utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.Random;
 
 /**
  * This class represents a 160 bit number. This class is preferred over BigInteger as we always have 160bit, and thus,
- * methods can be optimized.
+ * methods can be optimized. The 160 bits are stored in five final int fields instead of an array, so a key is a
+ * single object and xor distances can be compared without creating new keys.
  * 
  * @author Thomas Bocek
  */
@@ -53,8 +58,18 @@ public final class Number160 extends Number implements Comparable<Number160> {
 
     public static final int CHARS_PER_INT = 8;
 
-    // backing integer array
-    private final int[] val;
+    // backing integers, val0 is the most significant
+    private final int val0;
+    private final int val1;
+    private final int val2;
+    private final int val3;
+    private final int val4;
+
+    // keep the serialized form of the int[] based implementation
+    private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("val", int[].class) };
+
+    // only used during deserialization, see readResolve
+    private transient int[] serialVal;
 
     // constants
     public static final Number160 ZERO = new Number160(0);
@@ -67,7 +82,26 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * Create a Key with value 0.
      */
     public Number160() {
-        this.val = new int[INT_ARRAY_SIZE];
+        this(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Create an instance with all 5 integers, val0 is the most significant.
+     */
+    private Number160(final int val0, final int val1, final int val2, final int val3, final int val4) {
+        this.val0 = val0;
+        this.val1 = val1;
+        this.val2 = val2;
+        this.val3 = val3;
+        this.val4 = val4;
+    }
+
+    /**
+     * Create an instance from an array of size 5. The flag only distinguishes this constructor from the public varargs
+     * constructor.
+     */
+    private Number160(final int[] val, final boolean full) {
+        this(val[0], val[1], val[2], val[3], val[4]);
     }
 
     /**
@@ -78,14 +112,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            of size 5 or smaller.
      */
     public Number160(final int... val) {
-        if (val.length > INT_ARRAY_SIZE) {
-            throw new IllegalArgumentException(String.format("Can only deal with arrays of size smaller or equal to %s. Provided array has %s length.", INT_ARRAY_SIZE, val.length));
-        }
-        this.val = new int[INT_ARRAY_SIZE];
-        final int len = val.length;
-        for (int i = len - 1, j = INT_ARRAY_SIZE - 1; i >= 0; i--, j--) {
-            this.val[j] = val[i];
-        }
+        this(pad(val), true);
     }
 
     /**
@@ -96,27 +123,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            The characters allowed are [0-9a-f], which is in hexadecimal
      */
     public Number160(final String val) {
-        if (val.length() > STRING_LENGTH) {
-            throw new IllegalArgumentException(String.format("Can only deal with strings of size smaller or equal to %s. Provided string has %s length.", STRING_LENGTH, val.length()));
-        }
-        if (val.indexOf("0x") != 0) {
-            throw new IllegalArgumentException(val
-                    + " is not in hexadecimal form. Decimal form is not supported yet");
-        }
-        this.val = new int[INT_ARRAY_SIZE];
-        final char[] tmp = val.toCharArray();
-        final int len = tmp.length;
-        for (int i = STRING_LENGTH - len, j = 2; i < (STRING_LENGTH - 2); i++, j++) {
-            this.val[i >> 3] <<= 4;
-
-            int digit = Character.digit(tmp[j], 16);
-            if (digit < 0) {
-                throw new RuntimeException("Not a hexadecimal number \"" + tmp[j]
-                        + "\". The range is [0-9a-f]");
-            }
-            // += or |= does not matter here
-            this.val[i >> 3] += digit & CHAR_MASK;
-        }
+        this(parse(val), true);
     }
 
     /**
@@ -126,8 +133,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            integer value
      */
     public Number160(final int val) {
-        this.val = new int[INT_ARRAY_SIZE];
-        this.val[INT_ARRAY_SIZE - 1] = val;
+        this(0, 0, 0, 0, val);
     }
 
     /**
@@ -137,9 +143,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            long value
      */
     public Number160(final long val) {
-        this.val = new int[INT_ARRAY_SIZE];
-        this.val[INT_ARRAY_SIZE - 1] = (int) val;
-        this.val[INT_ARRAY_SIZE - 2] = (int) (val >> Integer.SIZE);
+        this(0, 0, 0, (int) (val >> Integer.SIZE), (int) val);
     }
 
     /**
@@ -163,14 +167,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            the length to read
      */
     public Number160(final byte[] val, final int offset, final int length) {
-        if (length > BYTE_ARRAY_SIZE) {
-            throw new IllegalArgumentException(String.format("Can only deal with byte arrays of size smaller or equal to %s. Provided array has %s length.", BYTE_ARRAY_SIZE, length));
-        }
-        this.val = new int[INT_ARRAY_SIZE];
-        for (int i = length + offset - 1, j = BYTE_ARRAY_SIZE - 1, k = 0; i >= offset; i--, j--, k++) {
-            // += or |= does not matter here
-            this.val[j >> 2] |= (val[i] & BYTE_MASK) << ((k % 4) << 3);
-        }
+        this(parse(val, offset, length), true);
     }
 
     /**
@@ -181,10 +178,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            can be set to make the random values repeatable.
      */
     public Number160(final Random random) {
-        this.val = new int[INT_ARRAY_SIZE];
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            this.val[i] = random.nextInt();
-        }
+        this(random.nextInt(), random.nextInt(), random.nextInt(), random.nextInt(), random.nextInt());
     }
 
     /**
@@ -196,26 +190,92 @@ public final class Number160 extends Number implements Comparable<Number160> {
      *            The rest will be filled with this number
      */
     public Number160(final long timestamp, Number160 number96) {
-        this.val = new int[INT_ARRAY_SIZE];
-        this.val[0] = (int) (timestamp >> Integer.SIZE);
-        this.val[1] = (int) timestamp;
-        this.val[2] = number96.val[2];
-        this.val[3] = number96.val[3];
-        this.val[4] = number96.val[4];
+        this((int) (timestamp >> Integer.SIZE), (int) timestamp, number96.val2, number96.val3, number96.val4);
+    }
+
+    private static int[] pad(final int[] val) {
+        if (val.length > INT_ARRAY_SIZE) {
+            throw new IllegalArgumentException(String.format("Can only deal with arrays of size smaller or equal to %s. Provided array has %s length.", INT_ARRAY_SIZE, val.length));
+        }
+        final int[] retVal = new int[INT_ARRAY_SIZE];
+        final int len = val.length;
+        for (int i = len - 1, j = INT_ARRAY_SIZE - 1; i >= 0; i--, j--) {
+            retVal[j] = val[i];
+        }
+        return retVal;
+    }
+
+    private static int[] parse(final String val) {
+        if (val.length() > STRING_LENGTH) {
+            throw new IllegalArgumentException(String.format("Can only deal with strings of size smaller or equal to %s. Provided string has %s length.", STRING_LENGTH, val.length()));
+        }
+        if (val.indexOf("0x") != 0) {
+            throw new IllegalArgumentException(val
+                    + " is not in hexadecimal form. Decimal form is not supported yet");
+        }
+        final int[] retVal = new int[INT_ARRAY_SIZE];
+        final char[] tmp = val.toCharArray();
+        final int len = tmp.length;
+        for (int i = STRING_LENGTH - len, j = 2; i < (STRING_LENGTH - 2); i++, j++) {
+            retVal[i >> 3] <<= 4;
+
+            int digit = Character.digit(tmp[j], 16);
+            if (digit < 0) {
+                throw new RuntimeException("Not a hexadecimal number \"" + tmp[j]
+                        + "\". The range is [0-9a-f]");
+            }
+            // += or |= does not matter here
+            retVal[i >> 3] += digit & CHAR_MASK;
+        }
+        return retVal;
+    }
+
+    private static int[] parse(final byte[] val, final int offset, final int length) {
+        if (length > BYTE_ARRAY_SIZE) {
+            throw new IllegalArgumentException(String.format("Can only deal with byte arrays of size smaller or equal to %s. Provided array has %s length.", BYTE_ARRAY_SIZE, length));
+        }
+        final int[] retVal = new int[INT_ARRAY_SIZE];
+        for (int i = length + offset - 1, j = BYTE_ARRAY_SIZE - 1, k = 0; i >= offset; i--, j--, k++) {
+            // += or |= does not matter here
+            retVal[j >> 2] |= (val[i] & BYTE_MASK) << ((k % 4) << 3);
+        }
+        return retVal;
+    }
+
+    /**
+     * @param pos
+     *            The position, 0 is the most significant int
+     * @return The int at the given position
+     */
+    private int val(final int pos) {
+        switch (pos) {
+        case 0:
+            return val0;
+        case 1:
+            return val1;
+        case 2:
+            return val2;
+        case 3:
+            return val3;
+        case 4:
+            return val4;
+        default:
+            throw new ArrayIndexOutOfBoundsException(pos);
+        }
     }
 
     /**
      * @return The first (most significant) 64bits
      */
     public long timestamp() {
-        return ((this.val[0] & LONG_MASK) << Integer.SIZE) + (this.val[1] & LONG_MASK);
+        return ((this.val0 & LONG_MASK) << Integer.SIZE) + (this.val1 & LONG_MASK);
     }
     
     /**
      * @return The lower (least significant) 96 bits
      */
     public Number160 number96() {
-        return new Number160(0, 0, this.val[2], this.val[3], this.val[4]);
+        return new Number160(0, 0, this.val2, this.val3, this.val4);
     }
 
     /**
@@ -226,24 +286,58 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return A new key with the result of the xor operation
      */
     public Number160 xor(final Number160 key) {
-        final int[] result = new int[INT_ARRAY_SIZE];
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            result[i] = this.val[i] ^ key.val[i];
+        return new Number160(val0 ^ key.val0, val1 ^ key.val1, val2 ^ key.val2, val3 ^ key.val3, val4 ^ key.val4);
+    }
+
+    /**
+     * Compares the xor distance of key1 to this number with the xor distance of key2 to this number. This is the same
+     * as xor(key1).compareTo(xor(key2)), but without creating intermediate numbers.
+     * 
+     * @param key1
+     *            The first key
+     * @param key2
+     *            The second key
+     * @return -1 if key1 is closer to this number, 1 if key2 is closer, 0 if both are equal
+     */
+    public int compareXor(final Number160 key1, final Number160 key2) {
+        int diff = compareUnsigned(val0 ^ key1.val0, val0 ^ key2.val0);
+        if (diff != 0) {
+            return diff;
+        }
+        diff = compareUnsigned(val1 ^ key1.val1, val1 ^ key2.val1);
+        if (diff != 0) {
+            return diff;
+        }
+        diff = compareUnsigned(val2 ^ key1.val2, val2 ^ key2.val2);
+        if (diff != 0) {
+            return diff;
         }
-        return new Number160(result);
+        diff = compareUnsigned(val3 ^ key1.val3, val3 ^ key2.val3);
+        if (diff != 0) {
+            return diff;
+        }
+        return compareUnsigned(val4 ^ key1.val4, val4 ^ key2.val4);
+    }
+
+    /**
+     * Calculates the bit length of the xor distance to the given key. This is the same as xor(key).bitLength(), but
+     * without creating an intermediate number.
+     * 
+     * @param key
+     *            The other key
+     * @return The number of bits used to represent the xor distance
+     */
+    public int xorBitLength(final Number160 key) {
+        return bitLength(val0 ^ key.val0, val1 ^ key.val1, val2 ^ key.val2, val3 ^ key.val3, val4 ^ key.val4);
     }
 
     /**
-     * Returns a copy of the backing array, which is always of size 5.
+     * Returns a copy of the backing integers, which is always of size 5.
      * 
-     * @return a copy of the backing array
+     * @return a copy of the backing integers
      */
     public int[] toIntArray() {
-        final int[] retVal = new int[INT_ARRAY_SIZE];
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            retVal[i] = this.val[i];
-        }
-        return retVal;
+        return new int[] { val0, val1, val2, val3, val4 };
     }
 
     /**
@@ -263,10 +357,11 @@ public final class Number160 extends Number implements Comparable<Number160> {
         for (int i = 0; i < INT_ARRAY_SIZE; i++) {
             // multiply by four
             final int idx = offset + (i << 2);
-            me[idx] = (byte) (val[i] >> 24);
-            me[idx + 1] = (byte) (val[i] >> 16);
-            me[idx + 2] = (byte) (val[i] >> 8);
-            me[idx + 3] = (byte) (val[i]);
+            final int val = val(i);
+            me[idx] = (byte) (val >> 24);
+            me[idx + 1] = (byte) (val >> 16);
+            me[idx + 2] = (byte) (val >> 8);
+            me[idx + 3] = (byte) (val);
         }
         return offset + BYTE_ARRAY_SIZE;
     }
@@ -293,8 +388,9 @@ public final class Number160 extends Number implements Comparable<Number160> {
         boolean removeZero = removeLeadingZero;
         final StringBuilder sb = new StringBuilder("0x");
         for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            toHex(val[i], removeZero, sb);
-            if (removeZero && val[i] != 0) {
+            final int val = val(i);
+            toHex(val, removeZero, sb);
+            if (removeZero && val != 0) {
                 removeZero = false;
             }
         }
@@ -307,12 +403,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return True if this number is zero, false otherwise
      */
     public boolean isZero() {
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            if (this.val[i] != 0) {
-                return false;
-            }
-        }
-        return true;
+        return (val0 | val1 | val2 | val3 | val4) == 0;
     }
 
     /**
@@ -321,15 +412,29 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return The bits used
      */
     public int bitLength() {
-        int bits = 0;
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            if (this.val[i] != 0) {
-                bits += Integer.SIZE - Integer.numberOfLeadingZeros(this.val[i]);
-                bits += Integer.SIZE * (INT_ARRAY_SIZE - ++i);
-                break;
-            }
+        return bitLength(val0, val1, val2, val3, val4);
+    }
+
+    private static int bitLength(final int val0, final int val1, final int val2, final int val3, final int val4) {
+        if (val0 != 0) {
+            return (Integer.SIZE * 5) - Integer.numberOfLeadingZeros(val0);
+        } else if (val1 != 0) {
+            return (Integer.SIZE * 4) - Integer.numberOfLeadingZeros(val1);
+        } else if (val2 != 0) {
+            return (Integer.SIZE * 3) - Integer.numberOfLeadingZeros(val2);
+        } else if (val3 != 0) {
+            return (Integer.SIZE * 2) - Integer.numberOfLeadingZeros(val3);
+        } else if (val4 != 0) {
+            return Integer.SIZE - Integer.numberOfLeadingZeros(val4);
         }
-        return bits;
+        return 0;
+    }
+
+    private static int compareUnsigned(final int val1, final int val2) {
+        // flip the sign bit to compare unsigned
+        final int v1 = val1 + Integer.MIN_VALUE;
+        final int v2 = val2 + Integer.MIN_VALUE;
+        return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
     }
 
     @Override
@@ -342,7 +447,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
         double d = 0;
         for (int i = 0; i < INT_ARRAY_SIZE; i++) {
             d *= LONG_MASK + 1;
-            d += this.val[i] & LONG_MASK;
+            d += val(i) & LONG_MASK;
         }
         return d;
     }
@@ -354,7 +459,7 @@ public final class Number160 extends Number implements Comparable<Number160> {
 
     @Override
     public int intValue() {
-        return this.val[INT_ARRAY_SIZE - 1];
+        return this.val4;
     }
 
     /**
@@ -365,27 +470,34 @@ public final class Number160 extends Number implements Comparable<Number160> {
      * @return the long of the unsigned int
      */
     long unsignedInt(final int pos) {
-        return this.val[pos] & LONG_MASK;
+        return val(pos) & LONG_MASK;
     }
 
     @Override
     public long longValue() {
-        return ((this.val[INT_ARRAY_SIZE - 1] & LONG_MASK) << Integer.SIZE)
-                + (this.val[INT_ARRAY_SIZE - 2] & LONG_MASK);
+        return ((this.val4 & LONG_MASK) << Integer.SIZE)
+                + (this.val3 & LONG_MASK);
     }
 
     @Override
     public int compareTo(final Number160 o) {
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            long b1 = val[i] & LONG_MASK;
-            long b2 = o.val[i] & LONG_MASK;
-            if (b1 < b2) {
-                return -1;
-            } else if (b1 > b2) {
-                return 1;
-            }
+        int diff = compareUnsigned(val0, o.val0);
+        if (diff != 0) {
+            return diff;
         }
-        return 0;
+        diff = compareUnsigned(val1, o.val1);
+        if (diff != 0) {
+            return diff;
+        }
+        diff = compareUnsigned(val2, o.val2);
+        if (diff != 0) {
+            return diff;
+        }
+        diff = compareUnsigned(val3, o.val3);
+        if (diff != 0) {
+            return diff;
+        }
+        return compareUnsigned(val4, o.val4);
     }
 
     @Override
@@ -397,20 +509,16 @@ public final class Number160 extends Number implements Comparable<Number160> {
             return true;
         }
         final Number160 key = (Number160) obj;
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            if (key.val[i] != val[i]) {
-                return false;
-            }
-        }
-        return true;
+        return key.val0 == val0 && key.val1 == val1 && key.val2 == val2 && key.val3 == val3 && key.val4 == val4;
     }
 
     @Override
     public int hashCode() {
-        int hashCode = 0;
-        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
-            hashCode = (int) (31 * hashCode + (val[i] & LONG_MASK));
-        }
+        int hashCode = val0;
+        hashCode = 31 * hashCode + val1;
+        hashCode = 31 * hashCode + val2;
+        hashCode = 31 * hashCode + val3;
+        hashCode = 31 * hashCode + val4;
         return hashCode;
     }
 
@@ -490,7 +598,25 @@ public final class Number160 extends Number implements Comparable<Number160> {
 	}
 
 	public Number160 encode(ByteBuf buf) {
-		buf.writeInt(val[0]).writeInt(val[1]).writeInt(val[2]).writeInt(val[3]).writeInt(val[4]);
+		buf.writeInt(val0).writeInt(val1).writeInt(val2).writeInt(val3).writeInt(val4);
 		return this;
 	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("val", toIntArray());
+		out.writeFields();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		serialVal = (int[]) fields.get("val", null);
+		if (serialVal == null || serialVal.length != INT_ARRAY_SIZE) {
+			throw new IOException("invalid serialized Number160");
+		}
+	}
+
+	private Object readResolve() {
+		return new Number160(serialVal, true);
+	}
 }
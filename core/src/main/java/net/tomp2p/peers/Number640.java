@@ -16,10 +16,14 @@
 
 package net.tomp2p.peers;
 
+import io.netty.buffer.ByteBuf;
+
 import java.util.Random;
 
 /**
- * This class stores the location, domain, content and version keys.
+ * This class stores the location, domain, content and version keys. Each key is a single {@link Number160} object
+ * without a backing array, so a Number640 consists of 5 objects. The keys are kept as references, so the accessors do
+ * not allocate.
  * 
  * @author Thomas Bocek
  * 
@@ -230,4 +234,30 @@ public final class Number640 extends Number implements Comparable<Number640> {
     public Number480 locationAndDomainAndContentKey() {
         return new Number480(locationKey, domainKey, contentKey);
     }
+
+    /**
+     * Decodes a Number640 from the buffer, 80 bytes are read.
+     * 
+     * @param buf
+     *            The buffer to read from
+     * @return The decoded key
+     */
+    public static Number640 decode(final ByteBuf buf) {
+        return new Number640(Number160.decode(buf), Number160.decode(buf), Number160.decode(buf), Number160.decode(buf));
+    }
+
+    /**
+     * Encodes this key into the buffer, 80 bytes are written.
+     * 
+     * @param buf
+     *            The buffer to write to
+     * @return This class
+     */
+    public Number640 encode(final ByteBuf buf) {
+        locationKey.encode(buf);
+        domainKey.encode(buf);
+        contentKey.encode(buf);
+        versionKey.encode(buf);
+        return this;
+    }
 }
@@ -18,6 +18,7 @@ package net.tomp2p.peers;
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PeerException;
 import net.tomp2p.connection.PeerException.AbortCause;
+import net.tomp2p.p2p.DefaultPeerStatisticComparator;
 import net.tomp2p.p2p.PeerStatisticComparator;
 import net.tomp2p.utils.CacheMap;
 import net.tomp2p.utils.ConcurrentCacheMap;
@@ -26,10 +27,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This routing implementation uses is based on Kademlia. However, many changes have been applied to make it faster and
- * more flexible. This class is partially thread-safe.
+ * more flexible. This class is partially thread-safe. The verified bags are concurrent maps, so lookups and
+ * {@link #closePeers(Number160, int)} do not lock. Modifications of a bag are still synchronized on the bag, as the bag
+ * size needs to be checked before inserting.
  * 
  * @author Thomas Bocek
  */
@@ -44,7 +48,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     // the id of this node
     private final Number160 self;
 
-    // the storage for the peers that are verified
+    // the storage for the peers that are verified, reads are lock-free
     private final List<Map<Number160, PeerStatistic>> peerMapVerified;
 
     // the storage for the peers that are not verified or overflown
@@ -131,11 +135,14 @@ public class PeerMap implements PeerStatusListener, Maintainable {
             // closer to 160 will see more writes than reads.
             //
             // We also only allocate memory for the bags far away, as they are likely to be filled first.
+            //
+            // The verified bags are concurrent maps, as they are read on every routing step. Reads do not need to
+            // synchronize, writes synchronize on the bag to check the bag size.
             if (caching) {
                 tmp.add(new CacheMap<Number160, PeerStatistic>(bagSizes[i], true));
             } else {
                 final int memAlloc = bagSizes[i] / 8;
-                tmp.add(new HashMap<Number160, PeerStatistic>(memAlloc));
+                tmp.add(new ConcurrentHashMap<Number160, PeerStatistic>(memAlloc));
             }
         }
         return Collections.unmodifiableList(tmp);
@@ -222,9 +229,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     public int size() {
         int size = 0;
         for (Map<Number160, PeerStatistic> map : peerMapVerified) {
-            synchronized (map) {
-                size += map.size();
-            }
+            size += map.size();
         }
         return size;
     }
@@ -456,10 +461,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
             // -1 means we searched for ourself and we never are our neighbor
             return false;
         }
-        final Map<Number160, PeerStatistic> tmp = peerMapVerified.get(classMember);
-        synchronized (tmp) {
-            return tmp.containsKey(peerAddress.peerId());
-        }
+        return peerMapVerified.get(classMember).containsKey(peerAddress.peerId());
     }
 
     /**
@@ -500,7 +502,10 @@ public class PeerMap implements PeerStatusListener, Maintainable {
 
         // If that failed, look in the overflow map
         if (peerStatistic == null) {
-            peerStatistic = peerMapOverflow().get(classMember).get(peerAddress.peerId());
+            final Map<Number160, PeerStatistic> tmp = peerMapOverflow().get(classMember);
+            synchronized (tmp) {
+                peerStatistic = tmp.get(peerAddress.peerId());
+            }
         }
 
         return peerStatistic;
@@ -530,6 +535,24 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     	return closePeers(self, id, atLeast, peerMapVerified, peerStatisticComparator.getComparator(id));
     }
 
+    /**
+     * Returns close peers to the key other. The bags are visited in the order of their xor distance to other, so only
+     * the bags that are needed to get atLeast peers are added to the sorted set. Peers in bag classMember(self,
+     * other) are the closest, followed by all peers in the smaller bags. Peers in the larger bags are further away
+     * with each bag, so we can stop after the bag that reaches atLeast.
+     * 
+     * @param self
+     *            The id of the peer that owns the bags
+     * @param other
+     *            The key that should be close to the keys in the map
+     * @param atLeast
+     *            The number we want to find at least
+     * @param peerMap
+     *            The bags
+     * @param comparator
+     *            The comparator for the returned set, null for the XOR comparator
+     * @return A sorted set with close peers first in this set
+     */
     public static NavigableSet<PeerStatistic> closePeers(final Number160 self, final Number160 other,
                                                          final int atLeast,
                                                          List<Map<Number160, PeerStatistic>> peerMap,
@@ -554,7 +577,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
             return set;
         }
 
-        // in this case we have to go over all the bags that are smaller
+        // in this case we have to go over all the bags that are smaller, they all have the same distance class
         boolean last = false;
         for (int i = 0; i < classMember; i++) {
             tmp = peerMap.get(i);
@@ -563,10 +586,12 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         if (last) {
             return set;
         }
-        // in this case we have to go over all the bags that are larger
+        // in this case we have to go over the bags that are larger, each bag is further away
         for (int i = classMember + 1; i < Number160.BITS; i++) {
             tmp = peerMap.get(i);
-            fillSet(atLeast, set, tmp);
+            if (fillSet(atLeast, set, tmp)) {
+                return set;
+            }
         }
         return set;
     }
@@ -577,13 +602,11 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         sb.append(self()).append("\n");
         for (int i = 0; i < Number160.BITS; i++) {
             final Map<Number160, PeerStatistic> tmp = peerMapVerified.get(i);
-            synchronized (tmp) {
-                if (tmp.size() > 0) {
-                    sb.append("class:").append(i).append("->\n");
-                    for (final PeerStatistic node : tmp.values()) {
-                        sb.append("node:").append(node.peerAddress()).append(",");
+            if (tmp.size() > 0) {
+                sb.append("class:").append(i).append("->\n");
+                for (final PeerStatistic node : tmp.values()) {
+                    sb.append("node:").append(node.peerAddress()).append(",");
 
-                    }
                 }
             }
         }
@@ -607,10 +630,8 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     public List<PeerAddress> all() {
         final List<PeerAddress> all = new ArrayList<PeerAddress>();
         for (final Map<Number160, PeerStatistic> map : peerMapVerified) {
-            synchronized (map) {
-                for (PeerStatistic peerStatistic : map.values()) {
-                    all.add(peerStatistic.peerAddress());
-                }
+            for (PeerStatistic peerStatistic : map.values()) {
+                all.add(peerStatistic.peerAddress());
             }
         }
         return all;
@@ -632,14 +653,12 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     		if(++bucketCounter > maxBucket) {
 				break;
 			}
-    		synchronized (map) {
-    			int neighborCounter = 0;
-    			for (PeerStatistic peerStatistic : map.values()) {
-    				if(++neighborCounter > nrNeighbors) {
-    					break;
-    				}
-    				fromEachBag.add(peerStatistic.peerAddress());
+    		int neighborCounter = 0;
+    		for (PeerStatistic peerStatistic : map.values()) {
+    			if(++neighborCounter > nrNeighbors) {
+    				break;
     			}
+    			fromEachBag.add(peerStatistic.peerAddress());
     		}
     	}
 	    return fromEachBag;
@@ -719,11 +738,11 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return -1 if first peer is closer, 1 otherwise, 0 if both are equal
      */
     public static int isKadCloser(final Number160 id, final PeerAddress rn, final PeerAddress rn2) {
-        return distance(id, rn.peerId()).compareTo(distance(id, rn2.peerId()));
+        return id.compareXor(rn.peerId(), rn2.peerId());
     }
     
     public static int isKadCloser(final Number160 id, final Number160 rn, final Number160 rn2) {
-        return distance(id, rn).compareTo(distance(id, rn2));
+        return id.compareXor(rn, rn2);
     }
 
     /**
@@ -782,6 +801,13 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         return peerStatisticComparator.getComparator(location);
     }
 
+    /**
+     * @return True if the peer statistic comparator was not set in the {@link PeerMapConfiguration}
+     */
+    public boolean isDefaultStatisticComparator() {
+        return peerStatisticComparator.getClass() == DefaultPeerStatisticComparator.class;
+    }
+
     /**
      * Takes a collection of PeerAddress and returns an equivalent collection
      * of PeerStatistic from the PeerMap. New PeerStatistics are created for peers
@@ -812,7 +838,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return The bit difference and -1 if they are equal
      */
     public static int classMember(final Number160 id1, final Number160 id2) {
-        return distance(id1, id2).bitLength() - 1;
+        return id1.xorBitLength(id2) - 1;
     }
 
     /**
@@ -869,6 +895,10 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      */
     public static Pair<PeerStatistic,Boolean> updateExistingVerifiedPeerAddress(
             final Map<Number160, PeerStatistic> tmp, final PeerAddress peerAddress, final boolean firstHand, RTT roundTripTime) {
+        if (tmp instanceof ConcurrentHashMap && !tmp.containsKey(peerAddress.peerId())) {
+            // fast path for new peers, no need to lock the bag
+            return null;
+        }
         synchronized (tmp) {
             PeerStatistic old = tmp.get(peerAddress.peerId());
             if (old != null && firstHand) {
@@ -899,10 +929,17 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      */
     private static boolean fillSet(final int atLeast, final SortedSet<PeerStatistic> set,
             final Map<Number160, PeerStatistic> tmp) {
-        synchronized (tmp) {
+        if (tmp instanceof ConcurrentHashMap) {
+            // weakly consistent iteration, no need to lock
             for (final PeerStatistic peerStatistic : tmp.values()) {
             	set.add(peerStatistic);
             }
+        } else {
+            synchronized (tmp) {
+                for (final PeerStatistic peerStatistic : tmp.values()) {
+                	set.add(peerStatistic);
+                }
+            }
         }
         return set.size() >= atLeast;
     }
@@ -918,10 +955,8 @@ public class PeerMap implements PeerStatusListener, Maintainable {
 	public int nrFilledBags() {
 		int counter = 0;
 		for (final Map<Number160, PeerStatistic> map : peerMapVerified) {
-            synchronized (map) {
-            	if(map.size() > 0) {
-            		counter++;
-            	}
+            if(map.size() > 0) {
+            	counter++;
             }
         }
 		return counter;
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.rpc;
+
+/**
+ * The bit positions of the bloom filters, the same sequence as
+ * new java.util.Random(hashCode).nextInt(bound), but without creating a Random
+ * object per element. The positions are part of the wire format, a peer tests
+ * the elements of its own storage against a bloom filter it received, so they
+ * must not change. The state of the generator is a long, thus the filters stay
+ * allocation free and can be used from several threads.
+ *
+ * <pre>
+ * long seed = BloomHash.seed(o.hashCode());
+ * for (int x = 0; x &lt; k; x++) {
+ *     seed = BloomHash.next(seed, bound);
+ *     int index = BloomHash.index(seed, bound);
+ * }
+ * </pre>
+ *
+ * @author Thomas Bocek
+ */
+final class BloomHash {
+
+	// the linear congruential generator of java.util.Random
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+
+	private BloomHash() {
+	}
+
+	/**
+	 * @param hashCode
+	 *            The hash code of the element
+	 * @return The initial state, same as new Random(hashCode)
+	 */
+	static long seed(final int hashCode) {
+		return (hashCode ^ MULTIPLIER) & MASK;
+	}
+
+	/**
+	 * Advances the state to the next accepted value of nextInt(bound). Values
+	 * that would favor the lower positions are skipped as in java.util.Random.
+	 *
+	 * @param seed
+	 *            The current state
+	 * @param bound
+	 *            The number of bits in the filter, must be positive
+	 * @return The new state, use {@link #index(long, int)} to get the position
+	 */
+	static long next(long seed, final int bound) {
+		seed = (seed * MULTIPLIER + ADDEND) & MASK;
+		if ((bound & -bound) == bound) {
+			return seed;
+		}
+		for (int bits = bits(seed); bits - bits % bound + (bound - 1) < 0; bits = bits(seed)) {
+			seed = (seed * MULTIPLIER + ADDEND) & MASK;
+		}
+		return seed;
+	}
+
+	/**
+	 * @param seed
+	 *            The state returned by {@link #next(long, int)}
+	 * @param bound
+	 *            The number of bits in the filter
+	 * @return The position in the filter
+	 */
+	static int index(final long seed, final int bound) {
+		if ((bound & -bound) == bound) {
+			return (int) ((bound * (long) bits(seed)) >> 31);
+		}
+		return bits(seed) % bound;
+	}
+
+	private static int bits(final long seed) {
+		// next(31)
+		return (int) (seed >>> 17);
+	}
+}
@@ -40,13 +40,39 @@ public class BroadcastRPC extends DispatchHandler {
 
     public FutureResponse send(final PeerAddress remotePeer, final BroadcastBuilder broadcastBuilder,
             final ChannelCreator channelCreator, final ConnectionConfiguration configuration, int bucketNr) {
+        final DataMap dataMap = broadcastBuilder.dataMap() == null ? null : new DataMap(broadcastBuilder.dataMap());
+        return send(remotePeer, broadcastBuilder, channelCreator, configuration, bucketNr, dataMap);
+    }
+
+    /**
+     * Sends a broadcast message with a data map that may have been encoded
+     * once for all recipients, see {@link DataMap#encode}.
+     * 
+     * @param remotePeer
+     *            The peer to send the message to
+     * @param broadcastBuilder
+     *            The message key, the hop counter and the transport, the data
+     *            map of the builder is ignored
+     * @param channelCreator
+     *            The channel creator with a permit for this message
+     * @param configuration
+     *            The connection configuration
+     * @param bucketNr
+     *            The bucket the remote peer is in
+     * @param dataMap
+     *            The data map to send, or null
+     * @return The future response
+     */
+    public FutureResponse send(final PeerAddress remotePeer, final BroadcastBuilder broadcastBuilder,
+            final ChannelCreator channelCreator, final ConnectionConfiguration configuration, int bucketNr,
+            final DataMap dataMap) {
         final Message message = createMessage(remotePeer, RPC.Commands.BROADCAST.getNr(), Type.REQUEST_FF_1);
         message.intValue(broadcastBuilder.hopCounter());
         message.intValue(bucketNr);
         message.key(broadcastBuilder.messageKey());
         
-        if (broadcastBuilder.dataMap() != null) {
-            message.setDataMap(new DataMap(broadcastBuilder.dataMap()));
+        if (dataMap != null) {
+            message.setDataMap(dataMap);
         }
         final FutureResponse futureResponse = new FutureResponse(message);
         final RequestHandler requestHandler = new RequestHandler(
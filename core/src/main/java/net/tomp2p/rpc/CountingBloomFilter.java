@@ -20,8 +20,8 @@ import java.io.Serializable;
 import java.util.*;
 
 /**
- * A counting Bloom Filter (see http://en.wikipedia.org/wiki/Bloom_filter) that uses java.util.Random as a primitive
- * hash function, and which implements Java's Set interface for convenience. Only the add(), addAll(), contains(), and
+ * A counting Bloom Filter (see http://en.wikipedia.org/wiki/Bloom_filter) that uses the sequence of java.util.Random
+ * as a primitive hash function (see {@link BloomHash}), and which implements Java's Set interface for convenience. Only the add(), addAll(), contains(), and
  * containsAll() methods are implemented. Calling any other method will yield an UnsupportedOperationException. This
  * code may be used, modified, and redistributed provided that the author tag below remains intact.
  * 
@@ -82,9 +82,10 @@ public class CountingBloomFilter<E> implements Set<E>, Serializable {
      */
     @Override
     public boolean add(E o) {
-        Random r = new Random(o.hashCode());
+        long seed = BloomHash.seed(o.hashCode());
         for (int x = 0; x < k; x++) {
-            int index = r.nextInt(intArraySize);
+            seed = BloomHash.next(seed, intArraySize);
+            int index = BloomHash.index(seed, intArraySize);
             int old = intSet[index];
             if (old != Integer.MAX_VALUE) {
                 intSet[index] = old + 1;
@@ -122,9 +123,10 @@ public class CountingBloomFilter<E> implements Set<E>, Serializable {
      *         was. The probability can be estimated using the expectedFalsePositiveProbability() method.
      */
     public boolean contains(Object o) {
-        Random r = new Random(o.hashCode());
+        long seed = BloomHash.seed(o.hashCode());
         for (int x = 0; x < k; x++) {
-            if (intSet[r.nextInt(intArraySize)] == 0) {
+            seed = BloomHash.next(seed, intArraySize);
+            if (intSet[BloomHash.index(seed, intArraySize)] == 0) {
                 return false;
             }
         }
@@ -228,9 +230,10 @@ public class CountingBloomFilter<E> implements Set<E>, Serializable {
      */
     public int approximateCount(final E key) {
         int retVal = Integer.MAX_VALUE;
-        Random r = new Random(key.hashCode());
+        long seed = BloomHash.seed(key.hashCode());
         for (int x = 0; x < k; x++) {
-            retVal = Math.min(retVal, intSet[r.nextInt(intArraySize)]);
+            seed = BloomHash.next(seed, intArraySize);
+            retVal = Math.min(retVal, intSet[BloomHash.index(seed, intArraySize)]);
         }
         return retVal;
     }
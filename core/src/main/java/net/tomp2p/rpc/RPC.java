@@ -29,7 +29,9 @@ public class RPC {
 		GET_LATEST_WITH_DIGEST(),
 		GCM(),
 		REPLICA_PUT(), 
-		DIGEST_ALL_BLOOMFILTER();
+		DIGEST_ALL_BLOOMFILTER(),
+		SYNC_TREE(),
+		TASK();
 	public byte getNr() {
 		return (byte) ordinal();
 	}
@@ -25,8 +25,9 @@ import java.util.*;
 
 /**
  * A simple Bloom Filter (see http://en.wikipedia.org/wiki/Bloom_filter) that
- * uses java.util.Random as a primitive hash function, and which implements
- * Java's Set interface for convenience. Only the add(), addAll(), contains(),
+ * uses the sequence of java.util.Random as a primitive hash function, and which
+ * implements Java's Set interface for convenience. The bits are stored in a
+ * long array, see {@link BloomHash} for the hash function. Only the add(), addAll(), contains(),
  * and containsAll() methods are implemented. Calling any other method will
  * yield an UnsupportedOperationException. This code may be used, modified, and
  * redistributed provided that the author tag below remains intact.
@@ -42,7 +43,7 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SimpleBloomFilter.class);
 
-	private static final long serialVersionUID = 3527833617516722215L;
+	private static final long serialVersionUID = 3527833617516722216L;
 
 	private static final int SIZE_HEADER_LENGTH = 2;
 
@@ -52,7 +53,8 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 
 	private final int k;
 
-	private final BitSet bitSet;
+	// bit i is in words[i / 64] at position i % 64
+	private final long[] words;
 
 	private final int byteArraySize, bitArraySize, expectedElements;
 
@@ -71,7 +73,7 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	 *            SimpleBloomFilter (often called 'n').
 	 */
 	public SimpleBloomFilter(final int byteArraySize, final int expectedElements) {
-		this(byteArraySize, expectedElements, new BitSet(byteArraySize * Byte.SIZE));
+		this(byteArraySize, expectedElements, new long[words(byteArraySize * Byte.SIZE)]);
 	}
 
 	// inspired by https://github.com/magnuss/java-bloomfilter
@@ -85,7 +87,7 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 		// k may be larger as we may have increased the byte array size to match
 		// a byte
 		this.k = (int) Math.ceil(hf);
-		this.bitSet = new BitSet(bitArraySize);
+		this.words = new long[words(bitArraySize)];
 	}
 
 	/**
@@ -101,12 +103,15 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 		this.expectedElements = expectedElements;
 		double hf = (bitArraySize / (double) expectedElements) * Math.log(2.0);
 		this.k = (int) Math.ceil(hf);
-		if (byteArraySize > 0) {
-			byte[] me = new byte[byteArraySize];
-			channelBuffer.readBytes(me);
-			this.bitSet = RPCUtils.fromByteArray(me);
-		} else {
-			this.bitSet = new BitSet();
+		this.words = new long[words(bitArraySize)];
+		// the first bit is the most significant bit of the first byte, which
+		// is the bit order of a reversed big endian long
+		final int fullWords = byteArraySize / 8;
+		for (int i = 0; i < fullWords; i++) {
+			words[i] = Long.reverse(channelBuffer.readLong());
+		}
+		for (int i = fullWords * 8; i < byteArraySize; i++) {
+			words[i >>> 3] |= (long) (Integer.reverse(channelBuffer.readUnsignedByte()) >>> 24) << ((i & 7) << 3);
 		}
 	}
 
@@ -127,6 +132,10 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	 *            The data that will be used in the backing BitSet
 	 */
 	public SimpleBloomFilter(final int byteArraySize, final int expectedElements, final BitSet bitSet) {
+		this(byteArraySize, expectedElements, Arrays.copyOf(bitSet.toLongArray(), words(byteArraySize * Byte.SIZE)));
+	}
+
+	private SimpleBloomFilter(final int byteArraySize, final int expectedElements, final long[] words) {
 		this.byteArraySize = byteArraySize;
 		this.bitArraySize = byteArraySize * Byte.SIZE;
 		this.expectedElements = expectedElements;
@@ -137,7 +146,7 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 			        "Bit size too small for storing all expected elements. For optimum result increase byteArraySize to {}",
 			        expectedElements / Math.log(2.0));
 		}
-		this.bitSet = bitSet;
+		this.words = words;
 	}
 
 	/**
@@ -169,9 +178,11 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	 */
 	@Override
 	public boolean add(final E o) {
-		Random r = new Random(o.hashCode());
+		long seed = BloomHash.seed(o.hashCode());
 		for (int x = 0; x < k; x++) {
-			bitSet.set(r.nextInt(bitArraySize), true);
+			seed = BloomHash.next(seed, bitArraySize);
+			final int index = BloomHash.index(seed, bitArraySize);
+			words[index >>> 6] |= 1L << index;
 		}
 		return false;
 	}
@@ -183,8 +194,16 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	 */
 	@Override
 	public boolean addAll(final Collection<? extends E> c) {
-		for (E o : c) {
-			add(o);
+		if (c instanceof List && c instanceof RandomAccess) {
+			// no iterator for the common case of an array list
+			final List<? extends E> list = (List<? extends E>) c;
+			for (int i = 0, size = list.size(); i < size; i++) {
+				add(list.get(i));
+			}
+		} else {
+			for (E o : c) {
+				add(o);
+			}
 		}
 		return false;
 	}
@@ -194,9 +213,7 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	 */
 	@Override
 	public void clear() {
-		for (int x = 0; x < bitSet.length(); x++) {
-			bitSet.set(x, false);
-		}
+		Arrays.fill(words, 0L);
 	}
 
 	/**
@@ -211,9 +228,11 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 		if(isVoid()) {
 			return false;
 		}
-		Random r = new Random(o.hashCode());
+		long seed = BloomHash.seed(o.hashCode());
 		for (int x = 0; x < k; x++) {
-			if (!bitSet.get(r.nextInt(bitArraySize))) {
+			seed = BloomHash.next(seed, bitArraySize);
+			final int index = BloomHash.index(seed, bitArraySize);
+			if ((words[index >>> 6] & (1L << index)) == 0) {
 				return false;
 			}
 		}
@@ -242,7 +261,12 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	 */
 	@Override
 	public boolean isEmpty() {
-		return bitSet.isEmpty();
+		for (long word : words) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -256,7 +280,15 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	}
 	
 	public boolean isFull() {
-		return bitSet.cardinality() == bitSet.size();
+		return cardinality() == bitArraySize;
+	}
+
+	private int cardinality() {
+		int cardinality = 0;
+		for (long word : words) {
+			cardinality += Long.bitCount(word);
+		}
+		return cardinality;
 	}
 
 	/**
@@ -340,12 +372,12 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	}
 
 	/**
-	 * Returns the bitset that backs the bloom filter.
+	 * Returns a copy of the bits of the bloom filter.
 	 * 
 	 * @return bloom filter as a bitset
 	 */
 	public BitSet getBitSet() {
-		return bitSet;
+		return BitSet.valueOf(words);
 	}
 
 	/**
@@ -359,10 +391,13 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	public void encode(final ByteBuf buf) {
 		buf.writeShort(byteArraySize + SIZE_HEADER_ELEMENTS + SIZE_HEADER_LENGTH);
 		buf.writeInt(expectedElements);
-		byte[] tmp = RPCUtils.toByteArray(bitSet);
-		int currentByteArraySize = tmp.length;
-		buf.writeBytes(tmp);
-		buf.writeZero(byteArraySize - currentByteArraySize);
+		final int fullWords = byteArraySize / 8;
+		for (int i = 0; i < fullWords; i++) {
+			buf.writeLong(Long.reverse(words[i]));
+		}
+		for (int i = fullWords * 8; i < byteArraySize; i++) {
+			buf.writeByte(Integer.reverse((int) (words[i >>> 3] >>> ((i & 7) << 3)) & 0xFF) >>> 24);
+		}
 	}
 
 	/** Merges this bloom filter with the provided one using OR.
@@ -374,9 +409,11 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 		if (toMerge.bitArraySize != bitArraySize) {
 			throw new RuntimeException("The two bloomfilters must have the same size.");
 		}
-		BitSet mergedBitSet = (BitSet) bitSet.clone();
-		mergedBitSet.or(toMerge.bitSet);
-		return new SimpleBloomFilter<E>(bitArraySize, expectedElements, mergedBitSet);
+		final long[] merged = words.clone();
+		for (int i = 0; i < merged.length; i++) {
+			merged[i] |= toMerge.words[i];
+		}
+		return new SimpleBloomFilter<E>(byteArraySize, expectedElements, merged);
 	}
 
 	@Override
@@ -390,14 +427,14 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 		@SuppressWarnings("unchecked")
 		SimpleBloomFilter<E> o = (SimpleBloomFilter<E>) obj;
 		return o.k == k && o.bitArraySize == bitArraySize && expectedElements == o.expectedElements
-		        && bitSet.equals(o.bitSet);
+		        && Arrays.equals(words, o.words);
 	}
 
 	@Override
 	public int hashCode() {
 		final int magic = 31;
 		int hash = 7;
-		hash = magic * hash + bitSet.hashCode();
+		hash = magic * hash + Arrays.hashCode(words);
 		hash = magic * hash + k;
 		hash = magic * hash + expectedElements;
 		hash = magic * hash + bitArraySize;
@@ -407,15 +444,27 @@ public class SimpleBloomFilter<E> implements Set<E>, Serializable {
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		int length = bitSet.length();
+		int length = 0;
+		for (int i = words.length - 1; i >= 0 && length == 0; i--) {
+			if (words[i] != 0) {
+				length = i * Long.SIZE + Long.SIZE - Long.numberOfLeadingZeros(words[i]);
+			}
+		}
 		for (int i = 0; i < length; i++) {
-			sb.append(bitSet.get(i) ? "1" : "0");
+			sb.append((words[i >>> 6] & (1L << i)) != 0 ? "1" : "0");
 		}
 		return sb.toString();
 	}
 
 	public SimpleBloomFilter<E> setAll() {
-		bitSet.set(0, bitSet.size(), true);
+		Arrays.fill(words, -1L);
+		if (bitArraySize % Long.SIZE != 0) {
+			words[words.length - 1] = (1L << bitArraySize) - 1;
+		}
 	    return this;
     }
+
+	private static int words(final int bitArraySize) {
+		return (bitArraySize + Long.SIZE - 1) / Long.SIZE;
+	}
 }
@@ -44,6 +44,17 @@ public class Data {
 
 	private static final int MAX_BYTE_SIZE = 256;
 
+	/**
+	 * Received values of this size or larger are not copied, they keep
+	 * retained slices of the received buffers. A slice keeps the whole
+	 * received buffer, thus small values are still copied.
+	 */
+	public static final int DECODE_ZERO_COPY_THRESHOLD = 64 * 1024;
+	// the slices added since the last check are merged if there are this many
+	private static final int MAX_FRAGMENTS = 64;
+	// and if they are smaller than this on average
+	private static final int MIN_FRAGMENT_SIZE = 4 * 1024;
+
 	/**
 	 * small means 8 bit, medium is 32bit.
 	 * 
@@ -75,6 +86,9 @@ public class Data {
 	//this goes never over the network! If this is set, we have to sign lazy
 	private transient PrivateKey privateKey;
 
+	// the components of a zero-copy buffer that were checked for fragmentation
+	private transient int checkedComponents = 0;
+
 	// never serialized over the network in this object
 	private long validFromMillis;
 	private SignatureFactory signatureFactory;
@@ -115,6 +129,10 @@ public class Data {
 	 *            The length, depending on the header values.
 	 */
 	public Data(final int header, final int length) {
+		this(header, length, Unpooled.buffer(length));
+	}
+
+	private Data(final int header, final int length, final ByteBuf buffer) {
 		this.publicKeyFlag = hasPublicKey(header);
 		this.flag1 = isFlag1(header);
 		this.flag2 = isFlag2(header);
@@ -132,7 +150,7 @@ public class Data {
 		}
 
 		this.length = length;
-		this.buffer = Unpooled.buffer(length);
+		this.buffer = buffer;
 		this.validFromMillis = System.currentTimeMillis();
 	}
 
@@ -194,6 +212,25 @@ public class Data {
 	 * @return The data object, may be partially filled
 	 */
 	public static Data decodeHeader(final ByteBuf buf, final SignatureFactory signatureFactory) {
+		return decodeHeader(buf, signatureFactory, false);
+	}
+
+	/**
+	 * Reads the header and the payload. The payload is not copied, the data
+	 * object wraps a slice of the buffer. Thus, the buffer needs to contain the
+	 * complete header and payload, e.g., a memory-mapped file. The signature
+	 * needs to be read with {@link #decodeDone(ByteBuf, SignatureFactory)}.
+	 * 
+	 * @param buf
+	 *            The buffer to read from
+	 * @return The data object with the complete payload, or null if the header
+	 *         could not be fully read
+	 */
+	public static Data decodeWrapped(final ByteBuf buf, final SignatureFactory signatureFactory) {
+		return decodeHeader(buf, signatureFactory, true);
+	}
+
+	private static Data decodeHeader(final ByteBuf buf, final SignatureFactory signatureFactory, final boolean wrap) {
 		// 2 is the smallest packet size, we could start if we know 1 byte to
 		// decode the header, but we always need
 		// a second byte. Thus, we are waiting for at least 2 bytes.
@@ -294,7 +331,14 @@ public class Data {
 		}
 		
 		// now, we have read the header and the length
-		final Data data = new Data(header, length);
+		final Data data;
+		if (wrap) {
+			data = new Data(header, length, buf.readSlice(length));
+		} else if (length >= DECODE_ZERO_COPY_THRESHOLD) {
+			data = new Data(header, length, Unpooled.compositeBuffer(Integer.MAX_VALUE));
+		} else {
+			data = new Data(header, length);
+		}
 		data.ttlSeconds = ttl;
 		data.basedOnSet = basedOn;
 		data.publicKey = publicKey;
@@ -309,15 +353,66 @@ public class Data {
 	 * @return True if we are done reading
 	 */
 	public boolean decodeBuffer(final ByteBuf buf) {
-            int already = buffer.writerIndex();
-            
-            int remaining = length - already;
-            int len = Math.min(remaining, buf.readableBytes());
-                    
-            buffer.writeBytes(buf, len);
-            return buffer.writerIndex() == length;
+		final int already = buffer.writerIndex();
+		final int remaining = length - already;
+		final int len = Math.min(remaining, buf.readableBytes());
+		if (buffer instanceof CompositeByteBuf && len > 0) {
+			final CompositeByteBuf composite = (CompositeByteBuf) buffer;
+			if (buf instanceof CompositeByteBuf) {
+				// slice the components, a slice of the composite buffer would
+				// break once its read components are discarded
+				addComponents(composite, (CompositeByteBuf) buf, buf.readerIndex(), len);
+			} else {
+				composite.addComponent(true, buf.retainedSlice(buf.readerIndex(), len));
+			}
+			buf.skipBytes(len);
+			consolidateFragments(composite);
+		} else {
+			buffer.writeBytes(buf, len);
+		}
+		return buffer.writerIndex() == length;
 	}
-	
+
+	/**
+	 * Adds retained slices of the components that hold the given bytes. This
+	 * maps the indexes the same way as CompositeByteBuf.getBytes, unlike
+	 * CompositeByteBuf.decompose, which returns wrong bytes for components
+	 * that are slices.
+	 */
+	private static void addComponents(final CompositeByteBuf composite, final CompositeByteBuf buf, int index,
+			int len) {
+		while (len > 0) {
+			final int componentIndex = buf.toComponentIndex(index);
+			final int start = buf.toByteIndex(componentIndex);
+			final int end = componentIndex + 1 < buf.numComponents() ? buf.toByteIndex(componentIndex + 1) : buf
+					.writerIndex();
+			final int sliceLength = Math.min(len, end - index);
+			composite.addComponent(true, buf.internalComponent(componentIndex).retainedSlice(index - start,
+					sliceLength));
+			index += sliceLength;
+			len -= sliceLength;
+		}
+	}
+
+	/**
+	 * Merges the last components if there are many small ones, e.g., if the
+	 * value was received in small chunks. Every byte is copied at most once, as
+	 * merged components are not checked again.
+	 */
+	private void consolidateFragments(final CompositeByteBuf composite) {
+		final int fragments = composite.numComponents() - checkedComponents;
+		if (fragments < MAX_FRAGMENTS && composite.writerIndex() < length) {
+			return;
+		}
+		final int fragmentBytes = composite.writerIndex() - composite.toByteIndex(checkedComponents);
+		if (fragments > 1 && fragmentBytes / fragments < MIN_FRAGMENT_SIZE) {
+			composite.consolidate(checkedComponents, fragments);
+			checkedComponents++;
+		} else {
+			checkedComponents = composite.numComponents();
+		}
+	}
+
 	public boolean decodeDone(final ByteBuf buf, SignatureFactory signatureFactory) {
 		if (signed) {
 			if(buf.readableBytes() < signatureFactory.signatureSize()) {
@@ -424,12 +519,17 @@ public class Data {
 		}
 	}
 	
+	/**
+	 * Writes the value to the buffer. Large values are added as a component of
+	 * the composite buffer, thus they are not copied.
+	 * 
+	 * @param buf
+	 *            The composite buffer of the message
+	 * @return True, as the value is always written completely
+	 */
 	public boolean encodeBuffer(final CompositeByteBuf buf) {
-            //buf.setBytes(buf.writerIndex(), buffer);
-            buf.writeBytes(buffer.duplicate());
-            return true;
-		//final int transferred = buffer.transferTo(buf);
-		//return transferred == length();
+		Utils.addComponent(buf, buffer);
+		return true;
 	}
 	
 	public void encodeDone(final ByteBuf buf, SignatureFactory signatureFactory) throws InvalidKeyException, SignatureException, IOException {
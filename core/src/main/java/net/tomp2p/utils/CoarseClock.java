@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.utils;
+
+/**
+ * A clock with a resolution of {@link #RESOLUTION_MILLIS}, for timeouts that are
+ * checked on every access but are measured in seconds. The time is read from a
+ * volatile field that a daemon thread updates, so the hot path does not call
+ * {@link System#currentTimeMillis()}.
+ *
+ * @author Thomas Bocek
+ */
+final class CoarseClock {
+
+    static final int RESOLUTION_MILLIS = 10;
+
+    private static volatile long currentTimeMillis = System.currentTimeMillis();
+
+    static {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(RESOLUTION_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    currentTimeMillis = System.currentTimeMillis();
+                }
+            }
+        }, "TomP2P-coarse-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * @return The current time in milliseconds, at most about
+     *         {@link #RESOLUTION_MILLIS} behind {@link System#currentTimeMillis()}
+     */
+    static long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+}
@@ -19,17 +19,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A map with expiration and more or less LRU. Since the maps are separated in segments, the LRU is done for each
- * segment. A segment is chosen based on the hash of the key. If one segments is more loaded than another, then an entry
- * of the loaded segment may get evicted before an entry used least recently from an other segment. The expiration is
- * done best effort. There is no thread checking for timed out entries since the cache has a fixed size. Once an entry
- * times out, it remains in the map until it either is accessed or evicted. A test showed that for the default entry
- * size of 1024, this map has a size of 967 if 1024 items are inserted. This is due to the segmentation and hashing.
+ * A map with expiration and more or less LRU. The entries are stored in segments, a segment is chosen based on the
+ * hash of the key. The number of segments depends on the number of cores. Reads are lock-free, writes lock only the
+ * segment of the key. Each segment keeps its entries in the order they were put, which is also the order in which they
+ * expire, since all entries have the same time to live. The maximum number of entries is for the whole map, if it is
+ * exceeded, the oldest entry of the next segment in a round robin fashion is evicted. The expiration is done best
+ * effort. There is no thread checking for timed out entries. Expired entries are removed when they are accessed, and
+ * each write removes the expired entries at the head of its segment. The time is taken from a clock with a resolution
+ * of 10ms.
  * 
  * @author Thomas Bocek
  * @param <K>
@@ -41,7 +44,7 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentCacheMap.class);
 
     /**
-     * Number of segments that can be accessed concurrently.
+     * Minimal number of segments that can be accessed concurrently.
      */
     public static final int SEGMENT_NR = 16;
 
@@ -55,25 +58,33 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
      */
     public static final int DEFAULT_TIME_TO_LIVE = 60;
 
-    private final CacheMap<K, ExpiringObject>[] segments;
+    // 4 segments per core, as a power of two
+    private static final int SEGMENTS = Math.max(SEGMENT_NR,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
 
-    private final int timeToLiveSeconds;
+    private final Segment<K, V>[] segments;
+
+    private final long timeToLiveMillis;
+
+    private final int maxEntries;
 
     private final boolean refreshTimeout;
 
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger evictSegment = new AtomicInteger();
+
     private final AtomicInteger removedCounter = new AtomicInteger();
 
     /**
-     * Creates a new instance of ConcurrentCacheMap using the default values and a {@link CacheMap} for the internal
-     * data structure.
+     * Creates a new instance of ConcurrentCacheMap using the default values.
      */
     public ConcurrentCacheMap() {
         this(DEFAULT_TIME_TO_LIVE, MAX_ENTRIES, true);
     }
 
     /**
-     * Creates a new instance of ConcurrentCacheMap using the supplied values and a {@link CacheMap} for the internal
-     * data structure.
+     * Creates a new instance of ConcurrentCacheMap using the supplied values.
      * 
      * @param timeToLiveSeconds
      *            The time-to-live value (seconds)
@@ -85,8 +96,7 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     }
 
     /**
-     * Creates a new instance of ConcurrentCacheMap using the supplied values and a {@link CacheMap} for the internal
-     * data structure.
+     * Creates a new instance of ConcurrentCacheMap using the supplied values.
      * 
      * @param timeToLiveSeconds
      *            The time-to-live value (seconds)
@@ -97,13 +107,12 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
      */
     @SuppressWarnings("unchecked")
     public ConcurrentCacheMap(final int timeToLiveSeconds, final int maxEntries, final boolean refreshTimeout) {
-        this.segments = new CacheMap[SEGMENT_NR];
-        final int maxEntriesPerSegment = maxEntries / SEGMENT_NR;
-        for (int i = 0; i < SEGMENT_NR; i++) {
-        	// set updateOnInsert to true, since it should behave as a regular map
-            segments[i] = new CacheMap<K, ExpiringObject>(maxEntriesPerSegment, true);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<K, V>();
         }
-        this.timeToLiveSeconds = timeToLiveSeconds;
+        this.timeToLiveMillis = TimeUnit.MILLISECONDS.convert(timeToLiveSeconds, TimeUnit.SECONDS);
+        this.maxEntries = maxEntries;
         this.refreshTimeout = refreshTimeout;
     }
 
@@ -112,67 +121,75 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
      * 
      * @param key
      *            The key where the hash code identifies the segment
-     * @return The cache map that corresponds to this segment
+     * @return The segment
      */
-    private CacheMap<K, ExpiringObject> segment(final Object key) {
-        return segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENT_NR];
+    private Segment<K, V> segment(final Object key) {
+        final int hashCode = key.hashCode();
+        return segments[(hashCode ^ (hashCode >>> 16)) & (SEGMENTS - 1)];
     }
 
     @Override
     public V put(final K key, final V value) {
-        final ExpiringObject newValue = new ExpiringObject(value, System.currentTimeMillis());
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        ExpiringObject oldValue;
+        final long now = CoarseClock.currentTimeMillis();
+        final Node<K, V> newValue = new Node<K, V>(key, value, now + timeToLiveMillis);
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue;
         synchronized (segment) {
-            oldValue = segment.put(key, newValue);
+            oldValue = segment.map.put(key, newValue);
+            added(segment, newValue, oldValue == null, now);
         }
-        if (oldValue == null || oldValue.isExpired()) {
+        if (oldValue == null) {
+            evict();
             return null;
         }
-        return oldValue.getValue();
+        return oldValue.isExpired(now) ? null : oldValue.value;
     }
 
     @Override
     /**
-     * This does not reset the timer!
+     * This does not reset the timer, unless refreshTimeout is set!
      */
     public V putIfAbsent(final K key, final V value) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject newValue = new ExpiringObject(value, System.currentTimeMillis());
-        ExpiringObject oldValue = null;
+        final long now = CoarseClock.currentTimeMillis();
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue;
+        boolean added = false;
         synchronized (segment) {
-            if (!segment.containsKey(key)) {
-                oldValue = segment.put(key, newValue);
-            } else {
-                oldValue = segment.get(key);
-                if (oldValue.isExpired()) {
-                    segment.put(key, newValue);
-                } else if (refreshTimeout) {
-                    oldValue = new ExpiringObject(oldValue.getValue(), System.currentTimeMillis());
-                    segment.put(key, oldValue);
+            oldValue = segment.map.get(key);
+            if (oldValue == null || oldValue.isExpired(now)) {
+                final Node<K, V> newValue = new Node<K, V>(key, value, now + timeToLiveMillis);
+                segment.map.put(key, newValue);
+                if (oldValue != null) {
+                    LOGGER.debug("Replaced expired: {}.", oldValue.value);
+                    removedCounter.incrementAndGet();
                 }
+                added = oldValue == null;
+                added(segment, newValue, added, now);
+            } else if (refreshTimeout) {
+                final Node<K, V> newValue = new Node<K, V>(key, oldValue.value, now + timeToLiveMillis);
+                segment.map.put(key, newValue);
+                added(segment, newValue, false, now);
             }
         }
-        if (oldValue == null || oldValue.isExpired()) {
+        if (added) {
+            evict();
+        }
+        if (oldValue == null || oldValue.isExpired(now)) {
             return null;
         }
-        return oldValue.getValue();
+        return oldValue.value;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public V get(final Object key) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-        }
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue = segment.map.get(key);
         if (oldValue != null) {
-            if (expire(segment, (K) key, oldValue)) {
+            if (expire(segment, oldValue)) {
                 return null;
             } else {
-                LOGGER.debug("Get found. Key: {}. Value: {}.", key, oldValue.getValue());
-                return oldValue.getValue();
+                LOGGER.debug("Get found. Key: {}. Value: {}.", key, oldValue.value);
+                return oldValue.value;
             }
         }
         LOGGER.debug("Get not found. Key: {}.", key);
@@ -181,57 +198,40 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 
     @Override
     public V remove(final Object key) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.remove(key);
-        }
-        if (oldValue == null || oldValue.isExpired()) {
+        final Node<K, V> oldValue = segment(key).map.remove(key);
+        if (oldValue == null) {
             return null;
         }
-        return oldValue.getValue();
+        size.decrementAndGet();
+        return oldValue.isExpired(CoarseClock.currentTimeMillis()) ? null : oldValue.value;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean remove(final Object key, final Object value) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        boolean removed = false;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-            if (oldValue != null && oldValue.equals(value) && !oldValue.isExpired()) {
-                removed = segment.remove(key) != null;
-            }
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue = segment.map.get(key);
+        if (oldValue == null || expire(segment, oldValue) || !oldValue.value.equals(value)) {
+            return false;
         }
-        if (oldValue != null) {
-            expire(segment, (K) key, oldValue);
+        if (segment.map.remove(key, oldValue)) {
+            size.decrementAndGet();
+            return true;
         }
-        return removed;
+        return false;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean containsKey(final Object key) {
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
-        synchronized (segment) {
-            oldValue = segment.get(key);
-        }
-        if (oldValue != null) {
-            if (!expire(segment, (K) key, oldValue)) {
-                return true;
-            }
-        }
-        return false;
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue = segment.map.get(key);
+        return oldValue != null && !expire(segment, oldValue);
     }
 
     @Override
     public boolean containsValue(final Object value) {
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                if (segment.containsValue(value)) {
+        for (final Segment<K, V> segment : segments) {
+            for (final Node<K, V> node : segment.map.values()) {
+                if (!expire(segment, node) && node.value.equals(value)) {
                     return true;
                 }
             }
@@ -241,34 +241,30 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 
     @Override
     public int size() {
-        int size = 0;
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
+        final long now = CoarseClock.currentTimeMillis();
+        for (final Segment<K, V> segment : segments) {
             synchronized (segment) {
-                expireSegment(segment);
-                size += segment.size();
+                expireSegment(segment, now);
             }
         }
-        return size;
+        return Math.max(0, size.get());
     }
 
     @Override
     public boolean isEmpty() {
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                if (!segment.isEmpty()) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return size() == 0;
     }
 
     @Override
     public void clear() {
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
+        for (final Segment<K, V> segment : segments) {
             synchronized (segment) {
-                segment.clear();
+                for (final K key : segment.map.keySet()) {
+                    if (segment.map.remove(key) != null) {
+                        size.decrementAndGet();
+                    }
+                }
+                segment.queue.clear();
             }
         }
     }
@@ -276,11 +272,12 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     @Override
     public int hashCode() {
         int hashCode = 0;
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                // as seen in AbstractMap
-                hashCode += segment.hashCode();
+        for (final Segment<K, V> segment : segments) {
+            for (final Node<K, V> node : segment.map.values()) {
+                if (!expire(segment, node)) {
+                    // as seen in AbstractMap
+                    hashCode += node.key.hashCode() ^ node.value.hashCode();
+                }
             }
         }
         return hashCode;
@@ -289,10 +286,11 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     @Override
     public Set<K> keySet() {
         final Set<K> retVal = new HashSet<K>();
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                expireSegment(segment);
-                retVal.addAll(segment.keySet());
+        for (final Segment<K, V> segment : segments) {
+            for (final Node<K, V> node : segment.map.values()) {
+                if (!expire(segment, node)) {
+                    retVal.add(node.key);
+                }
             }
         }
         return retVal;
@@ -331,18 +329,10 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 				};
         	}
         };
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                final Iterator<ExpiringObject> iterator = segment.values().iterator();
-                while (iterator.hasNext()) {
-                    final ExpiringObject expiringObject = iterator.next();
-                    if (expiringObject.isExpired()) {
-                        iterator.remove();
-                        LOGGER.debug("Remove in entry set: {}.", expiringObject.getValue());
-                        removedCounter.incrementAndGet();
-                    } else {
-                        retVal.add(expiringObject.getValue());
-                    }
+        for (final Segment<K, V> segment : segments) {
+            for (final Node<K, V> node : segment.map.values()) {
+                if (!expire(segment, node)) {
+                    retVal.add(node.value);
                 }
             }
         }
@@ -383,33 +373,10 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 				};
         	}
         };
-        for (final CacheMap<K, ExpiringObject> segment : segments) {
-            synchronized (segment) {
-                final Iterator<Map.Entry<K, ExpiringObject>> iterator = segment.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    final Map.Entry<K, ExpiringObject> entry = iterator.next();
-                    if (entry.getValue().isExpired()) {
-                        iterator.remove();
-                        LOGGER.debug("Removed in entry set: {}.", entry.getValue().getValue());
-                        removedCounter.incrementAndGet();
-                    } else {
-                        retVal.add(new Map.Entry<K, V>() {
-                            @Override
-                            public K getKey() {
-                                return entry.getKey();
-                            }
-
-                            @Override
-                            public V getValue() {
-                                return entry.getValue().getValue();
-                            }
-
-                            @Override
-                            public V setValue(final V value) {
-                                throw new UnsupportedOperationException("not supported");
-                            }
-                        });
-                    }
+        for (final Segment<K, V> segment : segments) {
+            for (final Node<K, V> node : segment.map.values()) {
+                if (!expire(segment, node)) {
+                    retVal.add(new AbstractMap.SimpleImmutableEntry<K, V>(node.key, node.value));
                 }
             }
         }
@@ -418,87 +385,142 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
 
     @Override
     public boolean replace(final K key, final V oldValue, final V newValue) {
-        final ExpiringObject oldValue2 = new ExpiringObject(oldValue, 0L);
-        final ExpiringObject newValue2 = new ExpiringObject(newValue, System.currentTimeMillis());
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue3;
+        final long now = CoarseClock.currentTimeMillis();
+        final Node<K, V> newValue2 = new Node<K, V>(key, newValue, now + timeToLiveMillis);
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue3;
         boolean replaced = false;
         synchronized (segment) {
-            oldValue3 = segment.get(key);
-            if (oldValue3 != null && !oldValue3.isExpired() && oldValue2.getValue().equals(oldValue3.getValue())) {
-                segment.put(key, newValue2);
+            oldValue3 = segment.map.get(key);
+            if (oldValue3 != null && !oldValue3.isExpired(now) && oldValue.equals(oldValue3.value)
+                    && segment.map.replace(key, oldValue3, newValue2)) {
+                added(segment, newValue2, false, now);
                 replaced = true;
             }
         }
         if (oldValue3 != null) {
-            expire(segment, key, oldValue3);
+            expire(segment, oldValue3);
         }
         return replaced;
     }
 
     @Override
     public V replace(final K key, final V value) {
-        final ExpiringObject newValue = new ExpiringObject(value, System.currentTimeMillis());
-        final CacheMap<K, ExpiringObject> segment = segment(key);
-        final ExpiringObject oldValue;
+        final long now = CoarseClock.currentTimeMillis();
+        final Node<K, V> newValue = new Node<K, V>(key, value, now + timeToLiveMillis);
+        final Segment<K, V> segment = segment(key);
+        final Node<K, V> oldValue;
         synchronized (segment) {
-            oldValue = segment.get(key);
-            if (oldValue != null && !oldValue.isExpired()) {
-                segment.put(key, newValue);
+            oldValue = segment.map.get(key);
+            if (oldValue != null && !oldValue.isExpired(now) && segment.map.replace(key, oldValue, newValue)) {
+                added(segment, newValue, false, now);
+                return oldValue.value;
             }
         }
-        if (oldValue == null) {
-            return null;
-        }
-        if (expire(segment, key, oldValue)) {
-            return null;
+        if (oldValue != null) {
+            expire(segment, oldValue);
         }
-        return oldValue.getValue();
+        return null;
     }
 
     /**
-     * Expires a key in a segment. If a key value pair is expired, it will get removed.
+     * Appends a node that was put into the map of a segment, and removes the expired entries of the segment. Called
+     * while holding the lock of the segment.
      * 
      * @param segment
      *            The segment
-     * @param key
-     *            The key
-     * @param value
-     *            The value
-     * @return True if expired, otherwise false.
+     * @param node
+     *            The node that was put
+     * @param isNew
+     *            True if the key was not in the map
+     * @param now
+     *            The current time
+     */
+    private void added(final Segment<K, V> segment, final Node<K, V> node, final boolean isNew, final long now) {
+        if (isNew) {
+            size.incrementAndGet();
+        }
+        segment.queue.addLast(node);
+        expireSegment(segment, now);
+        // replaced and removed nodes stay in the queue until they reach the head
+        if (segment.queue.size() > 2 * segment.map.size() + SEGMENT_NR) {
+            final Iterator<Node<K, V>> iterator = segment.queue.iterator();
+            while (iterator.hasNext()) {
+                final Node<K, V> queued = iterator.next();
+                if (segment.map.get(queued.key) != queued) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest entries of the segments in a round robin fashion until the map is not larger than the maximum
+     * number of entries.
      */
-    private boolean expire(final CacheMap<K, ExpiringObject> segment, final K key, final ExpiringObject value) {
-        if (value.isExpired()) {
+    private void evict() {
+        int empty = 0;
+        while (size.get() > maxEntries && empty < SEGMENTS) {
+            final Segment<K, V> segment = segments[evictSegment.getAndIncrement() & (SEGMENTS - 1)];
+            boolean evicted = false;
             synchronized (segment) {
-                final ExpiringObject tmp = segment.get(key);
-                if (tmp != null && tmp.equals(value)) {
-                    segment.remove(key);
-                    LOGGER.debug("Removed in expire: {}.", value.getValue());
-                    removedCounter.incrementAndGet();
+                Node<K, V> node;
+                while (!evicted && (node = segment.queue.pollFirst()) != null) {
+                    if (segment.map.remove(node.key, node)) {
+                        size.decrementAndGet();
+                        LOGGER.debug("Evicted: {}.", node.value);
+                        evicted = true;
+                    }
                 }
             }
+            empty = evicted ? 0 : empty + 1;
+        }
+    }
+
+    /**
+     * Expires a node in a segment. If the node is expired, it will get removed. This does not lock the segment.
+     * 
+     * @param segment
+     *            The segment
+     * @param node
+     *            The node of the key
+     * @return True if expired, otherwise false.
+     */
+    private boolean expire(final Segment<K, V> segment, final Node<K, V> node) {
+        if (node.isExpired(CoarseClock.currentTimeMillis())) {
+            if (segment.map.remove(node.key, node)) {
+                size.decrementAndGet();
+                LOGGER.debug("Removed in expire: {}.", node.value);
+                removedCounter.incrementAndGet();
+            }
             return true;
         }
         return false;
     }
 
     /**
-     * Fast expiration. Since the ExpiringObject is ordered the for loop can break early if a object is not expired.
+     * Fast expiration. Since the nodes are ordered the loop can break early if a node is not expired. Called while
+     * holding the lock of the segment.
      * 
      * @param segment
      *            The segment
+     * @param now
+     *            The current time
      */
-    private void expireSegment(final CacheMap<K, ExpiringObject> segment) {
-        final Iterator<ExpiringObject> iterator = segment.values().iterator();
-        while (iterator.hasNext()) {
-            final ExpiringObject expiringObject = iterator.next();
-            if (expiringObject.isExpired()) {
-                iterator.remove();
-                LOGGER.debug("Remove in expire segment: {}.", expiringObject.getValue());
-                removedCounter.incrementAndGet();
-            } else {
-                break;
+    private void expireSegment(final Segment<K, V> segment, final long now) {
+        Node<K, V> node;
+        while ((node = segment.queue.peekFirst()) != null) {
+            if (segment.map.get(node.key) == node) {
+                if (!node.isExpired(now)) {
+                    break;
+                }
+                if (segment.map.remove(node.key, node)) {
+                    size.decrementAndGet();
+                    LOGGER.debug("Remove in expire segment: {}.", node.value);
+                    removedCounter.incrementAndGet();
+                }
             }
+            segment.queue.pollFirst();
         }
     }
 
@@ -510,57 +532,53 @@ public class ConcurrentCacheMap<K, V> implements ConcurrentMap<K, V> {
     }
 
     /**
-     * An object that also holds expiration information.
+     * The entries of a segment. The map is read without locking, the map is written and the queue is accessed while
+     * holding the lock of the segment. A node is only removed from the map without the lock, which leaves the node in
+     * the queue until it is skipped.
+     */
+    private static final class Segment<K, V> {
+        private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+        // in the order of insertion, may contain nodes that are not in the map anymore
+        private final ArrayDeque<Node<K, V>> queue = new ArrayDeque<Node<K, V>>();
+    }
+
+    /**
+     * A value that also holds expiration information. A node is compared by identity, a new node is created if the
+     * value is put again.
      */
-    private class ExpiringObject {
+    private static final class Node<K, V> {
+        private final K key;
+
         private final V value;
 
-        private final long lastAccessTime;
+        private final long expirationMillis;
 
         /**
-         * Creates a new expiring object with the given time of access.
+         * Creates a new node.
          * 
+         * @param key
+         *            The key of the value
          * @param value
          *            The value that is wrapped in this instance
-         * @param lastAccessTimeMillis
-         *            The time of access in milliseconds.
+         * @param expirationMillis
+         *            The time when the value expires in milliseconds.
          */
-        ExpiringObject(final V value, final long lastAccessTimeMillis) {
+        Node(final K key, final V value, final long expirationMillis) {
             if (value == null) {
                 throw new IllegalArgumentException("An expiring object cannot be null.");
             }
+            this.key = key;
             this.value = value;
-            this.lastAccessTime = lastAccessTimeMillis;
+            this.expirationMillis = expirationMillis;
         }
 
         /**
+         * @param now
+         *            The current time
          * @return If entry is expired
          */
-        public boolean isExpired() {
-            return System.currentTimeMillis() >= lastAccessTime + 
-            		(TimeUnit.MILLISECONDS.convert(timeToLiveSeconds, TimeUnit.SECONDS));
-        }
-
-        /**
-         * @return The wrapped value
-         */
-        public V getValue() {
-            return value;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (!(obj instanceof ConcurrentCacheMap.ExpiringObject)) {
-                return false;
-            }
-            @SuppressWarnings("unchecked")
-            final ExpiringObject exp = (ExpiringObject) obj;
-            return value.equals(exp.value);
-        }
-
-        @Override
-        public int hashCode() {
-            return value.hashCode();
+        boolean isExpired(final long now) {
+            return now >= expirationMillis;
         }
     }
 }
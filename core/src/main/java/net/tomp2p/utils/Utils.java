@@ -16,6 +16,7 @@
 package net.tomp2p.utils;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -63,6 +64,49 @@ public class Utils {
     public static final int INTEGER_BYTE_SIZE = 4;	// 32 bits
     public static final int LONG_BYTE_SIZE = 8;		// 64 bits
 	public static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+	// buffers of this size or larger are not copied when encoding a message
+	public static final int ZERO_COPY_THRESHOLD = 1024;
+
+    // MessageDigest.getInstance looks up the providers on every call, keep one digest per thread
+    private static final ThreadLocal<MessageDigest> SHA_1 = threadLocalDigest("SHA-1");
+    private static final ThreadLocal<MessageDigest> MD5 = threadLocalDigest("MD5");
+
+    private static ThreadLocal<MessageDigest> threadLocalDigest(final String algorithm) {
+        return new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    // every Java platform has to support SHA-1 and MD5
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the SHA-1 digest of the current thread. The digest is reset, it must not be passed to another thread and
+     * must not be used after calling another hash method of this class.
+     * 
+     * @return The SHA-1 digest of this thread
+     */
+    public static MessageDigest sha1Digest() {
+        final MessageDigest md = SHA_1.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Returns the MD5 digest of the current thread, see {@link #sha1Digest()}.
+     * 
+     * @return The MD5 digest of this thread
+     */
+    public static MessageDigest md5Digest() {
+        final MessageDigest md = MD5.get();
+        md.reset();
+        return md;
+    }
 
     public static ByteBuffer loadFile(File file) throws IOException {
         FileInputStream fis = null;
@@ -82,7 +126,7 @@ public class Utils {
         try {
             fis = new FileInputStream(file);
             channel = fis.getChannel();
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            MessageDigest md = sha1Digest();
             for (long offest = 0; offest < channel.size(); offest += 10 * 1024) {
                 ByteBuffer buffer;
                 if (channel.size() - offest < 10 * 1024)
@@ -99,9 +143,6 @@ public class Utils {
         } catch (IOException e) {
             e.printStackTrace();
             return Number160.ZERO;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return Number160.ZERO;
         } finally {
             bestEffortclose(channel, fis);
         }
@@ -113,33 +154,40 @@ public class Utils {
     }
 
     public static Number160 makeSHAHash(ByteBuffer buffer) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update(buffer);
-            byte[] digest = md.digest();
-            return new Number160(digest);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return new Number160();
-        }
+        MessageDigest md = sha1Digest();
+        md.update(buffer);
+        return new Number160(md.digest());
     }
     
     public static Number160 makeSHAHash(ByteBuffer... bufferList) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (ByteBuffer byteBuffer : bufferList) {
+        MessageDigest md = sha1Digest();
+        for (ByteBuffer byteBuffer : bufferList) {
+            md.update(byteBuffer);
+        }
+        return new Number160(md.digest());
+    }
+
+    /**
+     * Hashes the readable bytes of a buffer without copying them and without changing the indexes of the buffer.
+     * Direct and composite buffers are read through their NIO buffers.
+     * 
+     * @param buf
+     *            The buffer to hash
+     * @return The SHA-1 hash
+     */
+    public static Number160 makeSHAHash(ByteBuf buf) {
+        MessageDigest md = sha1Digest();
+        if (buf.hasArray()) {
+            md.update(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+        } else {
+            for (ByteBuffer byteBuffer : buf.nioBuffers()) {
                 md.update(byteBuffer);
             }
-            byte[] digest = md.digest();
-            return new Number160(digest);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return new Number160();
         }
+        return new Number160(md.digest());
     }
 
 
-
     public static Number160 makeSHAHash(byte[] buffer) {
         return makeSHAHash(ByteBuffer.wrap(buffer));
     }
@@ -160,13 +208,7 @@ public class Utils {
     }
 
     public static byte[] makeMD5Hash(byte[] buffer, int offset, int length) {
-        MessageDigest m;
-        try {
-            m = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return new byte[0];
-        }
+        MessageDigest m = md5Digest();
         m.update(buffer, offset, length);
         return m.digest();
     }
@@ -387,6 +429,27 @@ public class Utils {
         }
     }
 
+    /**
+     * Appends the readable bytes of a buffer to a composite buffer. Buffers smaller than
+     * {@link #ZERO_COPY_THRESHOLD} are copied, larger buffers are added as a retained slice, thus without copying
+     * the content. The readerIndex of the buffer is not changed.
+     * 
+     * @param buf
+     *            The composite buffer to append to
+     * @param buffer
+     *            The buffer to append
+     */
+    public static void addComponent(final CompositeByteBuf buf, final ByteBuf buffer) {
+        final int length = buffer.readableBytes();
+        if (length < ZERO_COPY_THRESHOLD) {
+            buf.writeBytes(buffer, buffer.readerIndex(), length);
+            return;
+        }
+        // cut the unused capacity, otherwise the component is placed after the unwritten bytes
+        buf.capacity(buf.writerIndex());
+        buf.addComponent(true, buffer.retainedSlice());
+    }
+
     public static final byte[] intToByteArray(int value) {
         return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
     }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.DispatchHandler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test the snapshots of the dispatcher.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class TestDispatchTable {
+
+	@Test
+	public void testRegisterAndRemove() {
+		DispatchHandler handler1 = Mockito.mock(DispatchHandler.class);
+		DispatchHandler handler2 = Mockito.mock(DispatchHandler.class);
+		DispatchTable table = DispatchTable.EMPTY;
+		// enough peers to grow the table several times
+		for (int i = 0; i < 100; i++) {
+			table = table.register(new Number160(i), new Number160(i), handler1, 1, 2, -3);
+		}
+		DispatchTable snapshot = table;
+		table = table.register(new Number160(5), new Number160(5), handler2, 2);
+		table = table.register(new Number160(5), new Number160(6), handler2, 2);
+
+		Assert.assertSame(handler1, table.handler(new Number160(5), new Number160(5), 1));
+		Assert.assertSame(handler2, table.handler(new Number160(5), new Number160(5), 2));
+		Assert.assertSame(handler1, table.handler(new Number160(5), new Number160(5), (byte) -3));
+		Assert.assertNull(table.handler(new Number160(5), new Number160(5), 4));
+		Assert.assertSame(handler2, table.handler(new Number160(5), new Number160(6), 2));
+		// an older snapshot does not change
+		Assert.assertSame(handler1, snapshot.handler(new Number160(5), new Number160(5), 2));
+		Assert.assertEquals(-1, snapshot.slot(new Number160(5), new Number160(6)));
+
+		table = table.remove(new Number160(5), new Number160(6));
+		Assert.assertEquals(-1, table.slot(new Number160(5), new Number160(6)));
+		Assert.assertTrue(table.slot(new Number160(5), new Number160(5)) >= 0);
+		table = table.register(new Number160(5), new Number160(6), handler2, 2);
+		table = table.remove(new Number160(5), null);
+		Assert.assertEquals(-1, table.slot(new Number160(5), new Number160(5)));
+		Assert.assertEquals(-1, table.slot(new Number160(5), new Number160(6)));
+		for (int i = 0; i < 100; i++) {
+			if (i != 5) {
+				Assert.assertSame(handler1, table.handler(new Number160(i), new Number160(i), 1));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCommandRange() {
+		DispatchTable.EMPTY.register(Number160.ONE, Number160.ONE, Mockito.mock(DispatchHandler.class), 200);
+	}
+}
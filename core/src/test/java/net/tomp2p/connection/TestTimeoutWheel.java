@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.util.Timeout;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the timeout wheel.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class TestTimeoutWheel {
+
+	@Test
+	public void testExpireAndCancel() throws InterruptedException {
+		TimeoutWheel timeoutWheel = new TimeoutWheel();
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			final AtomicInteger runs = new AtomicInteger();
+			timeoutWheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					runs.incrementAndGet();
+					latch.countDown();
+				}
+			}, 50, TimeUnit.MILLISECONDS);
+			Timeout cancelled = timeoutWheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					runs.incrementAndGet();
+				}
+			}, 50, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(2, timeoutWheel.pending());
+			Assert.assertTrue(cancelled.cancel());
+			Assert.assertFalse(cancelled.cancel());
+			Assert.assertTrue(cancelled.isCancelled());
+
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			Thread.sleep(100);
+			Assert.assertEquals(1, runs.get());
+			Assert.assertEquals(0, timeoutWheel.pending());
+			Assert.assertEquals(2, timeoutWheel.scheduled());
+			Assert.assertEquals(1, timeoutWheel.expired());
+			Assert.assertEquals(1, timeoutWheel.cancelled());
+		} finally {
+			timeoutWheel.stop();
+		}
+	}
+
+	@Test
+	public void testStopCancelsPending() {
+		TimeoutWheel timeoutWheel = new TimeoutWheel();
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+		Timeout timeout = timeoutWheel.schedule(task, 1, TimeUnit.HOURS);
+		timeoutWheel.stop();
+		Assert.assertTrue(timeout.isCancelled());
+		// scheduling after stop does nothing
+		Timeout late = timeoutWheel.schedule(task, 1, TimeUnit.MILLISECONDS);
+		Assert.assertTrue(late.isCancelled());
+		Assert.assertEquals(0, runs.get());
+		Assert.assertEquals(0, timeoutWheel.pending());
+		Assert.assertEquals(2, timeoutWheel.cancelled());
+	}
+}
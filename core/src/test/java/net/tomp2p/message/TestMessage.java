@@ -21,8 +21,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
@@ -45,6 +48,7 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.util.*;
@@ -275,6 +279,37 @@ public class TestMessage {
 		compareMessage(m1, m2);
 	}
 
+	/**
+	 * Tests a data map that is encoded once and sent in several messages.
+	 * 
+	 * @throws Exception .
+	 */
+	@Test
+	public void testEncodeDecodeEncodedDataMap() throws Exception {
+		Random rnd = new Random(42);
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+		KeyPair pair1 = gen.generateKeyPair();
+
+		NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+		dataMap.put(new Number640(rnd), new Data(new byte[] { 3, 4, 5 }).signNow(pair1, factory));
+		dataMap.put(new Number640(rnd), new Data(new byte[] { 4, 5, 6, 7 }));
+		// larger than the copy threshold, added as a slice
+		dataMap.put(new Number640(rnd), new Data(new byte[5000]));
+		DataMap encoded = DataMap.encode(dataMap, factory);
+
+		for (int i = 0; i < 2; i++) {
+			Message m1 = Utils2.createDummyMessage();
+			m1.type(Message.Type.REQUEST_FF_1);
+			m1.setDataMap(encoded);
+			Message m2 = encodeDecode(m1);
+			m1.sender(m1.sender().withSkipIPv4(true));
+			Assert.assertEquals(dataMap, m2.dataMap(0).dataMap());
+			Assert.assertEquals(pair1.getPublic(), m2.dataMap(0).dataMap().firstEntry().getValue().publicKey());
+			compareMessage(m1, m2);
+		}
+		encoded.release();
+	}
+
 	@Test
 	public void testEncodeDecode6() throws Exception {
 		for (int i = 0; i < 4; i++) { // encode and test for is firewallend and
@@ -337,6 +372,117 @@ public class TestMessage {
 		compareMessage(m1, m2);
 	}
 
+	@Test
+	public void testZeroCopyData() throws Exception {
+		Random rnd = new Random(42);
+		Message m1 = Utils2.createDummyMessage();
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+		m1.publicKeyAndSign(gen.generateKeyPair());
+		m1.intValue(Integer.MAX_VALUE);
+		m1.longValue(Long.MIN_VALUE);
+
+		NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+		List<Data> large = new ArrayList<Data>();
+		for (int i = 0; i < 10; i++) {
+			byte[] me = new byte[i % 2 == 0 ? 10 : Utils.ZERO_COPY_THRESHOLD + i];
+			rnd.nextBytes(me);
+			Data data = new Data(me);
+			dataMap.put(new Number640(rnd), data);
+			if (i % 2 != 0) {
+				large.add(data);
+			}
+		}
+		m1.setDataMap(new DataMap(dataMap));
+
+		final CompositeByteBuf buf = Unpooled.compositeBuffer(1024);
+		new Encoder(new DSASignatureFactory()).write(buf, m1, null);
+		// the large values are added as components and not copied
+		Assert.assertTrue(buf.numComponents() > large.size());
+		for (Data data : large) {
+			Assert.assertEquals(2, data.buffer().refCnt());
+		}
+
+		Decoder decoder = new Decoder(new DSASignatureFactory());
+		decoder.decode(mockChannelHandlerContext(buf, new AtomicReference<Message>()), buf, m1.recipient()
+				.ipv4Socket().createTCPSocket(), m1.sender().ipv4Socket().createTCPSocket());
+		Message m2 = decoder.prepareFinish();
+		Assert.assertTrue(m2.verified());
+		Assert.assertEquals(Integer.MAX_VALUE, m2.intValueAt(0));
+		Assert.assertEquals(Long.MIN_VALUE, m2.longValueAt(0));
+		m1.sender(m1.sender().withSkipIPv4(true));
+		compareMessage(m1, m2);
+
+		buf.release();
+		for (Data data : large) {
+			Assert.assertEquals(1, data.buffer().refCnt());
+		}
+	}
+
+	@Test
+	public void testZeroCopyReceive() throws Exception {
+		// small chunks are merged, large chunks are kept as they are
+		for (int chunkSize : new int[] { 1000, 64 * 1024 }) {
+			Random rnd = new Random(42);
+			Message m1 = Utils2.createDummyMessage();
+			KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+			m1.publicKeyAndSign(gen.generateKeyPair());
+			NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+			Map<Number640, byte[]> values = new HashMap<Number640, byte[]>();
+			for (int size : new int[] { 10, Data.DECODE_ZERO_COPY_THRESHOLD, 1024 * 1024 }) {
+				byte[] me = new byte[size];
+				rnd.nextBytes(me);
+				Number640 key = new Number640(rnd);
+				dataMap.put(key, new Data(me));
+				values.put(key, me);
+			}
+			m1.setDataMap(new DataMap(dataMap));
+
+			final CompositeByteBuf buf = Unpooled.compositeBuffer();
+			new Encoder(new DSASignatureFactory()).write(buf, m1, null);
+			byte[] encoded = new byte[buf.readableBytes()];
+			buf.readBytes(encoded);
+			buf.release();
+
+			final InetSocketAddress recipient = m1.recipient().ipv4Socket().createTCPSocket();
+			final InetSocketAddress sender = m1.sender().ipv4Socket().createTCPSocket();
+			EmbeddedChannel channel = new EmbeddedChannel(new TomP2PCumulationTCP(new DSASignatureFactory(),
+					UnpooledByteBufAllocator.DEFAULT)) {
+				@Override
+				protected SocketAddress localAddress0() {
+					return recipient;
+				}
+
+				@Override
+				protected SocketAddress remoteAddress0() {
+					return sender;
+				}
+			};
+			for (int i = 0; i < encoded.length; i += chunkSize) {
+				channel.writeInbound(Unpooled.wrappedBuffer(encoded, i, Math.min(chunkSize, encoded.length - i)));
+			}
+			Message m2 = channel.readInbound();
+			Assert.assertNotNull(m2);
+			Assert.assertTrue(m2.verified());
+			for (Data data : m2.dataMap(0).dataMap().values()) {
+				if (data.length() >= Data.DECODE_ZERO_COPY_THRESHOLD) {
+					CompositeByteBuf composite = (CompositeByteBuf) data.buffer().unwrap();
+					Assert.assertTrue(composite.numComponents() <= 32);
+					if (chunkSize >= 4096 && data.length() > 2 * chunkSize) {
+						// not copied
+						Assert.assertTrue(composite.numComponents() > 1);
+					}
+				}
+			}
+			// compareMessage compares the fields deeply, which differ for buffers that were not copied
+			Assert.assertEquals(m1.messageId(), m2.messageId());
+			Assert.assertEquals(values.keySet(), m2.dataMap(0).dataMap().keySet());
+			for (Map.Entry<Number640, Data> entry : m2.dataMap(0).dataMap().entrySet()) {
+				Assert.assertArrayEquals(values.get(entry.getKey()), entry.getValue().toBytes());
+			}
+			channel.finish();
+		}
+	}
+
 	@Test
 	public void testEncodeDecode480MapRep() throws Exception { // encode
 		Message m1 = Utils2.createDummyMessage();
@@ -597,6 +743,39 @@ public class TestMessage {
 		Assert.assertEquals(size, m2.estimateSize());
 	}
 
+	/**
+	 * The size of a buffer comes from the wire, a negative or too large size
+	 * must be rejected before the buffer is allocated.
+	 */
+	@Test
+	public void testBufferSizeFromWire() throws Exception {
+		for (int invalidSize : new int[] { -1, Decoder.MAX_BUFFER_SIZE + 1, Integer.MAX_VALUE }) {
+			Message m1 = Utils2.createDummyMessage();
+			m1.buffer(new Buffer(Unpooled.wrappedBuffer(new byte[12345])));
+			final CompositeByteBuf buf = Unpooled.compositeBuffer();
+			Encoder encoder = new Encoder(new DSASignatureFactory());
+			encoder.write(buf, m1, null);
+			// the size is written right before the content
+			final int sizeIndex = buf.writerIndex() - 12345 - Utils.INTEGER_BYTE_SIZE;
+			Assert.assertEquals(12345, buf.getInt(sizeIndex));
+			buf.setInt(sizeIndex, invalidSize);
+
+			final AtomicReference<Throwable> cause = new AtomicReference<Throwable>();
+			ChannelHandlerContext ctx = mockChannelHandlerContext(buf, new AtomicReference<Message>());
+			when(ctx.fireExceptionCaught(any(Throwable.class))).then(new Answer<Void>() {
+				@Override
+				public Void answer(InvocationOnMock invocation) throws Throwable {
+					cause.set((Throwable) invocation.getArguments()[0]);
+					return null;
+				}
+			});
+			Decoder decoder = new Decoder(new DSASignatureFactory());
+			decoder.decode(ctx, buf, m1.recipient().ipv4Socket().createTCPSocket(), m1.sender().ipv4Socket()
+					.createTCPSocket());
+			Assert.assertTrue(cause.get() instanceof IllegalArgumentException);
+		}
+	}
+
 	/**
 	 * Encodes and decodes a message.
 	 * 
@@ -637,6 +816,8 @@ public class TestMessage {
 
 		DatagramChannel dc = mock(DatagramChannel.class);
 		when(ctx.channel()).thenReturn(dc);
+		// fire and forget messages remove the timeout handler from the pipeline
+		when(dc.pipeline()).thenReturn(mock(ChannelPipeline.class));
 		when(ctx.writeAndFlush(any(), any(ChannelPromise.class))).thenReturn(
 				null);
 
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.message;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.connection.Ed25519SignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.peers.Number160;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the verification of signatures off the event loop and the cache for
+ * public keys.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class TestSignatureVerifier {
+
+	private static final byte[] PAYLOAD = "payload".getBytes();
+
+	@Test
+	public void testOrderAndResult() throws Exception {
+		SignatureFactory factory = new DSASignatureFactory();
+		KeyPair keyPair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+		SignatureVerifier signatureVerifier = new SignatureVerifier(ImmediateEventExecutor.INSTANCE);
+		EmbeddedChannel channel = new EmbeddedChannel(signatureVerifier);
+
+		Message valid = signed(factory, keyPair, PAYLOAD);
+		Message unsigned = new Message();
+		Message invalid = signed(factory, keyPair, "other".getBytes());
+		channel.writeInbound(valid, unsigned, invalid);
+
+		Assert.assertSame(valid, channel.readInbound());
+		Assert.assertSame(unsigned, channel.readInbound());
+		Assert.assertSame(invalid, channel.readInbound());
+		Assert.assertTrue(valid.verified());
+		Assert.assertFalse(unsigned.verified());
+		Assert.assertFalse(invalid.verified());
+		Assert.assertNull(valid.pendingSignature());
+		Assert.assertEquals(1, signatureVerifier.verified());
+		Assert.assertEquals(1, signatureVerifier.failed());
+		Assert.assertEquals(0, signatureVerifier.pending());
+		Assert.assertTrue(signatureVerifier.maxVerifyNanos() >= signatureVerifier.meanVerifyNanos());
+		channel.finish();
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		SignatureFactory factory = new DSASignatureFactory();
+		KeyPair keyPair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		CountDownLatch latch = block(executor);
+		SignatureVerifier signatureVerifier = new SignatureVerifier(executor);
+		EmbeddedChannel channel = new EmbeddedChannel(signatureVerifier);
+
+		Message[] messages = new Message[SignatureVerifier.MAX_PENDING];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = signed(factory, keyPair, PAYLOAD);
+			channel.writeInbound(messages[i]);
+		}
+		// the channel stops reading until the verification catches up
+		Assert.assertFalse(channel.config().isAutoRead());
+		Assert.assertNull(channel.readInbound());
+
+		latch.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		channel.runPendingTasks();
+		Assert.assertTrue(channel.config().isAutoRead());
+		for (Message message : messages) {
+			Assert.assertSame(message, channel.readInbound());
+			Assert.assertTrue(message.verified());
+		}
+		channel.finish();
+	}
+
+	@Test
+	public void testReleaseOnClose() throws Exception {
+		SignatureFactory factory = new DSASignatureFactory();
+		KeyPair keyPair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		CountDownLatch latch = block(executor);
+		SignatureVerifier signatureVerifier = new SignatureVerifier(executor);
+		EmbeddedChannel channel = new EmbeddedChannel(signatureVerifier);
+
+		Message message = signed(factory, keyPair, PAYLOAD);
+		ByteBuf buf = Unpooled.buffer();
+		buf.writeInt(1);
+		message.buffer(new Buffer(buf));
+		channel.writeInbound(message);
+		channel.close();
+		Assert.assertEquals(0, buf.refCnt());
+
+		// verified after the close, but not passed on
+		latch.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		channel.runPendingTasks();
+		Assert.assertNull(channel.readInbound());
+		Assert.assertEquals(1, signatureVerifier.verified());
+	}
+
+	@Test
+	public void testOrderPerSender() throws Exception {
+		SignatureFactory factory = new DSASignatureFactory();
+		KeyPair keyPair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		CountDownLatch latch = block(executor);
+		SignatureVerifier signatureVerifier = new SignatureVerifier(executor);
+		EmbeddedChannel channel = new EmbeddedChannel(signatureVerifier);
+		InetSocketAddress sender1 = new InetSocketAddress("127.0.0.1", 4001);
+		InetSocketAddress sender2 = new InetSocketAddress("127.0.0.1", 4002);
+
+		Message signed1 = signed(factory, keyPair, PAYLOAD).senderSocket(sender1);
+		Message unsigned1 = new Message().senderSocket(sender1);
+		Message unsigned2 = new Message().senderSocket(sender2);
+		channel.writeInbound(signed1, unsigned1, unsigned2);
+		// the other sender does not wait for the verification
+		Assert.assertSame(unsigned2, channel.readInbound());
+		Assert.assertNull(channel.readInbound());
+
+		latch.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		channel.runPendingTasks();
+		Assert.assertSame(signed1, channel.readInbound());
+		Assert.assertSame(unsigned1, channel.readInbound());
+		channel.finish();
+	}
+
+	@Test
+	public void testEd25519() throws Exception {
+		KeyPair keyPair;
+		try {
+			keyPair = KeyPairGenerator.getInstance(Ed25519SignatureFactory.ALGORITHM).generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			// needs Java 15 or a provider for Ed25519
+			Assume.assumeNoException(e);
+			return;
+		}
+		SignatureFactory factory = new Ed25519SignatureFactory();
+		ByteBuffer[] byteBuffers = new ByteBuffer[] { ByteBuffer.wrap(PAYLOAD) };
+		SignatureCodec signatureCodec = factory.sign(keyPair.getPrivate(), byteBuffers);
+		Assert.assertEquals(Ed25519SignatureCodec.SIGNATURE_SIZE, signatureCodec.encode().length);
+
+		ByteBuf buf = Unpooled.buffer();
+		factory.encodePublicKey(keyPair.getPublic(), buf);
+		signatureCodec.write(buf);
+		PublicKey publicKey = factory.decodePublicKey(buf);
+		SignatureCodec decoded = factory.signatureCodec(buf);
+		Assert.assertEquals(signatureCodec, decoded);
+		Assert.assertTrue(factory.verify(publicKey, new ByteBuffer[] { ByteBuffer.wrap(PAYLOAD) }, decoded));
+		Assert.assertFalse(factory.verify(publicKey, new ByteBuffer[] { ByteBuffer.wrap("other".getBytes()) },
+				decoded));
+	}
+
+	@Test
+	public void testPublicKeyCache() throws Exception {
+		SignatureFactory factory = new DSASignatureFactory();
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+		PublicKey publicKey1 = gen.generateKeyPair().getPublic();
+		PublicKey publicKey2 = gen.generateKeyPair().getPublic();
+		PublicKeyCache publicKeyCache = new PublicKeyCache(60, 10);
+
+		ByteBuf buf = Unpooled.buffer();
+		factory.encodePublicKey(publicKey1, buf);
+		factory.encodePublicKey(publicKey1, buf);
+		// the same sender with another key
+		factory.encodePublicKey(publicKey2, buf);
+		PublicKey decoded1 = publicKeyCache.decodePublicKey(Number160.ONE, buf, factory);
+		PublicKey decoded2 = publicKeyCache.decodePublicKey(Number160.ONE, buf, factory);
+		PublicKey decoded3 = publicKeyCache.decodePublicKey(Number160.ONE, buf, factory);
+
+		Assert.assertEquals(publicKey1, decoded1);
+		Assert.assertSame(decoded1, decoded2);
+		Assert.assertEquals(publicKey2, decoded3);
+		Assert.assertEquals(1, publicKeyCache.hits());
+		Assert.assertEquals(2, publicKeyCache.misses());
+		Assert.assertFalse(buf.isReadable());
+
+		// incomplete keys are not consumed
+		ByteBuf partial = Unpooled.buffer();
+		factory.encodePublicKey(publicKey2, partial);
+		partial.writerIndex(partial.writerIndex() - 1);
+		Assert.assertNull(publicKeyCache.decodePublicKey(Number160.ONE, partial, factory));
+		Assert.assertEquals(0, partial.readerIndex());
+	}
+
+	/**
+	 * Blocks the thread of the executor until the latch is counted down, so
+	 * that the verifications wait.
+	 */
+	private static CountDownLatch block(final ExecutorService executor) {
+		final CountDownLatch latch = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return latch;
+	}
+
+	private static Message signed(final SignatureFactory factory, final KeyPair keyPair, final byte[] payload)
+			throws Exception {
+		Message message = new Message();
+		message.receivedSignature(factory.sign(keyPair.getPrivate(),
+				new ByteBuffer[] { ByteBuffer.wrap(PAYLOAD) }));
+		message.pendingSignature(factory.update(keyPair.getPublic(),
+				new ByteBuffer[] { ByteBuffer.wrap(payload) }));
+		return message;
+	}
+}
@@ -2,13 +2,20 @@ package net.tomp2p.p2p;
 
 import net.tomp2p.Utils2;
 import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.Responder;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.p2p.builder.RoutingBuilder;
 import net.tomp2p.peers.*;
 import net.tomp2p.rpc.DigestInfo;
+import net.tomp2p.rpc.DispatchHandler;
+import net.tomp2p.rpc.NeighborRPC;
+import net.tomp2p.rpc.RPC;
 import net.tomp2p.rpc.SimpleBloomFilter;
 import net.tomp2p.storage.DigestStorage;
 import net.tomp2p.utils.Pair;
@@ -24,6 +31,8 @@ import org.slf4j.LoggerFactory;
 
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class TestRouting {
     private static final Logger LOG = LoggerFactory.getLogger(TestRouting.class);
@@ -627,6 +636,167 @@ public class TestRouting {
         }
     }
 
+    @Test
+    public void testAdaptiveParallel() {
+        FutureResponse[] futureResponses = new FutureResponse[4];
+        RoutingMechanism routingMechanism = new RoutingMechanism(
+                new AtomicReferenceArray<FutureResponse>(futureResponses), null, null);
+        routingMechanism.minParallel(2);
+        Assert.assertEquals(2, routingMechanism.targetParallel());
+        routingMechanism.raiseParallel();
+        routingMechanism.raiseParallel();
+        routingMechanism.raiseParallel();
+        Assert.assertEquals(4, routingMechanism.targetParallel());
+        routingMechanism.lowerParallel();
+        routingMechanism.lowerParallel();
+        routingMechanism.lowerParallel();
+        Assert.assertEquals(2, routingMechanism.targetParallel());
+
+        RoutingLatency routingLatency = new RoutingLatency();
+        for (int i = 1; i < RoutingLatency.MIN_SAMPLES; i++) {
+            routingLatency.record(i);
+        }
+        Assert.assertEquals(-1, routingLatency.percentile95());
+        for (int i = RoutingLatency.MIN_SAMPLES; i <= 100; i++) {
+            routingLatency.record(i);
+        }
+        Assert.assertEquals(95, routingLatency.percentile95());
+    }
+
+    @Test
+    public void testRoutingAdaptive() throws Exception {
+        testRoutingAdaptive(true, Type.REQUEST_1);
+        testRoutingAdaptive(false, Type.REQUEST_1);
+        testRoutingAdaptive(false, Type.REQUEST_2);
+    }
+
+    @Test
+    public void testRoutingAdaptiveHedge() throws Exception {
+        Peer master = null;
+        try {
+            // setup
+            Peer[] peers = Utils2.createNodes(100, rnd, 4001);
+            master = peers[0];
+            Utils2.perfectRouting(peers);
+            // enough lookups to have round-trip times
+            while (master.distributedRouting().routingLatency().percentile95() < 0) {
+                routeAdaptive(master, peers[1 + rnd.nextInt(peers.length - 1)]);
+            }
+            Assert.assertEquals(0, master.distributedRouting().hedgedRequests());
+            // now all other peers reply much later than the recent requests
+            for (int i = 1; i < peers.length; i++) {
+                slowDown(peers[i], 500);
+            }
+            for (int i = 0; i < 3; i++) {
+                routeAdaptive(master, peers[1 + rnd.nextInt(peers.length - 1)]);
+            }
+            Assert.assertTrue(master.distributedRouting().hedgedRequests() > 0);
+        } finally {
+            if (master != null) {
+                master.shutdown().await();
+            }
+        }
+    }
+
+    private static void routeAdaptive(Peer peer, Peer target) {
+        FutureChannelCreator fcc = peer.connectionBean().reservation().create(4, 0);
+        fcc.awaitUninterruptibly();
+        ChannelCreator cc = fcc.channelCreator();
+        try {
+            RoutingBuilder routingBuilder = new RoutingBuilder();
+            routingBuilder.locationKey(target.peerID());
+            routingBuilder.maxDirectHits(1);
+            routingBuilder.setMaxNoNewInfo(0);
+            routingBuilder.maxFailures(0);
+            routingBuilder.maxSuccess(100);
+            routingBuilder.parallel(2);
+            routingBuilder.maxParallel(4);
+            FutureRouting fr = peer.distributedRouting().route(routingBuilder, Type.REQUEST_1, cc);
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+            Assert.assertEquals(target.peerAddress(), fr.potentialHits().first());
+        } finally {
+            cc.shutdown().awaitListenersUninterruptibly();
+        }
+    }
+
+    /**
+     * Replaces the neighbor handler of the peer with one that replies after the delay.
+     */
+    private static void slowDown(final Peer peer, final int delayMillis) {
+        final NeighborRPC neighborRPC = peer.neighborRPC();
+        new DispatchHandler(peer.peerBean(), peer.connectionBean()) {
+            @Override
+            public void handleResponse(final Message message, final PeerConnection peerConnection,
+                    final boolean sign, final Responder responder) throws Exception {
+                peer.connectionBean().timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            neighborRPC.handleResponse(message, peerConnection, sign, responder);
+                        } catch (Exception e) {
+                            responder.failed(Type.EXCEPTION, e.toString());
+                        }
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }.register(RPC.Commands.NEIGHBOR.getNr());
+    }
+
+    private void testRoutingAdaptive(boolean tcp, Type request) throws Exception {
+        Peer master = null;
+        ChannelCreator cc = null;
+        try {
+            // setup
+            Peer[] peers = Utils2.createNodes(500, rnd, 4001);
+            master = peers[0];
+            Utils2.perfectRouting(peers);
+            // do testing, enough lookups to have round-trip times
+            for (int i = 0; i < RoutingLatency.MIN_SAMPLES * 2; i++) {
+                if (tcp) {
+                    FutureChannelCreator fcc = peers[0].connectionBean().reservation().create(0, 4);
+                    fcc.awaitUninterruptibly();
+                    cc = fcc.channelCreator();
+                } else {
+                    FutureChannelCreator fcc = peers[0].connectionBean().reservation().create(4, 0);
+                    fcc.awaitUninterruptibly();
+                    cc = fcc.channelCreator();
+                }
+
+                RoutingBuilder routingBuilder = new RoutingBuilder();
+                if (tcp) {
+                    routingBuilder.forceTCP(true);
+                }
+                Peer target = peers[1 + rnd.nextInt(peers.length - 1)];
+                routingBuilder.locationKey(target.peerID());
+                routingBuilder.maxDirectHits(1);
+                routingBuilder.setMaxNoNewInfo(0);
+                routingBuilder.maxFailures(0);
+                routingBuilder.maxSuccess(100);
+                routingBuilder.parallel(2);
+                routingBuilder.maxParallel(4);
+
+                FutureRouting fr = peers[0].distributedRouting().route(routingBuilder, request, cc);
+
+                fr.awaitUninterruptibly();
+                // do verification
+                Assert.assertEquals(true, fr.isSuccess());
+                SortedSet<PeerAddress> ns = fr.potentialHits();
+                Assert.assertEquals(target.peerAddress(), ns.first());
+                cc.shutdown().awaitListenersUninterruptibly();
+                cc = null;
+            }
+            Assert.assertTrue(peers[0].distributedRouting().routingLatency().size() > 0);
+        } finally {
+            if (cc != null) {
+                cc.shutdown().awaitListenersUninterruptibly();
+            }
+            if (master != null) {
+                master.shutdown().await();
+            }
+        }
+    }
+
     //this is a stress test, takes a long time ~100s!
     @Test
     public void testRoutingConcurrently() throws Exception {
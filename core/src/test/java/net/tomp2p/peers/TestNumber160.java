@@ -23,6 +23,13 @@ import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.util.Random;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -293,4 +300,45 @@ public class TestNumber160 {
         n2 = new Number160(Long.MAX_VALUE);
         Assert.assertEquals("0x7FFFFFFFFFFFFFFF".toLowerCase(), n2.toString());
     }
+
+    @Test
+    public void testCompareXor() {
+        for (int i = 0; i < 1000; i++) {
+            Number160 location = new Number160(rnd);
+            Number160 n1 = new Number160(rnd);
+            Number160 n2 = new Number160(rnd);
+            Assert.assertEquals(Integer.signum(location.xor(n1).compareTo(location.xor(n2))),
+                    location.compareXor(n1, n2));
+            Assert.assertEquals(location.xor(n1).bitLength(), location.xorBitLength(n1));
+        }
+        Number160 n = new Number160(rnd);
+        Assert.assertEquals(0, n.compareXor(n, n));
+        Assert.assertEquals(0, n.xorBitLength(n));
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        ByteBuf buf = Unpooled.buffer();
+        Number640 n640 = new Number640(rnd);
+        n640.encode(buf);
+        Number160 n160 = new Number160(rnd);
+        n160.encode(buf);
+        Assert.assertEquals(Number640.BYTE_ARRAY_SIZE + Number160.BYTE_ARRAY_SIZE, buf.readableBytes());
+        Assert.assertEquals(n640, Number640.decode(buf));
+        Assert.assertEquals(n160, Number160.decode(buf));
+        buf.release();
+    }
+
+    @Test
+    public void testSerialize() throws Exception {
+        Number160 n1 = new Number160(rnd);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(n1);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        Number160 n2 = (Number160) ois.readObject();
+        Assert.assertEquals(n1, n2);
+        Assert.assertEquals(n1.hashCode(), n2.hashCode());
+    }
 }
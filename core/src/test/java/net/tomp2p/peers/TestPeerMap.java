@@ -531,4 +531,34 @@ public class TestPeerMap {
             }
         }
     }
+
+    @Test
+    public void testCloseAtLeast() throws UnknownHostException {
+        Random rnd = new Random(42);
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.setFixedVerifiedBagSizes(5000).setFixedOverflowBagSizes(10);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.addMapPeerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+        final PeerMap peerMap = new PeerMap(conf);
+        List<PeerAddress> peers = new ArrayList<PeerAddress>();
+        for (int i = 0; i < 2000; i++) {
+            PeerAddress r1 = Utils2.createPeerAddress(new Number160(rnd));
+            peers.add(r1);
+            peerMap.peerFound(r1, null, null, null);
+        }
+        for (int j = 0; j < 100; j++) {
+            // keys close to ourself and random keys
+            Number160 key = j % 2 == 0 ? ID.xor(new Number160(j)) : new Number160(rnd);
+            TreeSet<PeerAddress> set = new TreeSet<PeerAddress>(PeerMap.createXORAddressComparator(key));
+            set.addAll(peers);
+            SortedSet<PeerStatistic> close = peerMap.closePeers(key, 20);
+            Assert.assertTrue(close.size() >= 20);
+            Assert.assertTrue(close.size() < peers.size());
+            Iterator<PeerAddress> expected = set.iterator();
+            Iterator<PeerStatistic> actual = close.iterator();
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(expected.next(), actual.next().peerAddress());
+            }
+        }
+    }
 }
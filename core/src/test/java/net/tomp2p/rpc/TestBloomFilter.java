@@ -26,6 +26,8 @@ import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Random;
 
 /**
@@ -120,6 +122,54 @@ public class TestBloomFilter {
         Assert.assertEquals(bloomFilter, bloomFilter2);
     }
 
+    /**
+     * The bit positions and the byte order are part of the wire format, compare with the original implementation
+     * based on java.util.Random and java.util.BitSet.
+     */
+    @Test
+    public void testWireCompatibility() {
+        Random rnd = new Random(42);
+        // 1024 bytes is a power of two, which takes a different path in nextInt
+        for (int byteArraySize : new int[] { 1, 13, 100, 1024 }) {
+            final int expected = 50;
+            SimpleBloomFilter<Number160> bloomFilter = new SimpleBloomFilter<Number160>(byteArraySize, expected);
+            BitSet bitSet = new BitSet();
+            final int k = (int) Math.ceil((byteArraySize * 8 / (double) expected) * Math.log(2.0));
+            for (int i = 0; i < expected; i++) {
+                Number160 key = new Number160(rnd);
+                bloomFilter.add(key);
+                Random r = new Random(key.hashCode());
+                for (int x = 0; x < k; x++) {
+                    bitSet.set(r.nextInt(byteArraySize * 8));
+                }
+            }
+            ByteBuf buf = Unpooled.buffer();
+            bloomFilter.encode(buf);
+            ByteBuf legacy = Unpooled.buffer();
+            legacy.writeShort(byteArraySize + SimpleBloomFilter.SIZE_HEADER);
+            legacy.writeInt(expected);
+            byte[] bytes = RPCUtils.toByteArray(bitSet);
+            legacy.writeBytes(bytes);
+            legacy.writeZero(byteArraySize - bytes.length);
+            Assert.assertEquals(legacy, buf);
+            Assert.assertEquals(bitSet, bloomFilter.getBitSet());
+            Assert.assertEquals(bloomFilter, new SimpleBloomFilter<Number160>(buf));
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        SimpleBloomFilter<Number160> bloomFilter1 = new SimpleBloomFilter<Number160>(100, 10);
+        SimpleBloomFilter<Number160> bloomFilter2 = new SimpleBloomFilter<Number160>(100, 10);
+        bloomFilter1.add(Number160.ONE);
+        bloomFilter2.addAll(Arrays.asList(Number160.MAX_VALUE, new Number160(2)));
+        SimpleBloomFilter<Number160> merged = bloomFilter1.merge(bloomFilter2);
+        Assert.assertEquals(bloomFilter1.size(), merged.size());
+        Assert.assertTrue(merged.contains(Number160.ONE));
+        Assert.assertTrue(merged.containsAll(Arrays.asList(Number160.MAX_VALUE, new Number160(2))));
+        Assert.assertFalse(bloomFilter1.contains(Number160.MAX_VALUE));
+    }
+
     /**
      * Test with a small set of additions.
      */
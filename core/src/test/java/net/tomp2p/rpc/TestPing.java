@@ -1,7 +1,9 @@
 package net.tomp2p.rpc;
 
+import io.netty.channel.Channel;
 import net.tomp2p.connection.Bindings;
 import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.ConnectionPool;
 import net.tomp2p.connection.DefaultConnectionConfiguration;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
@@ -17,6 +19,7 @@ import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -63,6 +66,94 @@ public class TestPing {
         }
     }
 
+    @Test
+    public void testPingUDPReuseChannel() throws Exception {
+        Peer sender = null;
+        Peer recv1 = null;
+        ChannelCreator cc = null;
+        try {
+            sender = new PeerBuilder(new Number160("0x9876")).p2pId(55).ports(2424).start();
+            recv1 = new PeerBuilder(new Number160("0x1234")).p2pId(55).ports(8088).start();
+
+            FutureChannelCreator fcc = sender.connectionBean().reservation().create(1, 0);
+            fcc.awaitUninterruptibly();
+            cc = fcc.channelCreator();
+
+            for (int i = 0; i < 10; i++) {
+                FutureResponse fr = sender.pingRPC().pingUDP(recv1.peerAddress(), cc,
+                        new DefaultConnectionConfiguration());
+                fr.awaitUninterruptibly();
+                Assert.assertEquals(true, fr.isSuccess());
+                // the permit is available again, although the channel is still open
+                Assert.assertEquals(1, cc.availableUDPPermits());
+            }
+            // the first ping binds the channel, all others reuse it
+            Assert.assertEquals(9, cc.reusedUDP());
+        } finally {
+            if (cc != null) {
+                cc.shutdown().await();
+            }
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testPingTCPReuseConnection() throws Exception {
+        Peer sender = null;
+        Peer recv1 = null;
+        ChannelCreator cc = null;
+        try {
+            sender = new PeerBuilder(new Number160("0x9876")).p2pId(55).ports(2424).start();
+            recv1 = new PeerBuilder(new Number160("0x1234")).p2pId(55).ports(8088).start();
+            ConnectionPool connectionPool = sender.connectionBean().reservation().connectionPool();
+
+            FutureChannelCreator fcc = sender.connectionBean().reservation().create(0, 1);
+            fcc.awaitUninterruptibly();
+            cc = fcc.channelCreator();
+
+            for (int i = 0; i < 10; i++) {
+                FutureResponse fr = sender.pingRPC().pingTCP(recv1.peerAddress(), cc,
+                        new DefaultConnectionConfiguration());
+                fr.awaitUninterruptibly();
+                Assert.assertEquals(true, fr.isSuccess());
+                // the permit is available again, the connection is in the pool
+                Assert.assertEquals(1, cc.availableTCPPermits());
+                Assert.assertEquals(1, connectionPool.size());
+            }
+            // the first ping connects, all others reuse the connection
+            Assert.assertEquals(9, connectionPool.hits());
+            // the pooled channel has none of the handlers of the last request, the next one adds its own
+            InetSocketAddress remote = recv1.peerAddress().createTCPSocket(sender.peerAddress());
+            Channel pooled = connectionPool.poll(remote);
+            for (String name : new String[] { "timeout", "decoder", "verifier", "dispatcher", "handler" }) {
+                Assert.assertNull(pooled.pipeline().get(name));
+            }
+            Assert.assertTrue(connectionPool.offer(remote, pooled));
+            cc.shutdown().await();
+            cc = null;
+            // the pooled connection survives the channel creator
+            Assert.assertEquals(1, connectionPool.size());
+            sender.shutdown().await();
+            sender = null;
+            Assert.assertEquals(0, connectionPool.size());
+        } finally {
+            if (cc != null) {
+                cc.shutdown().await();
+            }
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+        }
+    }
+
     @Test
     public void testPingTCP2() throws Exception {
         Peer sender = null;
@@ -219,4 +219,30 @@ public class TestConcurrentCacheMap {
 		Assert.assertEquals(1, test.size());
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testMaxEntries() {
+		ConcurrentCacheMap<Integer, Integer> test = new ConcurrentCacheMap<Integer, Integer>(60, 1024);
+		for (int i = 0; i < 5000; i++) {
+			test.put(i, i);
+		}
+		// the limit is for the whole map, not per segment
+		Assert.assertEquals(1024, test.size());
+		Assert.assertEquals(Integer.valueOf(4999), test.get(4999));
+		Assert.assertNull(test.get(0));
+		// replacing a value does not grow the map
+		for (int i = 0; i < 5000; i++) {
+			test.put(4999, i);
+		}
+		Assert.assertEquals(1024, test.size());
+	}
+
+	@Test
+	public void testRemoveValue() {
+		ConcurrentCacheMap<String, String> test = new ConcurrentCacheMap<String, String>(1, 1024, true);
+		test.put("hallo0", "test0");
+		Assert.assertFalse(test.remove("hallo0", "test1"));
+		Assert.assertTrue(test.remove("hallo0", "test0"));
+		Assert.assertEquals(0, test.size());
+	}
+}
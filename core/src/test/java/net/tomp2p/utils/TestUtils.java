@@ -16,6 +16,9 @@
 
 package net.tomp2p.utils;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.peers.Number160;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -35,6 +38,26 @@ public class TestUtils {
        }
     };
 	
+    @Test
+    public void testSHAHash() {
+        byte[] value = "The quick brown fox jumps over the lazy dog".getBytes();
+        Number160 expected = new Number160("0x2fd4e1c67a2d28fced849ee1bb76e7391b93eb12");
+        Assert.assertEquals(expected, Utils.makeSHAHash(value));
+        // the thread local digest is reset after each hash
+        Assert.assertEquals(expected, Utils.makeSHAHash(value));
+        ByteBuf direct = Unpooled.directBuffer().writeBytes(value);
+        Assert.assertEquals(expected, Utils.makeSHAHash(direct));
+        Assert.assertEquals(value.length, direct.readableBytes());
+        direct.release();
+        ByteBuf composite = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(value, 0, 10),
+                Unpooled.wrappedBuffer(value, 10, value.length - 10));
+        Assert.assertEquals(expected, Utils.makeSHAHash(composite));
+        Assert.assertEquals(expected, Utils.makeSHAHash(composite.nioBuffers()));
+        // a dirty digest is reset
+        Utils.sha1Digest().update(value);
+        Assert.assertEquals(expected, Utils.makeSHAHash(value));
+    }
+
     @Test
     public void testDifference1() {
         Collection<String> collection1 = new ArrayList<String>();
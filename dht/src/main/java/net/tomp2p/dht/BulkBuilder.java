@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.dht;
+
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.p2p.RequestP2PConfiguration;
+import net.tomp2p.p2p.RoutingConfiguration;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.p2p.builder.SignatureBuilder;
+import net.tomp2p.peers.Number160;
+
+import java.security.KeyPair;
+
+/**
+ * The common options of the operations on many location keys. The routing for the location keys runs in parallel,
+ * and the keys are sent in one message per responsible peer.
+ * 
+ * @author Thomas Bocek
+ * 
+ * @param <K>
+ *            The type of the builder
+ */
+public abstract class BulkBuilder<K extends BulkBuilder<K>> extends DefaultConnectionConfiguration implements
+        SignatureBuilder<K> {
+
+    protected final PeerDHT peer;
+
+    protected Number160 domainKey;
+
+    protected RoutingConfiguration routingConfiguration;
+
+    protected RequestP2PConfiguration requestP2PConfiguration;
+
+    protected FutureChannelCreator futureChannelCreator;
+
+    private int parallelRoutings = 20;
+
+    private int parallelRequests = 10;
+
+    private int batchSize = 1000;
+
+    private KeyPair keyPair = null;
+
+    private K self;
+
+    public BulkBuilder(PeerDHT peer) {
+        this.peer = peer;
+    }
+
+    public void self(K self) {
+        this.self = self;
+    }
+
+    public Number160 domainKey() {
+        return domainKey;
+    }
+
+    public K domainKey(Number160 domainKey) {
+        this.domainKey = domainKey;
+        return self;
+    }
+
+    /**
+     * @return The configuration for the routing options, used for every location key
+     */
+    public RoutingConfiguration routingConfiguration() {
+        return routingConfiguration;
+    }
+
+    /**
+     * @param routingConfiguration
+     *            The configuration for the routing options, used for every location key
+     * @return This object
+     */
+    public K routingConfiguration(final RoutingConfiguration routingConfiguration) {
+        this.routingConfiguration = routingConfiguration;
+        return self;
+    }
+
+    /**
+     * @return The P2P request configuration options. The minimum results is the number of peers per location key, the
+     *         max failure is the number of times a location key is sent to the next close peer if a peer fails
+     */
+    public RequestP2PConfiguration requestP2PConfiguration() {
+        return requestP2PConfiguration;
+    }
+
+    /**
+     * @param requestP2PConfiguration
+     *            The P2P request configuration options. The minimum results is the number of peers per location key,
+     *            the max failure is the number of times a location key is sent to the next close peer if a peer fails
+     * @return This object
+     */
+    public K requestP2PConfiguration(final RequestP2PConfiguration requestP2PConfiguration) {
+        this.requestP2PConfiguration = requestP2PConfiguration;
+        return self;
+    }
+
+    /**
+     * @return The future of the created channel
+     */
+    public FutureChannelCreator futureChannelCreator() {
+        return futureChannelCreator;
+    }
+
+    /**
+     * @param futureChannelCreator
+     *            The future of the created channel, it needs enough permits for {@link #parallelRoutings()} and
+     *            {@link #parallelRequests()}
+     * @return This object
+     */
+    public K futureChannelCreator(FutureChannelCreator futureChannelCreator) {
+        this.futureChannelCreator = futureChannelCreator;
+        return self;
+    }
+
+    /**
+     * @return The number of location keys that are routed at the same time
+     */
+    public int parallelRoutings() {
+        return parallelRoutings;
+    }
+
+    /**
+     * @param parallelRoutings
+     *            The number of location keys that are routed at the same time
+     * @return This object
+     */
+    public K parallelRoutings(int parallelRoutings) {
+        this.parallelRoutings = parallelRoutings;
+        return self;
+    }
+
+    /**
+     * @return The number of messages to peers that are sent at the same time
+     */
+    public int parallelRequests() {
+        return parallelRequests;
+    }
+
+    /**
+     * @param parallelRequests
+     *            The number of messages to peers that are sent at the same time
+     * @return This object
+     */
+    public K parallelRequests(int parallelRequests) {
+        this.parallelRequests = parallelRequests;
+        return self;
+    }
+
+    /**
+     * @return The maximum number of location keys in one message. A full batch is sent right away, while the routing
+     *         of the other keys is still running
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            The maximum number of location keys in one message. A full batch is sent right away, while the
+     *            routing of the other keys is still running
+     * @return This object
+     */
+    public K batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return self;
+    }
+
+    @Override
+    public boolean isSign() {
+        return keyPair != null;
+    }
+
+    @Override
+    public K sign(final boolean signMessage) {
+        if (signMessage) {
+            sign();
+        } else {
+            this.keyPair = null;
+        }
+        return self;
+    }
+
+    @Override
+    public K sign() {
+        this.keyPair = peer.peer().peerBean().keyPair();
+        return self;
+    }
+
+    @Override
+    public K keyPair(KeyPair keyPair) {
+        this.keyPair = keyPair;
+        return self;
+    }
+
+    @Override
+    public KeyPair keyPair() {
+        return keyPair;
+    }
+
+    protected void preBuild() {
+        if (domainKey == null) {
+            domainKey = Number160.ZERO;
+        }
+        if (routingConfiguration == null) {
+            routingConfiguration = new RoutingConfiguration(5, 10, 2);
+        }
+        if (requestP2PConfiguration == null) {
+            requestP2PConfiguration = new RequestP2PConfiguration(3, 5, 0);
+        }
+        int size = peer.peer().peerBean().peerMap().size() + 1;
+        requestP2PConfiguration = requestP2PConfiguration.adjustMinimumResult(size);
+        if (futureChannelCreator == null
+                || (futureChannelCreator.channelCreator() != null && futureChannelCreator.channelCreator()
+                        .isShutdown())) {
+            // the routing uses UDP and the requests use TCP, unless forced otherwise
+            final int routingPermits = parallelRoutings * routingConfiguration.maxParallel();
+            final int permitsUDP = (isForceTCP() ? 0 : routingPermits) + (isForceUDP() ? parallelRequests : 0);
+            final int permitsTCP = (isForceTCP() ? routingPermits : 0) + (isForceUDP() ? 0 : parallelRequests);
+            futureChannelCreator = peer.peer().connectionBean().reservation().create(permitsUDP, permitsTCP);
+        }
+    }
+
+    public RoutingBuilder createBuilder(RequestP2PConfiguration requestP2PConfiguration,
+            RoutingConfiguration routingConfiguration) {
+        RoutingBuilder routingBuilder = new RoutingBuilder();
+        routingBuilder.parallel(routingConfiguration.parallel());
+        routingBuilder.maxParallel(routingConfiguration.maxParallel());
+        routingBuilder.setMaxNoNewInfo(routingConfiguration.maxNoNewInfo(requestP2PConfiguration
+                .minimumResults()));
+        routingBuilder.maxDirectHits(routingConfiguration.maxDirectHits());
+        routingBuilder.maxFailures(routingConfiguration.maxFailures());
+        routingBuilder.maxSuccess(routingConfiguration.maxSuccess());
+        return routingBuilder;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.dht;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.DistributedRouting;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs an operation on many location keys. The routing of the keys runs in parallel, and the keys are grouped by the
+ * responsible peers, so that one message per peer carries many keys. A batch is sent as soon as it is full, while the
+ * routing of the other keys is still running, the rest is sent when all routings are done. If a peer fails, its keys
+ * are sent to the next close peer of each key.
+ * 
+ * @author Thomas Bocek
+ * 
+ * @param <V>
+ *            The type of the result per key
+ */
+class BulkRequest<V> {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkRequest.class);
+
+    /**
+     * Creates the message for a batch of location keys and reads the response.
+     */
+    interface BatchMapper<V> {
+        /**
+         * @param channelCreator
+         *            The channel creator to create a UDP or TCP channel
+         * @param remotePeer
+         *            The responsible peer
+         * @param locationKeys
+         *            The location keys of the batch
+         * @return The future object of this request
+         */
+        FutureResponse create(ChannelCreator channelCreator, PeerAddress remotePeer,
+                Collection<Number160> locationKeys);
+
+        /**
+         * @param futureResponse
+         *            The finished request
+         * @return The result, or null if the peer failed
+         */
+        Map<Number640, V> response(FutureResponse futureResponse);
+    }
+
+    private final DistributedRouting routing;
+
+    private final BulkBuilder<?> builder;
+
+    private final BatchMapper<V> mapper;
+
+    private final FutureBulk<V> futureBulk;
+
+    private final ChannelCreator channelCreator;
+
+    // guarded by this
+    private final Iterator<Number160> toRoute;
+
+    // the close peers that did not get the key yet, the closest first
+    private final Map<Number160, Deque<PeerAddress>> candidates = new HashMap<Number160, Deque<PeerAddress>>();
+
+    private final Map<Number160, Integer> failures = new HashMap<Number160, Integer>();
+
+    private final Map<PeerAddress, List<Number160>> pending = new HashMap<PeerAddress, List<Number160>>();
+
+    private final Deque<Batch> ready = new ArrayDeque<Batch>();
+
+    private final Map<PeerAddress, Map<Number640, V>> rawData = new HashMap<PeerAddress, Map<Number640, V>>();
+
+    private final Set<Number160> failedKeys = new HashSet<Number160>();
+
+    private int activeRoutings = 0;
+
+    private int activeRequests = 0;
+
+    private int messages = 0;
+
+    private boolean finished = false;
+
+    // set while a thread is in next(), a listener called meanwhile sets again instead of recursing
+    private boolean running = false;
+
+    private boolean again = false;
+
+    private static class Batch {
+        private final PeerAddress remotePeer;
+
+        private final List<Number160> locationKeys;
+
+        private Batch(PeerAddress remotePeer, List<Number160> locationKeys) {
+            this.remotePeer = remotePeer;
+            this.locationKeys = locationKeys;
+        }
+    }
+
+    BulkRequest(final DistributedRouting routing, final BulkBuilder<?> builder, final Collection<Number160> locationKeys,
+            final BatchMapper<V> mapper, final FutureBulk<V> futureBulk, final ChannelCreator channelCreator) {
+        this.routing = routing;
+        this.builder = builder;
+        this.toRoute = locationKeys.iterator();
+        this.mapper = mapper;
+        this.futureBulk = futureBulk;
+        this.channelCreator = channelCreator;
+    }
+
+    void start() {
+        next();
+    }
+
+    /**
+     * Starts routings and requests up to the configured parallelism. The network calls are made outside of the lock,
+     * as their listeners may be called right away. Such a listener does not call this method recursively, it only
+     * marks that another round is needed, which is then done in the loop of the running call. Otherwise, every key
+     * that completes synchronously would add a few frames to the stack.
+     */
+    private void next() {
+        synchronized (this) {
+            if (running) {
+                again = true;
+                return;
+            }
+            running = true;
+        }
+        while (true) {
+            final List<Number160> route = new ArrayList<Number160>();
+            final List<Batch> send = new ArrayList<Batch>();
+            final boolean done;
+            synchronized (this) {
+                again = false;
+                while (activeRoutings < builder.parallelRoutings() && toRoute.hasNext()) {
+                    route.add(toRoute.next());
+                    activeRoutings++;
+                }
+                if (activeRoutings == 0 && !toRoute.hasNext()) {
+                    // all keys are routed, send what is left
+                    for (Map.Entry<PeerAddress, List<Number160>> entry : pending.entrySet()) {
+                        ready.add(new Batch(entry.getKey(), entry.getValue()));
+                    }
+                    pending.clear();
+                }
+                while (activeRequests < builder.parallelRequests() && !ready.isEmpty()) {
+                    send.add(ready.poll());
+                    activeRequests++;
+                    messages++;
+                }
+                done = !finished && activeRoutings == 0 && !toRoute.hasNext() && activeRequests == 0
+                        && ready.isEmpty() && pending.isEmpty();
+                if (done) {
+                    finished = true;
+                }
+            }
+            for (Number160 locationKey : route) {
+                route(locationKey);
+            }
+            for (Batch batch : send) {
+                send(batch);
+            }
+            if (done) {
+                LOG.debug("bulk request done with {} messages, {} failed keys", messages, failedKeys.size());
+                futureBulk.done(rawData, failedKeys, messages);
+            }
+            synchronized (this) {
+                if (!again) {
+                    running = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void route(final Number160 locationKey) {
+        final RoutingBuilder routingBuilder = builder.createBuilder(builder.requestP2PConfiguration(),
+                builder.routingConfiguration());
+        routingBuilder.locationKey(locationKey);
+        routingBuilder.domainKey(builder.domainKey());
+        final FutureRouting futureRouting = routing.route(routingBuilder, Type.REQUEST_1, channelCreator);
+        futureRouting.addListener(new BaseFutureAdapter<FutureRouting>() {
+            @Override
+            public void operationComplete(final FutureRouting future) throws Exception {
+                synchronized (BulkRequest.this) {
+                    activeRoutings--;
+                    if (future.isSuccess()) {
+                        final Deque<PeerAddress> closePeers = new ArrayDeque<PeerAddress>(future.potentialHits());
+                        candidates.put(locationKey, closePeers);
+                        final int replicas = Math.min(builder.requestP2PConfiguration().minimumResults(),
+                                closePeers.size());
+                        if (replicas == 0) {
+                            failedKeys.add(locationKey);
+                        }
+                        for (int i = 0; i < replicas; i++) {
+                            add(closePeers.poll(), locationKey);
+                        }
+                    } else {
+                        LOG.debug("routing failed for {}: {}", locationKey, future.failedReason());
+                        failedKeys.add(locationKey);
+                    }
+                }
+                next();
+            }
+        });
+    }
+
+    private void send(final Batch batch) {
+        final FutureResponse futureResponse = mapper.create(channelCreator, batch.remotePeer, batch.locationKeys);
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(final FutureResponse future) throws Exception {
+                final Map<Number640, V> result = mapper.response(future);
+                synchronized (BulkRequest.this) {
+                    activeRequests--;
+                    if (result != null) {
+                        Map<Number640, V> peerResult = rawData.get(batch.remotePeer);
+                        if (peerResult == null) {
+                            rawData.put(batch.remotePeer, result);
+                        } else {
+                            peerResult.putAll(result);
+                        }
+                    } else {
+                        LOG.debug("{} failed for {} keys: {}", batch.remotePeer, batch.locationKeys.size(),
+                                future.failedReason());
+                        for (Number160 locationKey : batch.locationKeys) {
+                            retry(locationKey);
+                        }
+                    }
+                }
+                next();
+            }
+        });
+    }
+
+    /**
+     * Sends the key to the next close peer, if the key did not fail too often. Needs to be called with the lock.
+     */
+    private void retry(final Number160 locationKey) {
+        Integer failed = failures.get(locationKey);
+        failed = failed == null ? 1 : failed + 1;
+        failures.put(locationKey, failed);
+        final Deque<PeerAddress> closePeers = candidates.get(locationKey);
+        if (failed > builder.requestP2PConfiguration().maxFailure() || closePeers.isEmpty()) {
+            failedKeys.add(locationKey);
+        } else {
+            add(closePeers.poll(), locationKey);
+        }
+    }
+
+    /**
+     * Adds the key to the batch of the peer, a full batch is ready to be sent. Needs to be called with the lock.
+     */
+    private void add(final PeerAddress remotePeer, final Number160 locationKey) {
+        List<Number160> batch = pending.get(remotePeer);
+        if (batch == null) {
+            batch = new ArrayList<Number160>();
+            pending.put(remotePeer, batch);
+        }
+        batch.add(locationKey);
+        if (batch.size() >= builder.batchSize()) {
+            pending.remove(remotePeer);
+            ready.add(new Batch(remotePeer, batch));
+        }
+    }
+}
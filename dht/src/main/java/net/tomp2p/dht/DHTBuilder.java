@@ -318,6 +318,7 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
             RoutingConfiguration routingConfiguration) {
         RoutingBuilder routingBuilder = new RoutingBuilder();
         routingBuilder.parallel(routingConfiguration.parallel());
+        routingBuilder.maxParallel(routingConfiguration.maxParallel());
         routingBuilder.setMaxNoNewInfo(routingConfiguration.maxNoNewInfo(requestP2PConfiguration
                 .minimumResults()));
         routingBuilder.maxDirectHits(routingConfiguration.maxDirectHits());
@@ -273,6 +273,90 @@ public class DistributedHashTable {
         return futurePut;
     }
 
+    /**
+     * Gets the data of many location keys. The routing of the keys runs in parallel, and one message per responsible
+     * peer carries all its keys.
+     * 
+     * @param builder
+     *            The location keys and the options
+     * @param futureBulk
+     *            The future with the data of all keys
+     * @return The future with the data of all keys
+     */
+    public FutureBulk<Data> getAll(final GetAllBuilder builder, final FutureBulk<Data> futureBulk) {
+        builder.futureChannelCreator().addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (future.isSuccess()) {
+                    new BulkRequest<Data>(routing, builder, builder.locationKeys(),
+                            new BulkRequest.BatchMapper<Data>() {
+                                @Override
+                                public FutureResponse create(final ChannelCreator channelCreator,
+                                        final PeerAddress remotePeer, final Collection<Number160> locationKeys) {
+                                    return storeRCP.getAll(remotePeer, builder, locationKeys, channelCreator);
+                                }
+
+                                @Override
+                                public Map<Number640, Data> response(final FutureResponse future) {
+                                    if (future.isSuccess() && future.responseMessage().isOk()) {
+                                        return future.responseMessage().dataMap(0).dataMap();
+                                    }
+                                    return null;
+                                }
+                            }, futureBulk, future.channelCreator()).start();
+                    Utils.addReleaseListener(future.channelCreator(), futureBulk);
+                } else {
+                    futureBulk.failed(future);
+                }
+            }
+        });
+        return futureBulk;
+    }
+
+    /**
+     * Stores the data of many location keys. The routing of the keys runs in parallel, and one message per
+     * responsible peer carries all its keys.
+     * 
+     * @param builder
+     *            The data and the options
+     * @param futureBulk
+     *            The future with the put status per peer
+     * @return The future with the put status per peer
+     */
+    public FutureBulk<Byte> putAll(final PutAllBuilder builder, final FutureBulk<Byte> futureBulk) {
+        builder.futureChannelCreator().addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (future.isSuccess()) {
+                    final Map<Number160, NavigableMap<Number640, Data>> dataMaps = builder.dataMapByLocationKey();
+                    new BulkRequest<Byte>(routing, builder, dataMaps.keySet(), new BulkRequest.BatchMapper<Byte>() {
+                        @Override
+                        public FutureResponse create(final ChannelCreator channelCreator,
+                                final PeerAddress remotePeer, final Collection<Number160> locationKeys) {
+                            final NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+                            for (Number160 locationKey : locationKeys) {
+                                dataMap.putAll(dataMaps.get(locationKey));
+                            }
+                            return storeRCP.putAll(remotePeer, builder, dataMap, channelCreator);
+                        }
+
+                        @Override
+                        public Map<Number640, Byte> response(final FutureResponse future) {
+                            if (future.isSuccess() && future.responseMessage().isOk()) {
+                                return future.responseMessage().keyMapByte(0).keysMap();
+                            }
+                            return null;
+                        }
+                    }, futureBulk, future.channelCreator()).start();
+                    Utils.addReleaseListener(future.channelCreator(), futureBulk);
+                } else {
+                    futureBulk.failed(future);
+                }
+            }
+        });
+        return futureBulk;
+    }
+
     public FutureGet get(final GetBuilder builder,  final FutureGet futureGet) {
 
         builder.futureChannelCreator().addListener(new BaseFutureAdapter<FutureChannelCreator>() {
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.dht;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureImpl;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The future object for getAll() and putAll() operations, which work on many location keys. The future fails if no
+ * responsible peer could be reached for a location key, the other keys are still in the result.
+ * 
+ * @author Thomas Bocek
+ * 
+ * @param <V>
+ *            The type of the result per key, the data for get and the status for put
+ */
+public class FutureBulk<V> extends BaseFutureImpl<FutureBulk<V>> {
+
+    private final int size;
+
+    private Map<PeerAddress, Map<Number640, V>> rawData = Collections.emptyMap();
+
+    private Collection<Number160> failedKeys = Collections.emptyList();
+
+    private int messages;
+
+    /**
+     * @param size
+     *            The number of location keys
+     */
+    public FutureBulk(final int size) {
+        this.size = size;
+        self(this);
+    }
+
+    /**
+     * Finishes the future.
+     * 
+     * @param rawData
+     *            The results per peer
+     * @param failedKeys
+     *            The location keys for which no responsible peer could be reached
+     * @param messages
+     *            The number of messages sent to responsible peers, without the routing
+     * @return This object
+     */
+    public FutureBulk<V> done(final Map<PeerAddress, Map<Number640, V>> rawData,
+            final Collection<Number160> failedKeys, final int messages) {
+        synchronized (lock) {
+            if (!completedAndNotify()) {
+                return this;
+            }
+            this.rawData = rawData;
+            this.failedKeys = failedKeys;
+            this.messages = messages;
+            if (failedKeys.isEmpty()) {
+                this.type = BaseFuture.FutureType.OK;
+            } else {
+                this.type = BaseFuture.FutureType.FAILED;
+                this.reason = "No responsible peer answered for " + failedKeys.size() + " of " + size
+                        + " location keys";
+            }
+        }
+        notifyListeners();
+        return this;
+    }
+
+    /**
+     * @return The results per peer
+     */
+    public Map<PeerAddress, Map<Number640, V>> rawData() {
+        synchronized (lock) {
+            return rawData;
+        }
+    }
+
+    /**
+     * @return The results of all peers. If peers report different results for a key, one of them is returned
+     */
+    public Map<Number640, V> dataMap() {
+        synchronized (lock) {
+            final Map<Number640, V> result = new HashMap<Number640, V>();
+            for (Map<Number640, V> map : rawData.values()) {
+                result.putAll(map);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return The location keys for which no responsible peer could be reached
+     */
+    public Collection<Number160> failedKeys() {
+        synchronized (lock) {
+            return failedKeys;
+        }
+    }
+
+    /**
+     * @return The number of messages sent to responsible peers, without the routing. Without batching, this would be
+     *         one message per location key and peer
+     */
+    public int messages() {
+        synchronized (lock) {
+            return messages;
+        }
+    }
+
+    /**
+     * @return True if at least one responsible peer answered
+     */
+    public boolean isSuccessPartially() {
+        synchronized (lock) {
+            return completed && !rawData.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.dht;
+
+import net.tomp2p.p2p.RequestP2PConfiguration;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import java.util.Collection;
+
+public class GetAllBuilder extends BulkBuilder<GetAllBuilder> {
+
+    private final static FutureBulk<Data> FUTURE_SHUTDOWN = new FutureBulk<Data>(0)
+            .failed("get all builder - peer is shutting down");
+
+    private final Collection<Number160> locationKeys;
+
+    private Number160 contentKey;
+
+    private Number160 versionKey;
+
+    private boolean all = false;
+
+    public GetAllBuilder(PeerDHT peer, Collection<Number160> locationKeys) {
+        super(peer);
+        this.locationKeys = locationKeys;
+        self(this);
+    }
+
+    public Collection<Number160> locationKeys() {
+        return locationKeys;
+    }
+
+    public Number160 contentKey() {
+        return contentKey;
+    }
+
+    /**
+     * @param contentKey
+     *            The content key to get for every location key, the default is {@link Number160#ZERO}
+     * @return This object
+     */
+    public GetAllBuilder contentKey(Number160 contentKey) {
+        this.contentKey = contentKey;
+        return this;
+    }
+
+    public Number160 versionKey() {
+        return versionKey;
+    }
+
+    public GetAllBuilder versionKey(Number160 versionKey) {
+        this.versionKey = versionKey;
+        return this;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * @param all
+     *            Set to true to get all content keys of the domain for every location key
+     * @return This object
+     */
+    public GetAllBuilder all(boolean all) {
+        this.all = all;
+        return this;
+    }
+
+    public GetAllBuilder all() {
+        this.all = true;
+        return this;
+    }
+
+    public FutureBulk<Data> start() {
+        if (peer.peer().isShutdown()) {
+            return FUTURE_SHUTDOWN;
+        }
+        if (requestP2PConfiguration == null) {
+            // the closest peer is enough, the next ones are asked if it fails
+            requestP2PConfiguration = new RequestP2PConfiguration(1, 5, 0);
+        }
+        preBuild();
+        if (contentKey == null) {
+            contentKey = Number160.ZERO;
+        }
+        if (versionKey == null) {
+            versionKey = Number160.ZERO;
+        }
+        return peer.distributedHashTable().getAll(this, new FutureBulk<Data>(locationKeys.size()));
+    }
+}
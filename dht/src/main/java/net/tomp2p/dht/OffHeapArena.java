@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.dht;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocates slots for payloads in large chunks of direct memory. A slot has a
+ * size of a power of two, at least {@link #MIN_SLOT_SIZE} bytes, and freed
+ * slots are reused for slots of the same size. Payloads that do not fit into a
+ * chunk get a chunk of their own, which is released when the slot is freed.
+ * Slots are addressed by a handle, the chunk id in the upper and the offset in
+ * the lower 32 bits, so the heap does not hold an object per slot.
+ * <p>
+ * Slot format:
+ *
+ * <pre>
+ * 4 bytes - length of the payload
+ * n bytes - payload
+ * </pre>
+ *
+ * This class is not thread-safe, {@link StorageOffHeap} guards it with a
+ * read/write lock.
+ *
+ * @author Thomas Bocek
+ */
+final class OffHeapArena {
+
+	static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	static final int MIN_SLOT_SIZE = 64;
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SLOT_SIZE);
+	private static final int NR_CLASSES = Integer.numberOfTrailingZeros(CHUNK_SIZE) - MIN_SHIFT + 1;
+
+	private final ByteBufAllocator allocator;
+	// chunk id to chunk, null if the chunk was released
+	private final List<ByteBuf> chunks = new ArrayList<ByteBuf>();
+	private final List<Integer> freeChunkIds = new ArrayList<Integer>();
+	// per size class, a stack of free handles
+	private final long[][] freeSlots = new long[NR_CLASSES][];
+	private final int[] nrFreeSlots = new int[NR_CLASSES];
+	// the shared chunk new slots are cut from
+	private int currentChunk = -1;
+	private int currentOffset = 0;
+	private long allocated = 0;
+	private long used = 0;
+
+	OffHeapArena(final ByteBufAllocator allocator) {
+		this.allocator = allocator;
+		for (int i = 0; i < NR_CLASSES; i++) {
+			freeSlots[i] = new long[16];
+		}
+	}
+
+	/**
+	 * @return The number of bytes allocated in direct memory
+	 */
+	long allocated() {
+		return allocated;
+	}
+
+	/**
+	 * @return The number of bytes in used slots
+	 */
+	long used() {
+		return used;
+	}
+
+	/**
+	 * Allocates a slot and writes the length of the payload.
+	 *
+	 * @param length
+	 *            The length of the payload
+	 * @return The handle of the slot
+	 */
+	long allocate(final int length) {
+		final int slotSize = slotSize(length);
+		final long handle;
+		if (slotSize > CHUNK_SIZE) {
+			handle = handle(addChunk(slotSize), 0);
+		} else {
+			final int sizeClass = sizeClass(slotSize);
+			if (nrFreeSlots[sizeClass] > 0) {
+				handle = freeSlots[sizeClass][--nrFreeSlots[sizeClass]];
+			} else {
+				if (currentChunk < 0 || currentOffset + slotSize > CHUNK_SIZE) {
+					// the rest of the current chunk is not used
+					currentChunk = addChunk(CHUNK_SIZE);
+					currentOffset = 0;
+				}
+				handle = handle(currentChunk, currentOffset);
+				currentOffset += slotSize;
+			}
+		}
+		used += slotSize;
+		chunk(handle).setInt(offset(handle), length);
+		return handle;
+	}
+
+	/**
+	 * Frees a slot, the handle must not be used afterwards.
+	 *
+	 * @param handle
+	 *            The handle of the slot
+	 */
+	void free(final long handle) {
+		final ByteBuf chunk = chunk(handle);
+		final int slotSize = slotSize(chunk.getInt(offset(handle)));
+		used -= slotSize;
+		if (slotSize > CHUNK_SIZE) {
+			final int chunkId = (int) (handle >>> 32);
+			chunks.set(chunkId, null);
+			freeChunkIds.add(chunkId);
+			allocated -= chunk.capacity();
+			chunk.release();
+			return;
+		}
+		final int sizeClass = sizeClass(slotSize);
+		if (nrFreeSlots[sizeClass] == freeSlots[sizeClass].length) {
+			freeSlots[sizeClass] = Arrays.copyOf(freeSlots[sizeClass], nrFreeSlots[sizeClass] * 2);
+		}
+		freeSlots[sizeClass][nrFreeSlots[sizeClass]++] = handle;
+	}
+
+	/**
+	 * @param handle
+	 *            The handle of the slot
+	 * @return The length of the payload
+	 */
+	int length(final long handle) {
+		return chunk(handle).getInt(offset(handle));
+	}
+
+	/**
+	 * @param handle
+	 *            The handle of the slot
+	 * @return The chunk that contains the slot
+	 */
+	ByteBuf chunk(final long handle) {
+		return chunks.get((int) (handle >>> 32));
+	}
+
+	/**
+	 * @param handle
+	 *            The handle of the slot
+	 * @return The index of the payload in the chunk
+	 */
+	int payloadIndex(final long handle) {
+		return offset(handle) + 4;
+	}
+
+	/**
+	 * Releases all chunks.
+	 */
+	void clear() {
+		for (ByteBuf chunk : chunks) {
+			if (chunk != null) {
+				chunk.release();
+			}
+		}
+		chunks.clear();
+		freeChunkIds.clear();
+		Arrays.fill(nrFreeSlots, 0);
+		currentChunk = -1;
+		currentOffset = 0;
+		allocated = 0;
+		used = 0;
+	}
+
+	private int addChunk(final int size) {
+		final ByteBuf chunk = allocator.directBuffer(size, size);
+		allocated += size;
+		if (!freeChunkIds.isEmpty()) {
+			final int chunkId = freeChunkIds.remove(freeChunkIds.size() - 1);
+			chunks.set(chunkId, chunk);
+			return chunkId;
+		}
+		chunks.add(chunk);
+		return chunks.size() - 1;
+	}
+
+	private static long handle(final int chunkId, final int offset) {
+		return ((long) chunkId << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private static int offset(final long handle) {
+		return (int) handle;
+	}
+
+	private static int slotSize(final int length) {
+		final int size = length + 4;
+		if (size <= MIN_SLOT_SIZE) {
+			return MIN_SLOT_SIZE;
+		}
+		if (size > CHUNK_SIZE) {
+			// a chunk of its own, no need to round up
+			return size;
+		}
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+
+	private static int sizeClass(final int slotSize) {
+		return Integer.numberOfTrailingZeros(slotSize) - MIN_SHIFT;
+	}
+}
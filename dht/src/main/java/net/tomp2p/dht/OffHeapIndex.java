@@ -0,0 +1,293 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.dht;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sorted map from fixed-size binary keys to long values, stored in direct
+ * memory. The entries are kept sorted in pages of up to pageCapacity entries,
+ * and the pages are sorted by their first key. Thus, the heap holds one
+ * reference per page and not per entry. Keys are compared as unsigned big
+ * endian ints, which is the order of {@link net.tomp2p.peers.Number640}.
+ * <p>
+ * Entry format:
+ *
+ * <pre>
+ * keySize bytes - key
+ * 8 bytes - value
+ * </pre>
+ *
+ * This class is not thread-safe, {@link StorageOffHeap} guards it with a
+ * read/write lock.
+ *
+ * @author Thomas Bocek
+ */
+final class OffHeapIndex {
+
+	static final long NOT_FOUND = -1;
+
+	interface Visitor {
+		/**
+		 * @param page
+		 *            The page that contains the entry
+		 * @param index
+		 *            The index of the entry in the page, the value is at index +
+		 *            keySize
+		 * @return False to stop the iteration
+		 */
+		boolean visit(ByteBuf page, int index);
+	}
+
+	private final int keySize;
+	private final int entrySize;
+	private final int pageCapacity;
+	private final ByteBufAllocator allocator;
+	// the number of entries in a page is writerIndex / entrySize
+	private final List<ByteBuf> pages = new ArrayList<ByteBuf>();
+	// used to move entries within a page
+	private final byte[] scratch;
+	private long size = 0;
+
+	/**
+	 * @param keySize
+	 *            The size of the keys in bytes, needs to be a multiple of 4
+	 * @param pageCapacity
+	 *            The max. number of entries per page
+	 * @param allocator
+	 *            The allocator for the pages, should provide direct buffers
+	 */
+	OffHeapIndex(final int keySize, final int pageCapacity, final ByteBufAllocator allocator) {
+		if (keySize % 4 != 0 || pageCapacity < 2) {
+			throw new IllegalArgumentException("Key size needs to be a multiple of 4, and a page needs 2 entries.");
+		}
+		this.keySize = keySize;
+		this.entrySize = keySize + 8;
+		this.pageCapacity = pageCapacity;
+		this.allocator = allocator;
+		this.scratch = new byte[pageCapacity * entrySize];
+	}
+
+	int keySize() {
+		return keySize;
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of bytes allocated in direct memory
+	 */
+	long capacity() {
+		return (long) pages.size() * pageCapacity * entrySize;
+	}
+
+	/**
+	 * @param key
+	 *            The key, keySize bytes starting at the reader index
+	 * @return The value or {@link #NOT_FOUND}
+	 */
+	long get(final ByteBuf key) {
+		final int pageIndex = findPage(key);
+		if (pageIndex < 0) {
+			return NOT_FOUND;
+		}
+		final ByteBuf page = pages.get(pageIndex);
+		final int pos = search(page, key);
+		return pos >= 0 ? page.getLong(pos * entrySize + keySize) : NOT_FOUND;
+	}
+
+	/**
+	 * @param key
+	 *            The key, keySize bytes starting at the reader index
+	 * @param value
+	 *            The value, must not be {@link #NOT_FOUND}
+	 * @return The previous value or {@link #NOT_FOUND}
+	 */
+	long put(final ByteBuf key, final long value) {
+		if (pages.isEmpty()) {
+			pages.add(allocator.directBuffer(pageCapacity * entrySize, pageCapacity * entrySize));
+		}
+		int pageIndex = Math.max(findPage(key), 0);
+		ByteBuf page = pages.get(pageIndex);
+		int pos = search(page, key);
+		if (pos >= 0) {
+			final long old = page.getLong(pos * entrySize + keySize);
+			page.setLong(pos * entrySize + keySize, value);
+			return old;
+		}
+		pos = -(pos + 1);
+		if (count(page) == pageCapacity) {
+			// split, the upper half goes to a new page
+			final int half = pageCapacity / 2;
+			final ByteBuf upper = allocator.directBuffer(pageCapacity * entrySize, pageCapacity * entrySize);
+			upper.writeBytes(page, half * entrySize, (pageCapacity - half) * entrySize);
+			page.writerIndex(half * entrySize);
+			pages.add(pageIndex + 1, upper);
+			if (pos > half) {
+				page = upper;
+				pos -= half;
+			}
+		}
+		final int count = count(page);
+		move(page, pos, pos + 1, count - pos);
+		page.setBytes(pos * entrySize, key, key.readerIndex(), keySize);
+		page.setLong(pos * entrySize + keySize, value);
+		page.writerIndex((count + 1) * entrySize);
+		size++;
+		return NOT_FOUND;
+	}
+
+	/**
+	 * @param key
+	 *            The key, keySize bytes starting at the reader index
+	 * @return The removed value or {@link #NOT_FOUND}
+	 */
+	long remove(final ByteBuf key) {
+		final int pageIndex = findPage(key);
+		if (pageIndex < 0) {
+			return NOT_FOUND;
+		}
+		final ByteBuf page = pages.get(pageIndex);
+		final int pos = search(page, key);
+		if (pos < 0) {
+			return NOT_FOUND;
+		}
+		final long old = page.getLong(pos * entrySize + keySize);
+		final int count = count(page);
+		move(page, pos + 1, pos, count - pos - 1);
+		page.writerIndex((count - 1) * entrySize);
+		size--;
+		if (count == 1) {
+			pages.remove(pageIndex);
+			page.release();
+		}
+		return old;
+	}
+
+	/**
+	 * Visits all entries from the key from to the key to, both inclusive, in
+	 * ascending order.
+	 *
+	 * @param from
+	 *            The first key
+	 * @param to
+	 *            The last key
+	 * @param visitor
+	 *            The visitor that is called for each entry
+	 */
+	void range(final ByteBuf from, final ByteBuf to, final Visitor visitor) {
+		int pageIndex = Math.max(findPage(from), 0);
+		if (pageIndex >= pages.size()) {
+			return;
+		}
+		int pos = search(pages.get(pageIndex), from);
+		if (pos < 0) {
+			pos = -(pos + 1);
+		}
+		for (; pageIndex < pages.size(); pageIndex++, pos = 0) {
+			final ByteBuf page = pages.get(pageIndex);
+			final int count = count(page);
+			for (; pos < count; pos++) {
+				final int index = pos * entrySize;
+				if (compare(page, index, to) > 0 || !visitor.visit(page, index)) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases all pages.
+	 */
+	void clear() {
+		for (ByteBuf page : pages) {
+			page.release();
+		}
+		pages.clear();
+		size = 0;
+	}
+
+	private int count(final ByteBuf page) {
+		return page.writerIndex() / entrySize;
+	}
+
+	/**
+	 * @return The index of the last page whose first key is smaller or equal
+	 *         than the key, or -1 if the key is smaller than all keys
+	 */
+	private int findPage(final ByteBuf key) {
+		int low = 0;
+		int high = pages.size() - 1;
+		int result = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (compare(pages.get(mid), 0, key) <= 0) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The position of the key in the page, or (-(insertion point) - 1)
+	 */
+	private int search(final ByteBuf page, final ByteBuf key) {
+		int low = 0;
+		int high = count(page) - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int diff = compare(page, mid * entrySize, key);
+			if (diff < 0) {
+				low = mid + 1;
+			} else if (diff > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private int compare(final ByteBuf page, final int index, final ByteBuf key) {
+		final int offset = key.readerIndex();
+		for (int i = 0; i < keySize; i += 4) {
+			final int diff = Integer.compareUnsigned(page.getInt(index + i), key.getInt(offset + i));
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return 0;
+	}
+
+	private void move(final ByteBuf page, final int fromPos, final int toPos, final int entries) {
+		if (entries <= 0) {
+			return;
+		}
+		final int length = entries * entrySize;
+		page.getBytes(fromPos * entrySize, scratch, 0, length);
+		page.setBytes(toPos * entrySize, scratch, 0, length);
+	}
+}
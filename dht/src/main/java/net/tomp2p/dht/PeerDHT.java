@@ -6,7 +6,12 @@ import net.tomp2p.futures.FutureDone;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.Shutdown;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import java.util.Collection;
+import java.util.Map;
 
 public class PeerDHT {
 
@@ -57,6 +62,30 @@ public class PeerDHT {
 		return new GetBuilder(this, locationKey);
 	}
 
+	/**
+	 * Gets the data of many location keys. The routing of the keys runs in
+	 * parallel and the keys are sent in one message per responsible peer.
+	 * 
+	 * @param locationKeys
+	 *            The location keys to get
+	 * @return The builder that allows to set options
+	 */
+	public GetAllBuilder getAll(Collection<Number160> locationKeys) {
+		return new GetAllBuilder(this, locationKeys);
+	}
+
+	/**
+	 * Stores the data of many location keys. The routing of the keys runs in
+	 * parallel and the keys are sent in one message per responsible peer.
+	 * 
+	 * @param dataMap
+	 *            The data to store, the location keys may differ
+	 * @return The builder that allows to set options
+	 */
+	public PutAllBuilder putAll(Map<Number640, Data> dataMap) {
+		return new PutAllBuilder(this, dataMap);
+	}
+
 	public DigestBuilder digest(Number160 locationKey) {
 		return new DigestBuilder(this, locationKey);
 	}
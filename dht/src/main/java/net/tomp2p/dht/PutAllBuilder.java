@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.dht;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public class PutAllBuilder extends BulkBuilder<PutAllBuilder> {
+
+    private final static FutureBulk<Byte> FUTURE_SHUTDOWN = new FutureBulk<Byte>(0)
+            .failed("put all builder - peer is shutting down");
+
+    private final Map<Number640, Data> dataMap;
+
+    private Map<Number160, NavigableMap<Number640, Data>> dataMapByLocationKey;
+
+    /**
+     * @param peer
+     *            The peer that stores the data
+     * @param dataMap
+     *            The data to store, the location keys may differ
+     */
+    public PutAllBuilder(PeerDHT peer, Map<Number640, Data> dataMap) {
+        super(peer);
+        this.dataMap = dataMap;
+        self(this);
+    }
+
+    public Map<Number640, Data> dataMap() {
+        return dataMap;
+    }
+
+    /**
+     * @return The data grouped by the location key, available after {@link #start()}
+     */
+    public Map<Number160, NavigableMap<Number640, Data>> dataMapByLocationKey() {
+        return dataMapByLocationKey;
+    }
+
+    public FutureBulk<Byte> start() {
+        if (peer.peer().isShutdown()) {
+            return FUTURE_SHUTDOWN;
+        }
+        if (dataMap == null || dataMap.isEmpty()) {
+            throw new IllegalArgumentException("You must provide data. Cannot add nothing.");
+        }
+        preBuild();
+        dataMapByLocationKey = new HashMap<Number160, NavigableMap<Number640, Data>>();
+        for (Map.Entry<Number640, Data> entry : dataMap.entrySet()) {
+            NavigableMap<Number640, Data> map = dataMapByLocationKey.get(entry.getKey().locationKey());
+            if (map == null) {
+                map = new TreeMap<Number640, Data>();
+                dataMapByLocationKey.put(entry.getKey().locationKey(), map);
+            }
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return peer.distributedHashTable().putAll(this, new FutureBulk<Byte>(dataMapByLocationKey.size()));
+    }
+}
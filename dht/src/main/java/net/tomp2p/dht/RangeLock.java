@@ -1,129 +1,373 @@
 package net.tomp2p.dht;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * A lock for ranges of keys. Held ranges are kept in an interval tree (a treap
+ * augmented with the max upper bound of each subtree), so finding a conflicting
+ * range is O(log n). A thread that has to wait parks on the range it conflicts
+ * with, and an unlock only wakes the threads that waited on that range, instead
+ * of waking every waiting thread. Ranges held by the same thread never conflict.
+ *
+ * @param <K>
+ *            The type of the keys, e.g. {@link net.tomp2p.peers.Number640}
+ */
 final public class RangeLock<K extends Comparable<K>> {
-	private final Object lockInternal = new Object();
-	private final NavigableMap<K, Long> cache = new TreeMap<K, Long>();
-	
+
+	private final ReentrantLock lockInternal = new ReentrantLock();
+	private final Random rnd = new Random();
+	private Range root = null;
+	private long sequence = 0;
+	private int size = 0;
+
+	// statistics, guarded by lockInternal
+	private long lockCount = 0;
+	private long contendedCount = 0;
+	private long failedTryLockCount = 0;
+	private long waitNanos = 0;
+	private int waiting = 0;
+
 	final public class Range {
         final private K fromKey;
         final private K toKey;
         final private RangeLock<K> ref;
-        private Range(final K fromKey, final K toKey, RangeLock<K> ref) {
+        final private long owner;
+        // interval tree fields, guarded by lockInternal
+        private long seq;
+        private int priority;
+        private K maxKey;
+        private Range left;
+        private Range right;
+        private List<Condition> waiters;
+        private boolean released = false;
+
+        private Range(final K fromKey, final K toKey, final long owner, RangeLock<K> ref) {
         	this.fromKey = fromKey;
         	this.toKey = toKey;
+        	this.owner = owner;
         	this.ref = ref;
         }
-        
+
         public void unlock() {
         	ref.unlock(this);
         }
+
+        public K fromKey() {
+        	return fromKey;
+        }
+
+        public K toKey() {
+        	return toKey;
+        }
     }
-	
+
+	/**
+	 * Locks a range if no other thread holds an overlapping range.
+	 *
+	 * @param fromKey
+	 *            The lower bound (inclusive)
+	 * @param toKey
+	 *            The upper bound (inclusive)
+	 * @return The locked range or null if an overlapping range is held by
+	 *         another thread
+	 */
 	public Range tryLock(final K fromKey, final K toKey) {
 		final long id = Thread.currentThread().getId();
-		synchronized (lockInternal) {
-			//first check overlappings or smaller subset of keys
-			final NavigableMap<K, Long> subMap = cache.subMap(fromKey, true, toKey, true);
-			if (!subMap.isEmpty()) {
-				if(sizeFiltered(id, subMap) != 0) {
-					return null;
-				}
+		lockInternal.lock();
+		try {
+			if (findConflict(root, fromKey, toKey, id) != null) {
+				failedTryLockCount++;
+				return null;
 			}
-			
-			//second check larger subset of keys
-			final Collection<Long> before = cache.headMap(fromKey, false).values();
-			final Collection<Long> after = cache.tailMap(toKey, false).values();
-			//now check for intersection thread ids
-			final Collection<Long> intersection = intersection(before, after);
-			if(!intersection.isEmpty()) {
-				if(sizeFiltered(id, intersection) != 0) {
-					return null;
-				}
-			}
-			
-        	cache.put(fromKey, id);
-        	cache.put(toKey, id);
-        }
-		return new Range(fromKey, toKey, this);
+			return insert(fromKey, toKey, id);
+		} finally {
+			lockInternal.unlock();
+		}
 	}
-	
+
 	/**
-	 * The same thread can lock a range twice. The first unlock for range x unlocks all range x.   
+	 * Locks a range and waits until no other thread holds an overlapping range.
+	 * The same thread can lock overlapping ranges, each range needs to be
+	 * unlocked separately.
+	 *
 	 * @param fromKey
+	 *            The lower bound (inclusive)
 	 * @param toKey
-	 * @return
+	 *            The upper bound (inclusive)
+	 * @return The locked range or null if the thread was interrupted
 	 */
 	public Range lock(final K fromKey, final K toKey) {
 		final long id = Thread.currentThread().getId();
-		synchronized (lockInternal) {
-			final NavigableMap<K, Long> subMap = cache.subMap(fromKey, true, toKey, true);
-			final Collection<Long> before = cache.headMap(fromKey, false).values();
-			final Collection<Long> after = cache.tailMap(toKey, false).values();
-			Collection<Long> intersection = null;
-			
-			while (!(intersection = intersection(before, after)).isEmpty() || !subMap.isEmpty()) {
-				if((subMap.isEmpty() || sizeFiltered(id, subMap) == 0) && 
-						(intersection.isEmpty() || sizeFiltered(id, intersection) == 0)) {
-					break;
+		lockInternal.lock();
+		try {
+			Range conflict = findConflict(root, fromKey, toKey, id);
+			if (conflict == null) {
+				// fast path, no allocation of wait state
+				return insert(fromKey, toKey, id);
+			}
+			contendedCount++;
+			final Condition condition = lockInternal.newCondition();
+			final long start = System.nanoTime();
+			waiting++;
+			try {
+				while (conflict != null) {
+					if (conflict.waiters == null) {
+						conflict.waiters = new ArrayList<Condition>(1);
+					}
+					conflict.waiters.add(condition);
+					try {
+						// the range is released by unlock, which signals us
+						while (!conflict.released) {
+							condition.await();
+						}
+					} catch (InterruptedException e) {
+						if (conflict.waiters != null) {
+							conflict.waiters.remove(condition);
+						}
+						return null;
+					}
+					conflict = findConflict(root, fromKey, toKey, id);
 				}
-				
-				try {
-					lockInternal.wait();
-				} catch (InterruptedException e) {
-					return null;
+			} finally {
+				waiting--;
+				waitNanos += System.nanoTime() - start;
+			}
+			return insert(fromKey, toKey, id);
+		} finally {
+			lockInternal.unlock();
+		}
+	}
+
+	public void unlock(RangeLock<?>.Range lock) {
+		lockInternal.lock();
+		try {
+			if (lock.released) {
+				return;
+			}
+			@SuppressWarnings("unchecked")
+			final Range range = (Range) lock;
+			root = remove(root, range);
+			range.released = true;
+			size -= boundaries(range);
+			if (range.waiters != null) {
+				for (final Condition condition : range.waiters) {
+					condition.signal();
 				}
+				range.waiters = null;
 			}
-        	
-        	cache.put(fromKey, id);
-        	cache.put(toKey, id);
-        }
-		return new Range(fromKey, toKey, this);
+		} finally {
+			lockInternal.unlock();
+		}
 	}
 
-	//make a copy!
-	private Collection<Long> intersection(final Collection<Long> before,
-			final Collection<Long> after) {
-		final Collection<Long> intersection = new ArrayList<Long>(before);
-		intersection.retainAll(after);
-		return intersection;
+	/**
+	 * @return The number of boundary keys currently held. A range counts as two
+	 *         keys, a range with the same lower and upper bound as one key.
+	 */
+	public int size() {
+		lockInternal.lock();
+		try {
+			return size;
+		} finally {
+			lockInternal.unlock();
+		}
 	}
 
-	public void unlock(RangeLock<?>.Range lock) {
-		synchronized (lockInternal) {
-			cache.remove(lock.fromKey);
-			cache.remove(lock.toKey);
-			lockInternal.notifyAll();
-	    }
+	/**
+	 * @return The number of successful lock and tryLock calls
+	 */
+	public long lockCount() {
+		lockInternal.lock();
+		try {
+			return lockCount;
+		} finally {
+			lockInternal.unlock();
+		}
 	}
-	
-	public int size() {
-		synchronized (lockInternal) {
-			return cache.size();
+
+	/**
+	 * @return The number of lock calls that had to wait for another thread
+	 */
+	public long contendedCount() {
+		lockInternal.lock();
+		try {
+			return contendedCount;
+		} finally {
+			lockInternal.unlock();
 		}
 	}
-	
-	private static int sizeFiltered(final long id, final NavigableMap<?, Long> subMap) {
-		int counter = 0;
-		for(final long longValue:subMap.values()) {
-			if(longValue != id) {
-				counter ++;
-			}
+
+	/**
+	 * @return The number of tryLock calls that returned null
+	 */
+	public long failedTryLockCount() {
+		lockInternal.lock();
+		try {
+			return failedTryLockCount;
+		} finally {
+			lockInternal.unlock();
 		}
-		return counter;
 	}
-	
-	private static int sizeFiltered(final long id, final Collection<Long> intersection) {
-		int counter = 0;
-		for(final long longValue:intersection) {
-			if(longValue != id) {
-				counter ++;
+
+	/**
+	 * @param unit
+	 *            The time unit of the return value
+	 * @return The accumulated time threads waited for conflicting ranges
+	 */
+	public long waitTime(TimeUnit unit) {
+		lockInternal.lock();
+		try {
+			return unit.convert(waitNanos, TimeUnit.NANOSECONDS);
+		} finally {
+			lockInternal.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of threads currently waiting for a range
+	 */
+	public int waiting() {
+		lockInternal.lock();
+		try {
+			return waiting;
+		} finally {
+			lockInternal.unlock();
+		}
+	}
+
+	private Range insert(final K fromKey, final K toKey, final long id) {
+		final Range range = new Range(fromKey, toKey, id, this);
+		range.seq = sequence++;
+		range.priority = rnd.nextInt();
+		range.maxKey = toKey;
+		root = insert(root, range);
+		size += boundaries(range);
+		lockCount++;
+		return range;
+	}
+
+	private int boundaries(final Range range) {
+		return range.fromKey.compareTo(range.toKey) == 0 ? 1 : 2;
+	}
+
+	/**
+	 * Searches for a range that overlaps with [fromKey, toKey] and is owned by
+	 * another thread. Subtrees whose max upper bound is smaller than fromKey
+	 * are skipped.
+	 */
+	private Range findConflict(final Range node, final K fromKey, final K toKey, final long id) {
+		if (node == null || node.maxKey.compareTo(fromKey) < 0) {
+			return null;
+		}
+		final Range left = findConflict(node.left, fromKey, toKey, id);
+		if (left != null) {
+			return left;
+		}
+		if (node.fromKey.compareTo(toKey) > 0) {
+			// everything on the right starts after toKey
+			return null;
+		}
+		if (node.owner != id && node.toKey.compareTo(fromKey) >= 0) {
+			return node;
+		}
+		return findConflict(node.right, fromKey, toKey, id);
+	}
+
+	private int compare(final Range r1, final Range r2) {
+		final int diff = r1.fromKey.compareTo(r2.fromKey);
+		if (diff != 0) {
+			return diff;
+		}
+		return r1.seq < r2.seq ? -1 : (r1.seq == r2.seq ? 0 : 1);
+	}
+
+	private Range insert(final Range node, final Range range) {
+		if (node == null) {
+			return range;
+		}
+		if (compare(range, node) < 0) {
+			node.left = insert(node.left, range);
+			if (node.left.priority > node.priority) {
+				return rotateRight(node);
+			}
+		} else {
+			node.right = insert(node.right, range);
+			if (node.right.priority > node.priority) {
+				return rotateLeft(node);
 			}
 		}
-		return counter;
+		update(node);
+		return node;
+	}
+
+	private Range remove(final Range node, final Range range) {
+		if (node == null) {
+			return null;
+		}
+		final int diff = compare(range, node);
+		if (diff < 0) {
+			node.left = remove(node.left, range);
+		} else if (diff > 0) {
+			node.right = remove(node.right, range);
+		} else {
+			final Range merged = merge(node.left, node.right);
+			node.left = null;
+			node.right = null;
+			return merged;
+		}
+		update(node);
+		return node;
+	}
+
+	private Range merge(final Range left, final Range right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			update(left);
+			return left;
+		} else {
+			right.left = merge(left, right.left);
+			update(right);
+			return right;
+		}
+	}
+
+	private Range rotateRight(final Range node) {
+		final Range pivot = node.left;
+		node.left = pivot.right;
+		pivot.right = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private Range rotateLeft(final Range node) {
+		final Range pivot = node.right;
+		node.right = pivot.left;
+		pivot.left = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private void update(final Range node) {
+		K max = node.toKey;
+		if (node.left != null && node.left.maxKey.compareTo(max) > 0) {
+			max = node.left.maxKey;
+		}
+		if (node.right != null && node.right.maxKey.compareTo(max) > 0) {
+			max = node.right.maxKey;
+		}
+		node.maxKey = max;
 	}
 }
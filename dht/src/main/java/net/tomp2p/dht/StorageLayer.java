@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import java.security.PublicKey;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -73,6 +74,8 @@ public class StorageLayer implements DigestStorage {
 	final private Storage backend;
 	final int maxVersions;
 
+	final private List<StorageListener> storageListeners = new CopyOnWriteArrayList<StorageListener>();
+
 	public StorageLayer(Storage backend) {
 		this.backend = backend;
 		this.maxVersions = -1;
@@ -123,6 +126,32 @@ public class StorageLayer implements DigestStorage {
 		return protectionEntryEnable;
 	}
 
+	public StorageLayer addStorageListener(StorageListener storageListener) {
+		storageListeners.add(storageListener);
+		return this;
+	}
+
+	public StorageLayer removeStorageListener(StorageListener storageListener) {
+		storageListeners.remove(storageListener);
+		return this;
+	}
+
+	private void notifyPut(Number640 key, Data data) {
+		// prepared values are announced once they are confirmed
+		if (data.hasPrepareFlag()) {
+			return;
+		}
+		for (StorageListener storageListener : storageListeners) {
+			storageListener.dataPut(key, data);
+		}
+	}
+
+	private void notifyRemoved(Number640 key) {
+		for (StorageListener storageListener : storageListeners) {
+			storageListener.dataRemoved(key);
+		}
+	}
+
 	public void removeDomainProtection(Number160 removeDomain) {
 		removedDomains.add(removeDomain);
 	}
@@ -227,6 +256,7 @@ public class StorageLayer implements DigestStorage {
 				}
 				
 				final Data oldDataPut = backend.put(key, newData);
+				notifyPut(key, newData);
 				
 				long expiration = newData.expirationMillis();
 				// handle timeout
@@ -271,6 +301,7 @@ public class StorageLayer implements DigestStorage {
 						Data removed = backend.remove(entry.getKey(), true);
 						if(removed != null) {
 							removed.release();
+							notifyRemoved(entry.getKey());
 						}
 						backend.removeTimeout(entry.getKey());
 					}
@@ -310,6 +341,7 @@ public class StorageLayer implements DigestStorage {
 			}
 			backend.removeTimeout(key);
 			Data removed = backend.remove(key, returnData);
+			notifyRemoved(key);
 			if(removed != null && !returnData) {
 				removed.release();
 			}
@@ -528,6 +560,7 @@ public class StorageLayer implements DigestStorage {
 					if (toRemove!= null && (toRemove.publicKey() == null || toRemove.publicKey().equals(publicKey))) {
 						backend.removeTimeout(key);
 						Data removed = backend.remove(key, true);
+						notifyRemoved(key);
 						result.put(key, removed);
 					}
 				}
@@ -566,6 +599,7 @@ public class StorageLayer implements DigestStorage {
 				if(oldData != null) {
 					oldData.release();
 				}
+				notifyRemoved(key);
 				backend.removeTimeout(key);
 				// remove responsibility if we don't have any data stored under
 				// locationkey
@@ -825,6 +859,7 @@ public class StorageLayer implements DigestStorage {
 							entry.getValue().release();
 						}
 						backend.removeTimeout(entry.getKey());
+						notifyRemoved(entry.getKey());
 					}
 				} finally {
 					lock.unlock();
@@ -918,6 +953,7 @@ public class StorageLayer implements DigestStorage {
 				// handle timeout
 				backend.addTimeout(key, expiration);
 				backend.put(key, data);
+				notifyPut(key, data);
 				//don't release data as we just update
 				return PutStatus.OK;
 			} else {
@@ -0,0 +1,30 @@
+package net.tomp2p.dht;
+
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+/**
+ * Gets notified by the {@link StorageLayer} about every value that is stored or
+ * removed. The methods are called while the key is locked, so they have to
+ * return quickly.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public interface StorageListener {
+
+	/**
+	 * @param key
+	 *            The key of the value, an existing value was replaced
+	 * @param data
+	 *            The stored value
+	 */
+	void dataPut(Number640 key, Data data);
+
+	/**
+	 * @param key
+	 *            The key of the removed value
+	 */
+	void dataRemoved(Number640 key);
+
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.dht;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number480;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A storage that keeps the keys, the timeouts and the values in direct memory,
+ * so that a peer with many entries does not suffer from long GC pauses. The
+ * keys and timeouts are stored in sorted {@link OffHeapIndex}es, the encoded
+ * values in slots of an {@link OffHeapArena}. The heap only holds a reference
+ * per index page and per arena chunk.
+ * <p>
+ * As opposed to {@link StorageMemory}, {@link #get(Number640)},
+ * {@link #subMap(Number640, Number640)} and {@link #map()} return copies of
+ * the values that are decoded on every call, and the maps are snapshots and not
+ * views. Domain and entry protection as well as responsibilities are kept on
+ * the heap, as they are per domain and location and not per entry.
+ *
+ * @author Thomas Bocek
+ */
+public class StorageOffHeap implements Storage {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StorageOffHeap.class);
+
+	private static final int PAGE_CAPACITY = 128;
+	private static final int KEY_SIZE = Number640.BYTE_ARRAY_SIZE;
+	// expiration + key
+	private static final int TIMEOUT_KEY_SIZE = 8 + KEY_SIZE;
+
+	private static final Number640 MIN_KEY = Number640.ZERO;
+	private static final Number640 MAX_KEY = new Number640(Number160.MAX_VALUE, Number160.MAX_VALUE,
+	        Number160.MAX_VALUE, Number160.MAX_VALUE);
+
+	private final SignatureFactory signatureFactory;
+
+	// Core, key to handle of the slot in the arena
+	private final OffHeapIndex dataIndex;
+	private final OffHeapArena arena;
+
+	// Maintenance, key to expiration and expiration + key to nothing
+	private final OffHeapIndex timeoutIndex;
+	private final OffHeapIndex timeoutIndexRev;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Lock readLock = lock.readLock();
+	private final Lock writeLock = lock.writeLock();
+
+	// Protection
+	private final Map<Number320, PublicKey> protectedMap = new ConcurrentHashMap<Number320, PublicKey>();
+	private final Map<Number480, PublicKey> entryMap = new ConcurrentHashMap<Number480, PublicKey>();
+
+	// Responsibility
+	private final Map<Number160, Number160> responsibilityMap = new ConcurrentHashMap<Number160, Number160>();
+	private final Map<Number160, Set<Number160>> responsibilityMapRev = new ConcurrentHashMap<Number160, Set<Number160>>();
+
+	private final int storageCheckIntervalMillis;
+
+	public StorageOffHeap(SignatureFactory signatureFactory) {
+		this(signatureFactory, StorageMemory.DEFAULT_STORAGE_CHECK_INTERVAL, PooledByteBufAllocator.DEFAULT);
+	}
+
+	/**
+	 * @param signatureFactory
+	 *            The signature factory to encode and decode the values
+	 * @param storageCheckIntervalMillis
+	 *            The interval to check for expired data
+	 * @param allocator
+	 *            The allocator for the direct memory
+	 */
+	public StorageOffHeap(SignatureFactory signatureFactory, int storageCheckIntervalMillis,
+	        ByteBufAllocator allocator) {
+		this.signatureFactory = signatureFactory;
+		this.storageCheckIntervalMillis = storageCheckIntervalMillis;
+		this.dataIndex = new OffHeapIndex(KEY_SIZE, PAGE_CAPACITY, allocator);
+		this.arena = new OffHeapArena(allocator);
+		this.timeoutIndex = new OffHeapIndex(KEY_SIZE, PAGE_CAPACITY, allocator);
+		this.timeoutIndexRev = new OffHeapIndex(TIMEOUT_KEY_SIZE, PAGE_CAPACITY, allocator);
+	}
+
+	// Core
+	@Override
+	public Data put(Number640 key, Data value) {
+		final ByteBuf header = Unpooled.buffer();
+		final ByteBuf signature = Unpooled.buffer();
+		try {
+			value.encodeHeader(header, signatureFactory);
+			value.encodeDone(signature, signatureFactory);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Could not encode the value for " + key, e);
+		}
+		final int length = header.readableBytes() + value.length() + signature.readableBytes();
+		final ByteBuf keyBuf = encode(key);
+		writeLock.lock();
+		try {
+			final long handle = arena.allocate(length);
+			final ByteBuf chunk = arena.chunk(handle);
+			int index = arena.payloadIndex(handle);
+			chunk.setBytes(index, header, header.readerIndex(), header.readableBytes());
+			index += header.readableBytes();
+			final ByteBuf payload = value.buffer();
+			chunk.setBytes(index, payload, payload.readerIndex(), payload.readableBytes());
+			index += payload.readableBytes();
+			chunk.setBytes(index, signature, signature.readerIndex(), signature.readableBytes());
+
+			final long oldHandle = dataIndex.put(keyBuf, handle);
+			if (oldHandle == OffHeapIndex.NOT_FOUND) {
+				return null;
+			}
+			final Data oldData = decode(oldHandle);
+			arena.free(oldHandle);
+			return oldData;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public Data get(Number640 key) {
+		final ByteBuf keyBuf = encode(key);
+		readLock.lock();
+		try {
+			final long handle = dataIndex.get(keyBuf);
+			return handle == OffHeapIndex.NOT_FOUND ? null : decode(handle);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(Number640 key) {
+		final ByteBuf keyBuf = encode(key);
+		readLock.lock();
+		try {
+			return dataIndex.get(keyBuf) != OffHeapIndex.NOT_FOUND;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public int contains(Number640 fromKey, Number640 toKey) {
+		final int[] counter = new int[1];
+		readLock.lock();
+		try {
+			dataIndex.range(encode(fromKey), encode(toKey), new OffHeapIndex.Visitor() {
+				@Override
+				public boolean visit(ByteBuf page, int index) {
+					counter[0]++;
+					return true;
+				}
+			});
+		} finally {
+			readLock.unlock();
+		}
+		return counter[0];
+	}
+
+	@Override
+	public Data remove(Number640 key, boolean returnData) {
+		final ByteBuf keyBuf = encode(key);
+		writeLock.lock();
+		try {
+			final long handle = dataIndex.remove(keyBuf);
+			if (handle == OffHeapIndex.NOT_FOUND) {
+				return null;
+			}
+			// the caller may only check for null
+			final Data oldData = returnData ? decode(handle) : new Data();
+			arena.free(handle);
+			return oldData;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public NavigableMap<Number640, Data> remove(Number640 fromKey, Number640 toKey) {
+		writeLock.lock();
+		try {
+			final NavigableMap<Number640, Data> retVal = subMap(fromKey, toKey);
+			for (Number640 key : retVal.keySet()) {
+				arena.free(dataIndex.remove(encode(key)));
+			}
+			return retVal;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public NavigableMap<Number640, Data> subMap(Number640 fromKey, Number640 toKey) {
+		final NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+		readLock.lock();
+		try {
+			dataIndex.range(encode(fromKey), encode(toKey), new OffHeapIndex.Visitor() {
+				@Override
+				public boolean visit(ByteBuf page, int index) {
+					retVal.put(Number640.decode(page.slice(index, KEY_SIZE)), decode(page.getLong(index + KEY_SIZE)));
+					return true;
+				}
+			});
+		} finally {
+			readLock.unlock();
+		}
+		return retVal;
+	}
+
+	@Override
+	public NavigableMap<Number640, Data> map() {
+		return subMap(MIN_KEY, MAX_KEY);
+	}
+
+	/**
+	 * @return The number of entries
+	 */
+	public long size() {
+		readLock.lock();
+		try {
+			return dataIndex.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of bytes allocated in direct memory for the indexes
+	 *         and the values
+	 */
+	public long offHeapBytes() {
+		readLock.lock();
+		try {
+			return dataIndex.capacity() + timeoutIndex.capacity() + timeoutIndexRev.capacity() + arena.allocated();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	// Maintenance
+	@Override
+	public void addTimeout(Number640 key, long expiration) {
+		final ByteBuf keyBuf = encode(key);
+		writeLock.lock();
+		try {
+			final long oldExpiration = timeoutIndex.put(keyBuf, expiration);
+			if (oldExpiration != OffHeapIndex.NOT_FOUND) {
+				timeoutIndexRev.remove(encodeTimeout(oldExpiration, key));
+			}
+			timeoutIndexRev.put(encodeTimeout(expiration, key), 0);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void removeTimeout(Number640 key) {
+		final ByteBuf keyBuf = encode(key);
+		writeLock.lock();
+		try {
+			final long expiration = timeoutIndex.remove(keyBuf);
+			if (expiration != OffHeapIndex.NOT_FOUND) {
+				timeoutIndexRev.remove(encodeTimeout(expiration, key));
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public Collection<Number640> subMapTimeout(long to) {
+		final List<Number640> toRemove = new ArrayList<Number640>();
+		if (to <= 0) {
+			return toRemove;
+		}
+		readLock.lock();
+		try {
+			timeoutIndexRev.range(encodeTimeout(0, MIN_KEY), encodeTimeout(to - 1, MAX_KEY),
+			        new OffHeapIndex.Visitor() {
+				        @Override
+				        public boolean visit(ByteBuf page, int index) {
+					        toRemove.add(Number640.decode(page.slice(index + 8, KEY_SIZE)));
+					        return true;
+				        }
+			        });
+		} finally {
+			readLock.unlock();
+		}
+		return toRemove;
+	}
+
+	@Override
+	public int storageCheckIntervalMillis() {
+		return storageCheckIntervalMillis;
+	}
+
+	// Protection
+	@Override
+	public boolean protectDomain(Number320 key, PublicKey publicKey) {
+		protectedMap.put(key, publicKey);
+		return true;
+	}
+
+	@Override
+	public boolean isDomainProtectedByOthers(Number320 key, PublicKey publicKey) {
+		PublicKey other = protectedMap.get(key);
+		if (other == null) {
+			LOG.debug("domain {} not protected", key);
+			return false;
+		}
+		final boolean retVal = !other.equals(publicKey);
+		LOG.debug("domain {} protected: {}", key, retVal);
+		return retVal;
+	}
+
+	@Override
+	public boolean protectEntry(Number480 key, PublicKey publicKey) {
+		entryMap.put(key, publicKey);
+		return true;
+	}
+
+	@Override
+	public boolean isEntryProtectedByOthers(Number480 key, PublicKey publicKey) {
+		PublicKey other = entryMap.get(key);
+		if (other == null) {
+			return false;
+		}
+		return !other.equals(publicKey);
+	}
+
+	// Responsibility
+	@Override
+	public Number160 findPeerIDsForResponsibleContent(Number160 locationKey) {
+		return responsibilityMap.get(locationKey);
+	}
+
+	@Override
+	public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
+		return responsibilityMapRev.get(peerID);
+	}
+
+	@Override
+	public boolean updateResponsibilities(Number160 locationKey, Number160 peerId) {
+		final Number160 oldPeerID = responsibilityMap.put(locationKey, peerId);
+		final boolean hasChanged;
+		if (oldPeerID != null) {
+			if (oldPeerID.equals(peerId)) {
+				hasChanged = false;
+			} else {
+				removeRevResponsibility(oldPeerID, locationKey);
+				hasChanged = true;
+			}
+		} else {
+			hasChanged = true;
+		}
+		Set<Number160> contentIDs = responsibilityMapRev.get(peerId);
+		if (contentIDs == null) {
+			contentIDs = Collections.newSetFromMap(new ConcurrentHashMap<Number160, Boolean>());
+			responsibilityMapRev.put(peerId, contentIDs);
+		}
+		contentIDs.add(locationKey);
+		LOG.debug("Update {} is responsible for key {}.", peerId, locationKey);
+		return hasChanged;
+	}
+
+	@Override
+	public void removeResponsibility(Number160 locationKey) {
+		Number160 peerId = responsibilityMap.remove(locationKey);
+		if (peerId != null) {
+			removeRevResponsibility(peerId, locationKey);
+			LOG.debug("Remove responsibility for {}.", locationKey);
+		}
+	}
+
+	private void removeRevResponsibility(Number160 peerId, Number160 locationKey) {
+		Set<Number160> contentIDs = responsibilityMapRev.get(peerId);
+		if (contentIDs != null) {
+			contentIDs.remove(locationKey);
+			if (contentIDs.isEmpty()) {
+				responsibilityMapRev.remove(peerId);
+			}
+		}
+	}
+
+	// Misc
+	@Override
+	public void close() {
+		writeLock.lock();
+		try {
+			dataIndex.clear();
+			arena.clear();
+			timeoutIndex.clear();
+			timeoutIndexRev.clear();
+		} finally {
+			writeLock.unlock();
+		}
+		protectedMap.clear();
+		entryMap.clear();
+	}
+
+	/**
+	 * Decodes a value to the heap, needs to be called with a lock held.
+	 */
+	private Data decode(final long handle) {
+		final ByteBuf chunk = arena.chunk(handle);
+		final ByteBuf buf = chunk.slice(arena.payloadIndex(handle), arena.length(handle));
+		final Data data = Data.decodeHeader(buf, signatureFactory);
+		if (data == null || !data.decodeBuffer(buf) || !data.decodeDone(buf, signatureFactory)) {
+			throw new IllegalStateException("Corrupt value in slot " + handle);
+		}
+		return data;
+	}
+
+	private static ByteBuf encode(final Number640 key) {
+		final ByteBuf buf = Unpooled.buffer(KEY_SIZE, KEY_SIZE);
+		key.encode(buf);
+		return buf;
+	}
+
+	private static ByteBuf encodeTimeout(final long expiration, final Number640 key) {
+		final ByteBuf buf = Unpooled.buffer(TIMEOUT_KEY_SIZE, TIMEOUT_KEY_SIZE);
+		// flip the sign, so that the unsigned order is the order of the longs
+		buf.writeLong(expiration ^ Long.MIN_VALUE);
+		key.encode(buf);
+		return buf;
+	}
+}
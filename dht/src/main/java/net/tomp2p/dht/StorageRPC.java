@@ -226,6 +226,40 @@ public class StorageRPC extends DispatchHandler {
 
     }
     
+    /**
+     * Stores the data of many location keys on a peer with one message. This is an RPC.
+     * 
+     * @param remotePeer
+     *            The remote peer to store the data
+     * @param putAllBuilder
+     *            The options of the put
+     * @param dataMap
+     *            The data of the location keys this peer is responsible for
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse putAll(final PeerAddress remotePeer, final PutAllBuilder putAllBuilder,
+            final NavigableMap<Number640, Data> dataMap, final ChannelCreator channelCreator) {
+        Utils.nullCheck(remotePeer);
+        final Message message = createMessage(remotePeer, RPC.Commands.PUT.getNr(), Type.REQUEST_1);
+
+        if (putAllBuilder.isSign()) {
+            message.publicKeyAndSign(putAllBuilder.keyPair());
+        }
+
+        message.setDataMap(new DataMap(dataMap));
+
+        final FutureResponse futureResponse = new FutureResponse(message);
+        final RequestHandler request = new RequestHandler(futureResponse,
+                peerBean(), connectionBean(), putAllBuilder);
+        if (!putAllBuilder.isForceUDP()) {
+            return request.sendTCP(channelCreator);
+        } else {
+            return request.sendUDP(channelCreator);
+        }
+    }
+
     public FutureResponse putMeta(final PeerAddress remotePeer, final PutBuilder putBuilder, 
             final ChannelCreator channelCreator) {
 
@@ -544,6 +578,56 @@ public class StorageRPC extends DispatchHandler {
         }
     }
 
+    /**
+     * Gets the data of many location keys from a peer with one message. This is an RPC.
+     * 
+     * @param remotePeer
+     *            The remote peer to send this request
+     * @param getAllBuilder
+     *            The domain, content and version key, and if all content keys are requested
+     * @param locationKeys
+     *            The location keys this peer is responsible for
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse getAll(final PeerAddress remotePeer, final GetAllBuilder getAllBuilder,
+            final Collection<Number160> locationKeys, final ChannelCreator channelCreator) {
+        final Message message = createMessage(remotePeer, RPC.Commands.GET.getNr(), Type.REQUEST_1);
+
+        if (getAllBuilder.isSign()) {
+            message.publicKeyAndSign(getAllBuilder.keyPair());
+        }
+
+        final Number160 domainKey = getAllBuilder.domainKey();
+        final Collection<Number640> keys;
+        if (getAllBuilder.isAll()) {
+            // one range per location key, without a limit
+            keys = new ArrayList<Number640>(locationKeys.size() * 2);
+            for (Number160 locationKey : locationKeys) {
+                keys.add(new Number640(locationKey, domainKey, Number160.ZERO, Number160.ZERO));
+                keys.add(new Number640(locationKey, domainKey, Number160.MAX_VALUE, Number160.MAX_VALUE));
+            }
+            message.intValue(-1);
+        } else {
+            keys = new ArrayList<Number640>(locationKeys.size());
+            for (Number160 locationKey : locationKeys) {
+                keys.add(new Number640(locationKey, domainKey, getAllBuilder.contentKey(), getAllBuilder
+                        .versionKey()));
+            }
+        }
+        message.keyCollection(new KeyCollection(keys));
+
+        final FutureResponse futureResponse = new FutureResponse(message);
+        final RequestHandler request = new RequestHandler(futureResponse,
+                peerBean(), connectionBean(), getAllBuilder);
+        if (!getAllBuilder.isForceUDP()) {
+            return request.sendTCP(channelCreator);
+        } else {
+            return request.sendUDP(channelCreator);
+        }
+    }
+
 	public FutureResponse getLatest(final PeerAddress remotePeer, final GetBuilder getBuilder,
 			final ChannelCreator channelCreator, final RPC.Commands command) {
 		final Type type = Type.REQUEST_1;
@@ -864,6 +948,12 @@ public class StorageRPC extends DispatchHandler {
             Number640 min = iterator.next();
             Number640 max = iterator.next();
             result = storageLayer.get(min, max, limit, ascending);
+            // a bulk get sends one min/max pair per location key
+            while (iterator.hasNext()) {
+                min = iterator.next();
+                max = iterator.next();
+                result.putAll(storageLayer.get(min, max, limit, ascending));
+            }
 
         } else if (contentKeyBloomFilter != null && versionBloomFilter != null && contentBloomFilter !=null
         		&& (!contentKeyBloomFilter.isFull() || !versionBloomFilter.isFull() || !contentBloomFilter.isFull())) {
@@ -2319,6 +2319,97 @@ public class TestDHT {
 		});
 	}
 
+	@Test
+	public void testPutAllGetAll() throws Exception {
+		PeerDHT master = null;
+		try {
+			// setup
+			PeerDHT[] peers = UtilsDHT2.createNodes(100, rnd, 4001);
+			master = peers[0];
+			UtilsDHT2.perfectRouting(peers);
+			// do testing
+			Map<Number640, Data> dataMap = new HashMap<Number640, Data>();
+			List<Number160> locationKeys = new ArrayList<Number160>();
+			for (int i = 0; i < 1000; i++) {
+				Number160 locationKey = new Number160(rnd);
+				locationKeys.add(locationKey);
+				dataMap.put(new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO), new Data(i));
+			}
+			FutureBulk<Byte> futurePut = peers[12].putAll(dataMap).start();
+			futurePut.awaitUninterruptibly();
+			Assert.assertEquals(true, futurePut.isSuccess());
+			Assert.assertEquals(1000, futurePut.dataMap().size());
+			// one message per peer and not per key and peer
+			Assert.assertTrue(futurePut.messages() <= peers.length);
+			// the data is where a single get finds it
+			FutureGet futureGet = peers[33].get(locationKeys.get(42)).start();
+			futureGet.awaitUninterruptibly();
+			Assert.assertEquals(true, futureGet.isSuccess());
+			Assert.assertEquals(42, futureGet.data().object());
+			// get it back in batches
+			FutureBulk<Data> futureGetAll = peers[24].getAll(locationKeys).batchSize(100).start();
+			futureGetAll.awaitUninterruptibly();
+			Assert.assertEquals(true, futureGetAll.isSuccess());
+			Map<Number640, Data> result = futureGetAll.dataMap();
+			Assert.assertEquals(1000, result.size());
+			for (int i = 0; i < 1000; i++) {
+				Assert.assertEquals(i, result.get(new Number640(locationKeys.get(i), Number160.ZERO, Number160.ZERO,
+				        Number160.ZERO)).object());
+			}
+			Assert.assertTrue(futureGetAll.messages() < 1000);
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testGetAllContentKeys() throws Exception {
+		PeerDHT master = null;
+		try {
+			// setup
+			PeerDHT[] peers = UtilsDHT2.createNodes(100, rnd, 4001);
+			master = peers[0];
+			UtilsDHT2.perfectRouting(peers);
+			// do testing
+			Number160 domainKey = Number160.createHash("domain");
+			Map<Number640, Data> dataMap = new HashMap<Number640, Data>();
+			List<Number160> locationKeys = new ArrayList<Number160>();
+			for (int i = 0; i < 50; i++) {
+				Number160 locationKey = new Number160(rnd);
+				locationKeys.add(locationKey);
+				for (int j = 0; j < 3; j++) {
+					dataMap.put(new Number640(locationKey, domainKey, new Number160(j), Number160.ZERO),
+					        new Data(j));
+				}
+			}
+			FutureBulk<Byte> futurePut = peers[12].putAll(dataMap).start();
+			futurePut.awaitUninterruptibly();
+			Assert.assertEquals(true, futurePut.isSuccess());
+			// only content key 1
+			FutureBulk<Data> futureGetAll = peers[24].getAll(locationKeys).domainKey(domainKey)
+			        .contentKey(Number160.ONE).start();
+			futureGetAll.awaitUninterruptibly();
+			Assert.assertEquals(true, futureGetAll.isSuccess());
+			Assert.assertEquals(50, futureGetAll.dataMap().size());
+			// all content keys
+			futureGetAll = peers[24].getAll(locationKeys).domainKey(domainKey).all().start();
+			futureGetAll.awaitUninterruptibly();
+			Assert.assertEquals(true, futureGetAll.isSuccess());
+			Assert.assertEquals(150, futureGetAll.dataMap().size());
+			// nothing in the default domain
+			futureGetAll = peers[24].getAll(locationKeys).all().start();
+			futureGetAll.awaitUninterruptibly();
+			Assert.assertEquals(true, futureGetAll.isSuccess());
+			Assert.assertEquals(0, futureGetAll.dataMap().size());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
 	private void send1(final PeerDHT p1, final PeerDHT p2, final byte[] toStore1, final int count) throws IOException {
 		if (count == 0) {
 			return;
@@ -139,4 +139,60 @@ public class TestRangeLock {
 		Assert.assertEquals(0, r.size());
 		
 	}
+
+	@Test
+	public void testSameThreadOverlapping() throws InterruptedException {
+		final RangeLock<Integer> r = new RangeLock<Integer>();
+		RangeLock<Integer>.Range lock1 = r.lock(1, 10);
+		RangeLock<Integer>.Range lock2 = r.lock(5, 5);
+		RangeLock<Integer>.Range lock3 = r.tryLock(2, 20);
+		Assert.assertNotNull(lock3);
+		Assert.assertEquals(5, r.size());
+		r.unlock(lock1);
+		r.unlock(lock3);
+		Assert.assertEquals(1, r.size());
+		r.unlock(lock2);
+		Assert.assertEquals(0, r.size());
+		Assert.assertEquals(3, r.lockCount());
+		Assert.assertEquals(0, r.contendedCount());
+	}
+
+	@Test
+	public void testWakeOnlyConflicting() throws InterruptedException {
+		final RangeLock<Integer> r = new RangeLock<Integer>();
+		final RangeLock<Integer>.Range lock1 = r.lock(1, 2);
+		final RangeLock<Integer>.Range lock2 = r.lock(5, 6);
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch cd1 = new CountDownLatch(1);
+		final CountDownLatch cd2 = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				r.lock(2, 3).unlock();
+				cd1.countDown();
+			}
+		}).start();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				r.lock(6, 6).unlock();
+				cd2.countDown();
+			}
+		}).start();
+		started.await();
+		while (r.waiting() != 2) {
+			Thread.sleep(10);
+		}
+		r.unlock(lock2);
+		cd2.await();
+		Assert.assertEquals(1, cd1.getCount());
+		Assert.assertEquals(1, r.waiting());
+		r.unlock(lock1);
+		cd1.await();
+		Assert.assertEquals(0, r.size());
+		Assert.assertEquals(2, r.contendedCount());
+		Assert.assertEquals(0, r.waiting());
+	}
 }
@@ -0,0 +1,79 @@
+package net.tomp2p.dht;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class TestStorageOffHeap extends TestStorage {
+
+	@Override
+	public Storage createStorage() throws IOException {
+		return new StorageOffHeap(new DSASignatureFactory());
+	}
+
+	@Test
+	public void testManyEntries() throws Exception {
+		StorageOffHeap storage = new StorageOffHeap(new DSASignatureFactory());
+		NavigableMap<Number640, Data> expected = new TreeMap<Number640, Data>();
+		Random rnd = new Random(42);
+		// enough entries to split the index pages several times
+		for (int i = 0; i < 2000; i++) {
+			Number640 key = new Number640(new Number160(rnd.nextInt(50)), Number160.ZERO, new Number160(rnd),
+			        Number160.ZERO);
+			// values of different size classes
+			Data data = new Data(new byte[rnd.nextInt(2000)]);
+			storage.put(key, data);
+			expected.put(key, data);
+		}
+		Assert.assertEquals(expected.size(), storage.size());
+		Assert.assertEquals(expected, storage.map());
+
+		Number640 from = new Number640(new Number160(10), Number160.ZERO, Number160.ZERO, Number160.ZERO);
+		Number640 to = new Number640(new Number160(20), Number160.MAX_VALUE, Number160.MAX_VALUE,
+		        Number160.MAX_VALUE);
+		Assert.assertEquals(expected.subMap(from, true, to, true), storage.subMap(from, to));
+		Assert.assertEquals(expected.subMap(from, true, to, true).size(), storage.contains(from, to));
+
+		NavigableMap<Number640, Data> removed = storage.remove(from, to);
+		Assert.assertEquals(expected.subMap(from, true, to, true), removed);
+		expected.subMap(from, true, to, true).clear();
+		Assert.assertEquals(expected, storage.map());
+
+		for (Number640 key : expected.keySet()) {
+			Assert.assertNotNull(storage.remove(key, true));
+		}
+		Assert.assertEquals(0, storage.size());
+		Assert.assertTrue(storage.map().isEmpty());
+		storage.close();
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		StorageOffHeap storage = new StorageOffHeap(new DSASignatureFactory());
+		Number640 key1 = new Number640(new Number160(1), Number160.ZERO, Number160.ZERO, Number160.ZERO);
+		Number640 key2 = new Number640(new Number160(2), Number160.ZERO, Number160.ZERO, Number160.ZERO);
+		storage.addTimeout(key1, 100);
+		storage.addTimeout(key2, 200);
+		Collection<Number640> expired = storage.subMapTimeout(150);
+		Assert.assertEquals(1, expired.size());
+		Assert.assertTrue(expired.contains(key1));
+		// move key1 after key2
+		storage.addTimeout(key1, 300);
+		Assert.assertEquals(0, storage.subMapTimeout(150).size());
+		Assert.assertEquals(2, storage.subMapTimeout(301).size());
+		storage.removeTimeout(key2);
+		expired = storage.subMapTimeout(Long.MAX_VALUE);
+		Assert.assertEquals(1, expired.size());
+		Assert.assertTrue(expired.contains(key1));
+		storage.close();
+	}
+}
@@ -3,6 +3,7 @@ package net.tomp2p.holep;
 import net.tomp2p.connection.Dispatcher;
 import net.tomp2p.connection.NATHandler;
 import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.TimeoutWheel;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
@@ -17,7 +18,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author Jonas Wagner
@@ -71,9 +71,9 @@ public class NATHandlerImpl implements NATHandler {
     @Override
     public List<FutureResponse> handleRcon(final Dispatcher dispatcher, final Message message,
             final FutureResponse futureResponse, PeerConnection peerConnection, int idleUDPMillis,
-            ScheduledExecutorService executorService) {
+            TimeoutWheel timeoutWheel) {
         int i = 0;
-        dispatcher.addPendingRequest(message.messageId(), futureResponse, idleUDPMillis * 2, executorService);
+        dispatcher.addPendingRequest(message.messageId(), futureResponse, idleUDPMillis * 2, timeoutWheel);
         List<FutureResponse> futures = new ArrayList<FutureResponse>(3);
         for (PeerSocketAddress psa : peerConnection.remotePeer().relays()) {
             Message rconMessage = createRconMessage(psa, message);
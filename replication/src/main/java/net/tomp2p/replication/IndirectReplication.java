@@ -26,6 +26,7 @@ import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.storage.Data;
+import net.tomp2p.synchronization.MerkleSync;
 import net.tomp2p.synchronization.PeerSync;
 import net.tomp2p.utils.Utils;
 import org.slf4j.Logger;
@@ -34,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This implements the default indirect replication.
@@ -53,8 +55,13 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     private int delayMillis = -1;
     private int intervalMillis = -1;
     private boolean rsync = false;
+    private boolean merkle = false;
     private int blockSize = -1;
+    private int maxInFlight = -1;
+    private long maxBytesPerSecond = -1;
     private ReplicationSender replicationSender;
+    private MerkleSync merkleSync;
+    private ReplicationScheduler replicationScheduler;
     private boolean nRoot = false;
     private boolean keepData = false;
     private Replication replication;
@@ -104,6 +111,24 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     	return this;
     }
     
+    public boolean isMerkle() {
+    	return merkle;
+    }
+    
+    public IndirectReplication merkle(boolean merkle) {
+    	this.merkle = merkle;
+    	return this;
+    }
+    
+	/**
+	 * Compare hash trees with the replicas and only send the values they do
+	 * not have. The replicas need to enable this as well.
+	 */
+    public IndirectReplication merkle() {
+    	this.merkle = true;
+    	return this;
+    }
+    
     public boolean isNRoot() {
     	return nRoot;
     }
@@ -180,6 +205,39 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     	return blockSize;
     }
     
+	/**
+	 * The maximum number of location keys that are sent to their replicas at
+	 * the same time. The default is 16.
+	 */
+    public IndirectReplication maxInFlight(int maxInFlight) {
+    	this.maxInFlight = maxInFlight;
+    	return this;
+    }
+    
+    public int maxInFlight() {
+    	return maxInFlight;
+    }
+    
+	/**
+	 * The maximum number of bytes per second sent to replicas by the refresh
+	 * and by peers that left. The default is -1, which means no limit.
+	 */
+    public IndirectReplication maxBytesPerSecond(long maxBytesPerSecond) {
+    	this.maxBytesPerSecond = maxBytesPerSecond;
+    	return this;
+    }
+    
+    public long maxBytesPerSecond() {
+    	return maxBytesPerSecond;
+    }
+    
+    /**
+     * @return The scheduler of the refresh, with the queue depth and lag, or null if not started
+     */
+    public ReplicationScheduler replicationScheduler() {
+    	return replicationScheduler;
+    }
+    
 	public IndirectReplication addReplicationFilter(ReplicationFilter filter) {
 		if (replicationFilters == null) {
 			replicationFilters = new HashSet<ReplicationFilter>(1);
@@ -208,6 +266,9 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
 		if (blockSize == -1) {
 			blockSize = 700;
 		}
+		if (maxInFlight == -1) {
+			maxInFlight = 16;
+		}
     	
     	if(autoReplication) {
     		replicationFactor = new AutoReplication(peer.peer()); 
@@ -239,6 +300,17 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
 		} else if (replicationSender == null) {
 			replicationSender = new DefaultReplicationSender(peer);
 		}
+		if(merkle) {
+			merkleSync = new MerkleSync(peer, replicationSender);
+			replicationSender = merkleSync;
+		}
+    	
+		replicationScheduler = new ReplicationScheduler(new ReplicationScheduler.Sender() {
+			@Override
+			public FutureDone<?> send(final Number160 locationKey, final AtomicLong bytes) {
+				return IndirectReplication.this.send(locationKey, bytes);
+			}
+		}, intervalMillis, maxInFlight, maxBytesPerSecond).start(peer.peer().connectionBean().timer());
     	
     	scheduledFuture = peer.peer().connectionBean().timer().scheduleAtFixedRate(
     			this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
@@ -286,7 +358,8 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     @Override
     public FutureDone<?> meResponsible(final Number160 locationKey) {
         LOG.debug("I ({}) now responsible for {}", peer.peerAddress(), locationKey);
-        return synchronizeData(locationKey);
+        // a replica may be missing, this goes before the refresh
+        return replicationScheduler.urgent(locationKey);
     }
     
     @Override
@@ -304,12 +377,10 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     	try {
     		// we get called every x seconds for content we are responsible for. So
     		// we need to make sure that there are enough copies. The easy way is to
-    		// publish it again... The good way is to do a diff
+    		// publish it again... The good way is to do a diff. The keys are
+    		// sent over the interval, not all at once
     		Collection<Number160> locationKeys = peer.storageLayer().findContentForResponsiblePeerID(peer.peerID());
-        
-    		for (Number160 locationKey : locationKeys) {
-    			synchronizeData(locationKey);
-    		}
+    		replicationScheduler.refresh(locationKeys);
     		// recalculate replication factor
     		int replicationFactor = IndirectReplication.this.replicationFactor.replicationFactor();
     		replication.replicationFactor(replicationFactor);
@@ -326,28 +397,16 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
 		return result;
 	}
 
-    /**
-     * Get the data that I'm responsible for and make sure that there are enough replicas.
-     * 
-     * @param locationKey
-     *            The location key.
-     */
-    private FutureDone<?> synchronizeData(final Number160 locationKey) {
-        return send(locationKey);
-    }
-
     /**
      * If my peer is responsible, I'll issue a put if absent to make sure all replicas are stored.
      * 
      * @param locationKey
      *            The location key
-     * @param domainKey
-     *            The domain key
-     * @param dataMapConverted
-     *            The data to store
-     * @return The future of the put
+     * @param bytes
+     *            The number of bytes sent is added to this counter
+     * @return The future of the put, which is done right away if there is no peer to replicate to
      */
-    protected FutureDone<?> send(final Number160 locationKey) {
+    private FutureDone<?> send(final Number160 locationKey, final AtomicLong bytes) {
         int replicationFactor = replication.replicationFactor() - 1;
         List<PeerAddress> closePeers = new ArrayList<PeerAddress>();
         SortedSet<PeerStatistic> sortedSet = peer.peerBean().peerMap()
@@ -367,6 +426,9 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
             Number640 max = new Number640(locationKey, Number160.MAX_VALUE, Number160.MAX_VALUE,
                     Number160.MAX_VALUE);
             final NavigableMap<Number640, Data> dataMap = peer.storageLayer().get(min, max, -1, true);
+            for (Data data : dataMap.values()) {
+            	bytes.addAndGet(data.length());
+            }
 
             retVal.add(replicationSender.sendDirect(peerStatistic.peerAddress(), locationKey, dataMap));
             if (count == replicationFactor) {
@@ -375,6 +437,10 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
         }
         LOG.debug("[storage refresh] I ({}) restore {} to {}", peer.peerAddress(),
                 locationKey, closePeers);
+        if (retVal.isEmpty()) {
+            // whenAll never completes for an empty list, which would keep the key in flight forever
+            return new FutureDone<Void>().done();
+        }
         return Futures.whenAll(retVal);
     }
     
@@ -382,6 +448,12 @@ public class IndirectReplication implements ResponsibilityListener, Runnable {
     	if(scheduledFuture!=null) {
     		scheduledFuture.cancel(false);
     	}
+    	if(replicationScheduler!=null) {
+    		replicationScheduler.shutdown();
+    	}
+    	if(merkleSync!=null) {
+    		merkleSync.shutdown();
+    	}
     }
 
     private static class DefaultReplicationSender implements ReplicationSender {
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.replication;
+
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.peers.Number160;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads the replication of location keys over time. The periodic refresh of
+ * all keys is sent evenly over the refresh interval instead of all at once.
+ * Keys that lost a replica are urgent and are sent before the refresh. The
+ * number of keys in transfer and the bytes per second are limited, so that
+ * replication does not starve other traffic of connections.
+ *
+ * @author Thomas Bocek
+ */
+public class ReplicationScheduler implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReplicationScheduler.class);
+
+	public static final int TICK_MILLIS = 50;
+
+	/**
+	 * Sends the values of a location key to its replicas.
+	 */
+	public interface Sender {
+		/**
+		 * @param locationKey
+		 *            The location key
+		 * @param bytes
+		 *            The number of bytes of the values that are sent is added
+		 *            to this
+		 * @return The future that is done when the values are sent
+		 */
+		FutureDone<?> send(Number160 locationKey, AtomicLong bytes);
+	}
+
+	private final Sender sender;
+	private final int intervalMillis;
+	private final int maxInFlight;
+	private final long maxBytesPerSecond;
+
+	// in insertion order, thus the first entry has waited the longest
+	private final LinkedHashMap<Number160, Entry> urgent = new LinkedHashMap<Number160, Entry>();
+	private final LinkedHashMap<Number160, Entry> routine = new LinkedHashMap<Number160, Entry>();
+
+	// guarded by this
+	private double routinePerMillis = 0;
+	private double routineAllowance = 0;
+	private double bytesAllowance = 0;
+	private long lastTick;
+	private int inFlight = 0;
+	private boolean shutdown = false;
+
+	private final AtomicLong sentKeys = new AtomicLong();
+	private final AtomicLong sentBytes = new AtomicLong();
+
+	private ScheduledFuture<?> scheduledFuture;
+
+	/**
+	 * @param sender
+	 *            The sender of the values
+	 * @param intervalMillis
+	 *            The refresh of all keys is spread over this time
+	 * @param maxInFlight
+	 *            The maximum number of keys that are sent at the same time
+	 * @param maxBytesPerSecond
+	 *            The maximum number of bytes sent per second, or -1 for no
+	 *            limit. A key is sent as a whole, thus this is an average
+	 */
+	public ReplicationScheduler(final Sender sender, final int intervalMillis, final int maxInFlight,
+			final long maxBytesPerSecond) {
+		this.sender = sender;
+		this.intervalMillis = intervalMillis;
+		this.maxInFlight = maxInFlight;
+		this.maxBytesPerSecond = maxBytesPerSecond;
+		this.lastTick = System.currentTimeMillis();
+	}
+
+	public ReplicationScheduler start(final ScheduledExecutorService timer) {
+		scheduledFuture = timer.scheduleWithFixedDelay(this, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	public void shutdown() {
+		if (scheduledFuture != null) {
+			scheduledFuture.cancel(false);
+		}
+		final Collection<Entry> dropped;
+		synchronized (this) {
+			shutdown = true;
+			dropped = new ArrayList<Entry>(urgent.values());
+			dropped.addAll(routine.values());
+			urgent.clear();
+			routine.clear();
+		}
+		for (Entry entry : dropped) {
+			entry.futureDone.failed("Replication shut down");
+		}
+	}
+
+	/**
+	 * Starts a new refresh round. The keys are sent evenly over the interval.
+	 * Keys that are still waiting from the last round keep their place.
+	 *
+	 * @param locationKeys
+	 *            The keys this peer is responsible for
+	 */
+	public synchronized void refresh(final Collection<Number160> locationKeys) {
+		if (shutdown) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		for (Number160 locationKey : locationKeys) {
+			if (!urgent.containsKey(locationKey) && !routine.containsKey(locationKey)) {
+				routine.put(locationKey, new Entry(locationKey, now));
+			}
+		}
+		routinePerMillis = routine.size() / (double) intervalMillis;
+	}
+
+	/**
+	 * Sends a key before the refresh, e.g., because it lost a replica.
+	 *
+	 * @param locationKey
+	 *            The location key
+	 * @return The future that is done when the values are sent
+	 */
+	public synchronized FutureDone<Void> urgent(final Number160 locationKey) {
+		if (shutdown) {
+			return new FutureDone<Void>().failed("Replication shut down");
+		}
+		Entry entry = urgent.get(locationKey);
+		if (entry == null) {
+			entry = routine.remove(locationKey);
+			if (entry == null) {
+				entry = new Entry(locationKey, System.currentTimeMillis());
+			}
+			urgent.put(locationKey, entry);
+		}
+		return entry.futureDone;
+	}
+
+	@Override
+	public void run() {
+		try {
+			synchronized (this) {
+				final long now = System.currentTimeMillis();
+				final long elapsed = now - lastTick;
+				lastTick = now;
+				// no bursts after a long pause, at most one interval or second
+				routineAllowance = Math.min(routineAllowance + routinePerMillis * elapsed,
+						Math.max(1, routinePerMillis * intervalMillis));
+				if (maxBytesPerSecond >= 0) {
+					bytesAllowance = Math.min(bytesAllowance + maxBytesPerSecond * elapsed / 1000d,
+							maxBytesPerSecond);
+				}
+			}
+			Entry entry;
+			while ((entry = next()) != null) {
+				send(entry);
+			}
+		} catch (Throwable t) {
+			LOG.error("Could not schedule the replication", t);
+		}
+	}
+
+	private synchronized Entry next() {
+		if (inFlight >= maxInFlight || (maxBytesPerSecond >= 0 && bytesAllowance <= 0)) {
+			return null;
+		}
+		final LinkedHashMap<Number160, Entry> queue;
+		if (!urgent.isEmpty()) {
+			queue = urgent;
+		} else if (!routine.isEmpty() && routineAllowance >= 1) {
+			queue = routine;
+			routineAllowance--;
+		} else {
+			return null;
+		}
+		final Iterator<Entry> iterator = queue.values().iterator();
+		final Entry entry = iterator.next();
+		iterator.remove();
+		inFlight++;
+		return entry;
+	}
+
+	private void send(final Entry entry) {
+		final AtomicLong bytes = new AtomicLong();
+		FutureDone<?> futureSend;
+		try {
+			futureSend = sender.send(entry.locationKey, bytes);
+		} catch (Throwable t) {
+			LOG.error("Could not send the replicas of {}", entry.locationKey, t);
+			futureSend = new FutureDone<Void>().failed(t);
+		}
+		synchronized (this) {
+			bytesAllowance -= bytes.get();
+		}
+		sentKeys.incrementAndGet();
+		sentBytes.addAndGet(bytes.get());
+		futureSend.addListener(new BaseFutureAdapter<BaseFuture>() {
+			@Override
+			public void operationComplete(final BaseFuture future) throws Exception {
+				synchronized (ReplicationScheduler.this) {
+					inFlight--;
+				}
+				if (future.isSuccess()) {
+					entry.futureDone.done();
+				} else {
+					entry.futureDone.failed(future);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The number of keys waiting to be sent
+	 */
+	public synchronized int queueDepth() {
+		return urgent.size() + routine.size();
+	}
+
+	/**
+	 * @return The number of urgent keys waiting to be sent
+	 */
+	public synchronized int urgentQueueDepth() {
+		return urgent.size();
+	}
+
+	/**
+	 * @return The time the longest waiting key is queued in milliseconds, 0
+	 *         if no key is waiting. For refresh keys, this grows beyond the
+	 *         interval if the keys cannot be sent within the interval
+	 */
+	public synchronized long lagMillis() {
+		long oldest = Long.MAX_VALUE;
+		if (!urgent.isEmpty()) {
+			oldest = urgent.values().iterator().next().queuedMillis;
+		}
+		if (!routine.isEmpty()) {
+			oldest = Math.min(oldest, routine.values().iterator().next().queuedMillis);
+		}
+		return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+	}
+
+	/**
+	 * @return The number of keys in transfer
+	 */
+	public synchronized int inFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return The number of keys sent so far
+	 */
+	public long sentKeys() {
+		return sentKeys.get();
+	}
+
+	/**
+	 * @return The number of bytes of the values sent so far
+	 */
+	public long sentBytes() {
+		return sentBytes.get();
+	}
+
+	private static final class Entry {
+		private final Number160 locationKey;
+		private final long queuedMillis;
+		private final FutureDone<Void> futureDone = new FutureDone<Void>();
+
+		private Entry(final Number160 locationKey, final long queuedMillis) {
+			this.locationKey = locationKey;
+			this.queuedMillis = queuedMillis;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Thomas Bocek, Maxat Pernebayev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash table from the weak checksum to the positions of the blocks with that
+ * checksum, based on int arrays only. The blocks with the same weak checksum
+ * are chained in ascending order, so the first block that matches is found
+ * first, as with a linear scan.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+final class ChecksumIndex {
+
+	private final int[] weak;
+	// bucket to the first position, -1 if empty
+	private final int[] heads;
+	// position to the next position in the same bucket, -1 at the end
+	private final int[] next;
+	private final int mask;
+
+	ChecksumIndex(final List<Checksum> checksums) {
+		final int size = checksums.size();
+		final int buckets = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+		this.weak = new int[size];
+		this.heads = new int[buckets];
+		this.next = new int[size];
+		this.mask = buckets - 1;
+		Arrays.fill(heads, -1);
+		// insert backwards, so the chains are in ascending order
+		for (int i = size - 1; i >= 0; i--) {
+			final int wcs = checksums.get(i).weakChecksum();
+			final int bucket = bucket(wcs);
+			weak[i] = wcs;
+			next[i] = heads[bucket];
+			heads[bucket] = i;
+		}
+	}
+
+	/**
+	 * @param wcs
+	 *            The weak checksum
+	 * @return The first position with this weak checksum or -1
+	 */
+	int first(final int wcs) {
+		return skip(heads[bucket(wcs)], wcs);
+	}
+
+	/**
+	 * @param position
+	 *            The current position
+	 * @param wcs
+	 *            The weak checksum
+	 * @return The next position with this weak checksum or -1
+	 */
+	int next(final int position, final int wcs) {
+		return skip(next[position], wcs);
+	}
+
+	private int skip(int position, final int wcs) {
+		while (position >= 0 && weak[position] != wcs) {
+			position = next[position];
+		}
+		return position;
+	}
+
+	private int bucket(final int wcs) {
+		// the lower bits are the sum of the bytes, mix in the upper bits
+		final int h = wcs * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
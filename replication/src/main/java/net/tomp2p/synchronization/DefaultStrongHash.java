@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Thomas Bocek, Maxat Pernebayev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A strong hash based on a {@link MessageDigest}. The default is MD5, which is
+ * what older versions used. Any algorithm of an installed security provider can
+ * be used, e.g. SHA-256 or BLAKE2B-160 if a provider such as Bouncy Castle is
+ * registered. The digest is kept per thread and the block is read from the
+ * buffer without a copy.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public class DefaultStrongHash implements StrongHash {
+
+	public static final StrongHash MD5 = new DefaultStrongHash("MD5");
+
+	private final String algorithm;
+	private final int length;
+	private final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			return create();
+		}
+	};
+
+	/**
+	 * @param algorithm
+	 *            The name of the message digest algorithm
+	 * @throws IllegalArgumentException
+	 *             If no provider supports the algorithm
+	 */
+	public DefaultStrongHash(final String algorithm) {
+		this.algorithm = algorithm;
+		this.length = create().getDigestLength();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public byte[] hash(final ByteBuf buf, final int index, final int length) {
+		final MessageDigest m = digest.get();
+		if (buf.hasArray()) {
+			m.update(buf.array(), buf.arrayOffset() + index, length);
+		} else {
+			for (ByteBuffer byteBuffer : buf.nioBuffers(index, length)) {
+				m.update(byteBuffer);
+			}
+		}
+		// resets the digest
+		return m.digest();
+	}
+
+	private MessageDigest create() {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unknown strong hash algorithm " + algorithm, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StrongHash:" + algorithm;
+	}
+}
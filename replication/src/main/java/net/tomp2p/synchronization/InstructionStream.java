@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Thomas Bocek, Maxat Pernebayev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the RSync instructions of a value piece by piece, so that large
+ * values can be sent in chunks while the next chunk is calculated. The
+ * instructions of all chunks together are the same as
+ * {@link RSync#instructions(ByteBuf, List, int, StrongHash)}, except that long
+ * literals are split. The literals are slices of the value, the value must not
+ * change until the stream is done.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public class InstructionStream {
+
+	private final ByteBuf value;
+	private final List<Checksum> checksums;
+	private final int blockSize;
+	private final StrongHash strongHash;
+	private final ChecksumIndex index;
+	private final RSync.RollingChecksum adler = new RSync.RollingChecksum();
+	private final int length;
+
+	private int offset;
+	private int lastRefFound;
+	private int remaining;
+	private boolean done = false;
+
+	/**
+	 * @param value
+	 *            The value at responsible peer, the readable bytes are used
+	 * @param checksums
+	 *            The checksums of the value at the replica peer
+	 * @param blockSize
+	 *            The block size
+	 * @param strongHash
+	 *            The strong hash the checksums were created with
+	 */
+	public InstructionStream(final ByteBuf value, final List<Checksum> checksums, final int blockSize,
+	        final StrongHash strongHash) {
+		this.value = value;
+		this.checksums = checksums;
+		this.blockSize = blockSize;
+		this.strongHash = strongHash;
+		this.index = new ChecksumIndex(checksums);
+		this.length = value.writerIndex();
+		this.offset = value.readerIndex();
+		this.lastRefFound = offset;
+		this.remaining = Math.min(blockSize, length - offset);
+		adler.update(value, offset, remaining);
+	}
+
+	/**
+	 * @return True if there are more instructions
+	 */
+	public boolean hasNext() {
+		return !done;
+	}
+
+	/**
+	 * Returns the next instructions. The encoded size of the instructions is
+	 * about maxBytes, a literal can make it at most twice as large.
+	 * 
+	 * @param maxBytes
+	 *            The encoded size after which no more instructions are added
+	 * @return The next instructions, empty if there are no more
+	 */
+	public List<Instruction> next(final int maxBytes) {
+		final List<Instruction> result = new ArrayList<Instruction>();
+		long size = 0;
+		while (!done && size < maxBytes) {
+			final int wcs = adler.value();
+			final int reference = RSync.matches(wcs, value, offset, remaining, index, checksums, strongHash);
+			if (reference != -1) {
+				if (offset > lastRefFound) {
+					size += literal(result, offset);
+				}
+				result.add(new Instruction(reference));
+				size += 4;
+
+				offset += remaining;
+				lastRefFound = offset;
+				remaining = Math.min(blockSize, length - offset);
+				if (remaining == 0) {
+					done = true;
+				} else {
+					adler.reset().update(value, offset, remaining);
+				}
+			} else {
+				offset++;
+				if (blockSize > length - offset) {
+					done = true;
+				} else {
+					adler.updateRolling(value);
+					if (offset - lastRefFound >= maxBytes) {
+						// nothing matched for a while, don't let the literal grow
+						size += literal(result, offset);
+					}
+				}
+			}
+		}
+		if (done && length > lastRefFound) {
+			literal(result, length);
+		}
+		return result;
+	}
+
+	private int literal(final List<Instruction> result, final int end) {
+		final int literalLength = end - lastRefFound;
+		result.add(new Instruction(new RArray(value.slice(lastRefFound, literalLength))));
+		lastRefFound = end;
+		return 4 + literalLength;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import net.tomp2p.dht.StorageLayer;
+import net.tomp2p.dht.StorageListener;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps a {@link MerkleTree} for every location key of a storage layer up to
+ * date. The storage layer only reports which values were stored or removed,
+ * the values are hashed when the tree is needed, so no value is hashed while
+ * the storage layer holds its lock and comparing the trees with a replica does
+ * not need to read the stored values again.
+ * <p>
+ * There is one tree per location key and not per responsibility range, as
+ * {@link net.tomp2p.replication.IndirectReplication} and the
+ * {@link net.tomp2p.replication.ReplicationSender} replicate one location key
+ * at a time.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class MerkleIndex implements StorageListener {
+
+	private final ConcurrentMap<Number160, MerkleTree> trees = new ConcurrentHashMap<Number160, MerkleTree>();
+	// the latest change per key that is not in the tree yet
+	private final ConcurrentSkipListMap<Number640, Change> changes = new ConcurrentSkipListMap<Number640, Change>();
+	private final StorageLayer storageLayer;
+
+	/**
+	 * Listens for changes of the storage layer and adds the values already
+	 * stored. A value that changes while the stored values are read keeps the
+	 * change that was reported.
+	 *
+	 * @param storageLayer
+	 *            The storage layer to index
+	 */
+	public MerkleIndex(final StorageLayer storageLayer) {
+		this.storageLayer = storageLayer;
+		storageLayer.addStorageListener(this);
+		for (Map.Entry<Number640, Data> entry : storageLayer.get().entrySet()) {
+			changes.putIfAbsent(entry.getKey(), new Change(entry.getValue()));
+		}
+	}
+
+	@Override
+	public void dataPut(final Number640 key, final Data data) {
+		changes.put(key, new Change(data));
+	}
+
+	@Override
+	public void dataRemoved(final Number640 key) {
+		changes.put(key, new Change(null));
+	}
+
+	/**
+	 * Applies the changes of the location key and returns its tree.
+	 *
+	 * @param locationKey
+	 *            The location key
+	 * @return The tree of the location key, or null if nothing is stored under
+	 *         it
+	 */
+	public MerkleTree tree(final Number160 locationKey) {
+		final NavigableMap<Number640, Change> locationChanges = changes.subMap(new Number640(locationKey,
+				Number160.ZERO, Number160.ZERO, Number160.ZERO), true, new Number640(locationKey,
+				Number160.MAX_VALUE, Number160.MAX_VALUE, Number160.MAX_VALUE), true);
+		while (true) {
+			MerkleTree tree = trees.get(locationKey);
+			if (tree == null) {
+				if (locationChanges.isEmpty()) {
+					return null;
+				}
+				tree = new MerkleTree();
+				final MerkleTree existing = trees.putIfAbsent(locationKey, tree);
+				if (existing != null) {
+					tree = existing;
+				}
+			}
+			synchronized (tree) {
+				// an empty tree is removed while locked, try again with a new one
+				if (trees.get(locationKey) != tree) {
+					continue;
+				}
+				for (Map.Entry<Number640, Change> entry : locationChanges.entrySet()) {
+					if (entry.getValue().data == null) {
+						tree.remove(entry.getKey());
+					} else {
+						tree.put(entry.getKey(), entry.getValue().data.hash());
+					}
+					// a newer change stays for the next call
+					locationChanges.remove(entry.getKey(), entry.getValue());
+				}
+				if (tree.isEmpty()) {
+					trees.remove(locationKey, tree);
+					return null;
+				}
+				return tree;
+			}
+		}
+	}
+
+	/**
+	 * Stops listening for changes of the storage layer.
+	 */
+	public void shutdown() {
+		storageLayer.removeStorageListener(this);
+	}
+
+	/**
+	 * A stored value, or a removed value if data is null. Changes are compared
+	 * by identity, so a newer change is never taken for an applied one.
+	 */
+	private static final class Change {
+		private final Data data;
+
+		private Change(final Data data) {
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.ConnectionBean;
+import net.tomp2p.connection.ConnectionConfiguration;
+import net.tomp2p.connection.PeerBean;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.RequestHandler;
+import net.tomp2p.connection.Responder;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Buffer;
+import net.tomp2p.message.KeyCollection;
+import net.tomp2p.message.KeyMap640Keys;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.DispatchHandler;
+import net.tomp2p.rpc.RPC;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * This RPC compares the {@link MerkleTree} of a location key with the tree of a
+ * replica. The first request sends the root and the inner nodes, the replica
+ * replies with the leaves of the inner nodes that differ. The second request
+ * sends the values of the leaves that differ, and the replica replies with the
+ * keys of the values it does not have.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class MerkleRPC extends DispatchHandler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MerkleRPC.class);
+
+	public static final byte SYNC_TREE_COMMAND = RPC.Commands.SYNC_TREE.getNr();
+
+	private final MerkleIndex merkleIndex;
+
+	/**
+	 * Constructor that registers this RPC with the message handler.
+	 *
+	 * @param peerBean
+	 *            The peer bean that contains data that is unique for each peer
+	 * @param connectionBean
+	 *            The connection bean that is unique per connection (multiple
+	 *            peers can share a single connection)
+	 * @param merkleIndex
+	 *            The trees of the stored values
+	 */
+	public MerkleRPC(final PeerBean peerBean, final ConnectionBean connectionBean, final MerkleIndex merkleIndex) {
+		super(peerBean, connectionBean);
+		register(SYNC_TREE_COMMAND);
+		this.merkleIndex = merkleIndex;
+	}
+
+	/**
+	 * Sends the root and the inner nodes of a tree. The response contains a
+	 * buffer with the index and the leaves of every inner node that differs, see
+	 * {@link #differentLeaves(Buffer, MerkleTree)}, or no buffer if the trees are
+	 * the same. This is an RPC.
+	 *
+	 * @param remotePeer
+	 *            The replica
+	 * @param locationKey
+	 *            The location key of the tree
+	 * @param tree
+	 *            The tree, or null if nothing is stored under the location key
+	 * @param configuration
+	 *            The connection configuration
+	 * @param channelCreator
+	 *            The channel creator that creates connections
+	 * @return The future response to keep track of future events
+	 */
+	public FutureResponse compareInner(final PeerAddress remotePeer, final Number160 locationKey,
+			final MerkleTree tree, final ConnectionConfiguration configuration, final ChannelCreator channelCreator) {
+		final Message message = createMessage(remotePeer, SYNC_TREE_COMMAND, Type.REQUEST_1);
+		message.key(locationKey);
+		final ByteBuf buf = Unpooled.buffer(Number160.BYTE_ARRAY_SIZE * (MerkleTree.FANOUT + 1));
+		if (tree == null) {
+			for (int i = 0; i <= MerkleTree.FANOUT; i++) {
+				Number160.ZERO.encode(buf);
+			}
+		} else {
+			synchronized (tree) {
+				tree.root().encode(buf);
+				for (Number160 inner : tree.inner()) {
+					inner.encode(buf);
+				}
+			}
+		}
+		message.buffer(new Buffer(buf));
+		FutureResponse futureResponse = new FutureResponse(message);
+		final RequestHandler requestHandler = new RequestHandler(futureResponse, peerBean(), connectionBean(),
+				configuration);
+		LOG.debug("Tree sent {}", message);
+		return requestHandler.sendTCP(channelCreator);
+	}
+
+	/**
+	 * Sends the hashes of values, the response contains the keys of the values
+	 * that are missing or different on the replica. This is an RPC.
+	 *
+	 * @param remotePeer
+	 *            The replica
+	 * @param entries
+	 *            The keys and the hashes of key and value, see
+	 *            {@link MerkleTree#entries(boolean[])}
+	 * @param configuration
+	 *            The connection configuration
+	 * @param channelCreator
+	 *            The channel creator that creates connections
+	 * @return The future response to keep track of future events
+	 */
+	public FutureResponse compareEntries(final PeerAddress remotePeer,
+			final NavigableMap<Number640, Number160> entries, final ConnectionConfiguration configuration,
+			final ChannelCreator channelCreator) {
+		final Message message = createMessage(remotePeer, SYNC_TREE_COMMAND, Type.REQUEST_2);
+		final NavigableMap<Number640, Collection<Number160>> keysMap = new TreeMap<Number640, Collection<Number160>>();
+		for (Map.Entry<Number640, Number160> entry : entries.entrySet()) {
+			keysMap.put(entry.getKey(), Collections.singleton(entry.getValue()));
+		}
+		message.keyMap640Keys(new KeyMap640Keys(keysMap));
+		FutureResponse futureResponse = new FutureResponse(message);
+		final RequestHandler requestHandler = new RequestHandler(futureResponse, peerBean(), connectionBean(),
+				configuration);
+		LOG.debug("Tree entries sent {}", message);
+		return requestHandler.sendTCP(channelCreator);
+	}
+
+	@Override
+	public void handleResponse(final Message message, final PeerConnection peerConnection, final boolean sign,
+			final Responder responder) throws Exception {
+		if (message.command() != SYNC_TREE_COMMAND) {
+			throw new IllegalArgumentException("Message content is wrong");
+		}
+		final Message responseMessage = createResponseMessage(message, Type.OK);
+		if (message.type() == Type.REQUEST_1 && message.key(0) != null && message.buffer(0) != null) {
+			handleInner(message.key(0), message.buffer(0).buffer(), responseMessage);
+		} else if (message.type() == Type.REQUEST_2 && message.keyMap640Keys(0) != null) {
+			handleEntries(message.keyMap640Keys(0), responseMessage);
+		} else {
+			throw new IllegalArgumentException("Message content is wrong");
+		}
+		responder.response(responseMessage);
+	}
+
+	private void handleInner(final Number160 locationKey, final ByteBuf buf, final Message responseMessage) {
+		final Number160 root = Number160.decode(buf);
+		final MerkleTree tree = merkleIndex.tree(locationKey);
+		final Number160 myRoot = tree == null ? Number160.ZERO : tree.root();
+		if (root.equals(myRoot)) {
+			LOG.debug("tree of {} is the same", locationKey);
+			return;
+		}
+		final ByteBuf retVal = Unpooled.buffer();
+		for (int i = 0; i < MerkleTree.FANOUT; i++) {
+			final Number160 inner = Number160.decode(buf);
+			final Number160[] leaves;
+			if (tree == null) {
+				leaves = new MerkleTree().leaves(i);
+			} else {
+				synchronized (tree) {
+					if (inner.equals(tree.inner()[i])) {
+						continue;
+					}
+					leaves = tree.leaves(i);
+				}
+			}
+			retVal.writeByte(i);
+			for (Number160 leaf : leaves) {
+				leaf.encode(retVal);
+			}
+		}
+		responseMessage.buffer(new Buffer(retVal));
+	}
+
+	private void handleEntries(final KeyMap640Keys keysMap, final Message responseMessage) {
+		final List<Number640> retVal = new ArrayList<Number640>();
+		for (Map.Entry<Number640, Collection<Number160>> entry : keysMap.keysMap().entrySet()) {
+			final MerkleTree tree = merkleIndex.tree(entry.getKey().locationKey());
+			final Number160 entryHash = tree == null ? null : tree.entryHash(entry.getKey());
+			if (entry.getValue().size() != 1 || !entry.getValue().iterator().next().equals(entryHash)) {
+				retVal.add(entry.getKey());
+			}
+		}
+		LOG.debug("{} of {} values differ", retVal.size(), keysMap.size());
+		responseMessage.keyCollection(new KeyCollection(retVal));
+	}
+
+	/**
+	 * Compares the leaves of the response to {@link #compareInner} with the
+	 * leaves of a tree.
+	 *
+	 * @param buffer
+	 *            The buffer of the response
+	 * @param tree
+	 *            The tree that was sent, or null for an empty tree
+	 * @return The leaves that differ, indexed from 0 to
+	 *         {@link MerkleTree#LEAVES}
+	 */
+	public static boolean[] differentLeaves(final Buffer buffer, final MerkleTree tree) {
+		final boolean[] retVal = new boolean[MerkleTree.LEAVES];
+		final ByteBuf buf = buffer.buffer();
+		while (buf.isReadable()) {
+			final int index = buf.readUnsignedByte();
+			final Number160[] leaves = tree == null ? new MerkleTree().leaves(index) : tree.leaves(index);
+			for (int i = 0; i < MerkleTree.FANOUT; i++) {
+				if (!Number160.decode(buf).equals(leaves[i])) {
+					retVal[index * MerkleTree.FANOUT + i] = true;
+				}
+			}
+		}
+		return retVal;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import net.tomp2p.connection.ConnectionConfiguration;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.replication.ReplicationSender;
+import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends only the values a replica does not have. Before the values are sent,
+ * the {@link MerkleTree} of the location key is compared with the tree of the
+ * replica, which takes a single round-trip if nothing changed. The values that
+ * differ are sent with another {@link ReplicationSender}. A replica that does
+ * not answer the comparison, e.g., because it does not use this class, gets
+ * all values.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class MerkleSync implements ReplicationSender {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MerkleSync.class);
+
+	private final PeerDHT peer;
+	private final ReplicationSender replicationSender;
+	private final MerkleIndex merkleIndex;
+	private final MerkleRPC merkleRPC;
+	private final ConnectionConfiguration configuration = new DefaultConnectionConfiguration();
+
+	private final AtomicLong inSync = new AtomicLong();
+	private final AtomicLong sentValues = new AtomicLong();
+	private final AtomicLong skippedValues = new AtomicLong();
+
+	/**
+	 * Create a MerkleSync class, index the stored values and register the RPC.
+	 * The replicas need a MerkleSync as well.
+	 *
+	 * @param peer
+	 *            The peer
+	 * @param replicationSender
+	 *            The sender for the values that differ
+	 */
+	public MerkleSync(final PeerDHT peer, final ReplicationSender replicationSender) {
+		this.peer = peer;
+		this.replicationSender = replicationSender;
+		this.merkleIndex = new MerkleIndex(peer.storageLayer());
+		this.merkleRPC = new MerkleRPC(peer.peerBean(), peer.peer().connectionBean(), merkleIndex);
+	}
+
+	public MerkleIndex merkleIndex() {
+		return merkleIndex;
+	}
+
+	public MerkleRPC merkleRPC() {
+		return merkleRPC;
+	}
+
+	@Override
+	public FutureDone<Void> sendDirect(final PeerAddress other, final Number160 locationKey,
+			final NavigableMap<Number640, Data> dataMap) {
+		final FutureDone<Void> futureDone = new FutureDone<Void>();
+		final FutureDone<NavigableMap<Number640, Data>> futureDiff = diff(other, locationKey, dataMap);
+		futureDiff.addListener(new BaseFutureAdapter<FutureDone<NavigableMap<Number640, Data>>>() {
+			@Override
+			public void operationComplete(final FutureDone<NavigableMap<Number640, Data>> future)
+					throws Exception {
+				final NavigableMap<Number640, Data> diff = future.object();
+				sentValues.addAndGet(diff.size());
+				skippedValues.addAndGet(dataMap.size() - diff.size());
+				if (diff.isEmpty()) {
+					inSync.incrementAndGet();
+					futureDone.done();
+					return;
+				}
+				LOG.debug("send {} of {} values for {} to {}", diff.size(), dataMap.size(), locationKey, other);
+				replicationSender.sendDirect(other, locationKey, diff).addListener(
+						new BaseFutureAdapter<BaseFuture>() {
+							@Override
+							public void operationComplete(final BaseFuture future) throws Exception {
+								if (future.isSuccess()) {
+									futureDone.done();
+								} else {
+									futureDone.failed(future);
+								}
+							}
+						});
+			}
+		});
+		return futureDone;
+	}
+
+	/**
+	 * Compares the tree of the location key with the replica. The future is
+	 * always done successfully, if the comparison fails, it contains all
+	 * values.
+	 */
+	private FutureDone<NavigableMap<Number640, Data>> diff(final PeerAddress other, final Number160 locationKey,
+			final NavigableMap<Number640, Data> dataMap) {
+		final FutureDone<NavigableMap<Number640, Data>> futureDiff = new FutureDone<NavigableMap<Number640, Data>>();
+		final MerkleTree tree = merkleIndex.tree(locationKey);
+		final FutureChannelCreator futureChannelCreator = peer.peer().connectionBean().reservation().create(0, 1);
+		Utils.addReleaseListener(futureChannelCreator, futureDiff);
+		futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+			@Override
+			public void operationComplete(final FutureChannelCreator future) throws Exception {
+				if (!future.isSuccess()) {
+					LOG.debug("no channel to compare {}: {}", locationKey, future.failedReason());
+					futureDiff.done(dataMap);
+					return;
+				}
+				final FutureResponse futureInner = merkleRPC.compareInner(other, locationKey, tree, configuration,
+						futureChannelCreator.channelCreator());
+				futureInner.addListener(new BaseFutureAdapter<FutureResponse>() {
+					@Override
+					public void operationComplete(final FutureResponse future) throws Exception {
+						if (!future.isSuccess()) {
+							LOG.debug("could not compare {} with {}: {}", locationKey, other,
+									future.failedReason());
+							futureDiff.done(dataMap);
+							return;
+						}
+						if (future.responseMessage().buffer(0) == null) {
+							futureDiff.done(new TreeMap<Number640, Data>());
+							return;
+						}
+						final boolean[] leaves = MerkleRPC.differentLeaves(
+								future.responseMessage().buffer(0), tree);
+						final NavigableMap<Number640, Number160> entries = tree == null
+								? new TreeMap<Number640, Number160>() : tree.entries(leaves);
+						// the replica may have values we do not have, we only send
+						entries.keySet().retainAll(dataMap.keySet());
+						if (entries.isEmpty()) {
+							futureDiff.done(new TreeMap<Number640, Data>());
+							return;
+						}
+						final FutureResponse futureEntries = merkleRPC.compareEntries(other, entries,
+								configuration, futureChannelCreator.channelCreator());
+						futureEntries.addListener(new BaseFutureAdapter<FutureResponse>() {
+							@Override
+							public void operationComplete(final FutureResponse future) throws Exception {
+								final NavigableMap<Number640, Data> diff = new TreeMap<Number640, Data>();
+								if (future.isSuccess()) {
+									for (Number640 key : future.responseMessage().keyCollection(0).keys()) {
+										final Data data = dataMap.get(key);
+										if (data != null) {
+											diff.put(key, data);
+										}
+									}
+								} else {
+									for (Map.Entry<Number640, Number160> entry : entries.entrySet()) {
+										diff.put(entry.getKey(), dataMap.get(entry.getKey()));
+									}
+								}
+								futureDiff.done(diff);
+							}
+						});
+					}
+				});
+			}
+		});
+		return futureDiff;
+	}
+
+	/**
+	 * Stops updating the trees. The RPC stays registered until the peer shuts
+	 * down.
+	 */
+	public void shutdown() {
+		merkleIndex.shutdown();
+	}
+
+	/**
+	 * @return The number of replicas that had all values already
+	 */
+	public long inSync() {
+		return inSync.get();
+	}
+
+	/**
+	 * @return The number of values sent to replicas
+	 */
+	public long sentValues() {
+		return sentValues.get();
+	}
+
+	/**
+	 * @return The number of values not sent, as the replica had them already
+	 */
+	public long skippedValues() {
+		return skippedValues.get();
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.utils.Utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The hash tree of the values stored under a location key. The tree has a root,
+ * {@link #FANOUT} inner nodes and {@link #FANOUT} leaves below every inner
+ * node. A value is placed in a leaf by its key, and the hash of a node is the
+ * XOR of the hashes of the values below it. Thus, a put or a remove updates the
+ * leaf, the inner node and the root in constant time, and two peers with the
+ * same values have the same root, no matter in which order they got them.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class MerkleTree {
+
+	public static final int FANOUT = 16;
+	public static final int LEAVES = FANOUT * FANOUT;
+
+	private final NavigableMap<Number640, Number160> entries = new TreeMap<Number640, Number160>();
+	private final Number160[] inner = new Number160[FANOUT];
+	// the leaves are only created for inner nodes with values
+	private final Number160[][] leaves = new Number160[FANOUT][];
+	private final int[] innerCount = new int[FANOUT];
+	private Number160 root = Number160.ZERO;
+
+	public MerkleTree() {
+		Arrays.fill(inner, Number160.ZERO);
+	}
+
+	/**
+	 * Adds or replaces a value.
+	 *
+	 * @param key
+	 *            The key of the value
+	 * @param dataHash
+	 *            The hash of the value, see {@link net.tomp2p.storage.Data#hash()}
+	 */
+	public synchronized void put(final Number640 key, final Number160 dataHash) {
+		final Number160 entryHash = entryHash(key, dataHash);
+		final Number160 old = entries.put(key, entryHash);
+		final int leaf = leaf(key);
+		if (old != null) {
+			if (old.equals(entryHash)) {
+				return;
+			}
+			update(leaf, old);
+		} else {
+			innerCount[leaf / FANOUT]++;
+		}
+		update(leaf, entryHash);
+	}
+
+	/**
+	 * @param key
+	 *            The key of the removed value
+	 */
+	public synchronized void remove(final Number640 key) {
+		final Number160 old = entries.remove(key);
+		if (old == null) {
+			return;
+		}
+		final int leaf = leaf(key);
+		update(leaf, old);
+		final int index = leaf / FANOUT;
+		if (--innerCount[index] == 0) {
+			leaves[index] = null;
+			inner[index] = Number160.ZERO;
+		}
+	}
+
+	private void update(final int leaf, final Number160 entryHash) {
+		final int index = leaf / FANOUT;
+		if (leaves[index] == null) {
+			leaves[index] = new Number160[FANOUT];
+			Arrays.fill(leaves[index], Number160.ZERO);
+		}
+		leaves[index][leaf % FANOUT] = leaves[index][leaf % FANOUT].xor(entryHash);
+		inner[index] = inner[index].xor(entryHash);
+		root = root.xor(entryHash);
+	}
+
+	/**
+	 * @return The hash of all values, {@link Number160#ZERO} if there are none
+	 */
+	public synchronized Number160 root() {
+		return root;
+	}
+
+	/**
+	 * @return A copy of the hashes of the inner nodes
+	 */
+	public synchronized Number160[] inner() {
+		return inner.clone();
+	}
+
+	/**
+	 * @param index
+	 *            The index of the inner node
+	 * @return A copy of the hashes of the leaves below the inner node
+	 */
+	public synchronized Number160[] leaves(final int index) {
+		if (leaves[index] == null) {
+			final Number160[] empty = new Number160[FANOUT];
+			Arrays.fill(empty, Number160.ZERO);
+			return empty;
+		}
+		return leaves[index].clone();
+	}
+
+	/**
+	 * @param selectedLeaves
+	 *            The leaves to return the values for, indexed from 0 to
+	 *            {@link #LEAVES}
+	 * @return The keys of the values in the selected leaves with the hash of
+	 *         key and value
+	 */
+	public synchronized NavigableMap<Number640, Number160> entries(final boolean[] selectedLeaves) {
+		final NavigableMap<Number640, Number160> retVal = new TreeMap<Number640, Number160>();
+		for (Map.Entry<Number640, Number160> entry : entries.entrySet()) {
+			if (selectedLeaves[leaf(entry.getKey())]) {
+				retVal.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param key
+	 *            The key of a value
+	 * @return The hash of key and value, or null if there is no such value
+	 */
+	public synchronized Number160 entryHash(final Number640 key) {
+		return entries.get(key);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * @param key
+	 *            The key of a value
+	 * @return The leaf of the value, from 0 to {@link #LEAVES}
+	 */
+	public static int leaf(final Number640 key) {
+		// spread the bits, as version keys often differ only in the lower bits
+		return (key.hashCode() * 0x9E3779B1) >>> 24;
+	}
+
+	/**
+	 * @param key
+	 *            The key of a value
+	 * @param dataHash
+	 *            The hash of the value
+	 * @return The hash of key and value, so that the same value under another
+	 *         key has another hash
+	 */
+	public static Number160 entryHash(final Number640 key, final Number160 dataHash) {
+		final byte[] me = new byte[Number160.BYTE_ARRAY_SIZE * 4];
+		int offset = key.domainKey().encode(me, 0);
+		offset = key.contentKey().encode(me, offset);
+		offset = key.versionKey().encode(me, offset);
+		dataHash.encode(me, offset);
+		return Utils.makeSHAHash(me);
+	}
+}
@@ -33,6 +33,7 @@ public class PeerSync implements ReplicationSender {
 	private final SyncRPC syncRPC;
 	private final PeerDHT peer;
 	private final int blockSize;
+	private final StrongHash strongHash;
 	
 	public PeerSync(final PeerDHT peer) {
 		this(peer, null, 700);
@@ -55,9 +56,28 @@ public class PeerSync implements ReplicationSender {
 	 *            default of 700
 	 */
 	public PeerSync(final PeerDHT peer, final ReplicationListener replicationListener, final int blockSize) {
+		this(peer, replicationListener, blockSize, DefaultStrongHash.MD5);
+	}
+
+	/**
+	 * Create a PeerSync class with a custom strong hash. All peers that
+	 * synchronize with each other need to use the same strong hash.
+	 * 
+	 * @param peer
+	 *            The peer
+	 * @param blockSize
+	 *            The block size as the basis for the checksums, RSync uses a
+	 *            default of 700
+	 * @param strongHash
+	 *            The strong hash of the blocks, the default is MD5
+	 */
+	public PeerSync(final PeerDHT peer, final ReplicationListener replicationListener, final int blockSize,
+	        final StrongHash strongHash) {
 		this.peer = peer;
-		this.syncRPC = new SyncRPC(peer.peerBean(), peer.peer().connectionBean(), blockSize, peer.storageLayer(), replicationListener);
+		this.syncRPC = new SyncRPC(peer.peerBean(), peer.peer().connectionBean(), blockSize, peer.storageLayer(),
+		        replicationListener, strongHash);
 		this.blockSize = blockSize;
+		this.strongHash = strongHash;
 	}
 
 	public PeerDHT peerDHT() {
@@ -68,6 +88,10 @@ public class PeerSync implements ReplicationSender {
 		return syncRPC;
 	}
 
+	public StrongHash strongHash() {
+		return strongHash;
+	}
+
 	public SyncBuilder synchronize(PeerAddress other) {
 		return new SyncBuilder(this, other, blockSize);
 	}
@@ -34,7 +34,7 @@ public class RArray {
 	}
 
 	public int length() {
-		return length;
+		return hasDataBuffer() ? dataBuffer.readableBytes() : length;
 	}
 	
 	public ByteBuf dataBuffer() {
@@ -18,9 +18,7 @@ package net.tomp2p.synchronization;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
-import net.tomp2p.utils.Utils;
 
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -47,19 +45,36 @@ final public class RSync {
 	 * @param size
 	 *            The offset size
 	 * @return The array of checksums
-	 * @throws NoSuchAlgorithmException
 	 */
 	public static List<Checksum> checksums(final byte[] value, final int blockSize) {
-		final int numberOfBlocks = (value.length + blockSize - 1) / blockSize;
+		return checksums(Unpooled.wrappedBuffer(value), blockSize, DefaultStrongHash.MD5);
+	}
+
+	/**
+	 * It returns an array of weak and strong checksums for the readable bytes
+	 * of the value. The indexes of the buffer are not changed.
+	 * 
+	 * @param value
+	 *            The value
+	 * @param blockSize
+	 *            The offset size
+	 * @param strongHash
+	 *            The strong hash of the blocks
+	 * @return The array of checksums
+	 */
+	public static List<Checksum> checksums(final ByteBuf value, final int blockSize, final StrongHash strongHash) {
+		final int start = value.readerIndex();
+		final int length = value.readableBytes();
+		final int numberOfBlocks = (length + blockSize - 1) / blockSize;
 		final ArrayList<Checksum> checksums = new ArrayList<Checksum>(numberOfBlocks);
 		final RollingChecksum adler = new RollingChecksum();
 
 		for (int i = 0; i < numberOfBlocks; i++) {
-			int remaining = Math.min(blockSize, value.length - (i * blockSize));
-			adler.reset().update(value, i * blockSize, remaining);
+			int remaining = Math.min(blockSize, length - (i * blockSize));
+			adler.reset().update(value, start + i * blockSize, remaining);
 
 			final int weakChecksum = adler.value();
-			final byte[] strongChecksum = Utils.makeMD5Hash(value, i * blockSize, remaining);
+			final byte[] strongChecksum = strongHash.hash(value, start + i * blockSize, remaining);
 			checksums.add(new Checksum(weakChecksum, strongChecksum));
 		}
 		return checksums;
@@ -67,30 +82,33 @@ final public class RSync {
 
 	/**
 	 * It checks whether a match is found or not. If it is found returns
-	 * reference otherwise -1.
+	 * reference otherwise -1. The strong checksum is only calculated if the
+	 * weak checksum matches, and only once for all blocks with that weak
+	 * checksum.
 	 * 
 	 * @param wcs
 	 *            The weak checksum of offset
 	 * @param offset
 	 *            The offset
+	 * @param index
+	 *            The index of the checksums
 	 * @param checksums
 	 *            The checksums
 	 * @return either the reference or -1
 	 */
-	private static int matches(int wcs, byte[] buffer, int offset, int length, List<Checksum> checksums) {
-		int checksumSize = checksums.size();
-		//TODO: hashing might be a better idea, for now it works
-		for (int i = 0; i < checksumSize; i++) {
-			int weakChecksum = checksums.get(i).weakChecksum();
-			if (weakChecksum == wcs) {
-				byte[] md5 = Utils.makeMD5Hash(buffer, offset, length);
-				byte[] strongChecksum = checksums.get(i).strongChecksum();
-				if (Arrays.equals(strongChecksum, md5)) {
-					return i;
-				}
+	static int matches(int wcs, ByteBuf buffer, int offset, int length, ChecksumIndex index,
+	        List<Checksum> checksums, StrongHash strongHash) {
+		int i = index.first(wcs);
+		if (i < 0) {
+			// no match found, content is different
+			return -1;
+		}
+		final byte[] strong = strongHash.hash(buffer, offset, length);
+		for (; i >= 0; i = index.next(i, wcs)) {
+			if (Arrays.equals(checksums.get(i).strongChecksum(), strong)) {
+				return i;
 			}
 		}
-		// no match found, content is different
 		return -1;
 	}
 
@@ -107,47 +125,27 @@ final public class RSync {
 	 * @return The sequence of instructions
 	 */
 	public static List<Instruction> instructions(byte[] array, List<Checksum> checksums, int blockSize) {
+		return instructions(Unpooled.wrappedBuffer(array), checksums, blockSize, DefaultStrongHash.MD5);
+	}
 
-		final List<Instruction> result = new ArrayList<Instruction>(checksums.size());
-		final RollingChecksum adler = new RollingChecksum();
-		final int length = array.length;
-
-		int offset = 0;
-		int lastRefFound = 0;
-		int remaining = Math.min(blockSize, length - offset);
-
-		adler.update(array, offset, remaining);
-
-		for (;;) {
-			final int wcs = adler.value();
-			final int reference = matches(wcs, array, offset, remaining, checksums);
-			if (reference != -1) {
-				if (offset > lastRefFound) {
-					result.add(new Instruction(new RArray(array, lastRefFound, offset - lastRefFound)));
-				}
-				result.add(new Instruction(reference));
-
-				offset += remaining;
-				lastRefFound = offset;
-				remaining = Math.min(blockSize, length - offset);
-				if (remaining == 0) {
-					break;
-				}
-				adler.reset().update(array, offset, remaining);
-			} else {
-				offset++;
-				if (blockSize > length - offset) {
-					break;
-				}
-				adler.updateRolling(array);
-			}
-		}
-
-		if (length > lastRefFound) {
-			result.add(new Instruction(new RArray(array, lastRefFound, length - lastRefFound)));
-		}
-
-		return result;
+	/**
+	 * It returns the sequence of instructions each of which contains either
+	 * reference to a block or literal data. The literals are slices of the
+	 * value, the indexes of the buffer are not changed.
+	 * 
+	 * @param value
+	 *            The value at responsible peer
+	 * @param checksums
+	 *            The array of checksums
+	 * @param blockSize
+	 *            The block size
+	 * @param strongHash
+	 *            The strong hash the checksums were created with
+	 * @return The sequence of instructions
+	 */
+	public static List<Instruction> instructions(ByteBuf value, List<Checksum> checksums, int blockSize,
+	        StrongHash strongHash) {
+		return new InstructionStream(value, checksums, blockSize, strongHash).next(Integer.MAX_VALUE);
 	}
 
 	/**
@@ -163,17 +161,34 @@ final public class RSync {
 	 * @return The value which is identical to the responsible peer's value
 	 */
 	public static ByteBuf reconstruct(byte[] value, List<Instruction> instructions, int blockSize) {
+		return reconstruct(Unpooled.wrappedBuffer(value), instructions, blockSize);
+	}
+
+	/**
+	 * It reconstructs the copy of responsible peer's value using instructions
+	 * and the readable bytes of the replica's value. The indexes of the value
+	 * are not changed.
+	 * 
+	 * @param value
+	 *            The value at replica
+	 * @param instructions
+	 *            The sequence of instructions
+	 * @param blockSize
+	 *            The offset size
+	 * @return The value which is identical to the responsible peer's value
+	 */
+	public static ByteBuf reconstruct(ByteBuf value, List<Instruction> instructions, int blockSize) {
+		final int start = value.readerIndex();
+		final int length = value.readableBytes();
 		ByteBuf result = Unpooled.buffer();
 		for (Instruction instruction : instructions) {
 			int ref = instruction.reference();
 			if (ref != -1) {
 				int offset = blockSize * ref;
-				int remaining = Math.min(blockSize, value.length - offset);
-				result.writeBytes(value, offset, remaining);
-			} else if (instruction.literal().hasDataBuffer()) {
-				result.writeBytes(instruction.literal().dataBuffer());
+				int remaining = Math.min(blockSize, length - offset);
+				result.writeBytes(value, start + offset, remaining);
 			} else {
-				result.writeBytes(instruction.literal().array(), instruction.literal().offset(), instruction.literal().length());
+				instruction.literal().transferTo(result);
 			}
 		}
 		return result;
@@ -233,6 +248,28 @@ final public class RSync {
 			return this;
 		}
 
+		/**
+		 * Same as {@link #update(byte[], int, int)}, but reads the buffer at
+		 * absolute indexes.
+		 * 
+		 * @param buf
+		 *            The buffer for the checksum calculation
+		 * @param offset
+		 *            The absolute index in the buffer
+		 * @param length
+		 *            The length of the sliding window
+		 * @return this class
+		 */
+		public RollingChecksum update(final ByteBuf buf, final int offset, final int length) {
+			for (int i = 0; i < length; i++) {
+				a = (a + buf.getUnsignedByte(i + offset)) & 0xffff;
+				b = (b + a) & 0xffff;
+			}
+			this.length = length;
+			this.offset = offset;
+			return this;
+		}
+
 		/**
 		 * @return The calculated checksum
 		 */
@@ -270,5 +307,22 @@ final public class RSync {
 			b = (b - (length * (array[removeIndex] & 0xff)) + a - 1) & 0xffff;
 			return this;
 		}
+
+		/**
+		 * Slide the window of the buffer by 1.
+		 * 
+		 * @param buf
+		 *            The buffer for the checksum calculation
+		 * @return this class
+		 */
+		public RollingChecksum updateRolling(final ByteBuf buf) {
+			final int removeIndex = offset;
+			final int addIndex = offset + length;
+			offset++;
+			final short remove = buf.getUnsignedByte(removeIndex);
+			a = (a - remove + buf.getUnsignedByte(addIndex)) & 0xffff;
+			b = (b - (length * remove) + a - 1) & 0xffff;
+			return this;
+		}
 	}
 }
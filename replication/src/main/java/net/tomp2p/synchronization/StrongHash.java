@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Thomas Bocek, Maxat Pernebayev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The strong checksum of a block that RSync uses to confirm a match of the weak
+ * rolling checksum. The length of the hash is not sent over the wire, thus the
+ * responsible peer and the replica peer need to use the same strong hash.
+ * Implementations need to be thread-safe.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public interface StrongHash {
+
+	/**
+	 * @return The length of the hash in bytes
+	 */
+	int length();
+
+	/**
+	 * Calculates the hash of a block without changing the indexes of the
+	 * buffer.
+	 * 
+	 * @param buf
+	 *            The buffer with the value
+	 * @param index
+	 *            The start of the block
+	 * @param length
+	 *            The length of the block
+	 * @return The hash with {@link #length()} bytes
+	 */
+	byte[] hash(ByteBuf buf, int index, int length);
+}
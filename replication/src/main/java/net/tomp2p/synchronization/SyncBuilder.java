@@ -34,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * The builder for the synchronization. This class first sends an info message to get the checksums, then it checks what
@@ -60,6 +61,8 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
     private NavigableMap<Number640, Collection<Number160>> dataMapHash;
     private ArrayList<Instruction> instructions;
     private boolean syncFromOldVersion = false;
+    private int chunkSize = 0;
+    private Executor executor;
     
     public SyncBuilder(final PeerSync peerSync, final PeerAddress other) {
     	this(peerSync, other, DEFAULT_BLOCK_SIZE);
@@ -116,6 +119,39 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
         return this;
     }
 
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Streams the diffs of values larger than chunkSize in chunks of about chunkSize bytes over a separate connection.
+     * The next chunk is only sent once the replica peer has applied the previous one, so neither peer needs the whole
+     * diff in memory. The checksums of the replica peer are still sent in one message.
+     * 
+     * @param chunkSize
+     *            The size of a chunk in bytes, 0 disables streaming, which is the default
+     * @return This class
+     */
+    public SyncBuilder chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * @param executor
+     *            The executor that calculates the streamed chunks, one chunk per task. The default is the timer of the
+     *            peer
+     * @return This class
+     */
+    public SyncBuilder executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public DataMap dataMap() {
         if (dataMap != null) {
             return dataMap;
@@ -179,8 +215,13 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
         if (peer.peer().isShutdown()) {
             return FUTURE_SHUTDOWN;
         }
+        if (executor == null) {
+            executor = peer.peer().connectionBean().timer();
+        }
         final FutureDone<SyncStat> futureSync = new FutureDone<SyncStat>();
-        FutureChannelCreator futureChannelCreator = peer.peer().connectionBean().reservation().create(0, 2);
+        // one more connection for the streamed diffs
+        FutureChannelCreator futureChannelCreator = peer.peer().connectionBean().reservation()
+                .create(0, chunkSize > 0 ? 3 : 2);
         Utils.addReleaseListener(futureChannelCreator, futureSync);
         futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
             @Override
@@ -212,6 +253,8 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
                         }
 
                         NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+                        final SyncStream syncStream = new SyncStream(SyncBuilder.this, peerSync.syncRPC(), other,
+                                future2.channelCreator(), executor, idleTCPMillis(), chunkSize);
                         boolean syncMessageRequired = false;
                         int dataCopy = 0;
                         int dataOrig = 0;
@@ -237,20 +280,26 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
                         		}
                         	} else {
                         		LOG.debug("sync required");
-                        		syncMessageRequired = true;
                         		Data data2 = peer.storageLayer().get(entry.getKey());
                         		dataOrig += data2.length();
                         		final ByteBuf buffer = data.buffer();
                         		Number160 versionKey = SyncUtils.decodeHeader(buffer);
                         		Number160 hash = SyncUtils.decodeHeader(buffer);
              
-                        		List<Checksum> checksums = SyncUtils.decodeChecksums(buffer);
+                        		List<Checksum> checksums = SyncUtils.decodeChecksums(buffer, peerSync.strongHash().length());
+                        		
+                        		if (chunkSize > 0 && data2.length() > chunkSize) {
+                        			LOG.debug("stream diff for key {}", entry.getKey());
+                        			syncStream.add(entry.getKey(), versionKey, hash, new InstructionStream(
+                        			        data2.buffer(), checksums, blockSize, peerSync.strongHash()));
+                        			continue;
+                        		}
+                        		syncMessageRequired = true;
                         		
                                         //buffer.release();
                         		
-                                        // TODO: don't copy data, toBytes does a copy!
                         		List<Instruction> instructions = RSync.instructions(
-                                         data2.toBytes(), checksums, blockSize);
+                                         data2.buffer(), checksums, blockSize, peerSync.strongHash());
                         		
                         		ByteBuf abuf = Unpooled.buffer();
                         		
@@ -263,7 +312,8 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
                                 retVal.put(entry.getKey(), data1);                    		
                         	}
                         }
-                        final SyncStat syncStat = new SyncStat(peer.peerAddress().peerId(), other.peerId(), dataCopy, dataOrig);
+                        final int dataCopyMessage = dataCopy;
+                        final int dataOrigAll = dataOrig;
                         if (syncMessageRequired) {
                         	SyncBuilder.this.dataMap(new DataMap(retVal));
                         	FutureResponse fr = peerSync.syncRPC().syncMessage(other,
@@ -274,12 +324,12 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
                                     if (future.isFailed()) {
                                         futureSync.failed(future);
                                     } else {
-                                        futureSync.done(syncStat);
+                                        stream(syncStream, futureSync, dataCopyMessage, dataOrigAll);
                                     }
                                 }
                             });
                         } else {
-                        	futureSync.done(syncStat);
+                        	stream(syncStream, futureSync, dataCopyMessage, dataOrigAll);
                         }
                     }
                 });
@@ -287,4 +337,23 @@ public class SyncBuilder extends DHTBuilder<SyncBuilder> {
         });
         return futureSync;
     }
+
+    private void stream(final SyncStream syncStream, final FutureDone<SyncStat> futureSync, final int dataCopy,
+            final int dataOrig) {
+        if (syncStream.isEmpty()) {
+            futureSync.done(new SyncStat(peer.peerAddress().peerId(), other.peerId(), dataCopy, dataOrig));
+            return;
+        }
+        syncStream.start().addListener(new BaseFutureAdapter<FutureDone<Integer>>() {
+            @Override
+            public void operationComplete(FutureDone<Integer> future) throws Exception {
+                if (future.isFailed()) {
+                    futureSync.failed(future);
+                } else {
+                    futureSync.done(new SyncStat(peer.peerAddress().peerId(), other.peerId(),
+                            dataCopy + future.object(), dataOrig));
+                }
+            }
+        });
+    }
 }
@@ -17,6 +17,7 @@
 package net.tomp2p.synchronization;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import net.tomp2p.connection.*;
 import net.tomp2p.dht.ReplicationListener;
@@ -43,6 +44,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This Synchronization RPC is used to synchronize data between peers by transferring only changes.
@@ -57,10 +61,15 @@ public class SyncRPC extends DispatchHandler {
 
     public static final byte INFO_COMMAND = RPC.Commands.SYNC_INFO.getNr();
     public static final byte SYNC_COMMAND = RPC.Commands.SYNC.getNr();
+    // a streamed diff that did not get a chunk for this time is dropped, checked every half of this time
+    private static final long PENDING_SYNC_TIMEOUT_MILLIS = 60 * 1000;
     
     private final int blockSize;
     private final StorageLayer storageLayer;
     private final ReplicationListener replicationListener;
+    private final StrongHash strongHash;
+    // streamed diffs that are not complete yet, per sender and key
+    private final ConcurrentMap<Pair<Number160, Number640>, PendingSync> pendingSyncs = new ConcurrentHashMap<Pair<Number160, Number640>, PendingSync>();
 
     /**
      * Constructor that registers this RPC with the message handler.
@@ -72,11 +81,32 @@ public class SyncRPC extends DispatchHandler {
      * @param storageLayer 
      */
     public SyncRPC(final PeerBean peerBean, final ConnectionBean connectionBean, final int blockSize, StorageLayer storageLayer, ReplicationListener replicationListener) {
+        this(peerBean, connectionBean, blockSize, storageLayer, replicationListener, DefaultStrongHash.MD5);
+    }
+
+    /**
+     * Constructor that registers this RPC with the message handler.
+     * 
+     * @param peerBean
+     *            The peer bean that contains data that is unique for each peer
+     * @param connectionBean
+     *            The connection bean that is unique per connection (multiple peers can share a single connection)
+     * @param strongHash
+     *            The strong hash of the checksums, needs to be the same on all peers
+     */
+    public SyncRPC(final PeerBean peerBean, final ConnectionBean connectionBean, final int blockSize, StorageLayer storageLayer, ReplicationListener replicationListener, StrongHash strongHash) {
         super(peerBean, connectionBean);
         register(INFO_COMMAND, SYNC_COMMAND);
         this.blockSize = blockSize;
         this.storageLayer = storageLayer;
         this.replicationListener = replicationListener;
+        this.strongHash = strongHash;
+        connectionBean.timer().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpiredSyncs();
+            }
+        }, PENDING_SYNC_TIMEOUT_MILLIS / 2, PENDING_SYNC_TIMEOUT_MILLIS / 2, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -141,6 +171,41 @@ public class SyncRPC extends DispatchHandler {
         return requestHandler.sendTCP(channelCreator);
     }
 
+    /**
+     * Sends one chunk of a streamed diff over an open connection. The chunks of a key need to be sent in order and the
+     * next chunk should only be sent once this chunk was acknowledged. This is an RPC.
+     * 
+     * @param remotePeer
+     *            The remote peer to send this message
+     * @param synchronizationBuilder
+     *            Used for keeping parameters that are sent
+     * @param key
+     *            The key of the value
+     * @param chunk
+     *            The encoded chunk, see {@link SyncUtils#encodeInstructionChunk(List, Number160, Number160, int, boolean, ByteBuf)}
+     * @param peerConnection
+     *            The connection that is used for all chunks
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse syncChunkMessage(final PeerAddress remotePeer, final SyncBuilder synchronizationBuilder,
+            final Number640 key, final Data chunk, final PeerConnection peerConnection) {
+        final Message message = createMessage(remotePeer, SYNC_COMMAND, Type.REQUEST_3);
+
+        if (synchronizationBuilder.isSign()) {
+            message.publicKeyAndSign(synchronizationBuilder.keyPair());
+        }
+
+        NavigableMap<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+        dataMap.put(key, chunk);
+        message.setDataMap(new DataMap(dataMap));
+
+        FutureResponse futureResponse = new FutureResponse(message);
+        final RequestHandler requestHandler = new RequestHandler(
+                futureResponse, peerBean(), connectionBean(), synchronizationBuilder);
+        LOG.debug("Sync chunk sent {}", message);
+        return requestHandler.sendTCP(peerConnection);
+    }
+
     @Override
     public void handleResponse(final Message message, PeerConnection peerConnection, final boolean sign, Responder responder) throws Exception {
         if (!(message.command() == INFO_COMMAND || message.command() == SYNC_COMMAND)) {
@@ -149,6 +214,8 @@ public class SyncRPC extends DispatchHandler {
         final Message responseMessage = createResponseMessage(message, Type.OK);
         if(message.command() == INFO_COMMAND) {
             handleInfo(message, responseMessage, responder);
+        } else if (message.command() == SYNC_COMMAND && message.type() == Type.REQUEST_3) {
+            handleSyncChunk(message, responseMessage, responder);
         } else if (message.command() == SYNC_COMMAND) {
             handleSync(message, responseMessage, responder);
         } else {
@@ -188,8 +255,7 @@ public class SyncRPC extends DispatchHandler {
                     LOG.debug("no sync required");
                 } else {
                     // get the checksums
-                	// TODO: don't copy data, toBytes does a copy!
-                    List<Checksum> checksums = RSync.checksums(data.toBytes(), blockSize);
+                    List<Checksum> checksums = RSync.checksums(data.buffer(), blockSize, strongHash);
                     ByteBuf abuf = Unpooled.buffer();
                     ByteBuf dataBuffer = SyncUtils.encodeChecksum(checksums, entry.getKey().versionKey(), data.hash(), abuf);
                     //here we can release this buffer as encodeChecksum calls retain
@@ -202,8 +268,7 @@ public class SyncRPC extends DispatchHandler {
             		//TODO: the client could send us his history to figure out what the latest version in this history is
             		Entry<Number640, Data> latest = storageLayer.
             				get(entry.getKey().minVersionKey(), entry.getKey().maxVersionKey(), 1, false).lastEntry();
-            		// TODO: don't copy data, toBytes does a copy!
-            		List<Checksum> checksums = RSync.checksums(latest.getValue().toBytes(), blockSize);
+            		List<Checksum> checksums = RSync.checksums(latest.getValue().buffer(), blockSize, strongHash);
             		ByteBuf abuf = Unpooled.buffer();
                     ByteBuf dataBuffer = SyncUtils.encodeChecksum(checksums, latest.getKey().versionKey(), 
                     		latest.getValue().hash(), abuf);
@@ -262,8 +327,7 @@ public class SyncRPC extends DispatchHandler {
                     if (dataOld == null || !dataOld.hash().equals(hash)) {
                         continue;
                     }
-                    // TODO: don't copy data, toBytes does a copy!
-                    ByteBuf reconstructedValue = RSync.reconstruct(dataOld.toBytes(), instructions, blockSize);
+                    ByteBuf reconstructedValue = RSync.reconstruct(dataOld.buffer(), instructions, blockSize);
                     //TODO: domain protection?, make the flags configurable
                     Enum<?> status = storageLayer.put(entry.getKey(), new Data(reconstructedValue), publicKey, false, false, false);
                     if (status == PutStatus.OK) {
@@ -293,4 +357,98 @@ public class SyncRPC extends DispatchHandler {
         responseMessage.keyCollection(new KeyCollection(retVal));
         responder.response(responseMessage);
     }
-}
\ No newline at end of file
+
+    /**
+     * Handles a chunk of a streamed diff. The value is rebuilt chunk by chunk from the old value and stored once the
+     * last chunk arrived. If a chunk is missing or the old value changed, the response is {@link Type#NOT_FOUND} and
+     * the sender has to start over.
+     * 
+     * @param message
+     *            The message from a responsible peer
+     * @param responseMessage
+     *            The response message to a responsible peer
+     */
+    private void handleSyncChunk(final Message message, final Message responseMessage, Responder responder) {
+        LOG.debug("Sync chunk received: got from {} -> I'm {}", message.sender().peerId(), message.recipient()
+                .peerId());
+
+        final DataMap dataMap = message.dataMap(0);
+        final PublicKey publicKey = message.publicKey(0);
+        final List<Number640> retVal = new ArrayList<Number640>(1);
+
+        for (Map.Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
+            final Pair<Number160, Number640> pendingKey = new Pair<Number160, Number640>(message.sender().peerId(),
+                    entry.getKey());
+            final ByteBuf buf = entry.getValue().buffer();
+            final Number160 versionKey = SyncUtils.decodeHeader(buf);
+            final Number160 hash = SyncUtils.decodeHeader(buf);
+            final int chunkHeader = buf.readInt();
+            final int sequence = SyncUtils.chunkSequence(chunkHeader);
+
+            PendingSync pending;
+            if (sequence == 0) {
+                Data dataOld = storageLayer.get(new Number640(entry.getKey().locationAndDomainAndContentKey(), versionKey));
+                if (dataOld == null || !dataOld.hash().equals(hash)) {
+                    pendingSyncs.remove(pendingKey);
+                    responseMessage.type(Type.NOT_FOUND);
+                    continue;
+                }
+                pending = new PendingSync(dataOld.buffer());
+                pendingSyncs.put(pendingKey, pending);
+            } else {
+                pending = pendingSyncs.get(pendingKey);
+                if (pending == null || pending.nextSequence != sequence) {
+                    LOG.debug("chunk {} for {} out of order", sequence, entry.getKey());
+                    pendingSyncs.remove(pendingKey);
+                    responseMessage.type(Type.NOT_FOUND);
+                    continue;
+                }
+            }
+            final List<Instruction> instructions = SyncUtils.decodeInstructions(buf);
+            pending.append(RSync.reconstruct(pending.oldValue, instructions, blockSize));
+
+            if (SyncUtils.isLastChunk(chunkHeader)) {
+                pendingSyncs.remove(pendingKey);
+                Enum<?> status = storageLayer.put(entry.getKey(), new Data(pending.value), publicKey, false, false, false);
+                if (status == PutStatus.OK) {
+                    retVal.add(entry.getKey());
+                    if (replicationListener != null) {
+                        replicationListener.dataInserted(entry.getKey().locationKey());
+                    }
+                }
+            }
+        }
+        responseMessage.keyCollection(new KeyCollection(retVal));
+        responder.response(responseMessage);
+    }
+
+    private void removeExpiredSyncs() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<PendingSync> iterator = pendingSyncs.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().lastAccess + PENDING_SYNC_TIMEOUT_MILLIS < now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The state of a streamed diff on the replica peer. The rebuilt chunks are kept as components, so no chunk is
+     * copied again.
+     */
+    private static final class PendingSync {
+        private final ByteBuf oldValue;
+        private final CompositeByteBuf value = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        private int nextSequence = 0;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private PendingSync(final ByteBuf oldValue) {
+            this.oldValue = oldValue;
+        }
+
+        private void append(final ByteBuf chunk) {
+            value.addComponent(true, chunk);
+            nextSequence++;
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
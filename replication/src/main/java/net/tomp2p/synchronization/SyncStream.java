@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 Thomas Bocek, Maxat Pernebayev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.synchronization;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the diffs of large values in chunks over one connection. A chunk is
+ * only sent after the previous chunk was acknowledged, and the next chunk is
+ * calculated on the executor while the current chunk is on its way, so the
+ * checksums are never calculated on a Netty thread. Thus, at most two chunks
+ * are in memory, regardless of the size of the value. If the other peer does
+ * not accept a chunk, the rest of this value is skipped and the stream
+ * continues with the next value; the future fails with the skipped keys at the
+ * end.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+final class SyncStream {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SyncStream.class);
+
+	private final SyncBuilder syncBuilder;
+	private final SyncRPC syncRPC;
+	private final PeerAddress other;
+	private final ChannelCreator channelCreator;
+	private final Executor executor;
+	private final int idleTCPMillis;
+	private final int chunkSize;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final List<Number640> failedKeys = new ArrayList<Number640>();
+	private final FutureDone<Integer> futureDone = new FutureDone<Integer>();
+
+	private PeerConnection peerConnection;
+	// only accessed by one chunk calculation at a time
+	private int current = 0;
+	private int sequence = 0;
+	private int dataCopy = 0;
+
+	SyncStream(final SyncBuilder syncBuilder, final SyncRPC syncRPC, final PeerAddress other,
+	        final ChannelCreator channelCreator, final Executor executor, final int idleTCPMillis,
+	        final int chunkSize) {
+		this.syncBuilder = syncBuilder;
+		this.syncRPC = syncRPC;
+		this.other = other;
+		this.channelCreator = channelCreator;
+		this.executor = executor;
+		this.idleTCPMillis = idleTCPMillis;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Adds a value whose diff is streamed.
+	 * 
+	 * @param key
+	 *            The key of the value
+	 * @param versionKey
+	 *            The version of the value at the replica peer
+	 * @param hash
+	 *            The hash of the value at the replica peer
+	 * @param instructionStream
+	 *            The instructions of the diff
+	 * @return This class
+	 */
+	SyncStream add(final Number640 key, final Number160 versionKey, final Number160 hash,
+	        final InstructionStream instructionStream) {
+		entries.add(new Entry(key, versionKey, hash, instructionStream));
+		return this;
+	}
+
+	boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Opens a connection and starts sending the chunks. The connection is
+	 * closed once all chunks were sent or the connection failed.
+	 * 
+	 * @return The future that is done with the number of bytes sent once all
+	 *         chunks were acknowledged. It fails if the connection failed or
+	 *         if a value was not accepted, the reason contains the keys that
+	 *         were not synchronized
+	 */
+	FutureDone<Integer> start() {
+		peerConnection = PeerConnection.newPermanentPeerConnectionTCP(channelCreator, other, idleTCPMillis,
+		        PeerConnection.HEART_BEAT_MILLIS);
+		futureDone.addListener(new BaseFutureAdapter<FutureDone<Integer>>() {
+			@Override
+			public void operationComplete(final FutureDone<Integer> future) throws Exception {
+				peerConnection.close();
+			}
+		});
+		nextChunk().addListener(new BaseFutureAdapter<FutureDone<Chunk>>() {
+			@Override
+			public void operationComplete(final FutureDone<Chunk> future) throws Exception {
+				if (future.isFailed()) {
+					futureDone.failed(future);
+				} else {
+					send(future.object());
+				}
+			}
+		});
+		return futureDone;
+	}
+
+	private void send(final Chunk chunk) {
+		final FutureResponse futureResponse = syncRPC.syncChunkMessage(other, syncBuilder, chunk.key, chunk.data,
+		        peerConnection);
+		// calculate the next chunk while this chunk is sent
+		final FutureDone<Chunk> futureNext = nextChunk();
+		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+			@Override
+			public void operationComplete(final FutureResponse future) throws Exception {
+				if (future.isFailed()) {
+					futureDone.failed("connection failed (" + future.failedReason() + "), not synchronized: "
+					        + remainingKeys(chunk.index));
+					return;
+				}
+				futureNext.addListener(new BaseFutureAdapter<FutureDone<Chunk>>() {
+					@Override
+					public void operationComplete(final FutureDone<Chunk> future2) throws Exception {
+						if (future2.isFailed()) {
+							futureDone.failed(future2);
+						} else if (future.responseMessage().type() != Type.OK) {
+							LOG.debug("chunk {} not accepted: {}", chunk.key, future.responseMessage().type());
+							skip(chunk, future2.object());
+						} else {
+							sendOrDone(future2.object());
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Skips the rest of the value of the rejected chunk. If the next chunk was
+	 * already calculated for this value, it is dropped and the chunk after the
+	 * value is calculated.
+	 */
+	private void skip(final Chunk rejected, final Chunk next) {
+		failedKeys.add(rejected.key);
+		if (next == null || next.index != rejected.index) {
+			sendOrDone(next);
+			return;
+		}
+		current = rejected.index + 1;
+		sequence = 0;
+		nextChunk().addListener(new BaseFutureAdapter<FutureDone<Chunk>>() {
+			@Override
+			public void operationComplete(final FutureDone<Chunk> future) throws Exception {
+				if (future.isFailed()) {
+					futureDone.failed(future);
+				} else {
+					sendOrDone(future.object());
+				}
+			}
+		});
+	}
+
+	private void sendOrDone(final Chunk next) {
+		if (next != null) {
+			send(next);
+		} else if (failedKeys.isEmpty()) {
+			futureDone.done(dataCopy);
+		} else {
+			futureDone.failed("not synchronized: " + failedKeys);
+		}
+	}
+
+	private List<Number640> remainingKeys(final int index) {
+		final List<Number640> keys = new ArrayList<Number640>(failedKeys);
+		for (int i = index; i < entries.size(); i++) {
+			keys.add(entries.get(i).key);
+		}
+		return keys;
+	}
+
+	/**
+	 * Calculates the next chunk on the executor. The future is done with null
+	 * if there are no more chunks.
+	 */
+	private FutureDone<Chunk> nextChunk() {
+		final FutureDone<Chunk> futureChunk = new FutureDone<Chunk>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						futureChunk.done(calculateChunk());
+					} catch (Throwable t) {
+						LOG.error("could not calculate the next chunk", t);
+						futureChunk.failed(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			futureChunk.failed(e);
+		}
+		return futureChunk;
+	}
+
+	private Chunk calculateChunk() {
+		if (current >= entries.size()) {
+			return null;
+		}
+		final int index = current;
+		final Entry entry = entries.get(index);
+		final List<Instruction> instructions = entry.instructionStream.next(chunkSize);
+		final boolean last = !entry.instructionStream.hasNext();
+		final ByteBuf buf = Unpooled.buffer();
+		dataCopy += SyncUtils.encodeInstructionChunk(instructions, entry.versionKey, entry.hash, sequence, last, buf);
+		final Chunk chunk = new Chunk(index, entry.key, new Data(buf).flag1());
+		if (last) {
+			current++;
+			sequence = 0;
+		} else {
+			sequence++;
+		}
+		return chunk;
+	}
+
+	private static final class Entry {
+		private final Number640 key;
+		private final Number160 versionKey;
+		private final Number160 hash;
+		private final InstructionStream instructionStream;
+
+		private Entry(final Number640 key, final Number160 versionKey, final Number160 hash,
+		        final InstructionStream instructionStream) {
+			this.key = key;
+			this.versionKey = versionKey;
+			this.hash = hash;
+			this.instructionStream = instructionStream;
+		}
+	}
+
+	private static final class Chunk {
+		private final int index;
+		private final Number640 key;
+		private final Data data;
+
+		private Chunk(final int index, final Number640 key, final Data data) {
+			this.index = index;
+			this.key = key;
+			this.data = data;
+		}
+	}
+}
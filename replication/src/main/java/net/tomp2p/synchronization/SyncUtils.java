@@ -52,9 +52,30 @@ public class SyncUtils {
 	
 	public static int encodeInstructions(List<Instruction> instructions, Number160 versionKey, 
 			Number160 hash, ByteBuf buf) {
-		int size = 0;
 	    buf.writeBytes(versionKey.toByteArray());
 	    buf.writeBytes(hash.toByteArray());
+	    return encodeInstructions(instructions, buf);
+	}
+
+	//the chunk header is the sequence number, the first bit is set for the last chunk
+	public static int encodeInstructionChunk(List<Instruction> instructions, Number160 versionKey,
+			Number160 hash, int sequence, boolean last, ByteBuf buf) {
+		buf.writeBytes(versionKey.toByteArray());
+		buf.writeBytes(hash.toByteArray());
+		buf.writeInt(last ? sequence | (1 << 31) : sequence);
+		return 4 + encodeInstructions(instructions, buf);
+	}
+
+	public static int chunkSequence(int chunkHeader) {
+		return chunkHeader & 0x7FFFFFFF;
+	}
+
+	public static boolean isLastChunk(int chunkHeader) {
+		return (chunkHeader & 0x80000000) != 0;
+	}
+
+	private static int encodeInstructions(List<Instruction> instructions, ByteBuf buf) {
+		int size = 0;
 		//first bit to 1 means reference, otherwise length of the literal
 		for(Instruction instruction:instructions) {
 			int header = instruction.reference();
@@ -84,10 +105,14 @@ public class SyncUtils {
 	}
 	
 	public static List<Checksum> decodeChecksums(ByteBuf buf) {
+		//16 bytes as its a MD5
+		return decodeChecksums(buf, DefaultStrongHash.MD5.length());
+	}
+
+	public static List<Checksum> decodeChecksums(ByteBuf buf, int strongHashLength) {
 		final List<Checksum> result = new ArrayList<Checksum>();
 		while(buf.isReadable()) {
-			//16 bytes as its a MD5
-			final byte[] me = new byte[16];
+			final byte[] me = new byte[strongHashLength];
 			final int weak = buf.readInt();
 			buf.readBytes(me);
 			result.add(new Checksum(weak, me));
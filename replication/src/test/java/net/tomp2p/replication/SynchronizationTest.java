@@ -1,6 +1,7 @@
 package net.tomp2p.replication;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import net.tomp2p.dht.PeerBuilderDHT;
 import net.tomp2p.dht.PeerDHT;
 import net.tomp2p.futures.BaseFutureAdapter;
@@ -27,8 +28,12 @@ import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -145,6 +150,85 @@ public class SynchronizationTest {
 		Assert.assertArrayEquals(newValue, bytes);
 	}
 
+	/**
+	 * Many blocks with the same weak checksum, a value that is not backed by an
+	 * array, and a different strong hash.
+	 */
+	@Test
+	public void testGetReconstructedValueByteBuf() {
+		final int size = 64;
+		final StrongHash strongHash = new DefaultStrongHash("SHA-256");
+		byte[] oldValue = new byte[size * 100];
+		Random rnd = new Random(42);
+		// every second block is zero
+		for (int i = 0; i < oldValue.length; i += size * 2) {
+			for (int j = 0; j < size; j++) {
+				oldValue[i + j] = (byte) rnd.nextInt();
+			}
+		}
+		byte[] newValue = oldValue.clone();
+		newValue[size * 3 + 1]++;
+		newValue[size * 50]++;
+		ByteBuf oldBuf = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(oldValue, 0, 1000),
+		        Unpooled.wrappedBuffer(oldValue, 1000, oldValue.length - 1000));
+		ByteBuf newBuf = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(newValue, 0, 3000),
+		        Unpooled.wrappedBuffer(newValue, 3000, newValue.length - 3000));
+
+		List<Checksum> checksums = RSync.checksums(oldBuf, size, strongHash);
+		Assert.assertEquals(32, checksums.get(0).strongChecksum().length);
+		List<Instruction> instructions = RSync.instructions(newBuf, checksums, size, strongHash);
+		Assert.assertEquals(0, oldBuf.readerIndex());
+		Assert.assertEquals(0, newBuf.readerIndex());
+
+		int references = 0;
+		for (Instruction instruction : instructions) {
+			if (instruction.reference() != -1) {
+				references++;
+			}
+		}
+		Assert.assertEquals(98, references);
+		ByteBuf reconstructedValue = RSync.reconstruct(oldBuf, instructions, size);
+		Assert.assertEquals(Unpooled.wrappedBuffer(newValue), reconstructedValue);
+	}
+
+	/**
+	 * The chunks of an instruction stream rebuild the same value as the
+	 * instructions in one piece.
+	 */
+	@Test
+	public void testInstructionStream() {
+		final int size = 100;
+		Random rnd = new Random(42);
+		byte[] oldValue = new byte[100000];
+		rnd.nextBytes(oldValue);
+		byte[] newValue = oldValue.clone();
+		for (int i = 0; i < newValue.length; i += 997) {
+			newValue[i]++;
+		}
+		// a long part that does not match
+		for (int i = 50000; i < 60000; i++) {
+			newValue[i] = (byte) rnd.nextInt();
+		}
+		ByteBuf oldBuf = Unpooled.wrappedBuffer(oldValue);
+		List<Checksum> checksums = RSync.checksums(oldBuf, size, DefaultStrongHash.MD5);
+		InstructionStream stream = new InstructionStream(Unpooled.wrappedBuffer(newValue), checksums, size,
+		        DefaultStrongHash.MD5);
+		ByteBuf reconstructedValue = Unpooled.buffer();
+		int chunks = 0;
+		while (stream.hasNext()) {
+			List<Instruction> instructions = stream.next(1000);
+			int literal = 0;
+			for (Instruction instruction : instructions) {
+				literal += instruction.length();
+			}
+			Assert.assertTrue(literal <= 2000 + size);
+			reconstructedValue.writeBytes(RSync.reconstruct(oldBuf, instructions, size));
+			chunks++;
+		}
+		Assert.assertTrue(chunks > 10);
+		Assert.assertEquals(Unpooled.wrappedBuffer(newValue), reconstructedValue);
+	}
+
 	@Test
 	public void testGetReconstructedValueDynamic() throws IOException {
 		for (int i = 0; i < 1000; i++) {
@@ -506,6 +590,112 @@ public class SynchronizationTest {
 		}
 	}
 
+	@Test
+	public void testSyncMessageDiffChunked() throws IOException, InterruptedException, ClassNotFoundException {
+		PeerDHT sender = null;
+		PeerDHT receiver = null;
+		try {
+			sender = new PeerBuilderDHT(new PeerBuilder(new Number160(3)).ports(4003).start()).start();
+			receiver = new PeerBuilderDHT(new PeerBuilder(new Number160(4)).ports(4004).start()).start();
+
+			final PeerSync senderSync = new PeerSync(sender, 100);
+			new PeerSync(receiver, 100);
+
+			final Number160 locationKey = new Number160(500);
+			Number640 key = new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO);
+			Random rnd = new Random(42);
+			byte[] oldValue = new byte[200000];
+			rnd.nextBytes(oldValue);
+			byte[] newValue = oldValue.clone();
+			for (int i = 0; i < newValue.length; i += 5000) {
+				newValue[i]++;
+			}
+
+			sender.put(locationKey).data(new Data(newValue)).start().awaitUninterruptibly();
+			receiver.put(locationKey).data(new Data(oldValue)).start().awaitUninterruptibly();
+
+			FutureDone<SyncStat> future = senderSync.synchronize(receiver.peerAddress()).key(key)
+			        .chunkSize(1000).start();
+			future.awaitUninterruptibly();
+			Assert.assertTrue(future.isSuccess());
+
+			Data data = receiver.storageLayer().get(key);
+			assertArrayEquals(newValue, data.toBytes());
+			Assert.assertEquals(200000, future.object().dataOrig());
+			Assert.assertTrue(future.object().dataCopy() < 200000);
+		} finally {
+			if (sender != null) {
+				sender.shutdown().awaitUninterruptibly();
+			}
+			if (receiver != null) {
+				receiver.shutdown().awaitUninterruptibly();
+			}
+		}
+	}
+
+	@Test
+	public void testSyncMessageDiffChunkedSkip() throws IOException, InterruptedException, ClassNotFoundException {
+		PeerDHT sender = null;
+		PeerDHT receiver = null;
+		try {
+			sender = new PeerBuilderDHT(new PeerBuilder(new Number160(3)).ports(4003).start()).start();
+			receiver = new PeerBuilderDHT(new PeerBuilder(new Number160(4)).ports(4004).start()).start();
+
+			final PeerSync senderSync = new PeerSync(sender, 100);
+			new PeerSync(receiver, 100);
+
+			final Number160 locationKey = new Number160(500);
+			final Number640 key1 = new Number640(locationKey, Number160.ZERO, new Number160(1), Number160.ZERO);
+			final Number640 key2 = new Number640(locationKey, Number160.ZERO, new Number160(2), Number160.ZERO);
+			Random rnd = new Random(42);
+			byte[] oldValue = new byte[20000];
+			rnd.nextBytes(oldValue);
+			byte[] newValue = oldValue.clone();
+			for (int i = 0; i < newValue.length; i += 5000) {
+				newValue[i]++;
+			}
+			final byte[] otherValue = new byte[20000];
+			rnd.nextBytes(otherValue);
+
+			sender.put(locationKey).data(key1.contentKey(), new Data(newValue)).start().awaitUninterruptibly();
+			sender.put(locationKey).data(key2.contentKey(), new Data(newValue)).start().awaitUninterruptibly();
+			receiver.put(locationKey).data(key1.contentKey(), new Data(oldValue)).start().awaitUninterruptibly();
+			receiver.put(locationKey).data(key2.contentKey(), new Data(oldValue)).start().awaitUninterruptibly();
+
+			// the value of key1 changes after the checksums were sent, so its first chunk is rejected
+			final PeerDHT receiverPeer = receiver;
+			final AtomicBoolean changed = new AtomicBoolean(false);
+			Executor executor = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					if (changed.compareAndSet(false, true)) {
+						receiverPeer.storageLayer().put(key1, new Data(otherValue), null, false, false, false);
+					}
+					command.run();
+				}
+			};
+			Set<Number640> keys = new TreeSet<Number640>();
+			keys.add(key1);
+			keys.add(key2);
+			FutureDone<SyncStat> future = senderSync.synchronize(receiver.peerAddress()).keys(keys)
+			        .chunkSize(1000).executor(executor).start();
+			future.awaitUninterruptibly();
+			Assert.assertTrue(future.isFailed());
+			Assert.assertTrue(future.failedReason().contains(key1.toString()));
+			Assert.assertFalse(future.failedReason().contains(key2.toString()));
+
+			assertArrayEquals(otherValue, receiver.storageLayer().get(key1).toBytes());
+			assertArrayEquals(newValue, receiver.storageLayer().get(key2).toBytes());
+		} finally {
+			if (sender != null) {
+				sender.shutdown().awaitUninterruptibly();
+			}
+			if (receiver != null) {
+				receiver.shutdown().awaitUninterruptibly();
+			}
+		}
+	}
+
 	@Test
 	public void testSyncMessageSame() throws IOException, InterruptedException, ClassNotFoundException {
 		PeerDHT sender = null;
@@ -0,0 +1,172 @@
+package net.tomp2p.replication;
+
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.dht.StorageLayer;
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+import net.tomp2p.synchronization.MerkleIndex;
+import net.tomp2p.synchronization.MerkleSync;
+import net.tomp2p.synchronization.MerkleTree;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestMerkleSync {
+
+	private static final Number160 LOCATION_KEY = new Number160(100);
+
+	@Test
+	public void testTree() {
+		MerkleTree tree1 = new MerkleTree();
+		MerkleTree tree2 = new MerkleTree();
+		for (int i = 0; i < 100; i++) {
+			tree1.put(key(i), new Number160(i));
+			tree2.put(key(99 - i), new Number160(99 - i));
+		}
+		Assert.assertEquals(tree1.root(), tree2.root());
+		Assert.assertArrayEquals(tree1.inner(), tree2.inner());
+
+		tree2.put(key(5), new Number160(6));
+		Assert.assertNotEquals(tree1.root(), tree2.root());
+		boolean[] leaves = new boolean[MerkleTree.LEAVES];
+		leaves[MerkleTree.leaf(key(5))] = true;
+		Assert.assertTrue(tree2.entries(leaves).containsKey(key(5)));
+		tree2.put(key(5), new Number160(5));
+		Assert.assertEquals(tree1.root(), tree2.root());
+
+		for (int i = 0; i < 100; i++) {
+			tree1.remove(key(i));
+		}
+		Assert.assertTrue(tree1.isEmpty());
+		Assert.assertEquals(Number160.ZERO, tree1.root());
+		Assert.assertArrayEquals(new MerkleTree().inner(), tree1.inner());
+	}
+
+	@Test
+	public void testIndex() throws IOException {
+		StorageLayer storageLayer = new StorageLayer(new StorageMemory());
+		storageLayer.put(key(1), new Data("existing"), null, false, false, false);
+		MerkleIndex merkleIndex = new MerkleIndex(storageLayer);
+		storageLayer.put(key(2), new Data("new"), null, false, false, false);
+
+		MerkleTree expected = new MerkleTree();
+		expected.put(key(1), new Data("existing").hash());
+		expected.put(key(2), new Data("new").hash());
+		Assert.assertEquals(expected.root(), merkleIndex.tree(LOCATION_KEY).root());
+
+		storageLayer.remove(key(1), null, false);
+		storageLayer.remove(key(2), null, false);
+		Assert.assertNull(merkleIndex.tree(LOCATION_KEY));
+		merkleIndex.shutdown();
+		storageLayer.put(key(3), new Data("ignored"), null, false, false, false);
+		Assert.assertNull(merkleIndex.tree(LOCATION_KEY));
+	}
+
+	@Test
+	public void testIndexHashesLazily() throws IOException {
+		StorageLayer storageLayer = new StorageLayer(new StorageMemory());
+		MerkleIndex merkleIndex = new MerkleIndex(storageLayer);
+		final AtomicInteger hashed = new AtomicInteger();
+		Data data = new Data("value") {
+			@Override
+			public Number160 hash() {
+				hashed.incrementAndGet();
+				return super.hash();
+			}
+		};
+		storageLayer.put(key(1), data, null, false, false, false);
+		// the value is hashed when the tree is needed, not while it is stored
+		Assert.assertEquals(0, hashed.get());
+
+		MerkleTree expected = new MerkleTree();
+		expected.put(key(1), new Data("value").hash());
+		Assert.assertEquals(expected.root(), merkleIndex.tree(LOCATION_KEY).root());
+		Assert.assertEquals(1, hashed.get());
+		Assert.assertEquals(expected.root(), merkleIndex.tree(LOCATION_KEY).root());
+		Assert.assertEquals(1, hashed.get());
+
+		// the latest change of a key wins
+		storageLayer.put(key(1), new Data("other"), null, false, false, false);
+		storageLayer.remove(key(1), null, false);
+		Assert.assertNull(merkleIndex.tree(LOCATION_KEY));
+		merkleIndex.shutdown();
+	}
+
+	@Test
+	public void testSendDifferent() throws Exception {
+		PeerDHT sender = null;
+		PeerDHT receiver = null;
+		try {
+			sender = new PeerBuilderDHT(new PeerBuilder(new Number160(1)).ports(4001).start()).start();
+			receiver = new PeerBuilderDHT(new PeerBuilder(new Number160(2)).ports(4002).start()).start();
+			final List<NavigableMap<Number640, Data>> sent = new ArrayList<NavigableMap<Number640, Data>>();
+			MerkleSync senderSync = new MerkleSync(sender, new ReplicationSender() {
+				@Override
+				public FutureDone<?> sendDirect(PeerAddress other, Number160 locationKey,
+						NavigableMap<Number640, Data> dataMap) {
+					sent.add(dataMap);
+					return new FutureDone<Void>().done();
+				}
+			});
+			new MerkleSync(receiver, null);
+
+			for (int i = 0; i < 100; i++) {
+				sender.storageLayer().put(key(i), new Data("value" + i), null, false, false, false);
+				// the receiver misses two values and has another one different
+				if (i != 10 && i != 20) {
+					receiver.storageLayer().put(key(i), new Data(i == 30 ? "old" : "value" + i), null, false,
+							false, false);
+				}
+			}
+
+			FutureDone<Void> future = senderSync.sendDirect(receiver.peerAddress(), LOCATION_KEY, all(sender));
+			future.awaitUninterruptibly();
+			Assert.assertTrue(future.isSuccess());
+			Assert.assertEquals(1, sent.size());
+			Assert.assertEquals(3, sent.get(0).size());
+			Assert.assertTrue(sent.get(0).containsKey(key(10)));
+			Assert.assertTrue(sent.get(0).containsKey(key(20)));
+			Assert.assertTrue(sent.get(0).containsKey(key(30)));
+			Assert.assertEquals(97, senderSync.skippedValues());
+
+			for (Number640 key : sent.get(0).keySet()) {
+				receiver.storageLayer().put(key, new Data("value" + key.contentKey().intValue()), null, false,
+						false, false);
+			}
+			future = senderSync.sendDirect(receiver.peerAddress(), LOCATION_KEY, all(sender));
+			future.awaitUninterruptibly();
+			Assert.assertTrue(future.isSuccess());
+			Assert.assertEquals(1, sent.size());
+			Assert.assertEquals(1, senderSync.inSync());
+		} finally {
+			if (sender != null) {
+				sender.shutdown().await();
+			}
+			if (receiver != null) {
+				receiver.shutdown().await();
+			}
+		}
+	}
+
+	private static NavigableMap<Number640, Data> all(PeerDHT peer) {
+		Number640 min = new Number640(LOCATION_KEY, Number160.ZERO, Number160.ZERO, Number160.ZERO);
+		Number640 max = new Number640(LOCATION_KEY, Number160.MAX_VALUE, Number160.MAX_VALUE, Number160.MAX_VALUE);
+		return peer.storageLayer().get(min, max, -1, true);
+	}
+
+	private static Number640 key(int nr) {
+		return new Number640(LOCATION_KEY, Number160.ZERO, new Number160(nr), Number160.ZERO);
+	}
+}
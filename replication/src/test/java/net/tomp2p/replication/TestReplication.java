@@ -302,6 +302,33 @@ public class TestReplication {
         }
     }
 
+    /**
+     * A peer without neighbors has no one to replicate to. The keys must still leave the scheduler, otherwise no
+     * more keys are sent once maxInFlight keys are stuck.
+     */
+    @Test
+    public void testNoPeerToReplicateTo() throws Exception {
+        PeerDHT p1 = null;
+        try {
+            p1 = new PeerBuilderDHT(new PeerBuilder(Number160.createHash("111")).ports(PORT).start()).start();
+            IndirectReplication i1 = new IndirectReplication(p1).maxInFlight(2);
+            i1.start();
+            List<BaseFuture> futures = new ArrayList<BaseFuture>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(i1.meResponsible(Number160.createHash("test" + i)));
+            }
+            for (BaseFuture future : futures) {
+                Assert.assertTrue(future.awaitUninterruptibly(5000));
+                Assert.assertTrue(future.isSuccess());
+            }
+            Assert.assertEquals(0, i1.replicationScheduler().inFlight());
+        } finally {
+            if (p1 != null) {
+                p1.shutdown().awaitUninterruptibly();
+            }
+        }
+    }
+
     /**
      * Search a Peer in a list.
      * 
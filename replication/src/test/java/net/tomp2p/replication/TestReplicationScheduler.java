@@ -0,0 +1,138 @@
+package net.tomp2p.replication;
+
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.peers.Number160;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestReplicationScheduler {
+
+	private ScheduledExecutorService timer;
+
+	@Before
+	public void before() {
+		timer = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void after() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void testUrgentFirst() throws Exception {
+		final List<Number160> sent = Collections.synchronizedList(new ArrayList<Number160>());
+		final List<FutureDone<Void>> pending = Collections.synchronizedList(new ArrayList<FutureDone<Void>>());
+		// the refresh interval is too long to send a refresh key during the test
+		ReplicationScheduler scheduler = new ReplicationScheduler(new ReplicationScheduler.Sender() {
+			@Override
+			public FutureDone<?> send(Number160 locationKey, AtomicLong bytes) {
+				sent.add(locationKey);
+				FutureDone<Void> futureDone = new FutureDone<Void>();
+				pending.add(futureDone);
+				return futureDone;
+			}
+		}, 1000 * 1000, 1, -1);
+		scheduler.refresh(keys(1, 2, 3));
+		FutureDone<Void> future2 = scheduler.urgent(new Number160(2));
+		FutureDone<Void> future9 = scheduler.urgent(new Number160(9));
+		Assert.assertEquals(4, scheduler.queueDepth());
+		Assert.assertEquals(2, scheduler.urgentQueueDepth());
+
+		scheduler.run();
+		// only one key in flight
+		Assert.assertEquals(keys(2), sent);
+		scheduler.run();
+		Assert.assertEquals(1, sent.size());
+
+		pending.get(0).done();
+		Assert.assertTrue(future2.isSuccess());
+		scheduler.run();
+		Assert.assertEquals(keys(2, 9), sent);
+		pending.get(1).failed("test");
+		Assert.assertTrue(future9.isFailed());
+
+		scheduler.run();
+		Assert.assertEquals(2, sent.size());
+		Assert.assertEquals(2, scheduler.queueDepth());
+		Assert.assertEquals(0, scheduler.urgentQueueDepth());
+		Assert.assertEquals(0, scheduler.inFlight());
+
+		scheduler.shutdown();
+		Assert.assertEquals(0, scheduler.queueDepth());
+		Assert.assertTrue(scheduler.urgent(new Number160(1)).isFailed());
+	}
+
+	@Test
+	public void testPacing() throws Exception {
+		final AtomicLong count = new AtomicLong();
+		ReplicationScheduler scheduler = new ReplicationScheduler(new ReplicationScheduler.Sender() {
+			@Override
+			public FutureDone<?> send(Number160 locationKey, AtomicLong bytes) {
+				count.incrementAndGet();
+				return new FutureDone<Void>().done();
+			}
+		}, 2000, 16, -1);
+		List<Number160> keys = new ArrayList<Number160>();
+		for (int i = 0; i < 20; i++) {
+			keys.add(new Number160(i));
+		}
+		scheduler.refresh(keys);
+		scheduler.start(timer);
+
+		Thread.sleep(500);
+		Assert.assertTrue(count.get() > 0);
+		Assert.assertTrue(count.get() < 20);
+		Assert.assertTrue(scheduler.lagMillis() >= 500);
+
+		Thread.sleep(2000);
+		Assert.assertEquals(20, count.get());
+		Assert.assertEquals(0, scheduler.queueDepth());
+		Assert.assertEquals(0, scheduler.lagMillis());
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+		ReplicationScheduler scheduler = new ReplicationScheduler(new ReplicationScheduler.Sender() {
+			@Override
+			public FutureDone<?> send(Number160 locationKey, AtomicLong bytes) {
+				bytes.addAndGet(500);
+				return new FutureDone<Void>().done();
+			}
+		}, 1, 16, 1000);
+		List<Number160> keys = new ArrayList<Number160>();
+		for (int i = 0; i < 10; i++) {
+			keys.add(new Number160(i));
+		}
+		scheduler.refresh(keys);
+		scheduler.start(timer);
+
+		// 1000 bytes per second with keys of 500 bytes
+		Thread.sleep(1000);
+		Assert.assertTrue(scheduler.sentKeys() >= 1);
+		Assert.assertTrue(scheduler.sentKeys() <= 3);
+
+		Thread.sleep(5000);
+		Assert.assertEquals(10, scheduler.sentKeys());
+		Assert.assertEquals(5000, scheduler.sentBytes());
+		scheduler.shutdown();
+	}
+
+	private static List<Number160> keys(int... nrs) {
+		List<Number160> retVal = new ArrayList<Number160>();
+		for (int nr : nrs) {
+			retVal.add(new Number160(nr));
+		}
+		return retVal;
+	}
+}
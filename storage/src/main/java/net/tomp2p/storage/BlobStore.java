@@ -0,0 +1,449 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.peers.Number160;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An append-only store for the payload of large values, addressed by the hash
+ * of the payload. The header of a data object (TTL, based on, public key) and
+ * its signature are not stored here, as two values with the same payload may
+ * differ in them. The payloads are appended to segment files of about
+ * segmentSize bytes. A segment is memory-mapped for reading, and
+ * {@link #get(Number160)} returns a buffer that wraps the mapped region
+ * without copying it. Thus, a large value is read from the page cache when it
+ * is sent.
+ * <p>
+ * Entry format:
+ *
+ * <pre>
+ * 4 bytes - length of the entry without these 4 bytes
+ * 20 bytes - hash of the payload
+ * n bytes - the payload
+ * </pre>
+ *
+ * Since the store does not know which values are still referenced, entries are
+ * never removed directly. {@link #compact(Collection, long)} drops all entries
+ * that are not in the given set and were not stored after the given
+ * {@link #mark()}, and rewrites the segments that are mostly unused. Buffers
+ * that wrap a removed segment stay valid, as the mapping outlives the file.
+ *
+ * @author Thomas Bocek
+ */
+public class BlobStore implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BlobStore.class);
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	// segments with less live bytes than this ratio are rewritten
+	private static final double COMPACT_RATIO = 0.5;
+	private static final String PREFIX = "blob-";
+	private static final String SUFFIX = ".seg";
+	private static final int ENTRY_HEADER_SIZE = 4 + Number160.BYTE_ARRAY_SIZE;
+
+	private final File path;
+	private final int segmentSize;
+
+	// all guarded by this
+	private final Map<Number160, Location> index = new HashMap<Number160, Location>();
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+	private Segment active;
+	// increased on every put, including the ones of a payload that is already stored
+	private long sequence = 0;
+	// true if the active segment has data that is not forced to disk
+	private boolean dirty = false;
+	private boolean closed = false;
+
+	private static class Location {
+		private final Segment segment;
+		// offset of the entry, the payload starts after the entry header
+		private final int offset;
+		// length of the payload
+		private final int length;
+		// the sequence number of the last put of this payload, 0 if recovered
+		private final long sequence;
+
+		private Location(final Segment segment, final int offset, final int length, final long sequence) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.sequence = sequence;
+		}
+	}
+
+	private static class Segment {
+		private final int id;
+		private final File file;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private int size;
+		private MappedByteBuffer mapped;
+
+		private Segment(final int id, final File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			this.size = (int) channel.size();
+		}
+
+		/**
+		 * @return A read-only view of the region, the segment is mapped again
+		 *         if it has grown since the last mapping
+		 */
+		private ByteBuffer region(final int offset, final int length) throws IOException {
+			if (mapped == null || mapped.capacity() < offset + length) {
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			final ByteBuffer region = mapped.duplicate();
+			region.position(offset).limit(offset + length);
+			return region.slice();
+		}
+
+		private void close() throws IOException {
+			channel.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Opens the store in the given directory and builds the index from the
+	 * existing segments. An entry that was not completely written, e.g., due
+	 * to a crash, is cut off.
+	 *
+	 * @param path
+	 *            The directory of the segment files
+	 * @param segmentSize
+	 *            The size after which a new segment is started. A single value
+	 *            may exceed it
+	 * @throws IOException
+	 *             If a segment could not be read
+	 */
+	public BlobStore(final File path, final int segmentSize) throws IOException {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("The segment size needs to be larger than 0.");
+		}
+		this.path = path;
+		this.segmentSize = segmentSize;
+		final File[] files = path.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		if (files != null) {
+			for (File file : files) {
+				final String name = file.getName();
+				final int id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+				segments.put(id, new Segment(id, file));
+			}
+		}
+		// the order matters, later entries of the same hash win
+		for (Segment segment : segments.values()) {
+			recover(segment);
+		}
+		if (!segments.isEmpty()) {
+			active = segments.lastEntry().getValue();
+		}
+	}
+
+	public BlobStore(final File path) throws IOException {
+		this(path, DEFAULT_SEGMENT_SIZE);
+	}
+
+	private void recover(final Segment segment) throws IOException {
+		final ByteBuffer buffer = segment.size == 0 ? null : segment.region(0, segment.size);
+		int offset = 0;
+		while (buffer != null && offset + ENTRY_HEADER_SIZE <= segment.size) {
+			final int entryLength = buffer.getInt(offset);
+			if (entryLength < Number160.BYTE_ARRAY_SIZE || offset + 4 + entryLength > segment.size) {
+				break;
+			}
+			final byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
+			for (int i = 0; i < me.length; i++) {
+				me[i] = buffer.get(offset + 4 + i);
+			}
+			index.put(new Number160(me), new Location(segment, offset, entryLength - Number160.BYTE_ARRAY_SIZE, 0));
+			offset += 4 + entryLength;
+		}
+		if (offset != segment.size) {
+			LOG.warn("Cut off incomplete entry in {} at {}.", segment.file, offset);
+			segment.channel.truncate(offset);
+			segment.size = offset;
+			segment.mapped = null;
+		}
+	}
+
+	/**
+	 * Appends the payload of a value, unless a payload with the same hash is
+	 * already stored. In both cases, the payload is newer than any previous
+	 * {@link #mark()}.
+	 *
+	 * @param hash
+	 *            The hash of the payload, see {@link Data#hash()}
+	 * @param value
+	 *            The value of which the payload is stored
+	 * @throws IOException
+	 *             If the payload could not be written
+	 */
+	public synchronized void put(final Number160 hash, final Data value) throws IOException {
+		checkClosed();
+		final Location location = index.get(hash);
+		if (location != null) {
+			index.put(hash, new Location(location.segment, location.offset, location.length, ++sequence));
+			return;
+		}
+		final int length = value.length();
+		final ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+		entryHeader.putInt(Number160.BYTE_ARRAY_SIZE + length);
+		entryHeader.put(hash.toByteArray());
+		entryHeader.flip();
+
+		final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		buffers.add(entryHeader);
+		addAll(buffers, value.toByteBuffers());
+
+		final Segment segment = activeSegment();
+		final int offset = segment.size;
+		write(segment.channel, offset, buffers);
+		segment.size += ENTRY_HEADER_SIZE + length;
+		dirty = true;
+		index.put(hash, new Location(segment, offset, length, ++sequence));
+	}
+
+	/**
+	 * Reads a payload without copying it.
+	 *
+	 * @param hash
+	 *            The hash of the payload
+	 * @return The buffer that wraps the mapped region, or null if there is no
+	 *         payload with this hash
+	 * @throws IOException
+	 *             If the segment could not be mapped
+	 */
+	public ByteBuf get(final Number160 hash) throws IOException {
+		final ByteBuffer region;
+		synchronized (this) {
+			checkClosed();
+			final Location location = index.get(hash);
+			if (location == null) {
+				return null;
+			}
+			region = location.segment.region(location.offset + ENTRY_HEADER_SIZE, location.length);
+		}
+		return Unpooled.wrappedBuffer(region);
+	}
+
+	/**
+	 * @param hash
+	 *            The hash of the value
+	 * @return True if a value with this hash is stored
+	 */
+	public synchronized boolean contains(final Number160 hash) {
+		return index.containsKey(hash);
+	}
+
+	/**
+	 * @return The number of values in this store
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return The number of segment files
+	 */
+	public synchronized int segments() {
+		return segments.size();
+	}
+
+	/**
+	 * @return The current sequence number. A payload that is put after this
+	 *         call is kept by {@link #compact(Collection, long)} with this mark
+	 */
+	public synchronized long mark() {
+		return sequence;
+	}
+
+	/**
+	 * Removes all payloads that are not in the given set. Use this only if no
+	 * payload is put concurrently, otherwise see
+	 * {@link #compact(Collection, long)}.
+	 *
+	 * @param live
+	 *            The hashes of the payloads that are still referenced
+	 * @return The number of bytes that were reclaimed on disk
+	 * @throws IOException
+	 *             If a segment could not be rewritten
+	 */
+	public synchronized long compact(final Collection<Number160> live) throws IOException {
+		return compact(live, sequence);
+	}
+
+	/**
+	 * Removes all payloads that are not in the given set and were not put
+	 * after the mark. Thus, a payload that is put while the caller collects
+	 * the live set is kept, even if the live set misses it. Segments with less
+	 * than half of their bytes in use are rewritten to the active segment and
+	 * deleted.
+	 *
+	 * @param live
+	 *            The hashes of the payloads that were referenced at the mark
+	 * @param mark
+	 *            The {@link #mark()} taken before the live set was collected
+	 * @return The number of bytes that were reclaimed on disk
+	 * @throws IOException
+	 *             If a segment could not be rewritten
+	 */
+	public synchronized long compact(final Collection<Number160> live, final long mark) throws IOException {
+		checkClosed();
+		final Set<Number160> liveSet = live instanceof Set ? (Set<Number160>) live : new HashSet<Number160>(live);
+		final Map<Segment, Long> liveBytes = new HashMap<Segment, Long>();
+		for (Iterator<Map.Entry<Number160, Location>> iterator = index.entrySet().iterator(); iterator.hasNext();) {
+			final Map.Entry<Number160, Location> entry = iterator.next();
+			if (entry.getValue().sequence <= mark && !liveSet.contains(entry.getKey())) {
+				iterator.remove();
+				continue;
+			}
+			final Segment segment = entry.getValue().segment;
+			final Long bytes = liveBytes.get(segment);
+			liveBytes.put(segment, (bytes == null ? 0 : bytes) + ENTRY_HEADER_SIZE + entry.getValue().length);
+		}
+		final List<Segment> toRewrite = new ArrayList<Segment>();
+		for (Segment segment : segments.values()) {
+			final Long bytes = liveBytes.get(segment);
+			if (segment != active && (bytes == null || bytes < segment.size * COMPACT_RATIO)) {
+				toRewrite.add(segment);
+			}
+		}
+		long reclaimed = 0;
+		for (Segment segment : toRewrite) {
+			for (Map.Entry<Number160, Location> entry : index.entrySet()) {
+				final Location location = entry.getValue();
+				if (location.segment != segment) {
+					continue;
+				}
+				final int entryLength = ENTRY_HEADER_SIZE + location.length;
+				final Segment target = activeSegment();
+				final int offset = target.size;
+				final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(1);
+				buffers.add(segment.region(location.offset, entryLength));
+				write(target.channel, offset, buffers);
+				target.size += entryLength;
+				entry.setValue(new Location(target, offset, location.length, location.sequence));
+				reclaimed -= entryLength;
+			}
+			reclaimed += segment.size;
+			segments.remove(segment.id);
+			segment.close();
+			if (!segment.file.delete()) {
+				LOG.warn("Could not delete segment {}.", segment.file);
+			}
+		}
+		if (!toRewrite.isEmpty()) {
+			flush();
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Forces the appended values to disk. Call this before the references to
+	 * the values are committed, so that a reference never outlives its value
+	 * after a crash.
+	 *
+	 * @throws IOException
+	 *             If the segment could not be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (!closed && dirty) {
+			active.channel.force(false);
+			dirty = false;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		flush();
+		for (Segment segment : segments.values()) {
+			segment.close();
+		}
+		segments.clear();
+		index.clear();
+	}
+
+	private Segment activeSegment() throws IOException {
+		if (active == null || active.size >= segmentSize) {
+			if (active != null && dirty) {
+				// the sealed segment is not forced by flush anymore
+				active.channel.force(false);
+				dirty = false;
+			}
+			final int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+			active = new Segment(id, new File(path, PREFIX + id + SUFFIX));
+			segments.put(id, active);
+		}
+		return active;
+	}
+
+	private void checkClosed() throws IOException {
+		if (closed) {
+			throw new IOException("Blob store is closed.");
+		}
+	}
+
+	private static void addAll(final List<ByteBuffer> list, final ByteBuffer[] buffers) {
+		for (ByteBuffer buffer : buffers) {
+			list.add(buffer);
+		}
+	}
+
+	private static void write(final FileChannel channel, final long position, final List<ByteBuffer> buffers)
+	        throws IOException {
+		long offset = position;
+		for (ByteBuffer buffer : buffers) {
+			while (buffer.hasRemaining()) {
+				offset += channel.write(buffer, offset);
+			}
+		}
+	}
+}
@@ -12,6 +12,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.Collection;
 
 public class DataSerializer implements Serializer<Data>, Serializable {
 
@@ -21,6 +22,7 @@ public class DataSerializer implements Serializer<Data>, Serializable {
     
     final private File path;
     final private SignatureFactory signatureFactory;
+    transient private BlobStore blobStore;
     
     public DataSerializer(File path, SignatureFactory signatureFactory) {
     	this.path = path;
@@ -29,10 +31,10 @@ public class DataSerializer implements Serializer<Data>, Serializable {
 
 	@Override
 	public void serialize(DataOutput out, Data value) throws IOException {
-		if (value.length() > MAX_SIZE) {
-			// header, 1 means stored on disk in a file
-			out.writeByte(1);
-			serializeFile(out, value);
+		if (isLarge(value)) {
+			// header, 2 means the payload is stored on disk in the blob store
+			out.writeByte(2);
+			serializeBlob(out, value);
 		} else {
 			// header, 0 means stored on disk with MapDB
 			out.writeByte(0);
@@ -61,45 +63,26 @@ public class DataSerializer implements Serializer<Data>, Serializable {
 	    }
     }
 
-	private void serializeFile(DataOutput out, Data value) throws IOException, FileNotFoundException {
+	private void serializeBlob(DataOutput out, Data value) throws IOException {
 	    Number160 hash = value.hash();
-	    // store file name
+	    // store the hash of the payload, the payload itself is in the blob store
 	    out.write(hash.toByteArray());
-	    // store as external file, create path
-	    RandomAccessFile file = null;
-	    FileChannel rwChannel = null;
-	    ByteBuf acb = null;
+	    // the header and the signature are always stored, as they may differ
+	    // for the same payload
+	    ByteBuf acb = Unpooled.buffer();
+	    value.encodeHeader(acb, signatureFactory);
+	    write(out, acb.nioBuffers());
+	    acb.skipBytes(acb.writerIndex());
 	    try {
-	    	file = new RandomAccessFile(new File(path, hash.toString()), "rw");
-	    	rwChannel = file.getChannel();
-	    	acb = Unpooled.buffer();
-	    	// store data to disk
-	    	// header first
-	    	value.encodeHeader(acb, signatureFactory);
-	    	rwChannel.write(acb.nioBuffers());
-	    	// next data - no need to copy to another buffer, just take the
-	    	// data from memory
-	    	rwChannel.write(value.toByteBuffers());
-	    	// rest
-	    	try {
-	    		value.encodeDone(acb, signatureFactory);
-	    		rwChannel.write(acb.nioBuffers());
-	    	} catch (InvalidKeyException e) {
-	    		throw new IOException(e);
-	    	} catch (SignatureException e) {
-	    		throw new IOException(e);
-	    	}
-	    } finally {
-	    	if (acb!=null) {
-	    		acb.release();
-	    	}
-	    	if (rwChannel != null) {
-	    		rwChannel.close();
-	    	}
-	    	if (file != null) {
-	    		file.close();
-	    	}
+	    	value.encodeDone(acb, signatureFactory);
+	    	write(out, acb.nioBuffers());
+	    } catch (InvalidKeyException e) {
+	    	throw new IOException(e);
+	    } catch (SignatureException e) {
+	    	throw new IOException(e);
 	    }
+	    // if the payload is already stored, e.g., as MapDB serializes a node again, this does nothing
+	    blobStore().put(hash, value);
     }
 
 	private void write(DataOutput out, ByteBuffer[] nioBuffers) throws IOException {
@@ -119,7 +102,9 @@ public class DataSerializer implements Serializer<Data>, Serializable {
 	@Override
     public Data deserialize(DataInput in, int available) throws IOException {
 	    int header = in.readByte();
-	    if(header == 1) {
+	    if(header == 2) {
+	    	return deserializeBlob(in);
+	    } else if(header == 1) {
 	    	return deserializeFile(in);
 	    } else if(header == 0) {
 	    	return deserializeMapDB(in);
@@ -155,22 +140,126 @@ public class DataSerializer implements Serializer<Data>, Serializable {
 	    return data;
     }
 
-	private Data deserializeFile(DataInput in) throws IOException, FileNotFoundException {
+	private Data deserializeBlob(DataInput in) throws IOException {
 	    byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
 	    in.readFully(me);
 	    Number160 hash = new Number160(me);
-	    RandomAccessFile file = new RandomAccessFile(new File(path, hash.toString()), "r");
-	    FileChannel inChannel = file.getChannel();
-	    MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size());
-	    buffer.load();
-	    ByteBuf buf = Unpooled.wrappedBuffer(buffer);
-	    Data data = Data.decodeHeader(buf, signatureFactory);
-	    data.decodeBuffer(buf);
-	    data.decodeDone(buf, signatureFactory);
-	    file.close();
+	    ByteBuf header = Unpooled.buffer();
+	    Data data = null;
+	    while(data == null) {
+	    	header.writeByte(in.readByte());
+	    	data = Data.decodeHeader(header, signatureFactory);
+	    }
+	    header.readerIndex(0);
+	    ByteBuf signature = Unpooled.EMPTY_BUFFER;
+	    if(data.isSigned()) {
+	    	me = new byte[signatureFactory.signatureSize()];
+	    	in.readFully(me);
+	    	signature = Unpooled.wrappedBuffer(me);
+	    }
+	    ByteBuf payload = blobStore().get(hash);
+	    if (payload == null || payload.readableBytes() != data.length()) {
+	    	throw new IOException("no payload found for hash " + hash);
+	    }
+	    // wrap the mapped payload, it is not copied
+	    ByteBuf buf = Unpooled.wrappedBuffer(header, payload, signature);
+	    data = Data.decodeWrapped(buf, signatureFactory);
+	    if (data == null || !data.decodeDone(buf, signatureFactory)) {
+	    	throw new IOException("data could not be read for hash " + hash);
+	    }
 	    return data;
     }
 
+	private Data deserializeFile(DataInput in) throws IOException {
+	    byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
+	    in.readFully(me);
+	    // stored as a single file by an older version
+	    Number160 hash = new Number160(me);
+	    File legacy = new File(path, hash.toString());
+	    if (!legacy.exists()) {
+	    	throw new IOException("no value found for hash " + hash);
+	    }
+	    RandomAccessFile file = new RandomAccessFile(legacy, "r");
+	    try {
+	    	FileChannel inChannel = file.getChannel();
+	    	MappedByteBuffer buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size());
+	    	ByteBuf buf = Unpooled.wrappedBuffer(buffer);
+	    	Data data = Data.decodeWrapped(buf, signatureFactory);
+	    	if (data == null || !data.decodeDone(buf, signatureFactory)) {
+	    		throw new IOException("data could not be read from " + legacy);
+	    	}
+	    	return data;
+	    } finally {
+	    	file.close();
+	    }
+    }
+
+	/**
+	 * @return The mark of the blob store, see {@link BlobStore#mark()}
+	 */
+	public long mark() throws IOException {
+		return blobStore().mark();
+	}
+
+	/**
+	 * Removes the payloads of large values that are not referenced anymore
+	 * from the blob store and reclaims the space of mostly unused segments.
+	 * 
+	 * @param live
+	 *            The hashes of the large values that were stored at the mark
+	 * @param mark
+	 *            The mark taken before the live set was collected
+	 * @return The number of bytes that were reclaimed on disk
+	 */
+	public long compact(Collection<Number160> live, long mark) throws IOException {
+		return blobStore().compact(live, mark);
+	}
+
+	/**
+	 * Forces the large values to disk. Needs to be called before MapDB
+	 * commits the references to them.
+	 */
+	public void flush() throws IOException {
+		BlobStore blobStore;
+		synchronized (this) {
+			blobStore = this.blobStore;
+		}
+		if (blobStore != null) {
+			blobStore.flush();
+		}
+	}
+
+	/**
+	 * Closes the blob store. Values that were read before stay valid.
+	 */
+	public void close() throws IOException {
+		BlobStore blobStore;
+		synchronized (this) {
+			blobStore = this.blobStore;
+			this.blobStore = null;
+		}
+		if (blobStore != null) {
+			blobStore.close();
+		}
+	}
+
+	/**
+	 * @param value
+	 *            The value to store
+	 * @return True if the value is stored in the blob store and not in MapDB
+	 */
+	public static boolean isLarge(Data value) {
+		return value.length() > MAX_SIZE;
+	}
+
+	// created lazily, as MapDB may create this serializer by deserialization
+	private synchronized BlobStore blobStore() throws IOException {
+		if (blobStore == null) {
+			blobStore = new BlobStore(path);
+		}
+		return blobStore;
+	}
+
 	@Override
     public int fixedSize() {
 	    return -1;
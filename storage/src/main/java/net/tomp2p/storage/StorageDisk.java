@@ -24,16 +24,40 @@ import net.tomp2p.peers.Number480;
 import net.tomp2p.peers.Number640;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.security.PublicKey;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * A storage that uses MapDB to store the data on disk. By default, every write
+ * is committed. In group-commit mode, writes are committed every
+ * commitEveryWrites writes or every commitIntervalMillis milliseconds,
+ * whichever comes first, and on {@link #flush()} and {@link #close()}. Thus,
+ * after a crash, the writes since the last commit are lost. If the MapDB
+ * instance has transactions enabled, its write-ahead log makes each commit
+ * atomic, so the store always recovers to the last commit. Use
+ * {@link #StorageDisk(Number160, File, SignatureFactory, int, int)} to create
+ * such a store.
+ */
 public class StorageDisk implements Storage {
+	private static final Logger LOG = LoggerFactory.getLogger(StorageDisk.class);
+	
     // Core
     final private NavigableMap<Number640, Data> dataMap;
+    // the hashes of the large values in the blob store, so that compaction does not need to read them
+    final private NavigableMap<Number640, Number160> blobMap;
     // Maintenance
     final private Map<Number640, Long> timeoutMap;
     final private ConcurrentNavigableMap<Long, Set<Number640>> timeoutMapRev;
@@ -45,14 +69,62 @@ public class StorageDisk implements Storage {
     final private Map<Number160, Set<Number160>> responsibilityMapRev;
     
     final private DB db;
+    final private DataSerializer dataSerializer;
+    // writes hold the read lock, compaction holds the write lock while it collects the live values
+    final private ReadWriteLock compactLock = new ReentrantReadWriteLock();
     
     final private int storageCheckIntervalMillis;
     
+    // Group commit
+    final private int commitEveryWrites;
+    final private ScheduledExecutorService commitTimer;
+    final private Object commitLock = new Object();
+    private int uncommittedWrites = 0;
+    private long commits = 0;
+    
     //for full control
     public StorageDisk(DB db, Number160 peerId, File path, SignatureFactory signatureFactory, int storageCheckIntervalMillis) {
+    	this(db, peerId, path, signatureFactory, storageCheckIntervalMillis, 1, 0);
+    }
+    
+    /**
+     * Creates a storage with group commit.
+     * 
+     * @param db
+     *            The MapDB instance, enable transactions to have a write-ahead log
+     * @param peerId
+     *            The peer ID, used to name the maps
+     * @param path
+     *            The directory for the data
+     * @param signatureFactory
+     *            The signature factory to decode the data
+     * @param storageCheckIntervalMillis
+     *            The interval to check for expired data
+     * @param commitEveryWrites
+     *            Commit after this number of writes, 1 commits every write
+     * @param commitIntervalMillis
+     *            Commit outstanding writes after this time, 0 to commit only
+     *            by number of writes
+     */
+    public StorageDisk(DB db, Number160 peerId, File path, SignatureFactory signatureFactory,
+    		int storageCheckIntervalMillis, int commitEveryWrites, int commitIntervalMillis) {
+    	if (commitEveryWrites < 1) {
+    		throw new IllegalArgumentException("Need to commit at least every " + commitEveryWrites + " writes.");
+    	}
     	this.db = db;
-    	DataSerializer dataSerializer = new DataSerializer(path, signatureFactory);
+    	this.dataSerializer = new DataSerializer(path, signatureFactory);
     	this.dataMap = db.createTreeMap("dataMap_" + peerId.toString()).valueSerializer(dataSerializer).makeOrGet();
+    	final boolean migrate = !db.exists("blobMap_" + peerId.toString());
+    	this.blobMap = db.createTreeMap("blobMap_" + peerId.toString()).makeOrGet();
+    	if (migrate && !dataMap.isEmpty()) {
+    		// created by an older version, read the values once
+    		for (Map.Entry<Number640, Data> entry : dataMap.entrySet()) {
+    			if (DataSerializer.isLarge(entry.getValue())) {
+    				blobMap.put(entry.getKey(), entry.getValue().hash());
+    			}
+    		}
+    		db.commit();
+    	}
     	this.timeoutMap = db.createTreeMap("timeoutMap_" + peerId.toString()).makeOrGet();
     	this.timeoutMapRev = db.createTreeMap("timeoutMapRev_" + peerId.toString()).makeOrGet();
     	this.protectedDomainMap = db.createTreeMap("protectedDomainMap_" + peerId.toString()).makeOrGet();
@@ -60,6 +132,25 @@ public class StorageDisk implements Storage {
     	this.responsibilityMap = db.createTreeMap("responsibilityMap_" + peerId.toString()).makeOrGet();
     	this.responsibilityMapRev = db.createTreeMap("responsibilityMapRev_" + peerId.toString()).makeOrGet();
     	this.storageCheckIntervalMillis = storageCheckIntervalMillis;
+    	this.commitEveryWrites = commitEveryWrites;
+    	if (commitEveryWrites > 1 && commitIntervalMillis > 0) {
+    		this.commitTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "StorageDisk commit " + peerId);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+    		this.commitTimer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    	} else {
+    		this.commitTimer = null;
+    	}
     }
     
     //set parameter to a reasonable default
@@ -68,10 +159,28 @@ public class StorageDisk implements Storage {
     			peerId, path, signatureFactory, 60 * 1000);
     }
     
+    //group commit with the write-ahead log of MapDB
+    public StorageDisk(Number160 peerId, File path, SignatureFactory signatureFactory, int commitEveryWrites,
+    		int commitIntervalMillis) {
+    	this(DBMaker.newFileDB(new File(path, "tomp2p")).closeOnJvmShutdown().make(), 
+    			peerId, path, signatureFactory, 60 * 1000, commitEveryWrites, commitIntervalMillis);
+    }
+    
     @Override
     public Data put(Number640 key, Data value) {
-		Data oldData = dataMap.put(key, value);
-		db.commit();
+    	final Data oldData;
+    	compactLock.readLock().lock();
+    	try {
+    		if (DataSerializer.isLarge(value)) {
+    			blobMap.put(key, value.hash());
+    		} else {
+    			blobMap.remove(key);
+    		}
+    		oldData = dataMap.put(key, value);
+    	} finally {
+    		compactLock.readLock().unlock();
+    	}
+		commit();
         return oldData;
     }
     
@@ -93,8 +202,15 @@ public class StorageDisk implements Storage {
     
     @Override
     public Data remove(Number640 key, boolean returnData) {
-    	Data retVal = dataMap.remove(key);
-		db.commit();
+    	final Data retVal;
+    	compactLock.readLock().lock();
+    	try {
+    		retVal = dataMap.remove(key);
+    		blobMap.remove(key);
+    	} finally {
+    		compactLock.readLock().unlock();
+    	}
+		commit();
 		return retVal;
     }
     
@@ -106,8 +222,14 @@ public class StorageDisk implements Storage {
         	retVal.put(entry.getKey(), entry.getValue());
         }
 		
-        tmp.clear();
-        db.commit();
+        compactLock.readLock().lock();
+        try {
+        	tmp.clear();
+        	blobMap.subMap(from, true, to, true).clear();
+        } finally {
+        	compactLock.readLock().unlock();
+        }
+        commit();
         return retVal;
     }
     
@@ -130,7 +252,7 @@ public class StorageDisk implements Storage {
 			return;
 		}
 		removeRevTimeout(key, oldExpiration);
-		db.commit();
+		commit();
 	}
  	
  	private void putIfAbsent2(long expiration, Number640 key) {
@@ -149,7 +271,7 @@ public class StorageDisk implements Storage {
             return;
         }
         removeRevTimeout(key, expiration);
-        db.commit();
+        commit();
     }
  	
  	private void removeRevTimeout(Number640 key, Long expiration) {
@@ -207,7 +329,7 @@ public class StorageDisk implements Storage {
 		}
 		contentIDs.add(locationKey);
 		responsibilityMapRev.put(peerId, contentIDs);
-		db.commit();
+		commit();
 		return hasChanged;
     }
 
@@ -217,7 +339,7 @@ public class StorageDisk implements Storage {
     	if(peerId != null) {
     		removeRevResponsibility(peerId, locationKey);
     	}
-    	db.commit();
+    	commit();
     }
 	
 	private void removeRevResponsibility(Number160 peerId, Number160 locationKey) {
@@ -235,9 +357,90 @@ public class StorageDisk implements Storage {
 	// Misc
 	@Override
     public void close() {
-	    db.close();	    
+		if (commitTimer != null) {
+			// cancels the next commits, but waits for a running one, as an
+			// interrupt would close the file channel of MapDB
+			commitTimer.shutdown();
+			try {
+				if (!commitTimer.awaitTermination(10, TimeUnit.SECONDS)) {
+					LOG.warn("The commit timer did not stop in time.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	    db.close();
+	    try {
+	    	dataSerializer.close();
+	    } catch (IOException e) {
+	    	LOG.warn("Could not close the blob store.", e);
+	    }
     }
 	
+	/**
+	 * Removes the large values that are not stored anymore from the blob store
+	 * of the {@link DataSerializer}. Writes are blocked while the hashes of
+	 * the stored values are collected, but not while the segments are
+	 * rewritten. A value that is stored after the hashes were collected is
+	 * kept.
+	 * 
+	 * @return The number of bytes that were reclaimed on disk
+	 */
+	public long compact() throws IOException {
+		final long mark;
+		final Set<Number160> live;
+		compactLock.writeLock().lock();
+		try {
+			mark = dataSerializer.mark();
+			live = new HashSet<Number160>(blobMap.values());
+		} finally {
+			compactLock.writeLock().unlock();
+		}
+		return dataSerializer.compact(live, mark);
+	}
+	
+	/**
+	 * Commits all outstanding writes. Only required in group-commit mode, as
+	 * otherwise every write is committed.
+	 */
+	public void flush() {
+		synchronized (commitLock) {
+			if (uncommittedWrites > 0) {
+				doCommit();
+			}
+		}
+	}
+	
+	/**
+	 * @return The number of commits so far
+	 */
+	public long commits() {
+		synchronized (commitLock) {
+			return commits;
+		}
+	}
+	
+	private void commit() {
+		synchronized (commitLock) {
+			if (++uncommittedWrites >= commitEveryWrites) {
+				doCommit();
+			}
+		}
+	}
+	
+	private void doCommit() {
+		// the large values need to be on disk before their references
+		try {
+			dataSerializer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		db.commit();
+		uncommittedWrites = 0;
+		commits++;
+	}
+	
 	// Protection Domain
 	@Override
     public boolean protectDomain(Number320 key, PublicKey publicKey) {
@@ -0,0 +1,138 @@
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.tomp2p.peers.Number160;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestBlobStore {
+	private static final int SEGMENT_SIZE = 64 * 1024;
+	private File dir;
+
+	@Test
+	public void testPutGet() throws Exception {
+		BlobStore blobStore = new BlobStore(dir, SEGMENT_SIZE);
+		Data data = createData(20 * 1024, 1);
+		blobStore.put(data.hash(), data);
+		// the same value is not stored twice
+		blobStore.put(data.hash(), data);
+		Assert.assertEquals(1, blobStore.size());
+		ByteBuf read = blobStore.get(data.hash());
+		Assert.assertEquals(data.buffer(), read);
+		// not copied to the heap
+		Assert.assertFalse(read.hasArray());
+		Assert.assertNull(blobStore.get(Number160.ONE));
+		blobStore.close();
+	}
+
+	@Test
+	public void testRecover() throws Exception {
+		BlobStore blobStore = new BlobStore(dir, SEGMENT_SIZE);
+		Data data1 = createData(20 * 1024, 1);
+		Data data2 = createData(20 * 1024, 2);
+		blobStore.put(data1.hash(), data1);
+		blobStore.put(data2.hash(), data2);
+		blobStore.close();
+		// simulate a crash while writing the second value
+		File segment = new File(dir, "blob-0.seg");
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 100);
+		file.close();
+
+		blobStore = new BlobStore(dir, SEGMENT_SIZE);
+		Assert.assertEquals(1, blobStore.size());
+		Assert.assertEquals(data1.buffer(), blobStore.get(data1.hash()));
+		Assert.assertFalse(blobStore.contains(data2.hash()));
+		blobStore.put(data2.hash(), data2);
+		Assert.assertEquals(data2.buffer(), blobStore.get(data2.hash()));
+		blobStore.close();
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		BlobStore blobStore = new BlobStore(dir, SEGMENT_SIZE);
+		Data[] data = new Data[10];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = createData(20 * 1024, i);
+			blobStore.put(data[i].hash(), data[i]);
+		}
+		Assert.assertEquals(3, blobStore.segments());
+		// wrap a value of a segment that is removed
+		ByteBuf before = blobStore.get(data[0].hash());
+		long reclaimed = blobStore.compact(Arrays.asList(data[1].hash(), data[9].hash()));
+		Assert.assertTrue(reclaimed > 0);
+		Assert.assertEquals(2, blobStore.size());
+		Assert.assertEquals(data[1].buffer(), blobStore.get(data[1].hash()));
+		Assert.assertEquals(data[9].buffer(), blobStore.get(data[9].hash()));
+		Assert.assertNull(blobStore.get(data[0].hash()));
+		Assert.assertEquals(data[0].buffer(), before);
+		blobStore.close();
+
+		blobStore = new BlobStore(dir, SEGMENT_SIZE);
+		// the removed entries of the active segment are recovered until they are rewritten
+		Assert.assertTrue(blobStore.contains(data[8].hash()));
+		Assert.assertEquals(data[1].buffer(), blobStore.get(data[1].hash()));
+		Assert.assertEquals(data[9].buffer(), blobStore.get(data[9].hash()));
+		blobStore.compact(Collections.<Number160> emptySet());
+		Assert.assertEquals(0, blobStore.size());
+		blobStore.close();
+	}
+
+	@Test
+	public void testCompactMark() throws Exception {
+		BlobStore blobStore = new BlobStore(dir, SEGMENT_SIZE);
+		Data data1 = createData(20 * 1024, 1);
+		Data data2 = createData(20 * 1024, 2);
+		Data data3 = createData(20 * 1024, 3);
+		blobStore.put(data1.hash(), data1);
+		blobStore.put(data2.hash(), data2);
+		long mark = blobStore.mark();
+		// stored while the live set is collected, the live set misses it
+		blobStore.put(data3.hash(), data3);
+		// stored again, e.g., by another key with the same payload
+		blobStore.put(data2.hash(), data2);
+		blobStore.compact(Collections.<Number160> emptySet(), mark);
+		Assert.assertEquals(2, blobStore.size());
+		Assert.assertFalse(blobStore.contains(data1.hash()));
+		Assert.assertEquals(data2.buffer(), blobStore.get(data2.hash()));
+		Assert.assertEquals(data3.buffer(), blobStore.get(data3.hash()));
+		blobStore.compact(Collections.<Number160> emptySet(), blobStore.mark());
+		Assert.assertEquals(0, blobStore.size());
+		blobStore.close();
+	}
+
+	private static Data createData(int size, int fill) {
+		byte[] me = new byte[size];
+		Arrays.fill(me, (byte) fill);
+		return new Data(me);
+	}
+
+	@Before
+	public void before() throws IOException {
+		dir = Files.createTempDirectory("tomp2p").toFile();
+	}
+
+	@After
+	public void after() {
+		dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File pathname) {
+				if (pathname.isFile())
+					pathname.delete();
+				return false;
+			}
+		});
+		dir.delete();
+	}
+}
@@ -3,8 +3,11 @@ package net.tomp2p.storage;
 import net.tomp2p.connection.DSASignatureFactory;
 import net.tomp2p.dht.Storage;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Test;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 
@@ -12,6 +15,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
 
 public class TestStorageDisk extends TestStorage {
 	final private static Number160 locationKey = new Number160(10);
@@ -22,6 +26,47 @@ public class TestStorageDisk extends TestStorage {
 		return new StorageDisk(db, locationKey, DIR, new DSASignatureFactory(), 60 * 1000);
 	}
 
+	@Test
+	public void testLargeSamePayload() throws Exception {
+		StorageDisk storage = (StorageDisk) createStorage();
+		Number640 key1 = new Number640(locationKey, Number160.ZERO, Number160.ONE, Number160.ZERO);
+		Number640 key2 = new Number640(locationKey, Number160.ZERO, new Number160(2), Number160.ZERO);
+		storage.put(key1, createData(20 * 1024).ttlSeconds(10));
+		storage.put(key2, createData(20 * 1024).ttlSeconds(20));
+		storage.close();
+
+		storage = (StorageDisk) createStorage();
+		// the payload is stored once, but each value keeps its own header
+		Assert.assertEquals(10, storage.get(key1).ttlSeconds());
+		Assert.assertEquals(20, storage.get(key2).ttlSeconds());
+		Assert.assertEquals(createData(20 * 1024), storage.get(key2));
+		storage.close();
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		StorageDisk storage = (StorageDisk) createStorage();
+		Number640 key1 = new Number640(locationKey, Number160.ZERO, Number160.ONE, Number160.ZERO);
+		Number640 key2 = new Number640(locationKey, Number160.ZERO, new Number160(2), Number160.ZERO);
+		storage.put(key1, createData(20 * 1024));
+		storage.put(key2, createData(30 * 1024));
+		storage.remove(key1, false);
+		storage.compact();
+		Assert.assertEquals(createData(30 * 1024), storage.get(key2));
+		storage.close();
+
+		storage = (StorageDisk) createStorage();
+		Assert.assertEquals(createData(30 * 1024), storage.get(key2));
+		Assert.assertNull(storage.get(key1));
+		storage.close();
+	}
+
+	private static Data createData(int size) {
+		byte[] me = new byte[size];
+		Arrays.fill(me, (byte) size);
+		return new Data(me);
+	}
+
 	@Before
 	public void befor() throws IOException {
 		DIR =  Files.createTempDirectory("tomp2p").toFile();
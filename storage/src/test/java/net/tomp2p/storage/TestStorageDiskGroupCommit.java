@@ -0,0 +1,84 @@
+package net.tomp2p.storage;
+
+import net.tomp2p.connection.DSASignatureFactory;
+import net.tomp2p.dht.Storage;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class TestStorageDiskGroupCommit extends TestStorage {
+	final private static Number160 locationKey = new Number160(10);
+	private static File DIR;
+
+	public Storage createStorage() throws IOException {
+		return createStorage(10, 100);
+	}
+
+	private StorageDisk createStorage(int commitEveryWrites, int commitIntervalMillis) {
+		DB db = DBMaker.newFileDB(new File(DIR, "tomp2p")).closeOnJvmShutdown().cacheDisable().make();
+		return new StorageDisk(db, locationKey, DIR, new DSASignatureFactory(), 60 * 1000, commitEveryWrites,
+				commitIntervalMillis);
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		StorageDisk storage = createStorage(10, 0);
+		for (int i = 0; i < 25; i++) {
+			storage.put(new Number640(locationKey, Number160.ZERO, new Number160(i), Number160.ZERO), new Data(i));
+		}
+		Assert.assertEquals(2, storage.commits());
+		storage.flush();
+		Assert.assertEquals(3, storage.commits());
+		// nothing to commit
+		storage.flush();
+		Assert.assertEquals(3, storage.commits());
+		storage.put(new Number640(locationKey, Number160.ZERO, new Number160(25), Number160.ZERO), new Data(25));
+		// close commits the last write
+		storage.close();
+
+		storage = createStorage(10, 0);
+		Assert.assertEquals(26, storage.map().size());
+		storage.close();
+	}
+
+	@Test
+	public void testGroupCommitInterval() throws Exception {
+		StorageDisk storage = createStorage(1000, 50);
+		storage.put(new Number640(locationKey, Number160.ZERO, Number160.ONE, Number160.ZERO), new Data(1));
+		Assert.assertEquals(0, storage.commits());
+		long start = System.currentTimeMillis();
+		while (storage.commits() == 0 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, storage.commits());
+		storage.close();
+	}
+
+	@Before
+	public void befor() throws IOException {
+		DIR =  Files.createTempDirectory("tomp2p").toFile();
+	}
+
+	@After
+	public void after() {
+		DIR.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File pathname) {
+				if (pathname.isFile())
+					pathname.delete();
+				return false;
+			}
+		});
+		DIR.delete();
+	}
+}
@@ -1,12 +1,12 @@
 /*
  * Copyright 2012 Thomas Bocek
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
  * the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
@@ -16,62 +16,123 @@
 
 package net.tomp2p.task;
 
-import net.tomp2p.connection2.ChannelCreator;
-import net.tomp2p.connection2.PeerBean;
-import net.tomp2p.connection2.Scheduler;
+import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.Cancel;
 import net.tomp2p.futures.FutureAsyncTask;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.DataMap;
+import net.tomp2p.p2p.Peer;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
-import net.tomp2p.rpc.TaskRPC;
 import net.tomp2p.storage.Data;
+import net.tomp2p.task.TaskStatus.Status;
+import net.tomp2p.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps track of the tasks this peer submitted. The result is sent back by the peer that executed the task. In the
+ * meantime, the status of the tasks is polled, so that a task fails if the peer that executes it died. If a task was
+ * stolen, the thief is polled instead.
+ *
+ * @author Thomas Bocek
+ */
 public class AsyncTask implements TaskResultListener {
     final private static Logger logger = LoggerFactory.getLogger(AsyncTask.class);
 
+    // how many thieves in a row are followed to confirm the sender of a result
+    final private static int MAX_STEAL_HOPS = 3;
+
     final private TaskRPC taskRPC;
 
-    final private Scheduler scheduler;
+    final private Peer peer;
+
+    final private Map<Number320, Tracked> tasks = new ConcurrentHashMap<Number320, Tracked>();
+
+    private final ScheduledFuture<?> scheduledFuture;
+
+    private static class Tracked {
+        private final Number160 taskId;
+
+        private final FutureAsyncTask futureAsyncTask;
 
-    final private PeerBean peerBean;
+        // the peer that executes the task, which changes if the task is stolen
+        private volatile PeerAddress executor;
 
-    final private Map<Number320, FutureAsyncTask> tasks = new ConcurrentHashMap<Number320, FutureAsyncTask>();
+        private volatile boolean submitted = false;
 
-    public AsyncTask(TaskRPC taskRPC, Scheduler scheduler, PeerBean peerBean) {
+        private int unknown = 0;
+
+        private Tracked(Number160 taskId, FutureAsyncTask futureAsyncTask) {
+            this.taskId = taskId;
+            this.futureAsyncTask = futureAsyncTask;
+            this.executor = futureAsyncTask.remotePeer();
+        }
+    }
+
+    /**
+     * @param taskRPC
+     *            The RPC to send tasks
+     * @param peer
+     *            This peer
+     * @param pollIntervalMillis
+     *            The interval to poll the status of the submitted tasks, or -1 to not poll
+     */
+    public AsyncTask(TaskRPC taskRPC, Peer peer, int pollIntervalMillis) {
         this.taskRPC = taskRPC;
-        this.scheduler = scheduler;
-        this.peerBean = peerBean;
+        this.peer = peer;
+        if (pollIntervalMillis > 0) {
+            this.scheduledFuture = peer.connectionBean().timer().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll();
+                    } catch (Throwable t) {
+                        logger.error("could not poll the status of tasks", t);
+                    }
+                }
+            }, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduledFuture = null;
+        }
     }
 
     public FutureAsyncTask submit(final PeerAddress remotePeer, ChannelCreator channelCreator, final Number160 taskId,
-            Map<Number160, Data> dataMap, Worker mapper, boolean forceUDP, boolean sign) {
-        final Number320 taskKey = new Number320(taskId, remotePeer.getPeerId());
+            Map<Number160, Data> dataMap, Worker worker, boolean sign) {
+        final Number320 taskKey = new Number320(taskId, remotePeer.peerId());
         final FutureAsyncTask futureAsyncTask = new FutureAsyncTask(remotePeer);
-        futureAsyncTask.addCancellation(new Cancel() {
+        final Tracked tracked = new Tracked(taskId, futureAsyncTask);
+        futureAsyncTask.setCancel(new Cancel() {
             @Override
             public void cancel() {
-                taskFailed(taskKey);
+                tasks.remove(taskKey);
             }
         });
-        tasks.put(taskKey, futureAsyncTask);
-        FutureResponse futureResponse = taskRPC.sendTask(remotePeer, channelCreator, taskId, dataMap, mapper,
-                peerBean.getKeyPair(), forceUDP, sign);
+        tasks.put(taskKey, tracked);
+        FutureResponse futureResponse = taskRPC.sendTask(remotePeer, channelCreator, taskId, dataMap, worker, sign);
         futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
             @Override
             public void operationComplete(FutureResponse future) throws Exception {
                 if (future.isSuccess()) {
                     // keep track of it and poll to see if its still alive
-                    scheduler.keepTrack(remotePeer, taskId, (TaskResultListener) AsyncTask.this);
+                    tracked.submitted = true;
                 } else {
-                    futureAsyncTask.setFailed(future);
+                    tasks.remove(taskKey);
+                    futureAsyncTask.failed(future);
                 }
             }
         });
@@ -79,29 +140,192 @@ public class AsyncTask implements TaskResultListener {
     }
 
     @Override
-    public void taskReceived(Number320 taskKey, Map<Number160, Data> dataMap) {
-        if (logger.isDebugEnabled()) {
-            logger.debug("Task received " + taskKey);
+    public void taskReceived(Number320 taskKey, PeerAddress sender, Map<Number160, Data> dataMap) {
+        logger.debug("Task received {} from {}", taskKey, sender);
+        result(taskKey, sender, dataMap, null);
+    }
+
+    @Override
+    public void taskFailed(Number320 taskKey, PeerAddress sender, String reason) {
+        logger.debug("Task failed {} from {}: {}", taskKey, sender, reason);
+        result(taskKey, sender, null, reason);
+    }
+
+    /**
+     * Accepts a result only from the peer that executes the task. A result from another peer is accepted if the
+     * executor confirms that this peer stole the task, otherwise any peer could complete or fail the tasks of others.
+     */
+    private void result(final Number320 taskKey, final PeerAddress sender, final Map<Number160, Data> dataMap,
+            final String reason) {
+        final Tracked tracked = tasks.get(taskKey);
+        if (tracked == null) {
+            logger.error("Task that was completed was not in the tracking list: {}", taskKey);
+            return;
         }
-        scheduler.stopKeepTrack(taskKey);
-        FutureAsyncTask futureAsyncTask = tasks.remove(taskKey);
-        if (futureAsyncTask == null) {
-            logger.error("Task that was completed was not in the tracking list: " + taskKey);
+        if (sender.peerId().equals(tracked.executor.peerId())) {
+            done(taskKey, dataMap, reason);
+        } else {
+            confirmThief(taskKey, tracked, tracked.executor, sender, dataMap, reason, MAX_STEAL_HOPS);
+        }
+    }
+
+    /**
+     * Asks the peer that was known to have the task if the task was stolen by the sender of the result. A thief can
+     * be robbed as well, so the chain of thieves is followed for a few hops.
+     */
+    private void confirmThief(final Number320 taskKey, final Tracked tracked, final PeerAddress asked,
+            final PeerAddress sender, final Map<Number160, Data> dataMap, final String reason, final int hops) {
+        final FutureDone<Void> futureDone = new FutureDone<Void>();
+        final FutureChannelCreator futureChannelCreator = peer.connectionBean().reservation().create(1, 0);
+        Utils.addReleaseListener(futureChannelCreator, futureDone);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    futureDone.done();
+                    return;
+                }
+                FutureResponse futureResponse = taskRPC.taskStatus(asked, future.channelCreator(),
+                        Collections.singletonList(tracked.taskId), false);
+                futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                    @Override
+                    public void operationComplete(FutureResponse future) throws Exception {
+                        futureDone.done();
+                        DataMap statusMap = future.isSuccess() ? future.responseMessage().dataMap(0) : null;
+                        TaskStatus taskStatus = null;
+                        if (statusMap != null) {
+                            for (Map.Entry<Number640, Data> entry : statusMap.dataMap().entrySet()) {
+                                if (entry.getKey().contentKey().equals(tracked.taskId)) {
+                                    taskStatus = (TaskStatus) entry.getValue().object();
+                                }
+                            }
+                        }
+                        if (taskStatus == null || taskStatus.getStatus() != Status.STOLEN
+                                || taskStatus.getStolenBy() == null) {
+                            logger.warn("ignore result of task {} from {}, {} did not confirm the steal", taskKey,
+                                    sender, asked);
+                        } else if (taskStatus.getStolenBy().peerId().equals(sender.peerId())) {
+                            tracked.executor = sender;
+                            done(taskKey, dataMap, reason);
+                        } else if (hops > 1) {
+                            confirmThief(taskKey, tracked, taskStatus.getStolenBy(), sender, dataMap, reason,
+                                    hops - 1);
+                        } else {
+                            logger.warn("ignore result of task {} from {}, too many steals", taskKey, sender);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void done(Number320 taskKey, Map<Number160, Data> dataMap, String reason) {
+        Tracked tracked = tasks.remove(taskKey);
+        if (tracked == null) {
             return;
         }
-        futureAsyncTask.setDataMap(dataMap);
+        if (reason == null) {
+            tracked.futureAsyncTask.dataMap(dataMap);
+        } else {
+            tracked.futureAsyncTask.failed(reason);
+        }
     }
 
-    @Override
-    public void taskFailed(Number320 taskKey) {
-        if (logger.isDebugEnabled()) {
-            logger.debug("Task failed " + taskKey);
+    /**
+     * Asks the peers that execute the submitted tasks for the status, one request per peer.
+     */
+    private void poll() {
+        final Map<PeerAddress, Map<Number160, Number320>> byExecutor = new HashMap<PeerAddress, Map<Number160, Number320>>();
+        for (Map.Entry<Number320, Tracked> entry : tasks.entrySet()) {
+            Tracked tracked = entry.getValue();
+            if (!tracked.submitted) {
+                continue;
+            }
+            Map<Number160, Number320> taskKeys = byExecutor.get(tracked.executor);
+            if (taskKeys == null) {
+                taskKeys = new HashMap<Number160, Number320>();
+                byExecutor.put(tracked.executor, taskKeys);
+            }
+            taskKeys.put(tracked.taskId, entry.getKey());
+        }
+        for (Map.Entry<PeerAddress, Map<Number160, Number320>> entry : byExecutor.entrySet()) {
+            poll(entry.getKey(), entry.getValue());
         }
-        // this comes from the scheduler
-        FutureAsyncTask futureAsyncTask = tasks.remove(taskKey);
-        if (futureAsyncTask == null) {
+    }
+
+    private void poll(final PeerAddress executor, final Map<Number160, Number320> taskKeys) {
+        final FutureDone<Void> futureDone = new FutureDone<Void>();
+        final FutureChannelCreator futureChannelCreator = peer.connectionBean().reservation().create(1, 0);
+        Utils.addReleaseListener(futureChannelCreator, futureDone);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    futureDone.done();
+                    return;
+                }
+                FutureResponse futureResponse = taskRPC.taskStatus(executor, future.channelCreator(),
+                        new ArrayList<Number160>(taskKeys.keySet()), false);
+                futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                    @Override
+                    public void operationComplete(FutureResponse future) throws Exception {
+                        futureDone.done();
+                        DataMap dataMap = future.isSuccess() ? future.responseMessage().dataMap(0) : null;
+                        if (dataMap == null) {
+                            for (Number320 taskKey : taskKeys.values()) {
+                                done(taskKey, null, "polling failed, maybe peer died");
+                            }
+                            return;
+                        }
+                        for (Map.Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
+                            Number320 taskKey = taskKeys.get(entry.getKey().contentKey());
+                            if (taskKey != null) {
+                                status(taskKey, (TaskStatus) entry.getValue().object());
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void status(Number320 taskKey, TaskStatus taskStatus) {
+        Tracked tracked = tasks.get(taskKey);
+        if (tracked == null) {
             return;
         }
-        futureAsyncTask.setFailed("polling faild, maybe peer died");
+        Status status = taskStatus.getStatus();
+        if (status == null) {
+            // a thief may not have queued the stolen task yet
+            if (++tracked.unknown > 1) {
+                done(taskKey, null, "task is unknown to " + tracked.executor);
+            }
+        } else if (status == Status.FAILED) {
+            done(taskKey, null, taskStatus.getFaildeReason());
+        } else if (status == Status.STOLEN) {
+            logger.debug("task {} was stolen by {}", taskKey, taskStatus.getStolenBy());
+            tracked.unknown = 0;
+            tracked.executor = taskStatus.getStolenBy();
+        } else {
+            tracked.unknown = 0;
+        }
+    }
+
+    /**
+     * @return The number of submitted tasks that did not return a result yet
+     */
+    public int pending() {
+        return tasks.size();
+    }
+
+    public void shutdown() {
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        List<Tracked> pending = new ArrayList<Tracked>(tasks.values());
+        tasks.clear();
+        for (Tracked tracked : pending) {
+            tracked.futureAsyncTask.failed("Peer is shutting down");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.task;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureAsyncTask;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureForkJoin;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.futures.FutureTask;
+import net.tomp2p.futures.Futures;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.DistributedRouting;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class DistributedTask {
+    final private static Logger logger = LoggerFactory.getLogger(DistributedTask.class);
+
+    final private DistributedRouting routing;
+
+    final private AsyncTask asyncTask;
+
+    final private TaskRPC taskRPC;
+
+    final private TaskManager taskManager;
+
+    public DistributedTask(DistributedRouting routing, AsyncTask asyncTask, TaskRPC taskRPC, TaskManager taskManager) {
+        this.routing = routing;
+        this.asyncTask = asyncTask;
+        this.taskRPC = taskRPC;
+        this.taskManager = taskManager;
+    }
+
+    /**
+     * Submit a task to the DHT. The peers close to the locationKey are candidates, the candidates report their load
+     * (the number of queued tasks) and the peers with the lowest load get the task. A load reported recently is not
+     * asked again.
+     *
+     * @param builder
+     *            The submit builder
+     * @return The future of the task, with the results of the peers that executed it
+     */
+    public FutureTask submit(final SubmitBuilder builder) {
+        final FutureTask futureTask = new FutureTask();
+        builder.futureChannelCreator().addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    futureTask.failed(future);
+                    return;
+                }
+                final ChannelCreator channelCreator = future.channelCreator();
+                // routing, find close peers
+                RoutingBuilder routingBuilder = builder.createBuilder(builder.requestP2PConfiguration(),
+                        builder.routingConfiguration());
+                routingBuilder.locationKey(builder.locationKey());
+                final FutureRouting futureRouting = routing.route(routingBuilder, Type.REQUEST_1, channelCreator);
+                futureRouting.addListener(new BaseFutureAdapter<FutureRouting>() {
+                    @Override
+                    public void operationComplete(FutureRouting future) throws Exception {
+                        if (!future.isSuccess()) {
+                            futureTask.failed(future);
+                            return;
+                        }
+                        final List<PeerAddress> candidates = candidates(future.potentialHits(),
+                                builder.routingConfiguration().maxParallel());
+                        loads(candidates, channelCreator).addListener(new BaseFutureAdapter<BaseFuture>() {
+                            @Override
+                            public void operationComplete(BaseFuture future) throws Exception {
+                                NavigableSet<Pair> queue = findBest(candidates, builder.locationKey());
+                                logger.debug("submit task to {}", queue);
+                                parallelRequests(futureTask, queue, builder, channelCreator);
+                            }
+                        });
+                    }
+                });
+                if (!builder.isManualCleanup()) {
+                    Utils.addReleaseListener(channelCreator, futureTask);
+                }
+            }
+        });
+        return futureTask;
+    }
+
+    private static List<PeerAddress> candidates(NavigableSet<PeerAddress> potentialHits, int max) {
+        List<PeerAddress> candidates = new ArrayList<PeerAddress>(max);
+        for (PeerAddress peerAddress : potentialHits) {
+            if (candidates.size() >= max) {
+                break;
+            }
+            candidates.add(peerAddress);
+        }
+        return candidates;
+    }
+
+    /**
+     * Asks the candidates without a recent load for their load. The future is always done successfully, a candidate
+     * that does not answer has load 0 and fails later on when the task is sent. If all loads are known, the future is
+     * already done, as whenAll never completes for no futures.
+     */
+    private FutureDone<List<FutureResponse>> loads(List<PeerAddress> candidates, ChannelCreator channelCreator) {
+        List<FutureResponse> futures = new ArrayList<FutureResponse>(candidates.size());
+        for (PeerAddress candidate : candidates) {
+            if (taskManager.load(candidate) == null) {
+                futures.add(taskRPC.load(candidate, channelCreator));
+            }
+        }
+        if (futures.isEmpty()) {
+            return new FutureDone<List<FutureResponse>>().done(futures);
+        }
+        return Futures.whenAll(futures);
+    }
+
+    private void parallelRequests(FutureTask futureTask, NavigableSet<Pair> queue, SubmitBuilder builder,
+            ChannelCreator channelCreator) {
+        int parallel = builder.requestP2PConfiguration().parallel();
+        FutureAsyncTask[] futures = new FutureAsyncTask[parallel];
+        loopRec(queue, builder.requestP2PConfiguration().minimumResults(), new AtomicInteger(0), builder
+                .requestP2PConfiguration().maxFailure(), parallel, new AtomicReferenceArray<FutureAsyncTask>(futures),
+                futureTask, builder, channelCreator);
+    }
+
+    private void loopRec(final NavigableSet<Pair> queue, final int min, final AtomicInteger nrFailure,
+            final int maxFailure, final int parallel, final AtomicReferenceArray<FutureAsyncTask> futures,
+            final FutureTask futureTask, final SubmitBuilder builder, final ChannelCreator channelCreator) {
+        int active = 0;
+        for (int i = 0; i < parallel; i++) {
+            if (futures.get(i) == null) {
+                Pair next = queue.pollFirst();
+                if (next != null) {
+                    active++;
+                    FutureAsyncTask futureAsyncTask = asyncTask.submit(next.peerAddress, channelCreator,
+                            builder.taskId(), builder.dataMap(), builder.worker(), builder.isSign());
+                    futures.set(i, futureAsyncTask);
+                    futureTask.addRequests(futureAsyncTask);
+                }
+            } else {
+                active++;
+            }
+        }
+        if (active == 0) {
+            futureTask.done();
+            return;
+        }
+        logger.debug("fork/join status: {}/{}", min, active);
+        FutureForkJoin<FutureAsyncTask> fp = new FutureForkJoin<FutureAsyncTask>(Math.min(min, active), false,
+                futures);
+        fp.addListener(new BaseFutureAdapter<FutureForkJoin<FutureAsyncTask>>() {
+            @Override
+            public void operationComplete(FutureForkJoin<FutureAsyncTask> future) throws Exception {
+                for (FutureAsyncTask futureAsyncTask : future.completed()) {
+                    futureTask.progress(futureAsyncTask);
+                }
+                // we are finished if forkjoin says so or we got too many
+                // failures
+                if (future.isSuccess() || nrFailure.incrementAndGet() > maxFailure) {
+                    futureTask.done();
+                } else {
+                    loopRec(queue, min - future.successCounter(), nrFailure, maxFailure, parallel, futures,
+                            futureTask, builder, channelCreator);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sorts the candidates by their load, and by the distance to the location key if the load is the same.
+     */
+    NavigableSet<Pair> findBest(List<PeerAddress> candidates, Number160 locationKey) {
+        NavigableSet<Pair> set = new TreeSet<Pair>();
+        for (PeerAddress peerAddress : candidates) {
+            Integer load = taskManager.load(peerAddress);
+            set.add(new Pair(peerAddress, load == null ? 0 : load, locationKey));
+        }
+        return set;
+    }
+
+    static class Pair implements Comparable<Pair> {
+        private final PeerAddress peerAddress;
+
+        private final int queueSize;
+
+        private final Number160 locationKey;
+
+        public Pair(PeerAddress peerAddress, int queueSize, Number160 locationKey) {
+            this.peerAddress = peerAddress;
+            this.queueSize = queueSize;
+            this.locationKey = locationKey;
+        }
+
+        public PeerAddress peerAddress() {
+            return peerAddress;
+        }
+
+        @Override
+        public int compareTo(Pair o) {
+            int diff = queueSize - o.queueSize;
+            if (diff != 0)
+                return diff;
+            return PeerMap.isKadCloser(locationKey, peerAddress, o.peerAddress);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Pair))
+                return false;
+            return compareTo((Pair) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return peerAddress.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return peerAddress + "=" + queueSize;
+        }
+    }
+}
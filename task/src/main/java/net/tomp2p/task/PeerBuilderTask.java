@@ -0,0 +1,108 @@
+package net.tomp2p.task;
+
+import net.tomp2p.connection.ConnectionConfiguration;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.Shutdown;
+
+public class PeerBuilderTask {
+
+    private final Peer peer;
+
+    private int threads = -1;
+    private int stealIntervalMillis = 0;
+    private int pollIntervalMillis = 0;
+    private ConnectionConfiguration connectionConfiguration = null;
+
+    public PeerBuilderTask(Peer peer) {
+        this.peer = peer;
+    }
+
+    public PeerTask start() {
+        if (connectionConfiguration == null) {
+            connectionConfiguration = new DefaultConnectionConfiguration();
+        }
+        if (threads == -1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (stealIntervalMillis == 0) {
+            stealIntervalMillis = 1000;
+        }
+        if (pollIntervalMillis == 0) {
+            pollIntervalMillis = 5000;
+        }
+
+        final TaskManager taskManager = new TaskManager(peer, threads, stealIntervalMillis);
+        final TaskRPC taskRPC = new TaskRPC(peer.peerBean(), peer.connectionBean(), taskManager,
+                connectionConfiguration);
+        taskManager.init(taskRPC);
+        final AsyncTask asyncTask = new AsyncTask(taskRPC, peer, pollIntervalMillis);
+        taskManager.addListener(asyncTask);
+        final DistributedTask distributedTask = new DistributedTask(peer.distributedRouting(), asyncTask, taskRPC,
+                taskManager);
+
+        final PeerTask peerTask = new PeerTask(peer, taskManager, taskRPC, asyncTask, distributedTask);
+        peer.addShutdownListener(new Shutdown() {
+            @Override
+            public BaseFuture shutdown() {
+                peerTask.shutdown();
+                return new FutureDone<Void>().done();
+            }
+        });
+        return peerTask;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    /**
+     * @param threads
+     *            The number of threads that execute tasks on this peer. The default is the number of processors
+     * @return This class
+     */
+    public PeerBuilderTask threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public int stealIntervalMillis() {
+        return stealIntervalMillis;
+    }
+
+    /**
+     * @param stealIntervalMillis
+     *            The delay between the tries of an idle peer to steal tasks from busy peers, or -1 to never steal. The
+     *            delay doubles while no busy peer is found, until the peer stops trying. The default is 1000
+     * @return This class
+     */
+    public PeerBuilderTask stealIntervalMillis(int stealIntervalMillis) {
+        this.stealIntervalMillis = stealIntervalMillis;
+        return this;
+    }
+
+    public int pollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    /**
+     * @param pollIntervalMillis
+     *            The interval to poll the status of submitted tasks, or -1 to never poll. The default is 5000
+     * @return This class
+     */
+    public PeerBuilderTask pollIntervalMillis(int pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+        return this;
+    }
+
+    public ConnectionConfiguration connectionConfiguration() {
+        return connectionConfiguration;
+    }
+
+    public PeerBuilderTask connectionConfiguration(ConnectionConfiguration connectionConfiguration) {
+        this.connectionConfiguration = connectionConfiguration;
+        return this;
+    }
+}
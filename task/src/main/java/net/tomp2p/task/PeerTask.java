@@ -0,0 +1,56 @@
+package net.tomp2p.task;
+
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+public class PeerTask {
+
+    private final Peer peer;
+    private final TaskManager taskManager;
+    private final TaskRPC taskRPC;
+    private final AsyncTask asyncTask;
+    private final DistributedTask distributedTask;
+
+    public PeerTask(Peer peer, TaskManager taskManager, TaskRPC taskRPC, AsyncTask asyncTask,
+            DistributedTask distributedTask) {
+        this.peer = peer;
+        this.taskManager = taskManager;
+        this.taskRPC = taskRPC;
+        this.asyncTask = asyncTask;
+        this.distributedTask = distributedTask;
+    }
+
+    public Peer peer() {
+        return peer;
+    }
+
+    public PeerAddress peerAddress() {
+        return peer.peerAddress();
+    }
+
+    public TaskManager taskManager() {
+        return taskManager;
+    }
+
+    public TaskRPC taskRPC() {
+        return taskRPC;
+    }
+
+    public AsyncTask asyncTask() {
+        return asyncTask;
+    }
+
+    public DistributedTask distributedTask() {
+        return distributedTask;
+    }
+
+    public SubmitBuilder submit(Number160 locationKey, Worker worker) {
+        return new SubmitBuilder(this, locationKey, worker);
+    }
+
+    public void shutdown() {
+        asyncTask.shutdown();
+        taskManager.shutdown();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.task;
+
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureTask;
+import net.tomp2p.p2p.RequestP2PConfiguration;
+import net.tomp2p.p2p.RoutingConfiguration;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.storage.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class SubmitBuilder extends DefaultConnectionConfiguration {
+    private final static FutureTask FUTURE_TASK_SHUTDOWN = new FutureTask().failed("Peer is shutting down");
+
+    private final static Map<Number160, Data> EMPTY_MAP = new HashMap<Number160, Data>();
+
+    private final static Random RND = new Random();
+
+    private final PeerTask peer;
+
+    private final Number160 locationKey;
+
+    private final Worker worker;
+
+    //
+    private Number160 taskId;
+
+    private Map<Number160, Data> dataMap;
+
+    private RoutingConfiguration routingConfiguration;
+
+    private RequestP2PConfiguration requestP2PConfiguration;
+
+    private FutureChannelCreator futureChannelCreator;
+
+    private boolean sign = false;
+
+    private boolean manualCleanup = false;
+
+    //
+    public SubmitBuilder(PeerTask peer, Number160 locationKey, Worker worker) {
+        this.peer = peer;
+        this.locationKey = locationKey;
+        this.worker = worker;
+    }
+
+    public Number160 locationKey() {
+        return locationKey;
+    }
+
+    public Worker worker() {
+        return worker;
+    }
+
+    public Number160 taskId() {
+        return taskId;
+    }
+
+    /**
+     * @param taskId
+     *            The ID of the task, which is passed to the worker. The default is a random ID
+     * @return This class
+     */
+    public SubmitBuilder taskId(Number160 taskId) {
+        this.taskId = taskId;
+        return this;
+    }
+
+    public Map<Number160, Data> dataMap() {
+        return dataMap;
+    }
+
+    public SubmitBuilder dataMap(Map<Number160, Data> dataMap) {
+        this.dataMap = dataMap;
+        return this;
+    }
+
+    public RoutingConfiguration routingConfiguration() {
+        return routingConfiguration;
+    }
+
+    public SubmitBuilder routingConfiguration(RoutingConfiguration routingConfiguration) {
+        this.routingConfiguration = routingConfiguration;
+        return this;
+    }
+
+    public RequestP2PConfiguration requestP2PConfiguration() {
+        return requestP2PConfiguration;
+    }
+
+    /**
+     * @param requestP2PConfiguration
+     *            The minimum results is the number of peers that execute the task
+     * @return This class
+     */
+    public SubmitBuilder requestP2PConfiguration(RequestP2PConfiguration requestP2PConfiguration) {
+        this.requestP2PConfiguration = requestP2PConfiguration;
+        return this;
+    }
+
+    public FutureChannelCreator futureChannelCreator() {
+        return futureChannelCreator;
+    }
+
+    public SubmitBuilder futureChannelCreator(FutureChannelCreator futureChannelCreator) {
+        this.futureChannelCreator = futureChannelCreator;
+        return this;
+    }
+
+    public boolean isSign() {
+        return sign;
+    }
+
+    public SubmitBuilder sign(boolean sign) {
+        this.sign = sign;
+        return this;
+    }
+
+    public SubmitBuilder sign() {
+        this.sign = true;
+        return this;
+    }
+
+    public boolean isManualCleanup() {
+        return manualCleanup;
+    }
+
+    public SubmitBuilder manualCleanup(boolean manualCleanup) {
+        this.manualCleanup = manualCleanup;
+        return this;
+    }
+
+    public SubmitBuilder manualCleanup() {
+        this.manualCleanup = true;
+        return this;
+    }
+
+    public RoutingBuilder createBuilder(RequestP2PConfiguration requestP2PConfiguration,
+            RoutingConfiguration routingConfiguration) {
+        RoutingBuilder routingBuilder = new RoutingBuilder();
+        routingBuilder.parallel(routingConfiguration.parallel());
+        routingBuilder.maxParallel(routingConfiguration.maxParallel());
+        routingBuilder.setMaxNoNewInfo(routingConfiguration.maxNoNewInfo(requestP2PConfiguration
+                .minimumResults()));
+        routingBuilder.maxDirectHits(routingConfiguration.maxDirectHits());
+        routingBuilder.maxFailures(routingConfiguration.maxFailures());
+        routingBuilder.maxSuccess(routingConfiguration.maxSuccess());
+        return routingBuilder;
+    }
+
+    public FutureTask start() {
+        if (peer.peer().isShutdown()) {
+            return FUTURE_TASK_SHUTDOWN;
+        }
+        if (taskId == null) {
+            taskId = new Number160(RND);
+        }
+        if (dataMap == null) {
+            dataMap = EMPTY_MAP;
+        }
+        if (routingConfiguration == null) {
+            routingConfiguration = new RoutingConfiguration(5, 10, 2);
+        }
+        if (requestP2PConfiguration == null) {
+            requestP2PConfiguration = new RequestP2PConfiguration(1, 0, 1);
+        }
+        if (futureChannelCreator == null) {
+            futureChannelCreator = peer.peer().connectionBean().reservation()
+                    .create(routingConfiguration, requestP2PConfiguration, this);
+        }
+        return peer.distributedTask().submit(this);
+    }
+}
@@ -1,12 +1,12 @@
 /*
  * Copyright 2012 Thomas Bocek
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License. You may obtain a copy of
  * the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
@@ -16,125 +16,227 @@
 
 package net.tomp2p.task;
 
-import net.tomp2p.connection2.ConnectionBean;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message.Type;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerStatistic;
 import net.tomp2p.rpc.DigestInfo;
-import net.tomp2p.rpc.TaskRPC;
 import net.tomp2p.storage.Data;
 import net.tomp2p.task.TaskStatus.Status;
+import net.tomp2p.utils.ConcurrentCacheMap;
+import net.tomp2p.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the tasks submitted to this peer. The tasks run in a work-stealing {@link ForkJoinPool}, so a
+ * {@link Worker} can fork subtasks that idle threads of this peer take over. Across peers, an idle peer takes
+ * queued tasks from a busy peer it knows of, see {@link TaskRPC#steal}. The load of other peers is learned from
+ * the {@link DigestInfo} they send with every task message. A peer only tries to steal when its queue drained or
+ * when it learns of a busy peer, and it backs off while no busy peer is found, so idle networks stay quiet.
+ *
+ * @author Thomas Bocek
+ */
 public class TaskManager {
     final private static Logger logger = LoggerFactory.getLogger(TaskManager.class);
 
-    final private ConnectionBean connectionBean;
+    // how long the status of a finished task can be polled
+    final private static int FINISHED_TTL_SECONDS = 10 * 60;
+
+    final private static int FINISHED_MAX_ENTRIES = 10 * 1024;
+
+    // the load of a peer is only used for a short time, as it changes fast
+    final private static int LOAD_TTL_SECONDS = 5;
+
+    // number of close peers to ask for their load if no busy peer is known
+    final private static int STEAL_NEIGHBORS = 5;
+
+    // the delay between tries doubles up to this many times, then the peer stops until its queue drains again
+    final private static int STEAL_MAX_BACKOFF = 5;
+
+    final private Peer peer;
 
-    final private Object lock = new Object();
+    final private TaskPool pool;
 
-    final private ThreadPoolExecutor executor;
+    final private int threads;
 
-    // may grow
-    final private Map<Number320, Status> status = new HashMap<Number320, Status>();
+    final private int stealIntervalMillis;
 
-    final private Map<Number320, String> exceptions = new HashMap<Number320, String>();
+    final private Random rnd;
 
-    final private Collection<TaskResultListener> listeners = new ArrayList<TaskResultListener>();
+    // queued and running tasks
+    final private Map<Number320, Task> tasks = new ConcurrentHashMap<Number320, Task>();
 
-    private TaskRPC taskRPC;
+    final private Map<Number320, TaskStatus> finished = new ConcurrentCacheMap<Number320, TaskStatus>(
+            FINISHED_TTL_SECONDS, FINISHED_MAX_ENTRIES);
+
+    final private Map<PeerAddress, Integer> loads = new ConcurrentCacheMap<PeerAddress, Integer>(LOAD_TTL_SECONDS,
+            ConcurrentCacheMap.MAX_ENTRIES);
+
+    final private AtomicInteger queued = new AtomicInteger();
+
+    // the queue position is the difference of the two counters
+    final private AtomicLong submitted = new AtomicLong();
+
+    final private AtomicLong dequeued = new AtomicLong();
+
+    final private AtomicBoolean stealing = new AtomicBoolean();
+
+    final private Collection<TaskResultListener> listeners = new CopyOnWriteArrayList<TaskResultListener>();
+
+    final private Runnable stealRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                stealIfIdle();
+            } catch (Throwable t) {
+                logger.error("could not steal a task", t);
+            }
+        }
+    };
+
+    private volatile TaskRPC taskRPC;
+
+    // guarded by this
+    private ScheduledFuture<?> scheduledFuture;
+
+    private int backoff = 0;
+
+    /**
+     * A submitted task, the key is the task ID and the peer ID of the submitter.
+     */
+    class Task extends RecursiveAction {
+        private static final long serialVersionUID = 3547218957016453364L;
 
-    private class Task implements Runnable {
         private final Number160 taskId;
 
-        private final Worker mapper;
+        private final Worker worker;
 
         private final Map<Number160, Data> inputData;
 
         private final PeerAddress senderAddress;
 
+        private final Number160 submittedTo;
+
         private final boolean sign;
 
-        private final Peer peer;
+        private final Number320 taskKey;
 
-        final Number320 taskKey;
+        private final long position;
 
-        public Task(Peer peer, Number160 taskId, Worker mapper, Map<Number160, Data> inputData,
-                PeerAddress senderAddress, boolean sign) {
-            this.peer = peer;
+        private volatile Status status = Status.QUEUE;
+
+        private Task(Number160 taskId, Worker worker, Map<Number160, Data> inputData, PeerAddress senderAddress,
+                Number160 submittedTo, boolean sign) {
             this.taskId = taskId;
-            this.mapper = mapper;
+            this.worker = worker;
             this.inputData = inputData;
             this.senderAddress = senderAddress;
+            this.submittedTo = submittedTo;
             this.sign = sign;
-            this.taskKey = new Number320(taskId, peer.getPeerID());
+            this.taskKey = new Number320(taskId, senderAddress.peerId());
+            this.position = submitted.getAndIncrement();
         }
 
         @Override
-        public void run() {
-            Thread.currentThread().setName("task-manager " + taskId);
-            if (logger.isDebugEnabled()) {
-                logger.debug("started task " + taskId + " which came from " + senderAddress);
-            }
-
-            synchronized (lock) {
-                status.put(taskKey, Status.STARTED);
-            }
+        protected void compute() {
+            queued.decrementAndGet();
+            dequeued.incrementAndGet();
+            status = Status.STARTED;
+            logger.debug("started task {} which came from {}", taskId, senderAddress);
             Map<Number160, Data> outputData = null;
+            String failed = null;
             try {
-                outputData = mapper.execute(peer, taskId, inputData);
+                outputData = worker.execute(peer, taskId, inputData);
+                status = Status.SUCCESS_RESULT_NOT_SENT;
             } catch (Exception e) {
-                outputData = null;
-                registerException(taskKey, e.toString());
+                logger.debug("task {} failed", taskId, e);
+                failed = e.toString();
+                status = Status.FAILED;
             }
-            synchronized (lock) {
-                status.put(taskKey, Status.SUCCESS_RESULT_NOT_SENT);
+            sendResult(this, outputData, failed);
+            if (queued.get() <= 0) {
+                stealSoon();
             }
-            final Map<Number160, Data> outputData2 = outputData;
-            FutureChannelCreator futureChannelCreator = connectionBean.getConnectionReservation().reserve(1);
-            futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
-                @Override
-                public void operationComplete(final FutureChannelCreator futureChannelCreator) throws Exception {
-                    if (futureChannelCreator.isSuccess()) {
-                        FutureResponse futureResponse = getTaskRPC().sendResult(senderAddress,
-                                futureChannelCreator.getChannelCreator(), taskId, outputData2,
-                                peer.getPeerBean().getKeyPair(), false, sign);
-                        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
-                            @Override
-                            public void operationComplete(FutureResponse future) throws Exception {
-                                if (future.isSuccess()) {
-                                    synchronized (lock) {
-                                        status.put(taskKey, Status.SUCCESS_RESULT_SENT);
-                                    }
-                                } else {
-                                    registerException(taskKey, "could not send result back");
-                                }
-                                connectionBean.getConnectionReservation().release(
-                                        futureChannelCreator.getChannelCreator());
-                            }
-                        });
-                    } else {
-                        registerException(taskKey, "could not reserve connection");
-                    }
-                }
-            });
+        }
+
+        Number160 taskId() {
+            return taskId;
+        }
+
+        Worker worker() {
+            return worker;
+        }
+
+        Map<Number160, Data> inputData() {
+            return inputData;
+        }
+
+        PeerAddress senderAddress() {
+            return senderAddress;
+        }
+
+        /**
+         * @return The ID of the peer the submitter sent the task to, which is this peer if the task was not stolen
+         */
+        Number160 submittedTo() {
+            return submittedTo;
+        }
+
+        boolean isSign() {
+            return sign;
+        }
+    }
+
+    /**
+     * A pool in FIFO mode that gives access to its queued submissions, so that other peers can steal them.
+     */
+    private static class TaskPool extends ForkJoinPool {
+        private TaskPool(int threads) {
+            super(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+
+        private ForkJoinTask<?> poll() {
+            return pollSubmission();
         }
     }
 
-    public TaskManager(ConnectionBean connectionBean, int threads) {
-        this.connectionBean = connectionBean;
-        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>());
+    /**
+     * @param peer
+     *            The peer that executes the tasks
+     * @param threads
+     *            The number of threads that execute tasks
+     * @param stealIntervalMillis
+     *            The interval in which an idle peer tries to steal tasks, or -1 to never steal
+     */
+    public TaskManager(Peer peer, int threads, int stealIntervalMillis) {
+        this.peer = peer;
+        this.threads = threads;
+        this.stealIntervalMillis = stealIntervalMillis;
+        this.pool = new TaskPool(threads);
+        this.rnd = new Random(peer.peerID().hashCode());
     }
 
     public void addListener(TaskResultListener taskResultListener) {
@@ -145,9 +247,13 @@ public class TaskManager {
         listeners.remove(taskResultListener);
     }
 
-    public void notifyListeners(Number320 taskKey, Map<Number160, Data> dataMap) {
+    public void notifyListeners(Number320 taskKey, PeerAddress sender, Map<Number160, Data> dataMap, String failed) {
         for (TaskResultListener taskResultListener : listeners) {
-            taskResultListener.taskReceived(taskKey, dataMap);
+            if (failed == null) {
+                taskResultListener.taskReceived(taskKey, sender, dataMap);
+            } else {
+                taskResultListener.taskFailed(taskKey, sender, failed);
+            }
         }
     }
 
@@ -155,80 +261,316 @@ public class TaskManager {
         this.taskRPC = taskRPC;
     }
 
-    public TaskRPC getTaskRPC() {
+    public TaskRPC taskRPC() {
         if (taskRPC == null) {
             throw new IllegalStateException("init() was not called yet");
         }
         return taskRPC;
     }
 
+    /**
+     * Looks up the status of a task, this does not depend on the number of queued tasks.
+     *
+     * @param taskKey
+     *            The task ID and the peer ID of the submitter
+     * @return The status, the status is null if the task is unknown
+     */
     public TaskStatus taskStatus(Number320 taskKey) {
-        TaskStatus statusResult = new TaskStatus();
-        String exception;
-        synchronized (lock) {
-            exception = exceptions.get(taskKey);
-        }
-        if (exception != null) {
-            statusResult.setFaildeReason(exception);
-            statusResult.setStatus(TaskStatus.Status.FAILED);
-            if (logger.isDebugEnabled()) {
-                logger.debug("finished task failed for task with ID " + taskKey);
+        Task task = tasks.get(taskKey);
+        if (task != null) {
+            TaskStatus statusResult = new TaskStatus();
+            Status status = task.status;
+            statusResult.setStatus(status);
+            if (status == Status.QUEUE) {
+                // in FIFO mode, the tasks submitted before and not yet dequeued are in front of this task
+                statusResult.setQueuePosition((int) Math.max(0, task.position - dequeued.get()));
             }
             return statusResult;
         }
+        TaskStatus statusResult = finished.get(taskKey);
+        if (statusResult != null) {
+            return statusResult;
+        }
+        logger.debug("unknown task {}", taskKey);
+        return new TaskStatus();
+    }
+
+    /**
+     * Queues a task.
+     *
+     * @param taskId
+     *            The ID of the task
+     * @param worker
+     *            The code to run
+     * @param data
+     *            The input of the worker
+     * @param senderAddress
+     *            The peer that submitted the task and gets the result
+     * @param submittedTo
+     *            The ID of the peer the submitter sent the task to, if it was stolen. Null if it was sent to this peer
+     * @param sign
+     *            Set to true to sign the result
+     * @return The number of queued tasks
+     */
+    public int submitTask(Number160 taskId, Worker worker, Map<Number160, Data> data, PeerAddress senderAddress,
+            Number160 submittedTo, boolean sign) {
+        Task task = new Task(taskId, worker, data, senderAddress,
+                submittedTo == null ? peer.peerID() : submittedTo, sign);
+        if (tasks.put(task.taskKey, task) != null) {
+            logger.warn("task {} was submitted twice", task.taskKey);
+        }
+        queued.incrementAndGet();
+        pool.execute(task);
+        return queued.get();
+    }
 
-        int pos = 0;
-        Task taskFound = null;
-        for (Runnable runnable : executor.getQueue()) {
-            Task task = (Task) runnable;
-            if (task.taskKey.equals(taskKey)) {
-                taskFound = task;
-                break;
+    /**
+     * Removes a queued task, so that another peer can run it.
+     *
+     * @param thief
+     *            The peer that runs the task
+     * @return The task or null if no task is queued
+     */
+    Task pollTask(PeerAddress thief) {
+        if (queued.get() <= 0) {
+            return null;
+        }
+        ForkJoinTask<?> forkJoinTask = pool.poll();
+        if (forkJoinTask == null) {
+            return null;
+        }
+        if (!(forkJoinTask instanceof Task)) {
+            // submitted by a worker from outside the pool, we keep it
+            pool.execute(forkJoinTask);
+            return null;
+        }
+        Task task = (Task) forkJoinTask;
+        queued.decrementAndGet();
+        dequeued.incrementAndGet();
+        TaskStatus statusResult = new TaskStatus();
+        statusResult.setStatus(Status.STOLEN);
+        statusResult.setStolenBy(thief);
+        finished(task.taskKey, statusResult);
+        logger.debug("task {} stolen by {}", task.taskKey, thief);
+        return task;
+    }
+
+    private void sendResult(final Task task, final Map<Number160, Data> outputData, final String failed) {
+        final FutureDone<Void> futureDone = new FutureDone<Void>();
+        final FutureChannelCreator futureChannelCreator = peer.connectionBean().reservation().create(0, 1);
+        Utils.addReleaseListener(futureChannelCreator, futureDone);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    finished(task, Status.FAILED, "could not reserve connection");
+                    futureDone.done();
+                    return;
+                }
+                FutureResponse futureResponse = taskRPC().sendResult(task.senderAddress, future.channelCreator(),
+                        task.taskId, task.submittedTo, outputData, failed, task.sign);
+                futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                    @Override
+                    public void operationComplete(FutureResponse future) throws Exception {
+                        if (!future.isSuccess()) {
+                            finished(task, Status.FAILED, "could not send result back");
+                        } else if (failed != null) {
+                            finished(task, Status.FAILED, failed);
+                        } else {
+                            finished(task, Status.SUCCESS_RESULT_SENT, null);
+                        }
+                        futureDone.done();
+                    }
+                });
             }
-            pos++;
+        });
+    }
+
+    private void finished(Task task, Status status, String failedReason) {
+        TaskStatus statusResult = new TaskStatus();
+        statusResult.setStatus(status);
+        statusResult.setFaildeReason(failedReason);
+        finished(task.taskKey, statusResult);
+    }
+
+    private void finished(Number320 taskKey, TaskStatus statusResult) {
+        finished.put(taskKey, statusResult);
+        tasks.remove(taskKey);
+    }
+
+    /**
+     * Tries to steal right away, and resets the backoff.
+     */
+    private void stealSoon() {
+        if (stealIntervalMillis > 0 && !pool.isShutdown()) {
+            synchronized (this) {
+                backoff = 0;
+            }
+            peer.connectionBean().timer().execute(stealRunnable);
         }
-        if (taskFound != null) {
-            statusResult.setQueuePosition(pos);
-            statusResult.setStatus(TaskStatus.Status.QUEUE);
-            if (logger.isDebugEnabled()) {
-                logger.debug("finished task queue for task with ID " + taskKey);
+    }
+
+    /**
+     * Tries again later, as no task could be stolen. The delay doubles every time, and after
+     * {@link #STEAL_MAX_BACKOFF} tries the peer waits until its queue drains or a busy peer reports its load.
+     */
+    private synchronized void stealLater() {
+        if (pool.isShutdown() || backoff >= STEAL_MAX_BACKOFF) {
+            logger.debug("no busy peer found, stop trying to steal");
+            return;
+        }
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        long delay = ((long) stealIntervalMillis) << backoff++;
+        scheduledFuture = peer.connectionBean().timer().schedule(stealRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a task from a busy peer if a thread is idle and no task is queued. If no busy peer is known, a few close
+     * peers are asked for their load.
+     */
+    private void stealIfIdle() {
+        if (taskRPC == null || pool.isShutdown() || peer.isShutdown()) {
+            return;
+        }
+        if (!isIdle()) {
+            // tried again when the queue drains
+            return;
+        }
+        PeerAddress victim = null;
+        int maxLoad = 0;
+        for (Map.Entry<PeerAddress, Integer> entry : loads.entrySet()) {
+            if (entry.getValue() > maxLoad && !entry.getKey().equals(peer.peerAddress())) {
+                maxLoad = entry.getValue();
+                victim = entry.getKey();
             }
-            return statusResult;
         }
-        synchronized (lock) {
-            statusResult.setStatus(status.get(taskKey));
+        if (victim == null) {
+            queryLoads();
+            return;
         }
-        if (logger.isDebugEnabled()) {
-            logger.debug("finished task status for task with ID " + taskKey);
+        if (!stealing.compareAndSet(false, true)) {
+            return;
         }
-        return statusResult;
+        final PeerAddress victim2 = victim;
+        final FutureDone<Void> futureDone = new FutureDone<Void>();
+        final FutureChannelCreator futureChannelCreator = peer.connectionBean().reservation().create(0, 1);
+        Utils.addReleaseListener(futureChannelCreator, futureDone);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    stealing.set(false);
+                    futureDone.done();
+                    stealLater();
+                    return;
+                }
+                logger.debug("try to steal a task from {} with load {}", victim2, loads.get(victim2));
+                FutureResponse futureResponse = taskRPC().steal(victim2, future.channelCreator());
+                futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                    @Override
+                    public void operationComplete(FutureResponse future) throws Exception {
+                        stealing.set(false);
+                        futureDone.done();
+                        if (future.isSuccess() && future.responseMessage().type() == Type.OK) {
+                            // there may be more
+                            stealSoon();
+                        } else {
+                            if (!future.isSuccess()) {
+                                loads.remove(victim2);
+                            }
+                            stealLater();
+                        }
+                    }
+                });
+            }
+        });
     }
 
-    public int submitTask(Peer peer, Number160 taskId, Worker mapper, Map<Number160, Data> data,
-            PeerAddress senderAddress, boolean sign) {
-        final Number320 taskKey = new Number320(taskId, peer.getPeerID());
-        synchronized (lock) {
-            status.put(taskKey, TaskStatus.Status.QUEUE);
+    private void queryLoads() {
+        List<PeerAddress> closePeers = new ArrayList<PeerAddress>();
+        for (PeerStatistic peerStatistic : peer.peerBean().peerMap().closePeers(STEAL_NEIGHBORS)) {
+            closePeers.add(peerStatistic.peerAddress());
+        }
+        final PeerAddress remotePeer = Utils.pollRandom(closePeers, rnd);
+        if (remotePeer == null) {
+            stealLater();
+            return;
         }
-        Task task = new Task(peer, taskId, mapper, data, senderAddress, sign);
-        executor.execute(task);
-        return executor.getQueue().size();
+        final FutureDone<Void> futureDone = new FutureDone<Void>();
+        final FutureChannelCreator futureChannelCreator = peer.connectionBean().reservation().create(1, 0);
+        Utils.addReleaseListener(futureChannelCreator, futureDone);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (!future.isSuccess()) {
+                    futureDone.done();
+                    stealLater();
+                    return;
+                }
+                taskRPC().load(remotePeer, future.channelCreator()).addListener(
+                        new BaseFutureAdapter<FutureResponse>() {
+                            @Override
+                            public void operationComplete(FutureResponse future) throws Exception {
+                                futureDone.done();
+                                Integer load = loads.get(remotePeer);
+                                if (load != null && load > 0) {
+                                    stealSoon();
+                                } else {
+                                    stealLater();
+                                }
+                            }
+                        });
+            }
+        });
     }
 
-    private void registerException(Number320 taskKey, String string) {
-        synchronized (lock) {
-            exceptions.put(taskKey, string);
+    /**
+     * Stores the load another peer reported.
+     *
+     * @param remotePeer
+     *            The other peer
+     * @param load
+     *            The number of queued tasks of the other peer
+     */
+    public void load(PeerAddress remotePeer, int load) {
+        Integer old = loads.put(remotePeer, load);
+        if (load > 0 && (old == null || old == 0) && isIdle()) {
+            // a busy peer we did not know of
+            stealSoon();
         }
     }
 
+    private boolean isIdle() {
+        return queued.get() <= 0 && pool.getActiveThreadCount() < threads;
+    }
+
+    /**
+     * @param remotePeer
+     *            The other peer
+     * @return The load another peer reported recently or null if not known
+     */
+    public Integer load(PeerAddress remotePeer) {
+        return loads.get(remotePeer);
+    }
+
+    /**
+     * @return The number of queued tasks, which is the load this peer reports to others
+     */
     public DigestInfo digest() {
-        return new DigestInfo(executor.getQueue().size());
+        return new DigestInfo(queued.get());
     }
 
     public void shutdown() {
-        List<Runnable> jobs = executor.shutdownNow();
-        if (jobs.size() > 0 && logger.isWarnEnabled()) {
-            logger.warn("shutting down and not executing " + jobs.size() + " jobs");
+        synchronized (this) {
+            if (scheduledFuture != null) {
+                scheduledFuture.cancel(false);
+            }
+        }
+        List<Runnable> jobs = pool.shutdownNow();
+        if (jobs.size() > 0) {
+            logger.warn("shutting down and not executing {} jobs", jobs.size());
         }
     }
-}
\ No newline at end of file
+}
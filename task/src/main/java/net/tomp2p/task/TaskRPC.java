@@ -0,0 +1,330 @@
+/*
+ * Copyright 2009 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.task;
+
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.ConnectionBean;
+import net.tomp2p.connection.ConnectionConfiguration;
+import net.tomp2p.connection.DefaultConnectionConfiguration;
+import net.tomp2p.connection.PeerBean;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.RequestHandler;
+import net.tomp2p.connection.Responder;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Buffer;
+import net.tomp2p.message.DataMap;
+import net.tomp2p.message.KeyCollection;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.message.NeighborSet;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.DispatchHandler;
+import net.tomp2p.rpc.RPC;
+import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The RPC for tasks. Every response, and the result, contains the number of queued tasks of the sender as the first
+ * integer, which is the load that {@link DistributedTask} and the stealing in {@link TaskManager} use.
+ * <ul>
+ * <li>REQUEST_1 submits a task</li>
+ * <li>REQUEST_2 asks for the status of tasks</li>
+ * <li>REQUEST_3 sends back the result</li>
+ * <li>REQUEST_4 steals a queued task</li>
+ * <li>REQUEST_5 asks for the load</li>
+ * </ul>
+ *
+ * @author Thomas Bocek
+ */
+public class TaskRPC extends DispatchHandler {
+    final private static Logger logger = LoggerFactory.getLogger(TaskRPC.class);
+
+    public static final byte TASK_COMMAND = RPC.Commands.TASK.getNr();
+
+    private final TaskManager taskManager;
+
+    private final ConnectionConfiguration configuration;
+
+    public TaskRPC(PeerBean peerBean, ConnectionBean connectionBean, TaskManager taskManager) {
+        this(peerBean, connectionBean, taskManager, new DefaultConnectionConfiguration());
+    }
+
+    public TaskRPC(PeerBean peerBean, ConnectionBean connectionBean, TaskManager taskManager,
+            ConnectionConfiguration configuration) {
+        super(peerBean, connectionBean);
+        this.taskManager = taskManager;
+        this.configuration = configuration;
+        register(TASK_COMMAND);
+    }
+
+    /**
+     * Sends a task to a remote peer. This is an RPC.
+     *
+     * @param remotePeer
+     *            The remote peer to send this request
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @param taskId
+     *            The ID of the task
+     * @param dataMap
+     *            The input of the worker
+     * @param worker
+     *            The code to run, which is serialized
+     * @param sign
+     *            Set to true to sign the message
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse sendTask(final PeerAddress remotePeer, ChannelCreator channelCreator, Number160 taskId,
+            Map<Number160, Data> dataMap, Worker worker, boolean sign) {
+        final Message message = createMessage(remotePeer, TASK_COMMAND, Type.REQUEST_1);
+        FutureResponse futureResponse = new FutureResponse(message);
+        try {
+            message.key(taskId);
+            message.buffer(new Buffer(Unpooled.wrappedBuffer(Utils.encodeJavaObject(worker))));
+            message.setDataMap(new DataMap(taskId, Number160.ZERO, Number160.ZERO, sorted(dataMap)));
+        } catch (IOException ioe) {
+            logger.error("could not serialize worker", ioe);
+            return futureResponse.failed(ioe);
+        }
+        if (sign) {
+            message.publicKeyAndSign(peerBean().keyPair());
+        }
+        addLoadListener(futureResponse, remotePeer);
+        logger.debug("send Task {}", message);
+        return new RequestHandler(futureResponse, peerBean(), connectionBean(), configuration).sendTCP(channelCreator);
+    }
+
+    /**
+     * Sends the result of a task back to the submitter. This is an RPC.
+     *
+     * @param remotePeer
+     *            The submitter
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @param taskId
+     *            The ID of the task
+     * @param submittedTo
+     *            The ID of the peer the submitter sent the task to, which is not this peer if the task was stolen
+     * @param dataMap
+     *            The result of the worker
+     * @param failed
+     *            The reason if the worker failed, or null
+     * @param sign
+     *            Set to true to sign the message
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse sendResult(final PeerAddress remotePeer, ChannelCreator channelCreator, Number160 taskId,
+            Number160 submittedTo, Map<Number160, Data> dataMap, String failed, boolean sign) {
+        final Message message = createMessage(remotePeer, TASK_COMMAND, Type.REQUEST_3);
+        message.key(taskId);
+        message.key(submittedTo);
+        message.intValue(taskManager.digest().size());
+        if (failed != null) {
+            message.buffer(new Buffer(Unpooled.wrappedBuffer(failed.getBytes(CharsetUtil.UTF_8))));
+        } else if (dataMap != null) {
+            message.setDataMap(new DataMap(taskId, Number160.ZERO, Number160.ZERO, sorted(dataMap)));
+        }
+        if (sign) {
+            message.publicKeyAndSign(peerBean().keyPair());
+        }
+        FutureResponse futureResponse = new FutureResponse(message);
+        logger.debug("send Result {}", message);
+        return new RequestHandler(futureResponse, peerBean(), connectionBean(), configuration).sendTCP(channelCreator);
+    }
+
+    /**
+     * Asks for the status of tasks. The response contains a data map with a serialized {@link TaskStatus} per task
+     * ID as content key. This is an RPC.
+     *
+     * @param remotePeer
+     *            The peer the tasks were sent to
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @param taskIds
+     *            The IDs of the tasks
+     * @param forceTCP
+     *            Set to true if the communication should be TCP, default is UDP
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse taskStatus(final PeerAddress remotePeer, ChannelCreator channelCreator,
+            Collection<Number160> taskIds, boolean forceTCP) {
+        final Message message = createMessage(remotePeer, TASK_COMMAND, Type.REQUEST_2);
+        message.keyCollection(new KeyCollection(Number160.ZERO, Number160.ZERO, Number160.ZERO, taskIds));
+        FutureResponse futureResponse = new FutureResponse(message);
+        addLoadListener(futureResponse, remotePeer);
+        final RequestHandler requestHandler = new RequestHandler(futureResponse, peerBean(), connectionBean(),
+                configuration);
+        if (forceTCP) {
+            return requestHandler.sendTCP(channelCreator);
+        }
+        return requestHandler.sendUDP(channelCreator);
+    }
+
+    /**
+     * Takes a queued task from a busy peer and runs it on this peer. The response is OK with the task, or NOT_FOUND
+     * if the peer has no queued task. This is an RPC.
+     *
+     * @param remotePeer
+     *            The busy peer
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse steal(final PeerAddress remotePeer, ChannelCreator channelCreator) {
+        final Message message = createMessage(remotePeer, TASK_COMMAND, Type.REQUEST_4);
+        message.intValue(taskManager.digest().size());
+        FutureResponse futureResponse = new FutureResponse(message);
+        addLoadListener(futureResponse, remotePeer);
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(FutureResponse future) throws Exception {
+                if (!future.isSuccess() || future.responseMessage().type() != Type.OK) {
+                    return;
+                }
+                final Message response = future.responseMessage();
+                final Number160 taskId = response.key(0);
+                final Worker worker = (Worker) Utils.decodeJavaObject(response.buffer(0).buffer());
+                final PeerAddress submitter = response.neighborsSet(0).neighbors().iterator().next();
+                logger.debug("stole task {} of {} from {}", taskId, submitter, remotePeer);
+                taskManager.submitTask(taskId, worker, convert(response.dataMap(0)), submitter, response.key(1),
+                        response.isSign());
+            }
+        });
+        return new RequestHandler(futureResponse, peerBean(), connectionBean(), configuration).sendTCP(channelCreator);
+    }
+
+    /**
+     * Asks for the load of a peer, the load is stored in the {@link TaskManager}. This is an RPC.
+     *
+     * @param remotePeer
+     *            The other peer
+     * @param channelCreator
+     *            The channel creator that creates connections
+     * @return The future response to keep track of future events
+     */
+    public FutureResponse load(final PeerAddress remotePeer, ChannelCreator channelCreator) {
+        final Message message = createMessage(remotePeer, TASK_COMMAND, Type.REQUEST_5);
+        FutureResponse futureResponse = new FutureResponse(message);
+        addLoadListener(futureResponse, remotePeer);
+        return new RequestHandler(futureResponse, peerBean(), connectionBean(), configuration).sendUDP(channelCreator);
+    }
+
+    private void addLoadListener(final FutureResponse futureResponse, final PeerAddress remotePeer) {
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(FutureResponse future) throws Exception {
+                if (future.isSuccess() && future.responseMessage().intAt(0) != null) {
+                    taskManager.load(remotePeer, future.responseMessage().intAt(0));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void handleResponse(final Message message, final PeerConnection peerConnection, final boolean sign,
+            final Responder responder) throws Exception {
+        if (message.command() != TASK_COMMAND) {
+            throw new IllegalArgumentException("Message content is wrong");
+        }
+        logger.debug("received Task {}", message);
+        final Message responseMessage = createResponseMessage(message, Type.OK);
+        if (sign) {
+            responseMessage.publicKeyAndSign(peerBean().keyPair());
+        }
+        if (message.type() == Type.REQUEST_1 && message.key(0) != null && message.buffer(0) != null) {
+            // request 1 is task creation
+            Number160 taskId = message.key(0);
+            Worker worker = (Worker) Utils.decodeJavaObject(message.buffer(0).buffer());
+            taskManager.submitTask(taskId, worker, convert(message.dataMap(0)), message.sender(), null, sign);
+        } else if (message.type() == Type.REQUEST_2 && message.keyCollection(0) != null) {
+            NavigableMap<Number160, Data> dataMap = new TreeMap<Number160, Data>();
+            for (Number640 key : message.keyCollection(0).keys()) {
+                Number160 taskId = key.contentKey();
+                Number320 taskKey = new Number320(taskId, message.sender().peerId());
+                dataMap.put(taskId, new Data(taskManager.taskStatus(taskKey)));
+            }
+            responseMessage.setDataMap(new DataMap(Number160.ZERO, Number160.ZERO, Number160.ZERO, dataMap));
+            logger.debug("finished task status for tasks {}", dataMap.keySet());
+        } else if (message.type() == Type.REQUEST_3 && message.key(0) != null) {
+            // the result came from the peer the task was sent to or the peer that stole it, the listener checks
+            // that the sender is one of them, as anyone can claim to have stolen a task
+            Number160 taskId = message.key(0);
+            Number160 submittedTo = message.key(1) == null ? message.sender().peerId() : message.key(1);
+            if (message.intAt(0) != null) {
+                taskManager.load(message.sender(), message.intAt(0));
+            }
+            Number320 taskKey = new Number320(taskId, submittedTo);
+            if (message.buffer(0) != null) {
+                taskManager.notifyListeners(taskKey, message.sender(), null,
+                        message.buffer(0).buffer().toString(CharsetUtil.UTF_8));
+            } else {
+                taskManager.notifyListeners(taskKey, message.sender(), convert(message.dataMap(0)), null);
+            }
+        } else if (message.type() == Type.REQUEST_4) {
+            if (message.intAt(0) != null) {
+                taskManager.load(message.sender(), message.intAt(0));
+            }
+            TaskManager.Task task = taskManager.pollTask(message.sender());
+            if (task == null) {
+                responseMessage.type(Type.NOT_FOUND);
+            } else {
+                responseMessage.key(task.taskId());
+                responseMessage.key(task.submittedTo());
+                responseMessage.neighborsSet(new NeighborSet(-1, Collections.singleton(task.senderAddress())));
+                responseMessage.buffer(new Buffer(Unpooled.wrappedBuffer(Utils.encodeJavaObject(task.worker()))));
+                responseMessage.setDataMap(new DataMap(task.taskId(), Number160.ZERO, Number160.ZERO,
+                        sorted(task.inputData())));
+            }
+        } else if (message.type() != Type.REQUEST_5) {
+            throw new IllegalArgumentException("Message content is wrong");
+        }
+        responseMessage.intValue(taskManager.digest().size());
+        responder.response(responseMessage);
+    }
+
+    private static NavigableMap<Number160, Data> sorted(Map<Number160, Data> dataMap) {
+        if (dataMap instanceof NavigableMap) {
+            return (NavigableMap<Number160, Data>) dataMap;
+        }
+        return dataMap == null ? new TreeMap<Number160, Data>() : new TreeMap<Number160, Data>(dataMap);
+    }
+
+    private static Map<Number160, Data> convert(DataMap dataMap) {
+        Map<Number160, Data> retVal = new HashMap<Number160, Data>();
+        if (dataMap != null) {
+            for (Map.Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
+                retVal.put(entry.getKey().contentKey(), entry.getValue());
+            }
+        }
+        return retVal;
+    }
+}
@@ -18,12 +18,13 @@ package net.tomp2p.task;
 
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.storage.Data;
 
 import java.util.Map;
 
 public interface TaskResultListener {
-    public abstract void taskReceived(Number320 taskId, Map<Number160, Data> dataMap);
+    public abstract void taskReceived(Number320 taskId, PeerAddress sender, Map<Number160, Data> dataMap);
 
-    public abstract void taskFailed(Number320 taskId);
+    public abstract void taskFailed(Number320 taskId, PeerAddress sender, String reason);
 }
@@ -16,13 +16,19 @@
 
 package net.tomp2p.task;
 
+import io.netty.buffer.Unpooled;
+import net.tomp2p.peers.PeerAddress;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 public class TaskStatus implements Serializable {
     private static final long serialVersionUID = 566212788378552194L;
 
-    enum Status {
-        QUEUE, STARTED, SUCCESS_RESULT_NOT_SENT, SUCCESS_RESULT_SENT, FAILED
+    public enum Status {
+        QUEUE, STARTED, SUCCESS_RESULT_NOT_SENT, SUCCESS_RESULT_SENT, FAILED, STOLEN
     }
 
     private String faildeReason;
@@ -31,6 +37,9 @@ public class TaskStatus implements Serializable {
 
     private int queuePosition;
 
+    // the socket addresses of a peer address are not serializable, so the address is written in its wire format
+    private transient PeerAddress stolenBy;
+
     public String getFaildeReason() {
         return faildeReason;
     }
@@ -54,4 +63,26 @@ public class TaskStatus implements Serializable {
     public void setQueuePosition(int queuePosition) {
         this.queuePosition = queuePosition;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The peer that took the task from the queue to execute it, if the status is {@link Status#STOLEN}
+     */
+    public PeerAddress getStolenBy() {
+        return stolenBy;
+    }
+
+    public void setStolenBy(PeerAddress stolenBy) {
+        this.stolenBy = stolenBy;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(stolenBy == null ? null : stolenBy.encode());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] encoded = (byte[]) in.readObject();
+        stolenBy = encoded == null ? null : PeerAddress.decode(Unpooled.wrappedBuffer(encoded));
+    }
+}
@@ -1,12 +1,13 @@
 package net.tomp2p.task;
 
-import junit.framework.Assert;
-import net.tomp2p.Utils2;
 import net.tomp2p.futures.FutureTask;
 import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
 import net.tomp2p.p2p.RequestP2PConfiguration;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.storage.Data;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -18,43 +19,107 @@ public class TestTaskDHT {
 
     @Test
     public void testTaskSubmit1() throws Exception {
-        Peer master = null;
+        PeerTask[] peers = null;
         try {
             // setup
-            Peer[] peers = Utils2.createNodes(200, rnd, 4001);
-            master = peers[0];
-            Utils2.perfectRouting(peers);
+            peers = createNodes(200, rnd, 4001);
+            perfectRouting(peers);
             // do testing
             Number160 locationKey = new Number160(rnd);
             FutureTask ft = peers[12].submit(locationKey, new Worker2())
-                    .setRequestP2PConfiguration(new RequestP2PConfiguration(1, 0, 0)).start();
+                    .requestP2PConfiguration(new RequestP2PConfiguration(1, 0, 0)).start();
             ft.awaitUninterruptibly();
             Assert.assertEquals(true, ft.isSuccess());
-            Assert.assertEquals(1, ft.getRawDataMap().size());
+            Assert.assertEquals(1, ft.rawDataMap().size());
         } finally {
-            System.out.println("done");
-            master.halt();
+            shutdown(peers);
         }
     }
 
     @Test
     public void testTaskSubmit2() throws Exception {
-        Peer master = null;
+        PeerTask[] peers = null;
         try {
             // setup
-            Peer[] peers = Utils2.createNodes(200, rnd, 4001);
-            master = peers[0];
-            Utils2.perfectRouting(peers);
+            peers = createNodes(200, rnd, 4001);
+            perfectRouting(peers);
             // do testing
             Number160 locationKey = new Number160(rnd);
             FutureTask ft = peers[12].submit(locationKey, new Worker2())
-                    .setRequestP2PConfiguration(new RequestP2PConfiguration(2, 0, 0)).start();
+                    .requestP2PConfiguration(new RequestP2PConfiguration(2, 0, 0)).start();
             ft.awaitUninterruptibly();
             Assert.assertEquals(true, ft.isSuccess());
-            Assert.assertEquals(2, ft.getRawDataMap().size());
+            Assert.assertEquals(2, ft.rawDataMap().size());
         } finally {
-            System.out.println("done");
-            master.halt();
+            shutdown(peers);
+        }
+    }
+
+    @Test
+    public void testTaskSubmitLeastLoaded() throws Exception {
+        PeerTask[] peers = null;
+        try {
+            // setup
+            // no peer steals, the submitter would try to steal from the busy peer and forget its load
+            peers = createNodes(200, rnd, 4001, -1);
+            perfectRouting(peers);
+            Number160 locationKey = new Number160(rnd);
+            // another peer finds the closest peer, the submitter did not talk to it yet, so no late response
+            // can overwrite the load set below
+            FutureTask ft = peers[13].submit(locationKey, new Worker2())
+                    .requestP2PConfiguration(new RequestP2PConfiguration(1, 0, 0)).start();
+            ft.awaitUninterruptibly();
+            PeerAddress first = ft.rawDataMap().keySet().iterator().next();
+            // the closest peer reports a high load, so the task goes to the second closest
+            peers[12].taskManager().load(first, 100);
+            ft = peers[12].submit(locationKey, new Worker2())
+                    .requestP2PConfiguration(new RequestP2PConfiguration(1, 0, 0)).start();
+            ft.awaitUninterruptibly();
+            Assert.assertEquals(true, ft.isSuccess());
+            Assert.assertEquals(1, ft.rawDataMap().size());
+            Assert.assertNotEquals(first, ft.rawDataMap().keySet().iterator().next());
+        } finally {
+            shutdown(peers);
+        }
+    }
+
+    private static PeerTask[] createNodes(int nrOfPeers, Random rnd, int port) throws Exception {
+        // 0 is the default interval
+        return createNodes(nrOfPeers, rnd, port, 0);
+    }
+
+    private static PeerTask[] createNodes(int nrOfPeers, Random rnd, int port, int stealIntervalMillis)
+            throws Exception {
+        PeerTask[] peers = new PeerTask[nrOfPeers];
+        Peer master = new PeerBuilder(new Number160(rnd)).ports(port).start();
+        peers[0] = new PeerBuilderTask(master).stealIntervalMillis(stealIntervalMillis).start();
+        for (int i = 1; i < nrOfPeers; i++) {
+            Peer peer = new PeerBuilder(new Number160(rnd)).masterPeer(master).start();
+            peers[i] = new PeerBuilderTask(peer).stealIntervalMillis(stealIntervalMillis).start();
+        }
+        return peers;
+    }
+
+    /**
+     * Shuts down all peers, the master last. Shutting down the master only would keep the task managers of the
+     * other peers running.
+     */
+    private static void shutdown(PeerTask[] peers) throws InterruptedException {
+        if (peers == null) {
+            return;
+        }
+        for (int i = peers.length - 1; i >= 0; i--) {
+            if (peers[i] != null) {
+                peers[i].peer().shutdown().await();
+            }
+        }
+    }
+
+    private static void perfectRouting(PeerTask... peers) {
+        for (int i = 0; i < peers.length; i++) {
+            for (int j = 0; j < peers.length; j++) {
+                peers[i].peer().peerBean().peerMap().peerFound(peers[j].peerAddress(), null, null, null);
+            }
         }
     }
 }
@@ -64,7 +129,6 @@ class Worker2 implements Worker {
 
     @Override
     public Map<Number160, Data> execute(Peer peer, Number160 taskId, Map<Number160, Data> inputData) throws Exception {
-        System.out.println("executed");
         Map<Number160, Data> retVal = new HashMap<Number160, Data>();
         retVal.put(Number160.ONE, new Data(1));
         return retVal;
@@ -1,76 +1,95 @@
 package net.tomp2p.task;
 
-import junit.framework.Assert;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureAsyncTask;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message.Type;
 import net.tomp2p.p2p.Peer;
-import net.tomp2p.p2p.PeerMaker;
+import net.tomp2p.p2p.PeerBuilder;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
+import org.junit.Assert;
 import org.junit.Test;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
 public class TestTaskRPC {
     final private static Random rnd = new Random(42L);
 
     @Test
     public void testRPC1() throws Exception {
-        Peer peer1 = null;
-        Peer peer2 = null;
+        PeerTask peer1 = null;
+        PeerTask peer2 = null;
         try {
-            peer1 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4001).setEnableTask(true)
-                    .makeAndListen();
-            peer2 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4002).setEnableTask(true)
-                    .makeAndListen();
-            FutureChannelCreator futureChannelCreator = peer1.getConnectionBean().getConnectionReservation().reserve(1);
+            // the submitter would steal the queued task and learn the new load
+            peer1 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4001).start()).threads(1)
+                    .stealIntervalMillis(-1).start();
+            peer2 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4002).start()).threads(1)
+                    .stealIntervalMillis(-1).start();
+            FutureChannelCreator futureChannelCreator = peer1.peer().connectionBean().reservation().create(0, 2);
             futureChannelCreator.awaitUninterruptibly();
-            Number160 taskId = new Number160(11);
             Map<Number160, Data> dataMap = new HashMap<Number160, Data>();
             dataMap.put(new Number160(22), new Data("testme"));
-            FutureResponse futureResponse = peer1.getTaskRPC().sendTask(peer1.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskId, dataMap, new MyWorker1(), null, false, false);
-            Utils.addReleaseListenerAll(futureResponse, peer1.getConnectionBean().getConnectionReservation(),
-                    futureChannelCreator.getChannelCreator());
-            futureResponse.awaitUninterruptibly();
-            Assert.assertEquals(true, futureResponse.isSuccess());
-            Thread.sleep(1000);
+            // the first task blocks the only thread, so the second task is queued when the response is sent
+            BlockingWorker.reset();
+            FutureResponse futureResponse1 = peer1.taskRPC().sendTask(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), new Number160(11), dataMap, new BlockingWorker(), false);
+            BlockingWorker.started.await();
+            // the load of the first response must not overwrite the load of the second response
+            awaitListeners(futureResponse1);
+            FutureResponse futureResponse2 = peer1.taskRPC().sendTask(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), new Number160(12), dataMap, new MyWorker1(), false);
+            Utils.addReleaseListener(futureChannelCreator.channelCreator(), futureResponse1, futureResponse2);
+            awaitListeners(futureResponse2);
+            BlockingWorker.release.countDown();
+            Assert.assertEquals(true, futureResponse2.isSuccess());
+            Assert.assertEquals(Integer.valueOf(1), peer1.taskManager().load(peer2.peerAddress()));
         } finally {
+            if (BlockingWorker.release != null) {
+                BlockingWorker.release.countDown();
+            }
             if (peer1 != null) {
-                peer1.halt();
+                peer1.peer().shutdown().await();
             }
             if (peer2 != null) {
-                peer2.halt();
+                peer2.peer().shutdown().await();
             }
         }
     }
 
     @Test
     public void testRPC2() throws Exception {
-        Peer peer1 = null;
-        Peer peer2 = null;
+        PeerTask peer1 = null;
         try {
-            peer1 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4001).setEnableTask(true)
-                    .makeAndListen();
-            peer2 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4002).setEnableTask(true)
-                    .makeAndListen();
-            FutureChannelCreator futureChannelCreator = peer1.getConnectionBean().getConnectionReservation().reserve(5);
+            peer1 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4001).start()).threads(1)
+                    .stealIntervalMillis(-1).start();
+            FutureChannelCreator futureChannelCreator = peer1.peer().connectionBean().reservation().create(2, 3);
             futureChannelCreator.awaitUninterruptibly();
             Number160 taskId1 = new Number160(11);
             Number160 taskId2 = new Number160(12);
             Number160 taskId3 = new Number160(13);
             Map<Number160, Data> dataMap = new HashMap<Number160, Data>();
             dataMap.put(new Number160(22), new Data("testme"));
-            FutureResponse futureResponse1 = peer1.getTaskRPC().sendTask(peer1.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskId1, dataMap, new MyWorker2(), null, false, false);
+            // the first task blocks the only thread until released, so the other two stay queued
+            BlockingWorker.reset();
+            FutureResponse futureResponse1 = peer1.taskRPC().sendTask(peer1.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskId1, dataMap, new BlockingWorker(), false);
             futureResponse1.awaitUninterruptibly();
-            FutureResponse futureResponse2 = peer1.getTaskRPC().sendTask(peer1.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskId2, dataMap, new MyWorker2(), null, false, false);
+            BlockingWorker.started.await();
+            FutureResponse futureResponse2 = peer1.taskRPC().sendTask(peer1.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskId2, dataMap, new MyWorker2(), false);
             futureResponse2.awaitUninterruptibly();
-            FutureResponse futureResponse3 = peer1.getTaskRPC().sendTask(peer1.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskId3, dataMap, new MyWorker2(), null, false, false);
+            FutureResponse futureResponse3 = peer1.taskRPC().sendTask(peer1.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskId3, dataMap, new MyWorker2(), false);
             futureResponse3.awaitUninterruptibly();
             Assert.assertEquals(true, futureResponse1.isSuccess());
             Assert.assertEquals(true, futureResponse2.isSuccess());
@@ -79,104 +98,229 @@ public class TestTaskRPC {
             taskIDs.add(taskId1);
             taskIDs.add(taskId2);
             taskIDs.add(taskId3);
-            FutureResponse futureResponse4 = peer1.getTaskRPC().taskStatus(peer1.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskIDs, false);
+            FutureResponse futureResponse4 = peer1.taskRPC().taskStatus(peer1.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskIDs, false);
             futureResponse4.awaitUninterruptibly();
-            Assert.assertEquals(3, futureResponse4.getResponse().getDataMap().size());
-            Map<Number160, Data> map = futureResponse4.getResponse().getDataMap();
-            TaskStatus status1 = (TaskStatus) map.get(taskId1).getObject();
-            TaskStatus status2 = (TaskStatus) map.get(taskId2).getObject();
-            TaskStatus status3 = (TaskStatus) map.get(taskId3).getObject();
+            Map<Number640, Data> map = futureResponse4.responseMessage().dataMap(0).dataMap();
+            Assert.assertEquals(3, map.size());
+            TaskStatus status1 = status(map, taskId1);
+            TaskStatus status2 = status(map, taskId2);
+            TaskStatus status3 = status(map, taskId3);
             Assert.assertEquals(TaskStatus.Status.STARTED, status1.getStatus());
             Assert.assertEquals(TaskStatus.Status.QUEUE, status2.getStatus());
             Assert.assertEquals(0, status2.getQueuePosition());
             Assert.assertEquals(TaskStatus.Status.QUEUE, status3.getStatus());
             Assert.assertEquals(1, status3.getQueuePosition());
-            Thread.sleep(1000);
-            FutureResponse futureResponse5 = peer1.getTaskRPC().taskStatus(peer1.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskIDs, false);
-            Utils.addReleaseListenerAll(futureResponse5, peer1.getConnectionBean().getConnectionReservation(),
-                    futureChannelCreator.getChannelCreator());
+            BlockingWorker.release.countDown();
+            for (Number160 taskId : taskIDs) {
+                awaitStatus(peer1.taskManager(), new Number320(taskId, peer1.peerAddress().peerId()),
+                        TaskStatus.Status.SUCCESS_RESULT_SENT);
+            }
+            FutureResponse futureResponse5 = peer1.taskRPC().taskStatus(peer1.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskIDs, false);
+            Utils.addReleaseListener(futureChannelCreator.channelCreator(), futureResponse5);
             futureResponse5.awaitUninterruptibly();
-            Assert.assertEquals(3, futureResponse5.getResponse().getDataMap().size());
-            map = futureResponse5.getResponse().getDataMap();
-            status1 = (TaskStatus) map.get(taskId1).getObject();
-            status2 = (TaskStatus) map.get(taskId2).getObject();
-            status3 = (TaskStatus) map.get(taskId3).getObject();
+            map = futureResponse5.responseMessage().dataMap(0).dataMap();
+            Assert.assertEquals(3, map.size());
+            status1 = status(map, taskId1);
+            status2 = status(map, taskId2);
+            status3 = status(map, taskId3);
             Assert.assertEquals(TaskStatus.Status.SUCCESS_RESULT_SENT, status1.getStatus());
             Assert.assertEquals(TaskStatus.Status.SUCCESS_RESULT_SENT, status2.getStatus());
             Assert.assertEquals(TaskStatus.Status.SUCCESS_RESULT_SENT, status3.getStatus());
         } finally {
             if (peer1 != null) {
-                peer1.halt();
-            }
-            if (peer2 != null) {
-                peer2.halt();
+                peer1.peer().shutdown().await();
             }
         }
     }
 
     @Test
     public void testRPCAsync() throws Exception {
-        Peer peer1 = null;
-        Peer peer2 = null;
+        PeerTask peer1 = null;
+        PeerTask peer2 = null;
         try {
-            peer1 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4001).setEnableTask(true)
-                    .makeAndListen();
-            peer2 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4002).setEnableTask(true)
-                    .makeAndListen();
-            FutureChannelCreator futureChannelCreator = peer1.getConnectionBean().getConnectionReservation().reserve(1);
+            peer1 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4001).start()).threads(1).start();
+            peer2 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4002).start()).threads(1).start();
+            FutureChannelCreator futureChannelCreator = peer1.peer().connectionBean().reservation().create(0, 1);
             futureChannelCreator.awaitUninterruptibly();
             Number160 taskId = new Number160(11);
             Map<Number160, Data> dataMap = new HashMap<Number160, Data>();
             dataMap.put(new Number160(22), new Data("testme"));
-            FutureAsyncTask futureAsyncTask = peer1.getAsyncTask().submit(peer2.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskId, dataMap, new MyWorker3(), false, false);
-            Utils.addReleaseListenerAll(futureAsyncTask, peer1.getConnectionBean().getConnectionReservation(),
-                    futureChannelCreator.getChannelCreator());
+            FutureAsyncTask futureAsyncTask = peer1.asyncTask().submit(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskId, dataMap, new MyWorker3(), false);
+            Utils.addReleaseListener(futureChannelCreator.channelCreator(), futureAsyncTask);
             futureAsyncTask.awaitUninterruptibly();
             Assert.assertEquals(true, futureAsyncTask.isSuccess());
-            Assert.assertEquals("yup", futureAsyncTask.getDataMap().get(Number160.ONE).getObject());
-        } catch (Throwable t) {
-            t.printStackTrace();
+            Assert.assertEquals("yup", futureAsyncTask.dataMap().get(Number160.ONE).object());
+            Assert.assertEquals(0, peer1.asyncTask().pending());
         } finally {
             if (peer1 != null) {
-                peer1.halt();
+                peer1.peer().shutdown().await();
             }
             if (peer2 != null) {
-                peer2.halt();
+                peer2.peer().shutdown().await();
             }
         }
     }
 
     @Test
     public void testRPCAsyncFailed() throws Exception {
-        Peer peer1 = null;
-        Peer peer2 = null;
+        PeerTask peer1 = null;
+        PeerTask peer2 = null;
         try {
-            peer1 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4001).setEnableTask(true)
-                    .makeAndListen();
-            peer2 = new PeerMaker(new Number160(rnd)).setWorkerThreads(1).setPorts(4002).setEnableTask(true)
-                    .makeAndListen();
-            FutureChannelCreator futureChannelCreator = peer1.getConnectionBean().getConnectionReservation().reserve(1);
+            peer1 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4001).start()).threads(1)
+                    .pollIntervalMillis(500).start();
+            peer2 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4002).start()).threads(1).start();
+            FutureChannelCreator futureChannelCreator = peer1.peer().connectionBean().reservation().create(0, 1);
             futureChannelCreator.awaitUninterruptibly();
             Number160 taskId = new Number160(11);
             Map<Number160, Data> dataMap = new HashMap<Number160, Data>();
             dataMap.put(new Number160(22), new Data("testme"));
-            FutureAsyncTask futureAsyncTask = peer1.getAsyncTask().submit(peer2.getPeerAddress(),
-                    futureChannelCreator.getChannelCreator(), taskId, dataMap, new MyWorker3(), false, false);
-            Utils.addReleaseListenerAll(futureAsyncTask, peer1.getConnectionBean().getConnectionReservation(),
-                    futureChannelCreator.getChannelCreator());
-            peer2.halt();
+            FutureAsyncTask futureAsyncTask = peer1.asyncTask().submit(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskId, dataMap, new MyWorker3(), false);
+            Utils.addReleaseListener(futureChannelCreator.channelCreator(), futureAsyncTask);
+            peer2.peer().shutdown().await();
             futureAsyncTask.awaitUninterruptibly();
             Assert.assertEquals(false, futureAsyncTask.isSuccess());
         } finally {
             if (peer1 != null) {
-                peer1.halt();
+                peer1.peer().shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testRPCAsyncForgedResult() throws Exception {
+        PeerTask peer1 = null;
+        PeerTask peer2 = null;
+        PeerTask peer3 = null;
+        try {
+            peer1 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4001).start()).threads(1).start();
+            peer2 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4002).start()).threads(1).start();
+            peer3 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4003).start()).threads(1).start();
+            FutureChannelCreator futureChannelCreator = peer1.peer().connectionBean().reservation().create(0, 1);
+            futureChannelCreator.awaitUninterruptibly();
+            Number160 taskId = new Number160(11);
+            FutureAsyncTask futureAsyncTask = peer1.asyncTask().submit(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), taskId, new HashMap<Number160, Data>(), new MyWorker3(),
+                    false);
+            Utils.addReleaseListener(futureChannelCreator.channelCreator(), futureAsyncTask);
+            // the third peer claims to have stolen the task and reports a failure
+            FutureChannelCreator futureChannelCreator3 = peer3.peer().connectionBean().reservation().create(0, 1);
+            futureChannelCreator3.awaitUninterruptibly();
+            FutureResponse futureResponse = peer3.taskRPC().sendResult(peer1.peerAddress(),
+                    futureChannelCreator3.channelCreator(), taskId, peer2.peerAddress().peerId(), null, "forged", false);
+            Utils.addReleaseListener(futureChannelCreator3.channelCreator(), futureResponse);
+            futureResponse.awaitUninterruptibly();
+            Assert.assertEquals(true, futureResponse.isSuccess());
+            // the executor does not confirm the steal, so the real result is used
+            futureAsyncTask.awaitUninterruptibly();
+            Assert.assertEquals(true, futureAsyncTask.isSuccess());
+            Assert.assertEquals("yup", futureAsyncTask.dataMap().get(Number160.ONE).object());
+        } finally {
+            if (peer1 != null) {
+                peer1.peer().shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.peer().shutdown().await();
+            }
+            if (peer3 != null) {
+                peer3.peer().shutdown().await();
             }
         }
     }
 
+    @Test
+    public void testSteal() throws Exception {
+        PeerTask peer1 = null;
+        PeerTask peer2 = null;
+        PeerTask peer3 = null;
+        try {
+            // the busy peer and the thief never steal on their own
+            peer1 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4001).start()).threads(1)
+                    .stealIntervalMillis(-1).start();
+            peer2 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4002).start()).threads(1)
+                    .stealIntervalMillis(-1).start();
+            peer3 = new PeerBuilderTask(new PeerBuilder(new Number160(rnd)).ports(4003).start()).threads(1)
+                    .stealIntervalMillis(-1).start();
+            FutureChannelCreator futureChannelCreator = peer1.peer().connectionBean().reservation().create(0, 2);
+            futureChannelCreator.awaitUninterruptibly();
+            Map<Number160, Data> dataMap = new HashMap<Number160, Data>();
+            // the first task blocks the only thread of the busy peer, so the second task is queued
+            BlockingWorker.reset();
+            FutureAsyncTask futureAsyncTask1 = peer1.asyncTask().submit(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), new Number160(11), dataMap, new BlockingWorker(), false);
+            BlockingWorker.started.await();
+            FutureAsyncTask futureAsyncTask2 = peer1.asyncTask().submit(peer2.peerAddress(),
+                    futureChannelCreator.channelCreator(), new Number160(12), dataMap, new BlockingWorker(), false);
+            Utils.addReleaseListener(futureChannelCreator.channelCreator(), futureAsyncTask1, futureAsyncTask2);
+            for (int i = 0; i < 100 && peer2.taskManager().digest().size() == 0; i++) {
+                Thread.sleep(50);
+            }
+
+            FutureChannelCreator futureChannelCreator3 = peer3.peer().connectionBean().reservation().create(0, 1);
+            futureChannelCreator3.awaitUninterruptibly();
+            FutureResponse futureResponse = peer3.taskRPC().steal(peer2.peerAddress(),
+                    futureChannelCreator3.channelCreator());
+            Utils.addReleaseListener(futureChannelCreator3.channelCreator(), futureResponse);
+            futureResponse.awaitUninterruptibly();
+            Assert.assertEquals(true, futureResponse.isSuccess());
+            Assert.assertEquals(Type.OK, futureResponse.responseMessage().type());
+            BlockingWorker.release.countDown();
+
+            futureAsyncTask1.awaitUninterruptibly();
+            futureAsyncTask2.awaitUninterruptibly();
+            Assert.assertEquals(true, futureAsyncTask1.isSuccess());
+            Assert.assertEquals(true, futureAsyncTask2.isSuccess());
+            // the second task was queued, so it was stolen and run by the third peer
+            TaskStatus status = peer2.taskManager().taskStatus(
+                    new Number320(new Number160(12), peer1.peerAddress().peerId()));
+            Assert.assertEquals(TaskStatus.Status.STOLEN, status.getStatus());
+            Assert.assertEquals(peer3.peerAddress(), status.getStolenBy());
+        } finally {
+            if (peer1 != null) {
+                peer1.peer().shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.peer().shutdown().await();
+            }
+            if (peer3 != null) {
+                peer3.peer().shutdown().await();
+            }
+        }
+    }
+
+    /**
+     * The listeners are called in order, so the load is stored when the listener added here is called, while
+     * awaitUninterruptibly() may return before.
+     */
+    private static void awaitListeners(FutureResponse futureResponse) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(FutureResponse future) throws Exception {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+
+    private static void awaitStatus(TaskManager taskManager, Number320 taskKey, TaskStatus.Status status)
+            throws InterruptedException {
+        for (int i = 0; i < 100 && taskManager.taskStatus(taskKey).getStatus() != status; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static TaskStatus status(Map<Number640, Data> map, Number160 taskId) throws Exception {
+        for (Map.Entry<Number640, Data> entry : map.entrySet()) {
+            if (entry.getKey().contentKey().equals(taskId)) {
+                return (TaskStatus) entry.getValue().object();
+            }
+        }
+        return null;
+    }
 }
 
 class MyWorker1 implements Worker {
@@ -211,4 +355,29 @@ class MyWorker3 implements Worker {
         outputData.put(Number160.ONE, new Data("yup"));
         return outputData;
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Blocks until the test releases it, so that the tests know which task runs and which tasks are queued.
+ */
+class BlockingWorker implements Worker {
+    private static final long serialVersionUID = 2384629372103846201L;
+
+    static volatile CountDownLatch started;
+
+    static volatile CountDownLatch release;
+
+    static void reset() {
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @Override
+    public Map<Number160, Data> execute(Peer peer, Number160 taskId, Map<Number160, Data> inputData) throws Exception {
+        started.countDown();
+        release.await();
+        Map<Number160, Data> outputData = new HashMap<Number160, Data>();
+        outputData.put(Number160.ONE, new Data("yup"));
+        return outputData;
+    }
+}